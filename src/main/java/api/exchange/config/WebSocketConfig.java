@@ -1,14 +1,24 @@
 package api.exchange.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+
+import api.exchange.websocket.MarketDataFanout;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+
+    // Fan-out cần SimpMessagingTemplate, bean này lại được dựng từ chính cấu hình broker
+    @Autowired
+    @Lazy
+    private MarketDataFanout marketDataFanout;
     
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
@@ -22,4 +32,10 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
     }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Giữ session để fan-out market data ghi frame đã encode sẵn
+        registration.addDecoratorFactory(marketDataFanout::decorate);
+    }
 }
\ No newline at end of file
@@ -1,14 +1,16 @@
 package api.exchange.config;
 
+import api.exchange.websocket.MarketDataFanout;
 import api.exchange.websocket.SpotMarketWebSocket;
 import api.exchange.websocket.SpotPriceCoinSocket;
+import api.exchange.websocket.SpotTickerBroadcaster;
+import api.exchange.services.MarketDataIngest;
 import api.exchange.services.RingBufferService;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 
 import java.net.URI;
 
@@ -16,11 +18,14 @@ import java.net.URI;
 public class WebSocketInitializer {
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private MarketDataFanout marketDataFanout;
 
     @Autowired
     private RingBufferService ringBufferService;
 
+    @Autowired
+    private SpotTickerBroadcaster spotTickerBroadcaster;
+
     @Value("${binance.api.urlSocket}")
     private String WebsocketUrl;
 
@@ -30,13 +35,17 @@ public class WebSocketInitializer {
     @Autowired
     private api.exchange.services.MarketDataProcessor marketDataProcessor;
 
+    @Autowired
+    private MarketDataIngest marketDataIngest;
+
     @Bean
     public SpotMarketWebSocket SpotMarketWebSocket() {
         try {
             SpotMarketWebSocket client = new SpotMarketWebSocket(
                     URI.create(WebsocketUrl),
-                    messagingTemplate,
-                    marketDataProcessor);
+                    spotTickerBroadcaster,
+                    marketDataProcessor,
+                    marketDataIngest);
             client.connect();
             return client;
         } catch (Exception e) {
@@ -49,9 +58,10 @@ public class WebSocketInitializer {
         try {
             SpotPriceCoinSocket client = new SpotPriceCoinSocket(
                     URI.create(WebsocketUrl),
-                    messagingTemplate,
+                    marketDataFanout,
                     marketDataProcessor,
-                    ringBufferService);
+                    ringBufferService,
+                    marketDataIngest);
 
             // Seed dữ liệu ban đầu cho các symbol quan trọng
             seedInitialKlines(client);
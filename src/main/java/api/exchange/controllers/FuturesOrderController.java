@@ -11,6 +11,7 @@ import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("api/v1/futures/orders")
@@ -53,8 +54,12 @@ public class FuturesOrderController {
                     request.getType(),
                     request.getPrice(),
                     request.getQuantity(),
-                    request.getLeverage());
+                    request.getLeverage(),
+                    request.getStopPrice(),
+                    request.getWorkingType());
             return ResponseEntity.ok(order);
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(503).body(Map.of("message", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
         }
@@ -42,6 +42,22 @@ public class PublicSpotController {
         }
     }
 
+    // --- Ticker ---
+
+    @GetMapping("/ticker")
+    public ResponseEntity<?> getTicker(@RequestParam String symbol) {
+        var ticker = spotService.getTicker(symbol);
+        if (ticker == null) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Chưa có dữ liệu giá cho " + symbol));
+        }
+        return ResponseEntity.ok(ticker);
+    }
+
+    @GetMapping("/tickers")
+    public ResponseEntity<?> getTickers() {
+        return ResponseEntity.ok(spotService.getTickers());
+    }
+
     // --- Standard Kline Data ---
 
     @PostMapping("/kline")
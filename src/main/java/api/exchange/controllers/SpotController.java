@@ -29,4 +29,10 @@ public class SpotController {
         return spotService.cancleOrder(entity.getId());
     }
 
+    @PostMapping("/amend")
+    public ResponseEntity<?> amendOrder(@RequestBody OrderBooks entity,
+            @RequestHeader("Authorization") String header) {
+        return spotService.amendOrder(entity.getId(), entity.getPrice(), header);
+    }
+
 }
@@ -13,4 +13,6 @@ public class FuturesOrderRequest {
     private BigDecimal price;
     private BigDecimal quantity;
     private int leverage;
+    private BigDecimal stopPrice; // STOP_* / TAKE_PROFIT_*
+    private FuturesOrder.WorkingType workingType; // Mặc định MARK_PRICE
 }
@@ -0,0 +1,51 @@
+package api.exchange.models;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Một kỳ thanh toán funding; {@code lastPositionId} là id vị thế cuối cùng đã
+ * được thanh toán và commit, để lần chạy bị gián đoạn tiếp tục từ đó.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "futures_funding_runs")
+public class FuturesFundingRun {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long id;
+
+    @Column(nullable = false, unique = true)
+    private LocalDateTime fundingTime; // Mốc funding (00:00, 08:00, 16:00)
+
+    @Column(precision = 24, scale = 8)
+    private BigDecimal rate;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private RunStatus status;
+
+    @Column(columnDefinition = "bigint default 0")
+    private long lastPositionId;
+
+    @Column(columnDefinition = "bigint default 0")
+    private long positionsSettled;
+
+    private LocalDateTime startedAt;
+    private LocalDateTime completedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        if (startedAt == null) {
+            startedAt = LocalDateTime.now();
+        }
+    }
+
+    public enum RunStatus {
+        RUNNING, COMPLETED
+    }
+}
@@ -0,0 +1,35 @@
+package api.exchange.models;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Quỹ bảo hiểm futures: nhận phần margin còn dư khi lệnh thanh lý khớp tốt hơn
+ * giá phá sản và bù phần lỗ khi khớp xấu hơn. Số dư chỉ được cộng trừ tương đối.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "futures_insurance_funds")
+public class FuturesInsuranceFund {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long id;
+
+    @Column(nullable = false, unique = true, length = 10)
+    private String currency; // USDT
+
+    @Column(precision = 24, scale = 8)
+    private BigDecimal balance = BigDecimal.ZERO;
+
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
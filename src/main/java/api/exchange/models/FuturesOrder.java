@@ -28,7 +28,7 @@ public class FuturesOrder {
     private PositionSide positionSide; // LONG, SHORT
 
     @Enumerated(EnumType.STRING)
-    private OrderType type; // MARKET, LIMIT
+    private OrderType type; // MARKET, LIMIT, STOP_*, TAKE_PROFIT_*
 
     @Column(precision = 24, scale = 8)
     private BigDecimal price;
@@ -36,6 +36,12 @@ public class FuturesOrder {
     @Column(precision = 24, scale = 8)
     private BigDecimal quantity;
 
+    @Column(precision = 24, scale = 8)
+    private BigDecimal stopPrice; // Giá kích hoạt của lệnh STOP_* / TAKE_PROFIT_*
+
+    @Enumerated(EnumType.STRING)
+    private WorkingType workingType; // Giá dùng để so với stopPrice
+
     private int leverage;
 
     @Enumerated(EnumType.STRING)
@@ -64,10 +70,15 @@ public class FuturesOrder {
     }
 
     public enum OrderType {
-        MARKET, LIMIT, STOP_MARKET, STOP_LIMIT
+        MARKET, LIMIT, STOP_MARKET, STOP_LIMIT, TAKE_PROFIT_MARKET, TAKE_PROFIT_LIMIT,
+        LIQUIDATION // Lệnh đóng vị thế bị thanh lý: không khoá margin, không nằm lại trên book
     }
 
     public enum OrderStatus {
-        PENDING, FILLED, CANCELLED, PARTIALLY_FILLED
+        PENDING, FILLED, CANCELLED, PARTIALLY_FILLED, UNTRIGGERED
+    }
+
+    public enum WorkingType {
+        MARK_PRICE, CONTRACT_PRICE
     }
 }
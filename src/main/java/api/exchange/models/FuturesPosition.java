@@ -45,6 +45,11 @@ public class FuturesPosition {
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
+    // Khoá lạc quan: cache tài khoản futures ghi entity detached theo lô
+    @Version
+    @Column(columnDefinition = "bigint default 0")
+    private Long version;
+
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -27,4 +27,9 @@ public class FuturesWallet {
     private BigDecimal lockedBalance = BigDecimal.ZERO; // Margin used
 
     private boolean isActive = true;
+
+    // Khoá lạc quan: cache tài khoản futures ghi entity detached theo lô
+    @Version
+    @Column(columnDefinition = "bigint default 0")
+    private Long version;
 }
@@ -1,43 +1,288 @@
 package api.exchange.proto;
 
 import com.google.protobuf.CodedOutputStream;
+
+import api.exchange.dtos.Response.CoinSpotResponse;
+import api.exchange.dtos.Response.FuturesMarketResponse;
+import api.exchange.dtos.Response.KlinesSpotResponse;
+import api.exchange.services.DepthBook;
+
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Encoder cho các message trong {@code market_data.proto}. Số thập phân được ghi
+ * dưới dạng sint64 đã nhân 10^scale, scale chọn theo từng nhóm trường của
+ * message (đủ giữ mọi chữ số mà không vượt 18 chữ số). Mỗi thread dùng một
+ * encoder ({@link #encoder()}) với buffer và {@link CodedOutputStream} tái sử
+ * dụng giữa các lần encode; message lồng nhau được ghi vào buffer phụ rồi chép
+ * nguyên khối nên không cần tính trước kích thước.
+ */
+public final class MarketDataProto {
+
+    // 10^18 < Long.MAX_VALUE: tổng chữ số phần nguyên + scale không vượt mức này
+    private static final int MAX_DIGITS = 18;
+
+    private static final ThreadLocal<MarketDataProto> ENCODERS = ThreadLocal.withInitial(MarketDataProto::new);
+
+    private final Buffer body = new Buffer(4096);
+    private final CodedOutputStream out = CodedOutputStream.newInstance(body, 4096);
+    private final Buffer nestedBody = new Buffer(512);
+    private final CodedOutputStream nested = CodedOutputStream.newInstance(nestedBody, 512);
+
+    private MarketDataProto() {
+    }
+
+    /**
+     * @return encoder của thread hiện tại; không dùng chung giữa các thread
+     */
+    public static MarketDataProto encoder() {
+        return ENCODERS.get();
+    }
 
-public class MarketDataProto {
-
-    public static byte[] serializeTicker(String symbol, String price, String priceChange,
-            String high, String low, String volume,
-            long eventTime, String marketCap) {
-        // Calculate size
-        int size = 0;
-        size += computeStringSize(1, symbol);
-        size += computeStringSize(2, price);
-        size += computeStringSize(3, priceChange);
-        size += computeStringSize(4, high);
-        size += computeStringSize(5, low);
-        size += computeStringSize(6, volume);
-        size += com.google.protobuf.CodedOutputStream.computeInt64Size(7, eventTime);
-        size += computeStringSize(8, marketCap);
-
-        byte[] buffer = new byte[size];
+    public byte[] tickerBatch(Collection<CoinSpotResponse> tickers) {
         try {
-            CodedOutputStream output = CodedOutputStream.newInstance(buffer);
-            output.writeString(1, symbol);
-            output.writeString(2, price);
-            output.writeString(3, priceChange);
-            output.writeString(4, high);
-            output.writeString(5, low);
-            output.writeString(6, volume);
-            output.writeInt64(7, eventTime);
-            output.writeString(8, marketCap);
-            output.checkNoSpaceLeft();
+            begin();
+            for (CoinSpotResponse ticker : tickers) {
+                writeTicker(beginNested(), ticker);
+                endNested(1);
+            }
+            return finish();
         } catch (IOException e) {
-            throw new RuntimeException("Serializing to a byte array threw an IOException (should never happen).", e);
+            throw serializationFailed(e);
         }
-        return buffer;
     }
 
-    private static int computeStringSize(int fieldNumber, String value) {
-        return CodedOutputStream.computeStringSize(fieldNumber, value != null ? value : "");
+    public byte[] kline(KlinesSpotResponse kline) {
+        return kline(kline.getSymbol(), kline.getInterval(), kline.getOpenPrice(), kline.getHighPrice(),
+                kline.getLowPrice(), kline.getClosePrice(), kline.getVolume(), kline.getStartTime(),
+                kline.getCloseTime(), kline.isClosed());
+    }
+
+    public byte[] kline(String symbol, String interval, BigDecimal open, BigDecimal high, BigDecimal low,
+            BigDecimal close, BigDecimal volume, long openTime, long closeTime, boolean closed) {
+        try {
+            begin();
+            out.writeString(1, str(symbol));
+            out.writeString(2, str(interval));
+            int priceScale = scaleOf(open, high, low, close);
+            out.writeUInt32(3, priceScale);
+            writeDecimal(out, 4, open, priceScale);
+            writeDecimal(out, 5, high, priceScale);
+            writeDecimal(out, 6, low, priceScale);
+            writeDecimal(out, 7, close, priceScale);
+            int quantityScale = scaleOf(volume);
+            out.writeUInt32(8, quantityScale);
+            writeDecimal(out, 9, volume, quantityScale);
+            out.writeInt64(10, openTime);
+            out.writeInt64(11, closeTime);
+            out.writeBool(12, closed);
+            return finish();
+        } catch (IOException e) {
+            throw serializationFailed(e);
+        }
+    }
+
+    public byte[] depthDiff(DepthBook.Diff diff) {
+        BigDecimal[] bidPrices = column(diff.getBids(), 0);
+        BigDecimal[] bidQuantities = column(diff.getBids(), 1);
+        BigDecimal[] askPrices = column(diff.getAsks(), 0);
+        BigDecimal[] askQuantities = column(diff.getAsks(), 1);
+        int priceScale = scaleOf(concat(bidPrices, askPrices));
+        int quantityScale = scaleOf(concat(bidQuantities, askQuantities));
+        try {
+            begin();
+            out.writeString(1, str(diff.getSymbol()));
+            out.writeInt64(2, diff.getFirstUpdateId());
+            out.writeInt64(3, diff.getLastUpdateId());
+            out.writeInt64(4, diff.getTimestamp());
+            out.writeUInt32(5, priceScale);
+            out.writeUInt32(6, quantityScale);
+            writeLevels(7, bidPrices, bidQuantities, priceScale, quantityScale);
+            writeLevels(8, askPrices, askQuantities, priceScale, quantityScale);
+            return finish();
+        } catch (IOException e) {
+            throw serializationFailed(e);
+        }
+    }
+
+    public byte[] trade(String symbol, boolean buy, BigDecimal price, BigDecimal quantity, long eventTime) {
+        try {
+            begin();
+            out.writeString(1, str(symbol));
+            out.writeEnum(2, buy ? 0 : 1);
+            int priceScale = scaleOf(price);
+            out.writeUInt32(3, priceScale);
+            writeDecimal(out, 4, price, priceScale);
+            int quantityScale = scaleOf(quantity);
+            out.writeUInt32(5, quantityScale);
+            writeDecimal(out, 6, quantity, quantityScale);
+            out.writeInt64(7, eventTime);
+            return finish();
+        } catch (IOException e) {
+            throw serializationFailed(e);
+        }
+    }
+
+    public byte[] futuresMarketBatch(Collection<FuturesMarketResponse> markets) {
+        try {
+            begin();
+            for (FuturesMarketResponse market : markets) {
+                writeFuturesMarket(beginNested(), market);
+                endNested(1);
+            }
+            return finish();
+        } catch (IOException e) {
+            throw serializationFailed(e);
+        }
+    }
+
+    // Số trường theo market_data.proto (2..8 bị reserved từ schema cũ)
+    private static void writeTicker(CodedOutputStream o, CoinSpotResponse t) throws IOException {
+        o.writeString(1, str(t.getSymbol()));
+        int priceScale = scaleOf(t.getPrice(), t.getChangePercent(), t.getHigh24h(), t.getLow24h());
+        o.writeUInt32(9, priceScale);
+        writeDecimal(o, 10, t.getPrice(), priceScale);
+        writeDecimal(o, 11, t.getChangePercent(), priceScale);
+        writeDecimal(o, 12, t.getHigh24h(), priceScale);
+        writeDecimal(o, 13, t.getLow24h(), priceScale);
+        int quantityScale = scaleOf(t.getVolume());
+        o.writeUInt32(14, quantityScale);
+        writeDecimal(o, 15, t.getVolume(), quantityScale);
+        int notionalScale = scaleOf(t.getMarketCap());
+        o.writeUInt32(16, notionalScale);
+        writeDecimal(o, 17, t.getMarketCap(), notionalScale);
+        o.writeInt64(18, t.getTimestamp() != null ? t.getTimestamp() : 0L);
+    }
+
+    private static void writeFuturesMarket(CodedOutputStream o, FuturesMarketResponse m) throws IOException {
+        o.writeString(1, str(m.getSymbol()));
+        int priceScale = scaleOf(m.getMarkPrice(), m.getIndexPrice(), m.getLastPrice(), m.getPriceChange24h(),
+                m.getHighPrice24h(), m.getLowPrice24h());
+        o.writeUInt32(2, priceScale);
+        writeDecimal(o, 3, m.getMarkPrice(), priceScale);
+        writeDecimal(o, 4, m.getIndexPrice(), priceScale);
+        writeDecimal(o, 5, m.getLastPrice(), priceScale);
+        writeDecimal(o, 6, m.getPriceChange24h(), priceScale);
+        writeDecimal(o, 7, m.getHighPrice24h(), priceScale);
+        writeDecimal(o, 8, m.getLowPrice24h(), priceScale);
+        int percentScale = scaleOf(m.getPriceChangePercent(), m.getFundingRate());
+        o.writeUInt32(9, percentScale);
+        writeDecimal(o, 10, m.getPriceChangePercent(), percentScale);
+        writeDecimal(o, 11, m.getFundingRate(), percentScale);
+        int quantityScale = scaleOf(m.getVolume24h());
+        o.writeUInt32(12, quantityScale);
+        writeDecimal(o, 13, m.getVolume24h(), quantityScale);
+        int notionalScale = scaleOf(m.getQuoteVolume24h(), m.getOpenInterest(), m.getMarketCap());
+        o.writeUInt32(14, notionalScale);
+        writeDecimal(o, 15, m.getQuoteVolume24h(), notionalScale);
+        writeDecimal(o, 16, m.getOpenInterest(), notionalScale);
+        writeDecimal(o, 17, m.getMarketCap(), notionalScale);
+        if (m.getNextFundingTime() != null) {
+            o.writeInt64(18, m.getNextFundingTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        o.writeInt64(19, m.getTimestamp());
+    }
+
+    private void writeLevels(int fieldNumber, BigDecimal[] prices, BigDecimal[] quantities, int priceScale,
+            int quantityScale) throws IOException {
+        for (int i = 0; i < prices.length; i++) {
+            CodedOutputStream level = beginNested();
+            writeDecimal(level, 1, prices[i], priceScale);
+            writeDecimal(level, 2, quantities[i], quantityScale);
+            endNested(fieldNumber);
+        }
+    }
+
+    // Xả phần còn sót của lần encode trước (nếu lỗi giữa chừng) rồi bỏ đi
+    private void begin() throws IOException {
+        out.flush();
+        body.reset();
+    }
+
+    private byte[] finish() throws IOException {
+        out.flush();
+        return body.toByteArray();
+    }
+
+    private CodedOutputStream beginNested() throws IOException {
+        nested.flush();
+        nestedBody.reset();
+        return nested;
+    }
+
+    private void endNested(int fieldNumber) throws IOException {
+        nested.flush();
+        out.writeByteArray(fieldNumber, nestedBody.array(), 0, nestedBody.size());
+    }
+
+    private static void writeDecimal(CodedOutputStream o, int fieldNumber, BigDecimal value, int scale)
+            throws IOException {
+        if (value != null && value.signum() != 0) {
+            o.writeSInt64(fieldNumber, value.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValue());
+        }
+    }
+
+    /**
+     * Scale nhỏ nhất giữ đủ chữ số của mọi giá trị, giảm bớt nếu phần nguyên lớn
+     * tới mức giá trị đã nhân không còn vừa sint64 (khi đó làm tròn HALF_UP).
+     */
+    private static int scaleOf(BigDecimal... values) {
+        int integerDigits = 0;
+        for (BigDecimal value : values) {
+            if (value != null && value.signum() != 0) {
+                integerDigits = Math.max(integerDigits, value.precision() - value.scale());
+            }
+        }
+        return Math.max(0, Math.min(naturalScaleOf(values), MAX_DIGITS - integerDigits));
+    }
+
+    private static int naturalScaleOf(BigDecimal... values) {
+        int scale = 0;
+        for (BigDecimal value : values) {
+            if (value != null && value.signum() != 0) {
+                scale = Math.max(scale, value.stripTrailingZeros().scale());
+            }
+        }
+        return scale;
+    }
+
+    private static BigDecimal[] column(List<List<String>> levels, int index) {
+        BigDecimal[] values = new BigDecimal[levels.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new BigDecimal(levels.get(i).get(index));
+        }
+        return values;
+    }
+
+    private static BigDecimal[] concat(BigDecimal[] first, BigDecimal[] second) {
+        BigDecimal[] values = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, values, first.length, second.length);
+        return values;
+    }
+
+    private static String str(String value) {
+        return value != null ? value : "";
+    }
+
+    private static RuntimeException serializationFailed(IOException e) {
+        return new RuntimeException("Serializing to a byte array threw an IOException (should never happen).", e);
+    }
+
+    // ByteArrayOutputStream cho phép đọc thẳng mảng nội bộ khi chép message lồng nhau
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
     }
 }
@@ -0,0 +1,15 @@
+package api.exchange.repository;
+
+import api.exchange.models.FuturesFundingRun;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface FuturesFundingRunRepository extends JpaRepository<FuturesFundingRun, Long> {
+    Optional<FuturesFundingRun> findByFundingTime(LocalDateTime fundingTime);
+
+    List<FuturesFundingRun> findByStatusOrderByIdAsc(FuturesFundingRun.RunStatus status);
+}
@@ -0,0 +1,25 @@
+package api.exchange.repository;
+
+import api.exchange.models.FuturesInsuranceFund;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import java.math.BigDecimal;
+import java.util.Optional;
+
+@Repository
+public interface FuturesInsuranceFundRepository extends JpaRepository<FuturesInsuranceFund, Long> {
+    Optional<FuturesInsuranceFund> findByCurrency(String currency);
+
+    // Cộng trừ tương đối: các lane futures cùng ghi một dòng
+    @Query(value = """
+            UPDATE futures_insurance_funds
+            SET balance = balance + :amount,
+                updated_at = CURRENT_TIMESTAMP
+            WHERE currency = :currency
+            """, nativeQuery = true)
+    @Modifying
+    int addBalance(@Param("currency") String currency, @Param("amount") BigDecimal amount);
+}
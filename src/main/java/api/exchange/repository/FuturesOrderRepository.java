@@ -45,6 +45,12 @@ public interface FuturesOrderRepository extends JpaRepository<FuturesOrder, Long
                         FuturesOrder.OrderType type,
                         Pageable pageable);
 
+        // Matching engine startup - every resting order across symbols, oldest first
+        List<FuturesOrder> findByStatusInOrderByIdAsc(List<FuturesOrder.OrderStatus> statuses);
+
+        // Matching engine - rebuild one symbol's book from DB after a failed settlement
+        List<FuturesOrder> findBySymbolAndStatusInOrderByIdAsc(String symbol, List<FuturesOrder.OrderStatus> statuses);
+
         // Public queries (no uid filter)
         List<FuturesOrder> findBySymbolAndStatusOrderByCreatedAtDesc(String symbol, FuturesOrder.OrderStatus status,
                         Pageable pageable);
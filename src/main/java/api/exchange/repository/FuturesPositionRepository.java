@@ -8,6 +8,8 @@ import java.util.Optional;
 
 @Repository
 public interface FuturesPositionRepository extends JpaRepository<FuturesPosition, Long> {
+    List<FuturesPosition> findByStatus(FuturesPosition.PositionStatus status);
+
     List<FuturesPosition> findByUidAndStatus(String uid, FuturesPosition.PositionStatus status);
 
     Optional<FuturesPosition> findByUidAndSymbolAndStatus(String uid, String symbol,
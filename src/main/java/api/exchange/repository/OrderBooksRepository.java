@@ -152,6 +152,27 @@ public interface OrderBooksRepository extends JpaRepository<OrderBooks, Long> {
             @Param("oldStatus") String oldStatus,
             @Param("newStatus") String newStatus);
 
+    // 13. Nạp các lệnh còn nằm trên sổ lệnh theo thứ tự thời gian (warm-up book trong bộ nhớ)
+    List<OrderBooks> findBySymbolAndStatusInOrderByIdAsc(String symbol, List<OrderStatus> statuses);
+
+    // 14. Cộng thêm khối lượng khi gộp lệnh cùng giá, không ghi đè filled_quantity do lane khớp ghi
+    @Query(value = """
+            UPDATE order_books
+            SET quantity = quantity + :quantity,
+                updated_at = :updatedAt
+            WHERE id = :orderId
+            """, nativeQuery = true)
+    @Modifying
+    @Transactional
+    int addQuantity(
+            @Param("orderId") Long orderId,
+            @Param("quantity") BigDecimal quantity,
+            @Param("updatedAt") LocalDateTime updatedAt);
+
+    // 15. Các symbol còn lệnh trên sổ (warm-up book/độ sâu lúc khởi động)
+    @Query("SELECT DISTINCT o.symbol FROM OrderBooks o WHERE o.status IN :statuses")
+    List<String> findSymbolsByStatusIn(@Param("statuses") List<OrderStatus> statuses);
+
     OrderBooks findByUidAndSymbolAndPriceAndStatusAndOrderTypeAndTradeType(String uid, String symbol, BigDecimal price,
             OrderStatus pending, OrderType orderType, TradeType tradeType);
 }
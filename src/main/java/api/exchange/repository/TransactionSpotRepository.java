@@ -7,5 +7,6 @@ import api.exchange.models.TransactionSpot;
 
 @Repository
 public interface TransactionSpotRepository extends JpaRepository<TransactionSpot,Long>{
-    
+
+    TransactionSpot findTopBySymbolOrderByIdDesc(String symbol);
 }
@@ -0,0 +1,308 @@
+package api.exchange.services;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Giải mã frame market data của Binance bằng {@link JsonParser} (streaming),
+ * không dựng cây JsonNode. Mỗi sự kiện (một object có {@code "e"}, ở gốc, trong
+ * {@code "data"} hoặc trong mảng {@code "data"}) được đọc vào một {@link Event}
+ * dùng lại: chỉ các trường tên một ký tự được giữ, chuỗi số được parse thẳng từ
+ * buffer ký tự của parser thành long có scale. Symbol được so với danh sách theo
+ * dõi ngay khi đọc; sự kiện của symbol không theo dõi bị bỏ qua phần còn lại trước
+ * khi parse giá.
+ * Không thread-safe: mỗi kết nối WebSocket dùng một instance.
+ */
+public class BinanceFrameDecoder {
+
+    public static final String TICKER = "24hrTicker";
+    public static final String MARK_PRICE = "markPriceUpdate";
+    public static final String AGG_TRADE = "aggTrade";
+    public static final String KLINE = "kline";
+
+    private static final String[] EVENT_TYPES = { TICKER, MARK_PRICE, AGG_TRADE, KLINE };
+
+    private final JsonFactory jsonFactory;
+    // null: nhận mọi symbol (stream chỉ mang các symbol đã subscribe)
+    private final String[] trackedSymbols;
+    private final Event event = new Event();
+
+    public BinanceFrameDecoder(JsonFactory jsonFactory, Collection<String> trackedSymbols) {
+        this.jsonFactory = jsonFactory;
+        this.trackedSymbols = trackedSymbols != null ? trackedSymbols.toArray(new String[0]) : null;
+    }
+
+    /**
+     * Giải mã một frame và gọi {@code handler} cho từng sự kiện của symbol được
+     * theo dõi. {@link Event} chỉ hợp lệ trong lời gọi handler.
+     */
+    public void decode(String message, Consumer<Event> handler) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(message)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                readObject(parser, event, handler);
+            }
+        }
+    }
+
+    // Đọc một object sự kiện (hoặc vỏ combined stream có "data")
+    private void readObject(JsonParser parser, Event target, Consumer<Event> handler) throws IOException {
+        target.reset();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+
+            if (name.length() != 1) {
+                if (handler != null && "data".equals(name)) {
+                    readData(parser, value, handler);
+                    // Vỏ combined stream không phải sự kiện
+                    target.reset();
+                } else {
+                    parser.skipChildren();
+                }
+                continue;
+            }
+
+            char key = name.charAt(0);
+            if (key == 's' && value == JsonToken.VALUE_STRING) {
+                target.symbol = trackedSymbol(parser);
+                if (target.symbol == null) {
+                    skipRest(parser);
+                    target.reset();
+                    return;
+                }
+            } else if (key == 'e' && value == JsonToken.VALUE_STRING) {
+                target.type = eventType(parser);
+            } else if (key == 'k' && value == JsonToken.START_OBJECT) {
+                readObject(parser, target.kline(), null);
+            } else if (!Event.isSlot(key)) {
+                parser.skipChildren();
+            } else if (value == JsonToken.VALUE_STRING) {
+                if (!target.decimals[key - Event.FIRST].parse(parser.getTextCharacters(), parser.getTextOffset(),
+                        parser.getTextLength())) {
+                    target.texts[key - Event.FIRST] = parser.getText();
+                }
+            } else if (value == JsonToken.VALUE_NUMBER_INT) {
+                target.longs[key - Event.FIRST] = parser.getLongValue();
+            } else if (value == JsonToken.VALUE_TRUE || value == JsonToken.VALUE_FALSE) {
+                target.booleans[key - Event.FIRST] = value == JsonToken.VALUE_TRUE;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (handler != null && target.type != null && target.symbol != null) {
+            handler.accept(target);
+        }
+    }
+
+    private void readData(JsonParser parser, JsonToken value, Consumer<Event> handler) throws IOException {
+        if (value == JsonToken.START_OBJECT) {
+            readObject(parser, event, handler);
+        } else if (value == JsonToken.START_ARRAY) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                readObject(parser, event, handler);
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private static void skipRest(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    // So trực tiếp trên buffer ký tự, trả về chuỗi hằng nên không cấp phát
+    private String trackedSymbol(JsonParser parser) throws IOException {
+        if (trackedSymbols == null) {
+            return parser.getText();
+        }
+        return match(trackedSymbols, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+
+    private static String eventType(JsonParser parser) throws IOException {
+        String known = match(EVENT_TYPES, parser.getTextCharacters(), parser.getTextOffset(),
+                parser.getTextLength());
+        return known != null ? known : parser.getText();
+    }
+
+    private static String match(String[] candidates, char[] chars, int offset, int length) {
+        for (String candidate : candidates) {
+            if (candidate.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && candidate.charAt(i) == chars[offset + i]) {
+                i++;
+            }
+            if (i == length) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Một sự kiện đã giải mã; các trường được đánh chỉ số theo tên một ký tự của
+     * Binance ({@code 'c'}, {@code 'P'}, {@code 'E'}...). Trường vắng mặt đọc ra 0,
+     * false hoặc null.
+     */
+    public static class Event {
+        private static final char FIRST = 'A';
+        private static final int SLOTS = 'z' - 'A' + 1;
+
+        private String type;
+        private String symbol;
+        private final ScaledDecimal[] decimals = new ScaledDecimal[SLOTS];
+        private final long[] longs = new long[SLOTS];
+        private final boolean[] booleans = new boolean[SLOTS];
+        private final String[] texts = new String[SLOTS];
+        private Event kline;
+
+        Event() {
+            for (int i = 0; i < SLOTS; i++) {
+                decimals[i] = new ScaledDecimal();
+            }
+        }
+
+        private static boolean isSlot(char key) {
+            return key >= FIRST && key - FIRST < SLOTS;
+        }
+
+        private Event kline() {
+            if (kline == null) {
+                kline = new Event();
+            }
+            return kline;
+        }
+
+        private void reset() {
+            type = null;
+            symbol = null;
+            for (ScaledDecimal decimal : decimals) {
+                decimal.reset();
+            }
+            Arrays.fill(longs, 0L);
+            Arrays.fill(booleans, false);
+            Arrays.fill(texts, null);
+            if (kline != null) {
+                kline.reset();
+            }
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public ScaledDecimal decimal(char key) {
+            return decimals[key - FIRST];
+        }
+
+        public BigDecimal bigDecimal(char key) {
+            return decimals[key - FIRST].toBigDecimal();
+        }
+
+        public long getLong(char key) {
+            return longs[key - FIRST];
+        }
+
+        public boolean getBoolean(char key) {
+            return booleans[key - FIRST];
+        }
+
+        public String getText(char key) {
+            return texts[key - FIRST];
+        }
+
+        /**
+         * @return object {@code "k"} của sự kiện kline (rỗng nếu không có)
+         */
+        public Event getKline() {
+            return kline();
+        }
+    }
+
+    /**
+     * Số thập phân dạng long có scale, parse từ chuỗi số của Binance
+     * ({@code "-123.4500"}); chuỗi quá 18 chữ số được giữ bằng BigDecimal.
+     */
+    public static class ScaledDecimal {
+        private long unscaled;
+        private int scale;
+        private BigDecimal overflow;
+
+        public long getUnscaled() {
+            return unscaled;
+        }
+
+        public int getScale() {
+            return scale;
+        }
+
+        public BigDecimal toBigDecimal() {
+            return overflow != null ? overflow : BigDecimal.valueOf(unscaled, scale);
+        }
+
+        private void reset() {
+            unscaled = 0;
+            scale = 0;
+            overflow = null;
+        }
+
+        /**
+         * @return false nếu chuỗi không phải số thập phân (giá trị giữ nguyên 0)
+         */
+        private boolean parse(char[] chars, int offset, int length) {
+            reset();
+            int i = offset;
+            int end = offset + length;
+            boolean negative = i < end && chars[i] == '-';
+            if (negative) {
+                i++;
+            }
+            if (i == end) {
+                return false;
+            }
+            long value = 0;
+            int digits = 0;
+            int fraction = -1;
+            for (; i < end; i++) {
+                char c = chars[i];
+                if (c == '.' && fraction < 0) {
+                    fraction = 0;
+                    continue;
+                }
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+                if (++digits > 18) {
+                    try {
+                        overflow = new BigDecimal(chars, offset, length);
+                        return true;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+                value = value * 10 + (c - '0');
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            }
+            unscaled = negative ? -value : value;
+            scale = Math.max(fraction, 0);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package api.exchange.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import lombok.Getter;
+
+/**
+ * Độ sâu L2 (tổng khối lượng và số lệnh theo từng mức giá) của một symbol, được
+ * engine khớp lệnh cập nhật tăng dần ở mỗi lần thêm, khớp và huỷ lệnh. Giá và
+ * khối lượng tính theo tick/lot của {@link SymbolSpec}.
+ * Ghi được đồng bộ hoá (trên lane matching thì không có tranh chấp); sau mỗi lô
+ * thay đổi người ghi gọi {@link #publish()} để dựng một {@link Snapshot} top-N
+ * bất biến, người đọc chỉ đọc biến volatile nên không khoá và không chạm DB.
+ * Nếu bật theo dõi thay đổi, các mức giá đã đổi được gom lại cho tới lần
+ * {@link #drainDiff()} kế tiếp thành một {@link Diff} có dải updateId liên tục.
+ */
+public class DepthBook {
+
+    private final SymbolSpec spec;
+    private final int snapshotLevels;
+    private final boolean trackChanges;
+
+    // Bids: giá cao nhất trước, Asks: giá thấp nhất trước
+    private final TreeMap<Long, Level> bids = new TreeMap<>(Collections.reverseOrder());
+    private final TreeMap<Long, Level> asks = new TreeMap<>();
+
+    // Các mức giá thay đổi kể từ diff trước (chỉ khi trackChanges)
+    private final Set<Long> changedBids = new TreeSet<>(Collections.reverseOrder());
+    private final Set<Long> changedAsks = new TreeSet<>();
+
+    private long updateId;
+    private long publishedUpdateId = -1;
+    private long drainedUpdateId;
+    private volatile Snapshot snapshot;
+
+    public DepthBook(SymbolSpec spec, int snapshotLevels) {
+        this(spec, snapshotLevels, false);
+    }
+
+    public DepthBook(SymbolSpec spec, int snapshotLevels, boolean trackChanges) {
+        this.spec = spec;
+        this.snapshotLevels = snapshotLevels;
+        this.trackChanges = trackChanges;
+        publish();
+    }
+
+    public String getSymbol() {
+        return spec.getSymbol();
+    }
+
+    /** Một lệnh mới nằm lại trên book với {@code lots} còn lại. */
+    public synchronized void add(boolean buy, long priceTicks, long lots) {
+        change(buy, priceTicks, lots, 1);
+    }
+
+    /**
+     * Khối lượng còn lại của một lệnh giảm đi {@code lots} (khớp hoặc huỷ).
+     *
+     * @param removed lệnh đã rời book (khớp hết hoặc bị huỷ)
+     */
+    public synchronized void reduce(boolean buy, long priceTicks, long lots, boolean removed) {
+        change(buy, priceTicks, -lots, removed ? -1 : 0);
+    }
+
+    /** Khối lượng của một lệnh đang nằm trên book thay đổi {@code deltaLots}. */
+    public synchronized void adjust(boolean buy, long priceTicks, long deltaLots) {
+        change(buy, priceTicks, deltaLots, 0);
+    }
+
+    public synchronized void clear() {
+        if (trackChanges) {
+            changedBids.addAll(bids.keySet());
+            changedAsks.addAll(asks.keySet());
+        }
+        bids.clear();
+        asks.clear();
+        updateId++;
+    }
+
+    private void change(boolean buy, long priceTicks, long deltaLots, int deltaOrders) {
+        if (deltaLots == 0 && deltaOrders == 0) {
+            return;
+        }
+        TreeMap<Long, Level> levels = buy ? bids : asks;
+        Level level = levels.get(priceTicks);
+        if (level == null) {
+            if (deltaLots <= 0) {
+                return;
+            }
+            level = new Level();
+            levels.put(priceTicks, level);
+        }
+        level.lots += deltaLots;
+        level.orders += deltaOrders;
+        if (level.lots <= 0 || level.orders <= 0) {
+            levels.remove(priceTicks);
+        }
+        updateId++;
+        if (trackChanges) {
+            (buy ? changedBids : changedAsks).add(priceTicks);
+        }
+    }
+
+    /**
+     * Dựng lại snapshot top-N nếu có thay đổi kể từ lần công bố trước.
+     */
+    public synchronized Snapshot publish() {
+        if (updateId != publishedUpdateId) {
+            snapshot = new Snapshot(spec.getSymbol(), updateId, System.currentTimeMillis(),
+                    top(bids), top(asks));
+            publishedUpdateId = updateId;
+        }
+        return snapshot;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Lấy các mức giá đã thay đổi kể từ lần gọi trước, với khối lượng hiện tại
+     * ({@code "0"} nếu mức giá đã bị xoá).
+     *
+     * @return diff, hoặc null nếu không có thay đổi
+     */
+    public synchronized Diff drainDiff() {
+        if (updateId == drainedUpdateId) {
+            return null;
+        }
+        Diff diff = new Diff(spec.getSymbol(), drainedUpdateId + 1, updateId, System.currentTimeMillis(),
+                levelsOf(changedBids, bids), levelsOf(changedAsks, asks));
+        drainedUpdateId = updateId;
+        changedBids.clear();
+        changedAsks.clear();
+        return diff;
+    }
+
+    private List<List<String>> levelsOf(Set<Long> changed, TreeMap<Long, Level> levels) {
+        List<List<String>> rows = new ArrayList<>(changed.size());
+        for (Long priceTicks : changed) {
+            Level level = levels.get(priceTicks);
+            rows.add(Collections.unmodifiableList(Arrays.asList(
+                    spec.priceOf(priceTicks).toPlainString(),
+                    level != null ? spec.quantityOf(level.lots).toPlainString() : "0")));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    private List<List<String>> top(TreeMap<Long, Level> levels) {
+        List<List<String>> rows = new ArrayList<>(Math.min(levels.size(), snapshotLevels));
+        for (Map.Entry<Long, Level> entry : levels.entrySet()) {
+            if (rows.size() >= snapshotLevels) {
+                break;
+            }
+            rows.add(Collections.unmodifiableList(Arrays.asList(
+                    spec.priceOf(entry.getKey()).toPlainString(),
+                    spec.quantityOf(entry.getValue().lots).toPlainString())));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    private static class Level {
+        private long lots;
+        private int orders;
+    }
+
+    /**
+     * Top-N mức giá đã định dạng sẵn {@code [price, quantity]}; bất biến.
+     */
+    @Getter
+    public static class Snapshot {
+        private final String symbol;
+        private final long lastUpdateId;
+        private final long timestamp;
+        private final List<List<String>> bids;
+        private final List<List<String>> asks;
+
+        Snapshot(String symbol, long lastUpdateId, long timestamp, List<List<String>> bids,
+                List<List<String>> asks) {
+            this.symbol = symbol;
+            this.lastUpdateId = lastUpdateId;
+            this.timestamp = timestamp;
+            this.bids = bids;
+            this.asks = asks;
+        }
+
+        public List<List<String>> bids(int limit) {
+            return bids.subList(0, Math.max(0, Math.min(limit, bids.size())));
+        }
+
+        public List<List<String>> asks(int limit) {
+            return asks.subList(0, Math.max(0, Math.min(limit, asks.size())));
+        }
+    }
+
+    /**
+     * Thay đổi độ sâu trong dải updateId {@code [firstUpdateId, lastUpdateId]};
+     * diff kế tiếp luôn bắt đầu từ {@code lastUpdateId + 1}. Mỗi mức giá mang khối
+     * lượng tuyệt đối nên áp lại một diff đã áp là vô hại.
+     */
+    @Getter
+    public static class Diff {
+        private final String symbol;
+        private final long firstUpdateId;
+        private final long lastUpdateId;
+        private final long timestamp;
+        private final List<List<String>> bids;
+        private final List<List<String>> asks;
+
+        Diff(String symbol, long firstUpdateId, long lastUpdateId, long timestamp, List<List<String>> bids,
+                List<List<String>> asks) {
+            this.symbol = symbol;
+            this.firstUpdateId = firstUpdateId;
+            this.lastUpdateId = lastUpdateId;
+            this.timestamp = timestamp;
+            this.bids = bids;
+            this.asks = asks;
+        }
+    }
+}
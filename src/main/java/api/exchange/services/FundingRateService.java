@@ -2,121 +2,241 @@ package api.exchange.services;
 
 import api.exchange.models.*;
 import api.exchange.repository.FuturesFundingRateRepository;
-import api.exchange.repository.FuturesPositionRepository;
-import api.exchange.repository.FuturesTransactionRepository;
-import api.exchange.repository.FuturesWalletRepository;
+import api.exchange.repository.FuturesFundingRunRepository;
+import lombok.extern.slf4j.Slf4j;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Thanh toán funding theo từng chunk: vị thế OPEN được đọc theo keyset (id tăng
+ * dần), phí được cộng gộp theo ví và mỗi chunk được ghi bằng JDBC batch trong
+ * một transaction riêng cùng với tiến độ của kỳ funding
+ * ({@link FuturesFundingRun}). Nếu tiến trình dừng giữa chừng, lần chạy sau tiếp
+ * tục từ vị thế cuối đã commit nên không vị thế nào bị tính hai lần.
+ */
 @Service
+@Slf4j
 public class FundingRateService {
 
+    private static final String SELECT_POSITIONS_SQL = "SELECT id, uid, symbol, side, quantity FROM futures_positions "
+            + "WHERE status = 'OPEN' AND id > ? ORDER BY id LIMIT ?";
+
+    private static final String UPDATE_WALLET_SQL = "UPDATE wallets_futures SET balance = balance + ?, version = version + 1 "
+            + "WHERE uid = ? AND currency = 'USDT'";
+
+    private static final String INSERT_TRANSACTION_SQL = "INSERT INTO futures_transactions "
+            + "(uid, type, amount, currency, reference_id, created_at) VALUES (?, ?, ?, 'USDT', ?, ?)";
+
+    private static final String UPDATE_RUN_SQL = "UPDATE futures_funding_runs "
+            + "SET last_position_id = ?, positions_settled = positions_settled + ? WHERE id = ?";
+
     @Autowired
-    private FuturesPositionRepository futuresPositionRepository;
+    private FuturesFundingRateRepository futuresFundingRateRepository;
 
     @Autowired
-    private FuturesWalletRepository futuresWalletRepository;
+    private FuturesFundingRunRepository futuresFundingRunRepository;
 
     @Autowired
-    private FuturesTransactionRepository futuresTransactionRepository;
+    private FuturesPriceRegistry futuresPriceRegistry;
 
     @Autowired
-    private FuturesFundingRateRepository futuresFundingRateRepository;
+    private FuturesRiskEngine futuresRiskEngine;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
 
+    // Proxy của chính bean này để mỗi chunk chạy trong transaction riêng
     @Autowired
-    private CoinDataService coinDataService;
+    @Lazy
+    private FundingRateService self;
+
+    @Value("${funding.chunk-size:1000}")
+    private int chunkSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
 
     // Mock Funding Rate for MVP (In real app, fetch from Binance/Oracle)
     private static final BigDecimal DEFAULT_FUNDING_RATE = new BigDecimal("0.0001"); // 0.01%
 
     @Scheduled(cron = "0 0 0,8,16 * * *") // Run at 00:00, 08:00, 16:00
-    @Transactional
     public void applyFundingFees() {
-        System.out.println("⏳ Applying Funding Fees...");
-
-        // For MVP, we assume a constant positive funding rate for all symbols
-        // Real logic: Fetch rate per symbol
+        LocalDateTime fundingTime = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS);
+        runExclusively(() -> {
+            resumeUnfinishedRuns();
+            FuturesFundingRun run = futuresFundingRunRepository.findByFundingTime(fundingTime)
+                    .orElseGet(() -> newRun(fundingTime));
+            if (run.getStatus() == FuturesFundingRun.RunStatus.RUNNING) {
+                settle(run);
+            }
+        });
+    }
 
-        List<FuturesPosition> openPositions = futuresPositionRepository.findAll(); // Should filter by status=OPEN
+    /**
+     * Tiếp tục các kỳ funding bị gián đoạn (ví dụ tiến trình dừng giữa chừng).
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOnStartup() {
+        runExclusively(this::resumeUnfinishedRuns);
+    }
 
-        for (FuturesPosition position : openPositions) {
-            if (position.getStatus() != FuturesPosition.PositionStatus.OPEN)
-                continue;
+    private void runExclusively(Runnable task) {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("⚠️ Funding settlement is already running");
+            return;
+        }
+        try {
+            task.run();
+        } finally {
+            running.set(false);
+        }
+    }
 
-            BigDecimal currentPrice = coinDataService.getCurrentPrice(position.getSymbol());
-            if (currentPrice.compareTo(BigDecimal.ZERO) == 0)
-                continue;
+    private void resumeUnfinishedRuns() {
+        for (FuturesFundingRun run : futuresFundingRunRepository
+                .findByStatusOrderByIdAsc(FuturesFundingRun.RunStatus.RUNNING)) {
+            log.info("⏳ Resuming funding run {} after position {}", run.getFundingTime(), run.getLastPositionId());
+            settle(run);
+        }
+    }
 
-            // Funding Fee = Position Value * Funding Rate
-            BigDecimal positionValue = position.getQuantity().multiply(currentPrice);
-            BigDecimal fundingFee = positionValue.multiply(DEFAULT_FUNDING_RATE);
+    private FuturesFundingRun newRun(LocalDateTime fundingTime) {
+        FuturesFundingRun run = new FuturesFundingRun();
+        run.setFundingTime(fundingTime);
+        // For MVP, we assume a constant positive funding rate for all symbols
+        run.setRate(DEFAULT_FUNDING_RATE);
+        run.setStatus(FuturesFundingRun.RunStatus.RUNNING);
+        return futuresFundingRunRepository.save(run);
+    }
 
-            FuturesWallet wallet = futuresWalletRepository.findByUidAndCurrency(position.getUid(), "USDT")
-                    .orElse(null);
+    private void settle(FuturesFundingRun run) {
+        log.info("⏳ Applying Funding Fees for {}...", run.getFundingTime());
+        long lastPositionId = run.getLastPositionId();
+        long settled = run.getPositionsSettled();
+        while (true) {
+            ChunkResult chunk = self.settleChunk(run.getId(), run.getRate(), lastPositionId);
+            if (chunk.positions == 0) {
+                break;
+            }
+            lastPositionId = chunk.lastPositionId;
+            settled += chunk.positions;
+        }
 
-            if (wallet == null)
-                continue;
+        run.setLastPositionId(lastPositionId);
+        run.setPositionsSettled(settled);
+        run.setStatus(FuturesFundingRun.RunStatus.COMPLETED);
+        run.setCompletedAt(LocalDateTime.now());
+        futuresFundingRunRepository.save(run);
 
-            // If Rate > 0: Long pays Short
-            // If Rate < 0: Short pays Long
+        // Save Rate History (Mock)
+        FuturesFundingRate rateHistory = new FuturesFundingRate();
+        rateHistory.setSymbol("ALL");
+        rateHistory.setRate(run.getRate());
+        rateHistory.setTimestamp(run.getFundingTime());
+        futuresFundingRateRepository.save(rateHistory);
 
-            BigDecimal amountToDeduct = BigDecimal.ZERO;
-            BigDecimal amountToAdd = BigDecimal.ZERO;
+        log.info("✅ Funding Fees Applied for {} ({} positions)", run.getFundingTime(), settled);
+    }
 
-            if (DEFAULT_FUNDING_RATE.compareTo(BigDecimal.ZERO) > 0) {
-                if (position.getSide() == FuturesPosition.PositionSide.LONG) {
-                    amountToDeduct = fundingFee;
-                } else {
-                    amountToAdd = fundingFee;
-                }
-            } else {
-                if (position.getSide() == FuturesPosition.PositionSide.SHORT) {
-                    amountToDeduct = fundingFee.abs();
-                } else {
-                    amountToAdd = fundingFee.abs();
-                }
+    /**
+     * Thanh toán một chunk vị thế có id lớn hơn {@code afterPositionId} và ghi
+     * tiến độ trong cùng transaction.
+     */
+    @Transactional
+    public ChunkResult settleChunk(long runId, BigDecimal rate, long afterPositionId) {
+        ChunkResult result = new ChunkResult();
+        // Tổng phí theo ví (uid tăng dần để khoá dòng ví theo thứ tự cố định)
+        TreeMap<String, BigDecimal> walletDeltas = new TreeMap<>();
+        Map<String, List<Object[]>> transactions = new HashMap<>();
+        Map<String, BigDecimal> prices = new HashMap<>();
+        Timestamp createdAt = Timestamp.valueOf(LocalDateTime.now());
+
+        jdbcTemplate.query(SELECT_POSITIONS_SQL, rs -> {
+            long positionId = rs.getLong("id");
+            result.positions++;
+            result.lastPositionId = positionId;
+
+            String symbol = rs.getString("symbol");
+            BigDecimal currentPrice = prices.computeIfAbsent(symbol, futuresPriceRegistry::getPrice);
+            BigDecimal quantity = rs.getBigDecimal("quantity");
+            if (currentPrice.signum() == 0 || quantity == null) {
+                return;
             }
 
-            if (amountToDeduct.compareTo(BigDecimal.ZERO) > 0) {
-                // Deduct from Wallet Balance (not Margin)
-                wallet.setBalance(wallet.getBalance().subtract(amountToDeduct));
-
-                // Record Transaction
-                recordTransaction(position.getUid(), amountToDeduct.negate(), "FUNDING_FEE_PAID", position.getId());
+            // Funding Fee = Position Value * Funding Rate
+            // If Rate > 0: Long pays Short; If Rate < 0: Short pays Long
+            BigDecimal fundingFee = quantity.multiply(currentPrice).multiply(rate);
+            boolean isLong = FuturesPosition.PositionSide.LONG.name().equals(rs.getString("side"));
+            BigDecimal amount = isLong ? fundingFee.negate() : fundingFee;
+            if (amount.signum() == 0) {
+                return;
             }
 
-            if (amountToAdd.compareTo(BigDecimal.ZERO) > 0) {
-                wallet.setBalance(wallet.getBalance().add(amountToAdd));
-
-                // Record Transaction
-                recordTransaction(position.getUid(), amountToAdd, "FUNDING_FEE_RECEIVED", position.getId());
-            }
+            String uid = rs.getString("uid");
+            walletDeltas.merge(uid, amount, BigDecimal::add);
+            transactions.computeIfAbsent(uid, u -> new ArrayList<>()).add(new Object[] {
+                    uid, FuturesTransaction.TransactionType.FUNDING_FEE.name(), amount, "POS-" + positionId,
+                    createdAt });
+        }, afterPositionId, chunkSize);
 
-            futuresWalletRepository.save(wallet);
+        if (result.positions == 0) {
+            return result;
         }
 
-        // Save Rate History (Mock)
-        FuturesFundingRate rateHistory = new FuturesFundingRate();
-        rateHistory.setSymbol("ALL");
-        rateHistory.setRate(DEFAULT_FUNDING_RATE);
-        futuresFundingRateRepository.save(rateHistory);
-
-        System.out.println("✅ Funding Fees Applied.");
+        List<String> uids = new ArrayList<>(walletDeltas.keySet());
+        List<Object[]> walletUpdates = new ArrayList<>(uids.size());
+        for (String uid : uids) {
+            walletUpdates.add(new Object[] { walletDeltas.get(uid), uid });
+        }
+        int[][] updated = jdbcTemplate.batchUpdate(UPDATE_WALLET_SQL, walletUpdates, walletUpdates.size(),
+                (ps, row) -> {
+                    ps.setBigDecimal(1, (BigDecimal) row[0]);
+                    ps.setString(2, (String) row[1]);
+                });
+
+        // Chỉ ghi lịch sử cho các ví tồn tại (ví không tồn tại bị bỏ qua như trước)
+        List<Object[]> rows = new ArrayList<>();
+        int i = 0;
+        for (int[] batch : updated) {
+            for (int count : batch) {
+                String uid = uids.get(i++);
+                if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                    rows.addAll(transactions.get(uid));
+                    futuresRiskEngine.onAccountChanged(uid);
+                } else {
+                    log.warn("⚠️ Futures wallet not found for funding: {}", uid);
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate(INSERT_TRANSACTION_SQL, rows);
+        jdbcTemplate.update(UPDATE_RUN_SQL, result.lastPositionId, result.positions, runId);
+        return result;
     }
 
-    private void recordTransaction(String uid, BigDecimal amount, String typeStr, Long positionId) {
-        FuturesTransaction tx = new FuturesTransaction();
-        tx.setUid(uid);
-        tx.setType(FuturesTransaction.TransactionType.FUNDING_FEE);
-        tx.setAmount(amount);
-        tx.setCurrency("USDT");
-        tx.setReferenceId("POS-" + positionId);
-        futuresTransactionRepository.save(tx);
+    /**
+     * Kết quả của một chunk: số vị thế đã đọc và id vị thế cuối.
+     */
+    public static class ChunkResult {
+        private int positions;
+        private long lastPositionId;
     }
 }
@@ -0,0 +1,175 @@
+package api.exchange.services;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import api.exchange.models.FuturesPosition;
+import api.exchange.models.FuturesWallet;
+import api.exchange.repository.FuturesPositionRepository;
+import api.exchange.repository.FuturesWalletRepository;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Ví USDT và vị thế OPEN đang được giao dịch, giữ trong bộ nhớ để các fill không
+ * phải đọc lại DB. Vị thế được giữ theo symbol và chỉ được lane
+ * {@code futures:SYMBOL} đọc/ghi. Ví USDT dùng chung cho mọi symbol nên chỉ có một
+ * bản cho mỗi uid, các lane cùng đọc/ghi: mỗi chu kỳ khớp nhận một bản sao riêng,
+ * và bản đã ghi chỉ thay entry khi version không cũ hơn. Entity trong cache là bản
+ * detached mang {@code @Version}: khi nơi khác đã ghi cùng dòng, lần ghi theo lô
+ * của chu kỳ khớp bị từ chối và entry được bỏ để nạp lại. Mỗi map giữ tối đa
+ * {@code futures.account-cache.max-entries} tài khoản (LRU).
+ */
+@Component
+public class FuturesAccountCache {
+
+    @Value("${futures.account-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Autowired
+    private FuturesWalletRepository futuresWalletRepository;
+
+    @Autowired
+    private FuturesPositionRepository futuresPositionRepository;
+
+    private final Map<String, Accounts> symbols = new ConcurrentHashMap<>();
+
+    // Dùng chung cho mọi lane, truy cập trong synchronized (wallets)
+    private Map<String, FuturesWallet> wallets;
+
+    @PostConstruct
+    public void init() {
+        wallets = lru(maxEntries);
+    }
+
+    /**
+     * @return bản sao ví USDT của uid mà chu kỳ khớp được sửa tự do
+     */
+    public FuturesWallet wallet(String uid) {
+        FuturesWallet wallet;
+        synchronized (wallets) {
+            wallet = wallets.get(uid);
+        }
+        if (wallet == null) {
+            wallet = futuresWalletRepository.findByUidAndCurrency(uid, "USDT")
+                    .orElseThrow(() -> new RuntimeException("Wallet not found"));
+            wallet = putWallet(wallet);
+        }
+        return copy(wallet);
+    }
+
+    /**
+     * @return vị thế OPEN của uid trong symbol, hoặc null nếu không có
+     */
+    public FuturesPosition openPosition(String symbol, String uid) {
+        Accounts accounts = accountsFor(symbol);
+        Optional<FuturesPosition> position = accounts.positions.get(uid);
+        if (position == null) {
+            position = futuresPositionRepository.findByUidAndSymbolAndStatus(uid, symbol,
+                    FuturesPosition.PositionStatus.OPEN);
+            accounts.positions.put(uid, position);
+        }
+        return position.orElse(null);
+    }
+
+    /**
+     * Thay entry bằng bản vừa ghi (version mới) sau khi transaction commit.
+     */
+    public void putAll(String symbol, Collection<FuturesWallet> wallets, Collection<FuturesPosition> positions) {
+        for (FuturesWallet wallet : wallets) {
+            putWallet(wallet);
+        }
+        Accounts accounts = accountsFor(symbol);
+        for (FuturesPosition position : positions) {
+            accounts.positions.put(position.getUid(),
+                    position.getStatus() == FuturesPosition.PositionStatus.OPEN ? Optional.of(position)
+                            : Optional.empty());
+        }
+    }
+
+    /**
+     * Ví vừa được ghi ngoài lane (đặt/huỷ lệnh): thay entry bằng bản đã commit để
+     * chu kỳ khớp kế tiếp không ghi với version cũ.
+     */
+    public void putAfterCommit(FuturesWallet wallet) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            putWallet(copy(wallet));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                putWallet(copy(wallet));
+            }
+        });
+    }
+
+    /**
+     * Bỏ ví và vị thế trong symbol của các uid (bản trong cache đã cũ hoặc đã bị
+     * sửa mà không ghi được).
+     */
+    public void evict(String symbol, Collection<String> uids) {
+        synchronized (wallets) {
+            for (String uid : uids) {
+                wallets.remove(uid);
+            }
+        }
+        Accounts accounts = symbols.get(symbol);
+        if (accounts == null) {
+            return;
+        }
+        for (String uid : uids) {
+            accounts.positions.remove(uid);
+        }
+    }
+
+    // Lane khác có thể đã ghi version mới hơn trong lúc nạp/ghi: giữ bản mới nhất
+    private FuturesWallet putWallet(FuturesWallet wallet) {
+        synchronized (wallets) {
+            FuturesWallet cached = wallets.get(wallet.getUid());
+            if (cached != null && version(cached) > version(wallet)) {
+                return cached;
+            }
+            wallets.put(wallet.getUid(), wallet);
+            return wallet;
+        }
+    }
+
+    private static long version(FuturesWallet wallet) {
+        return wallet.getVersion() != null ? wallet.getVersion() : 0L;
+    }
+
+    private static FuturesWallet copy(FuturesWallet wallet) {
+        return new FuturesWallet(wallet.getId(), wallet.getUid(), wallet.getCurrency(), wallet.getBalance(),
+                wallet.getLockedBalance(), wallet.isActive(), wallet.getVersion());
+    }
+
+    private Accounts accountsFor(String symbol) {
+        return symbols.computeIfAbsent(symbol, s -> new Accounts(maxEntries));
+    }
+
+    private static <V> Map<String, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private static class Accounts {
+        private final Map<String, Optional<FuturesPosition>> positions;
+
+        Accounts(int maxEntries) {
+            this.positions = lru(maxEntries);
+        }
+    }
+}
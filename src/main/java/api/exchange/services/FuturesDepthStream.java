@@ -0,0 +1,42 @@
+package api.exchange.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import api.exchange.websocket.FuturesOrderWebSocket;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stream diff độ sâu futures: mỗi cửa sổ {@code market-depth.diff-interval-ms}
+ * gom các mức giá đã thay đổi của từng symbol thành một diff mang
+ * {@code firstUpdateId}/{@code lastUpdateId}. Client đệm diff, lấy snapshot REST
+ * (trả về {@code lastUpdateId}), bỏ các diff có {@code lastUpdateId} ≤ snapshot
+ * rồi áp tiếp; khoảng trống trong dải updateId nghĩa là cần lấy lại snapshot.
+ */
+@Component
+@Slf4j
+public class FuturesDepthStream {
+
+    @Autowired
+    private MarketDepthService marketDepthService;
+
+    @Autowired
+    private FuturesOrderWebSocket futuresOrderWebSocket;
+
+    @Scheduled(fixedDelayString = "${market-depth.diff-interval-ms:100}")
+    public void flush() {
+        for (DepthBook book : marketDepthService.futuresDepths()) {
+            DepthBook.Diff diff = book.drainDiff();
+            if (diff == null) {
+                continue;
+            }
+            try {
+                futuresOrderWebSocket.broadcastDepthDiff(diff);
+            } catch (Exception e) {
+                // Diff đã rút nên client sẽ thấy khoảng trống updateId và lấy lại snapshot
+                log.error("❌ Failed to broadcast depth diff for {}: {}", diff.getSymbol(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import api.exchange.models.FuturesOrder;
+import api.exchange.models.FuturesPosition;
+import api.exchange.models.FuturesWallet;
+
+/**
+ * Các fill của một chu kỳ khớp (một taker trên lane của symbol) chờ ghi xuống DB
+ * trong một transaction. Lệnh, ví và vị thế bị chạm được gom theo id/uid nên mỗi
+ * entity chỉ được ghi một lần dù xuất hiện trong nhiều fill; thay đổi của quỹ bảo
+ * hiểm được cộng dồn và ghi cùng transaction. Danh sách fill được
+ * giữ lại để áp lại phần tài khoản lên bản mới nạp khi lần ghi bị xung đột.
+ * Không thread-safe: chỉ dùng trên lane của symbol.
+ */
+public class FuturesFillCycle {
+
+    private final String symbol;
+    private final List<Fill> fills = new ArrayList<>();
+    private final Map<Long, FuturesOrder> orders = new LinkedHashMap<>();
+    private final Map<String, FuturesWallet> wallets = new LinkedHashMap<>();
+    private final Map<String, FuturesPosition> positions = new LinkedHashMap<>();
+    private BigDecimal insuranceDelta = BigDecimal.ZERO;
+
+    public FuturesFillCycle(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public boolean isEmpty() {
+        return fills.isEmpty();
+    }
+
+    Fill addFill(FuturesOrder maker, FuturesOrder taker, BigDecimal price, BigDecimal quantity) {
+        Fill fill = new Fill(maker, taker, null, price, quantity, false);
+        fills.add(fill);
+        return fill;
+    }
+
+    /**
+     * Fill ADL: phần còn lại của lệnh thanh lý đóng thẳng vào vị thế đối ứng của
+     * {@code counterpartyUid} (null nếu không còn vị thế đối ứng).
+     */
+    Fill addAdlFill(FuturesOrder taker, String counterpartyUid, BigDecimal price, BigDecimal quantity) {
+        Fill fill = new Fill(null, taker, counterpartyUid, price, quantity, false);
+        fills.add(fill);
+        return fill;
+    }
+
+    /**
+     * Phần chưa khớp của lệnh bị huỷ trong chu kỳ (ví dụ phần còn lại của lệnh
+     * MARKET): chỉ nhả margin đã khoá theo giá lệnh, không có đối ứng.
+     */
+    Fill addCancel(FuturesOrder order, BigDecimal quantity) {
+        Fill fill = new Fill(null, order, null, order.getPrice(), quantity, true);
+        fills.add(fill);
+        return fill;
+    }
+
+    List<Fill> getFills() {
+        return fills;
+    }
+
+    void putOrder(FuturesOrder order) {
+        orders.put(order.getId(), order);
+    }
+
+    Collection<FuturesOrder> getOrders() {
+        return orders.values();
+    }
+
+    FuturesWallet getWallet(String uid) {
+        return wallets.get(uid);
+    }
+
+    void putWallet(FuturesWallet wallet) {
+        wallets.put(wallet.getUid(), wallet);
+    }
+
+    Collection<FuturesWallet> getWallets() {
+        return wallets.values();
+    }
+
+    FuturesPosition getPosition(String uid) {
+        return positions.get(uid);
+    }
+
+    void putPosition(FuturesPosition position) {
+        positions.put(position.getUid(), position);
+    }
+
+    Collection<FuturesPosition> getPositions() {
+        return positions.values();
+    }
+
+    /**
+     * Uid của mọi tài khoản bị chạm trong chu kỳ.
+     */
+    Set<String> getAccountUids() {
+        Set<String> uids = new HashSet<>(wallets.keySet());
+        uids.addAll(positions.keySet());
+        return uids;
+    }
+
+    void addInsurance(BigDecimal amount) {
+        insuranceDelta = insuranceDelta.add(amount);
+    }
+
+    /**
+     * @return thay đổi số dư quỹ bảo hiểm của chu kỳ (âm nếu quỹ bù lỗ)
+     */
+    public BigDecimal getInsuranceDelta() {
+        return insuranceDelta;
+    }
+
+    /**
+     * Bỏ các ví/vị thế đã áp để áp lại các fill lên bản mới nạp; lệnh giữ nguyên.
+     */
+    void resetAccounts() {
+        wallets.clear();
+        positions.clear();
+        insuranceDelta = BigDecimal.ZERO;
+    }
+
+    /**
+     * Một fill: khối lượng khớp giữa maker và taker tại giá của maker, hoặc giữa
+     * lệnh thanh lý và vị thế đối ứng (ADL, maker null) tại giá phá sản, hoặc
+     * phần bị huỷ của một lệnh ({@code cancelled}).
+     */
+    static class Fill {
+        final FuturesOrder maker;
+        final FuturesOrder taker;
+        final String counterpartyUid;
+        final BigDecimal price;
+        final BigDecimal quantity;
+        final boolean cancelled;
+
+        Fill(FuturesOrder maker, FuturesOrder taker, String counterpartyUid, BigDecimal price, BigDecimal quantity,
+                boolean cancelled) {
+            this.maker = maker;
+            this.taker = taker;
+            this.counterpartyUid = counterpartyUid;
+            this.price = price;
+            this.quantity = quantity;
+            this.cancelled = cancelled;
+        }
+    }
+}
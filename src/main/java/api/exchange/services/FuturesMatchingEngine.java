@@ -0,0 +1,342 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import api.exchange.models.FuturesOrder;
+import api.exchange.repository.FuturesOrderRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Engine khớp lệnh futures hướng sự kiện: mỗi symbol có một
+ * {@link FuturesOrderBook} trong bộ nhớ, mọi thao tác lên book chạy trên lane
+ * {@code futures:SYMBOL} của {@link MatchingSequencer}. Lệnh được khớp ngay khi
+ * transaction đặt lệnh commit; các fill của một lệnh được áp trong bộ nhớ rồi
+ * ghi xuống một lần ở cuối chu kỳ khớp qua {@link FuturesTradingService#settle}.
+ * Nếu ghi thất bại, book của symbol được dựng lại từ DB. Lệnh MARKET không
+ * có giá giới hạn và không nằm lại trên book: phần chưa khớp bị huỷ, nhả margin
+ * trong cùng chu kỳ. Lệnh mới bị từ
+ * chối trước khi khoá margin nếu riêng symbol đó đang có quá
+ * {@code futures.matching.max-queue-depth} task chờ trên lane.
+ */
+@Service
+@Slf4j
+public class FuturesMatchingEngine {
+
+    private static final long LANE_TIMEOUT_SECONDS = 5;
+
+    private static final List<FuturesOrder.OrderStatus> RESTING_STATUSES = Arrays.asList(
+            FuturesOrder.OrderStatus.PENDING, FuturesOrder.OrderStatus.PARTIALLY_FILLED);
+
+    @Autowired
+    private FuturesOrderRepository futuresOrderRepository;
+
+    @Autowired
+    private FuturesTradingService futuresTradingService;
+
+    @Autowired
+    private MatchingSequencer matchingSequencer;
+
+    @Autowired
+    private MarketDepthService marketDepthService;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${futures.matching.max-queue-depth:1024}")
+    private int maxQueueDepth;
+
+    private final Map<String, FuturesOrderBook> books = new ConcurrentHashMap<>();
+    // Thời gian từ lúc lệnh commit tới khi khớp xong, theo symbol
+    private final Map<String, Timer> matchTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> busyCounters = new ConcurrentHashMap<>();
+
+    /**
+     * Dựng book của mọi symbol từ các lệnh đang mở một lần khi khởi động, trước
+     * khi lane nhận lệnh; sau đó DB không còn được quét lại. Lệnh cũ không được
+     * nằm trên book (MARKET còn treo, giá/khối lượng lệch lưới tick/lot) bị huỷ và
+     * nhả margin thay vì làm hỏng việc khởi động.
+     */
+    @PostConstruct
+    public void load() {
+        List<FuturesOrder> restingOrders = futuresOrderRepository.findByStatusInOrderByIdAsc(RESTING_STATUSES);
+        Map<String, List<FuturesOrder>> stale = new LinkedHashMap<>();
+        for (FuturesOrder order : restingOrders) {
+            if (order.getQuantity().signum() <= 0 || isLiquidation(order)) {
+                continue;
+            }
+            FuturesOrderBook book = bookFor(order.getSymbol());
+            if (book.canRest(order)) {
+                book.add(order);
+            } else {
+                stale.computeIfAbsent(order.getSymbol(), s -> new ArrayList<>()).add(order);
+            }
+        }
+        stale.forEach(this::cancelStale);
+        books.values().forEach(book -> book.getDepth().publish());
+        log.info("📚 Loaded {} futures order books with {} resting orders", books.size(), restingOrders.size());
+    }
+
+    // Huỷ các lệnh không được nằm trên book trong một chu kỳ; lỗi chỉ được log,
+    // lệnh vẫn mở trong DB và được xử lý lại ở lần khởi động sau
+    private void cancelStale(String symbol, List<FuturesOrder> orders) {
+        FuturesFillCycle cycle = new FuturesFillCycle(symbol);
+        for (FuturesOrder order : orders) {
+            futuresTradingService.cancelRemainder(cycle, order);
+        }
+        try {
+            futuresTradingService.settle(cycle);
+            log.warn("🧹 Cancelled {} futures orders of {} that cannot rest on the book", orders.size(), symbol);
+        } catch (Exception e) {
+            log.error("❌ Failed to cancel stale futures orders of {}: {}", symbol, e.getMessage());
+        }
+    }
+
+    /**
+     * Back-pressure khi nhận lệnh: gọi trước khi khoá margin để lệnh bị từ chối
+     * sạch thay vì xếp sau một hàng đợi dài.
+     *
+     * @throws RejectedExecutionException nếu symbol đang có quá nhiều task chờ trên lane
+     */
+    public void checkCapacity(String symbol) {
+        if (matchingSequencer.getQueueDepth(lane(symbol)) >= maxQueueDepth) {
+            busyCounters.computeIfAbsent(symbol, s -> Counter.builder("futures.matching.busy")
+                    .tag("symbol", s)
+                    .register(meterRegistry)).increment();
+            throw new RejectedExecutionException("Matching engine is busy for symbol " + symbol);
+        }
+    }
+
+    /**
+     * Đưa lệnh vừa lưu vào khớp sau khi transaction hiện tại commit (lane đọc
+     * được lệnh đã commit), hoặc ngay lập tức nếu không có transaction.
+     */
+    public void submitAfterCommit(FuturesOrder order) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(order);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submit(order);
+            }
+        });
+    }
+
+    /**
+     * Gỡ lệnh khỏi book trên lane của symbol để lệnh không còn được khớp. Nếu
+     * transaction huỷ lệnh rollback, lệnh được đưa lại vào book.
+     *
+     * @return bản lệnh đang sống trong book (quantity còn lại mới nhất), hoặc null
+     *         nếu lệnh không còn trong book
+     */
+    public FuturesOrder cancel(FuturesOrder order) {
+        FuturesOrder removed = awaitOnLane(order.getSymbol(), () -> {
+            FuturesOrderBook book = bookFor(order.getSymbol());
+            FuturesOrder live = book.cancel(order.getId());
+            book.getDepth().publish();
+            return live;
+        });
+        if (removed != null && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        restore(removed);
+                    }
+                }
+            });
+        }
+        return removed;
+    }
+
+    private void restore(FuturesOrder order) {
+        awaitOnLane(order.getSymbol(), () -> {
+            FuturesOrderBook book = bookFor(order.getSymbol());
+            book.add(order);
+            book.getDepth().publish();
+            return order;
+        });
+    }
+
+    private <T> T awaitOnLane(String symbol, Supplier<T> task) {
+        try {
+            return matchingSequencer.call(lane(symbol), task).get(LANE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for matching lane of " + symbol, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Matching lane unavailable for " + symbol, e);
+        }
+    }
+
+    private void submit(FuturesOrder order) {
+        long committedAt = System.nanoTime();
+        Timer timer = matchTimers.computeIfAbsent(order.getSymbol(), s -> Timer.builder("futures.matching.latency")
+                .tag("symbol", s)
+                .register(meterRegistry));
+        Runnable task = () -> {
+            match(order);
+            timer.record(System.nanoTime() - committedAt, TimeUnit.NANOSECONDS);
+        };
+        // Lệnh đã commit nên không được bỏ: lane đầy thì chờ chỗ trống
+        while (true) {
+            try {
+                matchingSequencer.submit(lane(order.getSymbol()), task);
+                return;
+            } catch (RejectedExecutionException e) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    /**
+     * Khớp ngay một lệnh đã commit (ví dụ lệnh điều kiện vừa kích hoạt) khi đang
+     * chạy trên lane của symbol.
+     */
+    public void matchOnLane(FuturesOrder order) {
+        if (!matchingSequencer.isCurrentLane(lane(order.getSymbol()))) {
+            throw new IllegalStateException("Not on matching lane of " + order.getSymbol());
+        }
+        match(order);
+    }
+
+    /**
+     * Khớp lệnh LIQUIDATION đã lưu với book ngay trên lane của symbol, trước mọi
+     * lệnh đang xếp hàng. Phần không khớp được không nằm lại trên book mà trả về
+     * cho người gọi (quantity còn lại của lệnh) để xử lý bằng ADL.
+     *
+     * @return chu kỳ đã thanh toán, hoặc null nếu thanh toán thất bại
+     */
+    public FuturesFillCycle matchLiquidation(FuturesOrder order) {
+        if (!matchingSequencer.isCurrentLane(lane(order.getSymbol()))) {
+            throw new IllegalStateException("Not on matching lane of " + order.getSymbol());
+        }
+        return match(order);
+    }
+
+    /**
+     * Khớp taker với book cho tới khi hết khối lượng hoặc hết mức giá cắt nhau.
+     * Chỉ chạy trên lane của symbol.
+     *
+     * @return chu kỳ đã thanh toán, hoặc null nếu thanh toán thất bại (book đã
+     *         được dựng lại từ DB)
+     */
+    private FuturesFillCycle match(FuturesOrder taker) {
+        FuturesOrderBook book = bookFor(taker.getSymbol());
+        FuturesFillCycle cycle = new FuturesFillCycle(taker.getSymbol());
+        int fills = 0;
+
+        while (taker.getQuantity().signum() > 0) {
+            FuturesOrder maker = book.bestMaker(taker);
+            if (maker == null || (isLiquidation(taker) && maker.getUid().equals(taker.getUid()))) {
+                break;
+            }
+            // Giá khớp là giá của maker (lệnh đến trước)
+            BigDecimal tradePrice = maker.getPrice();
+            BigDecimal tradeQuantity = maker.getQuantity().min(taker.getQuantity());
+
+            try {
+                futuresTradingService.applyFill(cycle, maker, taker, tradePrice, tradeQuantity);
+            } catch (Exception e) {
+                // Fill bị từ chối trước khi sửa entity nào: phần còn lại của taker
+                // nằm trên book (LIMIT) hoặc bị huỷ (MARKET)
+                log.error("❌ Futures trade {} vs {} failed: {}", maker.getId(), taker.getId(), e.getMessage());
+                break;
+            }
+            book.fill(maker, tradeQuantity);
+            fills++;
+        }
+
+        if (isMarket(taker) && taker.getQuantity().signum() > 0) {
+            futuresTradingService.cancelRemainder(cycle, taker);
+        }
+
+        if (!cycle.isEmpty()) {
+            try {
+                futuresTradingService.settle(cycle);
+            } catch (Exception e) {
+                // Không fill nào được ghi: DB vẫn là trạng thái trước chu kỳ
+                log.error("❌ Futures settlement for order {} failed, rebuilding {} book: {}", taker.getId(),
+                        taker.getSymbol(), e.getMessage());
+                rebuild(taker.getSymbol());
+                if (isMarket(taker)) {
+                    cancelAfterFailure(taker);
+                }
+                return null;
+            }
+        }
+
+        if (taker.getQuantity().signum() > 0 && taker.getType() == FuturesOrder.OrderType.LIMIT) {
+            book.add(taker);
+        }
+        book.getDepth().publish();
+        log.info("⚡ Futures order {} matched {} times", taker.getId(), fills);
+        return cycle;
+    }
+
+    // Lệnh MARKET không có trên book sau khi dựng lại: huỷ theo bản trong DB để
+    // margin không bị khoá mãi
+    private void cancelAfterFailure(FuturesOrder taker) {
+        futuresOrderRepository.findById(taker.getId())
+                .filter(order -> RESTING_STATUSES.contains(order.getStatus()))
+                .ifPresent(order -> cancelStale(order.getSymbol(), List.of(order)));
+    }
+
+    private static boolean isLiquidation(FuturesOrder order) {
+        return order.getType() == FuturesOrder.OrderType.LIQUIDATION;
+    }
+
+    private static boolean isMarket(FuturesOrder order) {
+        return order.getType() == FuturesOrder.OrderType.MARKET;
+    }
+
+    // Chỉ chạy trên lane của symbol. Lệnh MARKET đã commit nhưng chưa khớp được
+    // bỏ qua: task của chúng trên lane sẽ khớp hoặc huỷ chúng
+    private void rebuild(String symbol) {
+        books.remove(symbol);
+        marketDepthService.futuresDepth(symbol).clear();
+        FuturesOrderBook book = bookFor(symbol);
+        for (FuturesOrder order : futuresOrderRepository.findBySymbolAndStatusInOrderByIdAsc(symbol,
+                RESTING_STATUSES)) {
+            if (order.getQuantity().signum() > 0 && book.canRest(order)) {
+                book.add(order);
+            }
+        }
+        book.getDepth().publish();
+    }
+
+    private FuturesOrderBook bookFor(String symbol) {
+        return books.computeIfAbsent(symbol,
+                s -> new FuturesOrderBook(symbolSpecRegistry.get(s), marketDepthService.futuresDepth(s)));
+    }
+
+    private static String lane(String symbol) {
+        return "futures:" + symbol;
+    }
+}
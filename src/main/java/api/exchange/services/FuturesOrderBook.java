@@ -0,0 +1,148 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import api.exchange.models.FuturesOrder;
+
+/**
+ * Order book futures trong bộ nhớ cho một symbol (price-time priority), giá theo
+ * tick của {@link SymbolSpec}. {@code quantity} của {@link FuturesOrder} là khối
+ * lượng còn lại, do tầng thanh toán cập nhật; book chỉ sắp xếp lệnh và phản ánh
+ * các mức giá vào {@link DepthBook}. Chỉ lệnh LIMIT nằm trên book; taker MARKET
+ * không có giá giới hạn (giá mark lúc đặt lệnh chỉ dùng để tính ký quỹ, có thể
+ * lệch lưới tick) nên cắt mọi mức giá.
+ * Không thread-safe: chỉ lane matching của symbol được phép ghi.
+ */
+public class FuturesOrderBook {
+
+    private final SymbolSpec spec;
+    private final DepthBook depth;
+
+    // Bids: giá cao nhất trước, Asks: giá thấp nhất trước
+    private final TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> bids = new TreeMap<>(Collections.reverseOrder());
+    private final TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> asks = new TreeMap<>();
+
+    private final Map<Long, FuturesOrder> orderIndex = new HashMap<>();
+
+    public FuturesOrderBook(SymbolSpec spec, DepthBook depth) {
+        this.spec = spec;
+        this.depth = depth;
+    }
+
+    public DepthBook getDepth() {
+        return depth;
+    }
+
+    /**
+     * Thêm lệnh LIMIT vào cuối hàng đợi của mức giá.
+     *
+     * @throws IllegalArgumentException nếu lệnh không phải LIMIT
+     * @throws ArithmeticException      nếu giá/khối lượng lệch lưới tick/lot
+     */
+    public void add(FuturesOrder order) {
+        if (!isLimit(order)) {
+            throw new IllegalArgumentException("Only LIMIT orders rest on the book: " + order.getId());
+        }
+        long priceTicks = spec.toTicks(order.getPrice());
+        long lots = spec.toLots(order.getQuantity());
+        sideOf(order).computeIfAbsent(priceTicks, p -> new LinkedHashMap<>()).put(order.getId(), order);
+        orderIndex.put(order.getId(), order);
+        depth.add(isBuy(order), priceTicks, lots);
+    }
+
+    /**
+     * @return true nếu lệnh được nằm trên book: LIMIT với giá và khối lượng đúng
+     *         lưới tick/lot
+     */
+    public boolean canRest(FuturesOrder order) {
+        return isLimit(order) && spec.isValidPrice(order.getPrice()) && spec.isValidQuantity(order.getQuantity());
+    }
+
+    /**
+     * @return lệnh maker tốt nhất khớp được với taker, hoặc null nếu không còn
+     *         mức giá nào cắt nhau
+     */
+    public FuturesOrder bestMaker(FuturesOrder taker) {
+        TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> opposite = isBuy(taker) ? asks : bids;
+        Map.Entry<Long, LinkedHashMap<Long, FuturesOrder>> best = opposite.firstEntry();
+        if (best == null) {
+            return null;
+        }
+        if (isMarket(taker)) {
+            return best.getValue().values().iterator().next();
+        }
+        long takerTicks = spec.toTicks(taker.getPrice());
+        boolean crosses = isBuy(taker) ? takerTicks >= best.getKey() : takerTicks <= best.getKey();
+        return crosses ? best.getValue().values().iterator().next() : null;
+    }
+
+    /**
+     * Ghi nhận maker vừa khớp {@code quantity} (quantity của entity đã được trừ);
+     * gỡ maker khỏi book khi khớp hết.
+     */
+    public void fill(FuturesOrder maker, BigDecimal quantity) {
+        boolean removed = maker.getQuantity().signum() <= 0;
+        depth.reduce(isBuy(maker), spec.toTicks(maker.getPrice()), spec.toLots(quantity), removed);
+        if (removed) {
+            detach(maker);
+        }
+    }
+
+    /**
+     * Gỡ lệnh khỏi book theo id.
+     *
+     * @return lệnh đã gỡ (quantity còn lại mới nhất), hoặc null nếu không còn trong
+     *         book
+     */
+    public FuturesOrder cancel(Long orderId) {
+        FuturesOrder order = orderIndex.get(orderId);
+        if (order == null) {
+            return null;
+        }
+        depth.reduce(isBuy(order), spec.toTicks(order.getPrice()), spec.toLots(order.getQuantity()), true);
+        detach(order);
+        return order;
+    }
+
+    public boolean contains(Long orderId) {
+        return orderIndex.containsKey(orderId);
+    }
+
+    public int size() {
+        return orderIndex.size();
+    }
+
+    private void detach(FuturesOrder order) {
+        orderIndex.remove(order.getId());
+        TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> side = sideOf(order);
+        long priceTicks = spec.toTicks(order.getPrice());
+        LinkedHashMap<Long, FuturesOrder> level = side.get(priceTicks);
+        if (level != null) {
+            level.remove(order.getId());
+            if (level.isEmpty()) {
+                side.remove(priceTicks);
+            }
+        }
+    }
+
+    private TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> sideOf(FuturesOrder order) {
+        return isBuy(order) ? bids : asks;
+    }
+
+    private static boolean isBuy(FuturesOrder order) {
+        return order.getSide() == FuturesOrder.OrderSide.BUY;
+    }
+
+    private static boolean isLimit(FuturesOrder order) {
+        return order.getType() == FuturesOrder.OrderType.LIMIT;
+    }
+
+    private static boolean isMarket(FuturesOrder order) {
+        return order.getType() == FuturesOrder.OrderType.MARKET;
+    }
+}
@@ -8,14 +8,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class FuturesOrderService {
@@ -23,9 +21,6 @@ public class FuturesOrderService {
     @Autowired
     private FuturesOrderRepository futuresOrderRepository;
 
-    @Autowired
-    private FuturesTradingService futuresTradingService;
-
     @Autowired
     private FuturesPositionRepository futuresPositionRepository;
 
@@ -33,54 +28,38 @@ public class FuturesOrderService {
     private FuturesWalletRepository futuresWalletRepository;
 
     @Autowired
-    private CoinDataService coinDataService;
+    private FuturesRiskEngine futuresRiskEngine;
+
+    @Autowired
+    private FuturesPriceRegistry futuresPriceRegistry;
 
     @Autowired
     private api.exchange.websocket.FuturesOrderWebSocket futuresOrderWebSocket;
 
-    // ==================== SCHEDULED MATCHING ====================
+    @Autowired
+    private MarketDepthService marketDepthService;
 
-    @Scheduled(fixedRate = 1000) // Run every second
-    @Transactional
-    public void matchLimitOrders() {
-        // P2P Matching Engine Trigger
-        // Hardcoded symbols for MVP or fetch from DB
-        List<String> activeSymbols = Arrays.asList("BTCUSDT", "ETHUSDT", "BNBUSDT");
+    @Autowired
+    private FuturesMatchingEngine futuresMatchingEngine;
 
-        for (String symbol : activeSymbols) {
-            futuresTradingService.matchOrders(symbol);
-        }
-    }
+    @Autowired
+    private FuturesTriggerEngine futuresTriggerEngine;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    @Autowired
+    private FuturesAccountCache futuresAccountCache;
 
     public Map<String, Object> getOrderBook(String symbol, int limit) {
-        List<FuturesOrder.OrderStatus> activeStatuses = Arrays.asList(
-                FuturesOrder.OrderStatus.PENDING,
-                FuturesOrder.OrderStatus.PARTIALLY_FILLED);
-
-        List<FuturesOrder> buyOrders = futuresOrderRepository
-                .findBySymbolAndSideAndStatusInAndType(
-                        symbol,
-                        FuturesOrder.OrderSide.BUY,
-                        activeStatuses,
-                        FuturesOrder.OrderType.LIMIT,
-                        PageRequest.of(0, limit, Sort.by("price").descending()));
-
-        List<FuturesOrder> sellOrders = futuresOrderRepository
-                .findBySymbolAndSideAndStatusInAndType(
-                        symbol,
-                        FuturesOrder.OrderSide.SELL,
-                        activeStatuses,
-                        FuturesOrder.OrderType.LIMIT,
-                        PageRequest.of(0, limit, Sort.by("price").ascending()));
-
-        List<List<String>> bids = aggregateOrdersByPrice(buyOrders);
-        List<List<String>> asks = aggregateOrdersByPrice(sellOrders);
+        // Snapshot L2 do engine duy trì, không truy vấn DB
+        DepthBook.Snapshot depth = marketDepthService.futuresSnapshot(symbol);
 
         return Map.of(
                 "symbol", symbol,
-                "lastUpdateId", System.currentTimeMillis(),
-                "bids", bids,
-                "asks", asks);
+                "lastUpdateId", depth.getLastUpdateId(),
+                "bids", depth.bids(limit),
+                "asks", depth.asks(limit));
     }
 
     public List<FuturesOrder> getOrders(String uid, String symbol, String status, int limit, int offset) {
@@ -125,7 +104,8 @@ public class FuturesOrderService {
     @Transactional
     public FuturesOrder placeOrder(String uid, String symbol, FuturesOrder.OrderSide side,
             FuturesOrder.PositionSide positionSide,
-            FuturesOrder.OrderType type, BigDecimal price, BigDecimal quantity, int leverage) {
+            FuturesOrder.OrderType type, BigDecimal price, BigDecimal quantity, int leverage,
+            BigDecimal stopPrice, FuturesOrder.WorkingType workingType) {
 
         if (quantity.compareTo(BigDecimal.ZERO) <= 0) {
             throw new IllegalArgumentException("Quantity must be positive");
@@ -133,13 +113,29 @@ public class FuturesOrderService {
         if (leverage < 1 || leverage > 125) {
             throw new IllegalArgumentException("Invalid leverage");
         }
+        // Kiểm tra tick/lot trước khi khoá margin: book chỉ làm việc trên số tick/lot nguyên
+        SymbolSpec spec = symbolSpecRegistry.get(symbol);
+        if (!spec.isValidQuantity(quantity)) {
+            throw new IllegalArgumentException("Quantity must be a multiple of lot size " + spec.getLotSize());
+        }
+        if (type != FuturesOrder.OrderType.MARKET && price != null && !spec.isValidPrice(price)) {
+            throw new IllegalArgumentException("Price must be a multiple of tick size " + spec.getTickSize());
+        }
+        if (stopPrice != null && !spec.isValidPrice(stopPrice)) {
+            throw new IllegalArgumentException("Stop price must be a multiple of tick size " + spec.getTickSize());
+        }
 
-        BigDecimal currentPrice = coinDataService.getCurrentPrice(symbol);
+        BigDecimal currentPrice = futuresPriceRegistry.getPrice(symbol);
         if (currentPrice.compareTo(BigDecimal.ZERO) == 0) {
             throw new RuntimeException("Price unavailable for symbol: " + symbol);
         }
+        futuresMatchingEngine.checkCapacity(symbol);
 
+        boolean trigger = TriggerBook.isTrigger(type);
         BigDecimal executionPrice = (type == FuturesOrder.OrderType.MARKET) ? currentPrice : price;
+        if (trigger) {
+            executionPrice = validateTrigger(symbol, side, type, price, stopPrice, workingType);
+        }
 
         // Self-Trade Prevention (STP) Check
         if (type == FuturesOrder.OrderType.LIMIT) {
@@ -184,21 +180,29 @@ public class FuturesOrderService {
         order.setPrice(executionPrice);
         order.setQuantity(quantity);
         order.setLeverage(leverage);
-        order.setStatus(FuturesOrder.OrderStatus.PENDING);
+        order.setStatus(trigger ? FuturesOrder.OrderStatus.UNTRIGGERED : FuturesOrder.OrderStatus.PENDING);
+        if (trigger) {
+            order.setStopPrice(stopPrice);
+            order.setWorkingType(workingType != null ? workingType : FuturesOrder.WorkingType.MARK_PRICE);
+        }
 
         wallet.setLockedBalance(wallet.getLockedBalance().add(requiredMargin));
         futuresWalletRepository.save(wallet);
+        futuresAccountCache.putAfterCommit(wallet);
+        futuresRiskEngine.onAccountChanged(wallet.getUid());
 
         futuresOrderRepository.save(order);
 
-        // Trigger Matching Engine
-        futuresTradingService.matchOrders(symbol);
+        if (trigger) {
+            // Lệnh điều kiện chờ giá trong book kích hoạt, chưa vào khớp
+            futuresTriggerEngine.registerAfterCommit(order);
+        } else {
+            // Trigger Matching Engine (khớp trên lane của symbol sau khi commit)
+            futuresMatchingEngine.submitAfterCommit(order);
+        }
 
         // Send WebSocket Updates
         futuresOrderWebSocket.sendUserOrderUpdate(order);
-        if (order.getType() == FuturesOrder.OrderType.LIMIT) {
-            futuresOrderWebSocket.broadcastOrderBookUpdate(order);
-        }
 
         return order;
     }
@@ -216,10 +220,25 @@ public class FuturesOrderService {
         }
 
         if (order.getStatus() != FuturesOrder.OrderStatus.PENDING &&
-                order.getStatus() != FuturesOrder.OrderStatus.PARTIALLY_FILLED) {
+                order.getStatus() != FuturesOrder.OrderStatus.PARTIALLY_FILLED &&
+                order.getStatus() != FuturesOrder.OrderStatus.UNTRIGGERED) {
             throw new RuntimeException("Cannot cancel order in current status: " + order.getStatus());
         }
 
+        if (order.getStatus() == FuturesOrder.OrderStatus.UNTRIGGERED) {
+            // Gỡ khỏi book lệnh điều kiện để lệnh không còn được kích hoạt
+            if (futuresTriggerEngine.cancel(order) == null) {
+                throw new RuntimeException("Cannot cancel order: order is being triggered");
+            }
+        } else {
+            // Gỡ khỏi book trên lane trước để lệnh không còn được khớp
+            FuturesOrder live = futuresMatchingEngine.cancel(order);
+            if (live == null) {
+                throw new RuntimeException("Cannot cancel order: order is no longer on the book");
+            }
+            order.setQuantity(live.getQuantity());
+        }
+
         FuturesWallet wallet = futuresWalletRepository
                 .findByUidAndCurrency(uid, "USDT")
                 .orElseThrow(() -> new RuntimeException("Wallet not found"));
@@ -233,30 +252,49 @@ public class FuturesOrderService {
             wallet.setLockedBalance(BigDecimal.ZERO);
         }
         futuresWalletRepository.save(wallet);
+        futuresAccountCache.putAfterCommit(wallet);
+        futuresRiskEngine.onAccountChanged(wallet.getUid());
 
         order.setStatus(FuturesOrder.OrderStatus.CANCELLED);
         futuresOrderRepository.save(order);
 
         // Send WebSocket Updates
         futuresOrderWebSocket.sendUserOrderUpdate(order);
-        if (order.getType() == FuturesOrder.OrderType.LIMIT) {
-            futuresOrderWebSocket.broadcastOrderBookUpdate(order);
-        }
     }
 
     // ==================== HELPER METHODS ====================
 
-    private List<List<String>> aggregateOrdersByPrice(List<FuturesOrder> orders) {
-        Map<BigDecimal, BigDecimal> priceMap = new LinkedHashMap<>();
-
-        for (FuturesOrder order : orders) {
-            priceMap.merge(order.getPrice(), order.getQuantity(), BigDecimal::add);
+    /**
+     * Kiểm tra lệnh điều kiện và trả về giá dùng để khoá ký quỹ (giá LIMIT, hoặc
+     * stopPrice với lệnh *_MARKET). Từ chối lệnh sẽ kích hoạt ngay lập tức.
+     */
+    private BigDecimal validateTrigger(String symbol, FuturesOrder.OrderSide side, FuturesOrder.OrderType type,
+            BigDecimal price, BigDecimal stopPrice, FuturesOrder.WorkingType workingType) {
+        if (stopPrice == null || stopPrice.compareTo(BigDecimal.ZERO) <= 0) {
+            throw new IllegalArgumentException("Stop price must be positive");
+        }
+        boolean limit = type == FuturesOrder.OrderType.STOP_LIMIT || type == FuturesOrder.OrderType.TAKE_PROFIT_LIMIT;
+        if (limit && (price == null || price.compareTo(BigDecimal.ZERO) <= 0)) {
+            throw new IllegalArgumentException("Price must be positive");
         }
 
-        return priceMap.entrySet().stream()
-                .map(e -> Arrays.asList(
-                        e.getKey().toPlainString(),
-                        e.getValue().toPlainString()))
-                .collect(Collectors.toList());
+        BigDecimal referencePrice = null;
+        FuturesPriceRegistry.Quote quote = futuresPriceRegistry.get(symbol);
+        if (quote != null) {
+            referencePrice = workingType == FuturesOrder.WorkingType.CONTRACT_PRICE ? quote.getLastPrice()
+                    : quote.getMarkPrice();
+        }
+        if (referencePrice == null) {
+            referencePrice = futuresPriceRegistry.getPrice(symbol);
+        }
+        FuturesOrder probe = new FuturesOrder();
+        probe.setSide(side);
+        probe.setType(type);
+        boolean rising = TriggerBook.triggersOnRise(probe);
+        int cmp = referencePrice.compareTo(stopPrice);
+        if (rising ? cmp >= 0 : cmp <= 0) {
+            throw new RuntimeException("Order would immediately trigger");
+        }
+        return limit ? price : stopPrice;
     }
 }
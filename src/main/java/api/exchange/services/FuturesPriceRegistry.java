@@ -0,0 +1,132 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import api.exchange.models.FuturesOrder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Giá mark/index/last của các symbol futures, cập nhật từ stream
+ * {@code !markPrice@arr@1s} và {@code !ticker@arr} của Binance. Mỗi lần cập nhật
+ * thay {@link Quote} bất biến của symbol nên người đọc không khoá và không chạm
+ * DB. Mỗi giá mang thời điểm nhận để phát hiện dữ liệu cũ khi stream bị ngắt.
+ */
+@Component
+@Slf4j
+public class FuturesPriceRegistry {
+
+    @Value("${futures.price.max-age-ms:5000}")
+    private long maxAgeMillis;
+
+    @Autowired
+    private CoinDataService coinDataService;
+
+    @Autowired
+    private LiquidationService liquidationService;
+
+    @Autowired
+    private FuturesRiskEngine futuresRiskEngine;
+
+    @Autowired
+    private FuturesTriggerEngine futuresTriggerEngine;
+
+    private final Map<String, Quote> quotes = new ConcurrentHashMap<>();
+
+    /**
+     * Mark price, index price và funding rate mới từ stream; các vị thế bị mark
+     * price cắt qua được thanh lý, lệnh điều kiện theo mark price được kích hoạt
+     * và PnL của các tài khoản được định giá lại.
+     */
+    public void onMarkPrice(String symbol, BigDecimal markPrice, BigDecimal indexPrice, BigDecimal fundingRate,
+            long nextFundingTime) {
+        long now = System.currentTimeMillis();
+        quotes.compute(symbol, (s, q) -> new Quote(s,
+                markPrice, now,
+                indexPrice, now,
+                q != null ? q.lastPrice : null, q != null ? q.lastUpdatedAt : 0,
+                fundingRate, nextFundingTime));
+        liquidationService.onMarkPrice(symbol, markPrice);
+        futuresRiskEngine.onMarkPrice(symbol, markPrice);
+        futuresTriggerEngine.onPrice(symbol, FuturesOrder.WorkingType.MARK_PRICE, markPrice);
+    }
+
+    /**
+     * Giá khớp cuối mới từ stream ticker; kích hoạt lệnh điều kiện theo giá khớp.
+     */
+    public void onLastPrice(String symbol, BigDecimal lastPrice) {
+        long now = System.currentTimeMillis();
+        quotes.compute(symbol, (s, q) -> q == null
+                ? new Quote(s, null, 0, null, 0, lastPrice, now, null, 0)
+                : new Quote(s, q.markPrice, q.markUpdatedAt, q.indexPrice, q.indexUpdatedAt,
+                        lastPrice, now, q.fundingRate, q.nextFundingTime));
+        futuresTriggerEngine.onPrice(symbol, FuturesOrder.WorkingType.CONTRACT_PRICE, lastPrice);
+    }
+
+    /**
+     * @return giá mới nhất của symbol, hoặc null nếu stream chưa gửi dữ liệu
+     */
+    public Quote get(String symbol) {
+        return quotes.get(symbol);
+    }
+
+    /**
+     * Giá dùng để định giá vị thế, theo thứ tự ưu tiên: mark, index, last còn mới;
+     * rồi giá coin trong DB; cuối cùng là mark price cũ nếu DB cũng không có.
+     *
+     * @return giá, hoặc {@link BigDecimal#ZERO} nếu không có nguồn nào
+     */
+    public BigDecimal getPrice(String symbol) {
+        Quote quote = quotes.get(symbol);
+        long now = System.currentTimeMillis();
+        if (quote != null) {
+            if (isFresh(quote.markPrice, quote.markUpdatedAt, now)) {
+                return quote.markPrice;
+            }
+            if (isFresh(quote.indexPrice, quote.indexUpdatedAt, now)) {
+                return quote.indexPrice;
+            }
+            if (isFresh(quote.lastPrice, quote.lastUpdatedAt, now)) {
+                return quote.lastPrice;
+            }
+        }
+
+        BigDecimal dbPrice = coinDataService.getCurrentPrice(symbol);
+        if (dbPrice.signum() > 0) {
+            return dbPrice;
+        }
+        if (quote != null && quote.markPrice != null && quote.markPrice.signum() > 0) {
+            log.warn("⚠️ Using stale mark price for {} ({} ms old)", symbol, now - quote.markUpdatedAt);
+            return quote.markPrice;
+        }
+        return BigDecimal.ZERO;
+    }
+
+    private boolean isFresh(BigDecimal price, long updatedAt, long now) {
+        return price != null && price.signum() > 0 && now - updatedAt <= maxAgeMillis;
+    }
+
+    /**
+     * Ảnh chụp giá bất biến của một symbol; thời điểm là lúc nhận (epoch ms).
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Quote {
+        private final String symbol;
+        private final BigDecimal markPrice;
+        private final long markUpdatedAt;
+        private final BigDecimal indexPrice;
+        private final long indexUpdatedAt;
+        private final BigDecimal lastPrice;
+        private final long lastUpdatedAt;
+        private final BigDecimal fundingRate;
+        private final long nextFundingTime;
+    }
+}
@@ -0,0 +1,396 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import api.exchange.dtos.Response.FuturesWalletResponse;
+import api.exchange.models.FuturesPosition;
+import api.exchange.models.FuturesWallet;
+import api.exchange.repository.FuturesPositionRepository;
+import api.exchange.repository.FuturesWalletRepository;
+import api.exchange.websocket.FuturesOrderWebSocket;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Rủi ro theo tài khoản futures trong bộ nhớ: số dư ví USDT, các vị thế OPEN và
+ * PnL chưa thực hiện của từng vị thế. Mỗi mark price chỉ định giá lại các vị thế
+ * của symbol đó và cộng phần chênh lệch vào tổng của tài khoản.
+ * Mọi trạng thái chỉ được ghi trên một thread riêng; mỗi thay đổi công bố một
+ * {@link FuturesWalletResponse} mới qua biến volatile (endpoint ví đọc không
+ * khoá, không chạm DB) và đẩy tới {@code /topic/futures/orders/{uid}}.
+ * Việc đọc DB chạy trên các thread loader, thread risk chỉ áp kết quả nên một
+ * truy vấn chậm không làm trễ việc định giá lại. Tài khoản không còn vị thế và
+ * không được đọc trong {@code futures.risk.idle-evict-ms} bị gỡ khỏi bộ nhớ.
+ */
+@Component
+@Slf4j
+public class FuturesRiskEngine {
+
+    public static final String CURRENCY = "USDT";
+
+    private static final long LOAD_TIMEOUT_SECONDS = 5;
+
+    @Autowired
+    private FuturesWalletRepository futuresWalletRepository;
+
+    @Autowired
+    private FuturesPositionRepository futuresPositionRepository;
+
+    @Autowired
+    private FuturesOrderWebSocket futuresOrderWebSocket;
+
+    // Registry gọi ngược vào engine ở mỗi mark price
+    @Autowired
+    @Lazy
+    private FuturesPriceRegistry futuresPriceRegistry;
+
+    private static final int LOADER_THREADS = 2;
+
+    @Value("${futures.risk.idle-evict-ms:300000}")
+    private long idleEvictMs;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "futures-risk");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicInteger loaderThreads = new AtomicInteger();
+    private final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS, r -> {
+        Thread thread = new Thread(r, "futures-risk-loader-" + loaderThreads.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Thứ tự bắt đầu đọc DB: kết quả đọc trước không được ghi đè kết quả đọc sau
+    private final AtomicLong readSequence = new AtomicLong();
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    // symbol -> các uid đang có vị thế OPEN trên symbol
+    private final Map<String, Set<String>> holders = new ConcurrentHashMap<>();
+
+    // Tick và yêu cầu nạp lại đang chờ được gộp lại, chỉ giữ giá mới nhất
+    private final Map<String, BigDecimal> markPrices = new ConcurrentHashMap<>();
+    private final Set<String> pendingSymbols = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingReloads = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Nạp các tài khoản đang có vị thế mở để chúng được đẩy theo giá ngay từ đầu.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        loader.execute(() -> {
+            long sequence = readSequence.incrementAndGet();
+            List<FuturesPosition> openPositions = futuresPositionRepository
+                    .findByStatus(FuturesPosition.PositionStatus.OPEN);
+            Map<String, List<FuturesPosition>> byUid = openPositions.stream()
+                    .collect(Collectors.groupingBy(FuturesPosition::getUid));
+            Map<String, FuturesWallet> wallets = futuresWalletRepository
+                    .findByCurrencyAndUidIn(CURRENCY, byUid.keySet()).stream()
+                    .collect(Collectors.toMap(FuturesWallet::getUid, w -> w, (a, b) -> a));
+            executor.execute(() -> {
+                for (Map.Entry<String, List<FuturesPosition>> entry : byUid.entrySet()) {
+                    apply(entry.getKey(), sequence, wallets.get(entry.getKey()), entry.getValue(), false);
+                }
+                log.info("📚 Loaded futures risk for {} accounts", byUid.size());
+            });
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return trạng thái ví mới nhất của tài khoản, hoặc null nếu chưa được nạp
+     */
+    public FuturesWalletResponse get(String uid) {
+        Account account = accounts.get(uid);
+        if (account == null) {
+            return null;
+        }
+        account.lastReadAt = System.currentTimeMillis();
+        return account.snapshot;
+    }
+
+    /**
+     * Nạp tài khoản từ DB trên thread loader, áp vào engine rồi chờ kết quả (lần
+     * đọc đầu tiên của tài khoản chưa có vị thế).
+     */
+    public FuturesWalletResponse load(String uid) {
+        CompletableFuture<FuturesWalletResponse> result = reload(uid, false).thenApply(account -> {
+            account.lastReadAt = System.currentTimeMillis();
+            return account.snapshot;
+        });
+        try {
+            return result.get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading futures account " + uid, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Futures risk engine unavailable for " + uid, e);
+        }
+    }
+
+    /**
+     * Ví hoặc vị thế của tài khoản vừa thay đổi: nạp lại sau khi transaction hiện
+     * tại commit (mỗi uid một lần cho mỗi transaction).
+     */
+    public void onAccountChanged(String uid) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            requestReload(List.of(uid));
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> changed = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (changed == null) {
+            Set<String> uids = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, uids);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    requestReload(uids);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(FuturesRiskEngine.this);
+                }
+            });
+            changed = uids;
+        }
+        changed.add(uid);
+    }
+
+    /**
+     * Mark price mới: định giá lại các tài khoản có vị thế trên symbol.
+     */
+    public void onMarkPrice(String symbol, BigDecimal markPrice) {
+        if (markPrice == null || markPrice.signum() <= 0 || !holders.containsKey(symbol)) {
+            return;
+        }
+        markPrices.put(symbol, markPrice);
+        if (pendingSymbols.add(symbol)) {
+            executor.execute(() -> {
+                pendingSymbols.remove(symbol);
+                reprice(symbol, markPrices.get(symbol));
+            });
+        }
+    }
+
+    /**
+     * Gỡ các tài khoản không còn vị thế mở và lâu không được đọc; lần đọc sau sẽ
+     * nạp lại từ DB.
+     */
+    @Scheduled(fixedDelayString = "${futures.risk.idle-evict-ms:300000}")
+    public void evictIdle() {
+        executor.execute(() -> {
+            long cutoff = System.currentTimeMillis() - idleEvictMs;
+            int before = accounts.size();
+            accounts.values().removeIf(account -> account.positions.isEmpty() && account.lastReadAt < cutoff);
+            if (accounts.size() < before) {
+                log.info("🧹 Evicted {} idle futures accounts", before - accounts.size());
+            }
+        });
+    }
+
+    private void requestReload(Collection<String> uids) {
+        for (String uid : uids) {
+            if (pendingReloads.add(uid)) {
+                reload(uid, true).exceptionally(e -> {
+                    log.error("❌ Failed to reload futures account {}: {}", uid, e.getMessage());
+                    return null;
+                });
+            }
+        }
+    }
+
+    // Đọc DB trên thread loader, áp kết quả trên thread futures-risk
+    private CompletableFuture<Account> reload(String uid, boolean push) {
+        return CompletableFuture.supplyAsync(() -> {
+            pendingReloads.remove(uid);
+            long sequence = readSequence.incrementAndGet();
+            FuturesWallet wallet = futuresWalletRepository.findByUidAndCurrency(uid, CURRENCY).orElse(null);
+            List<FuturesPosition> positions = futuresPositionRepository
+                    .findByUidAndStatus(uid, FuturesPosition.PositionStatus.OPEN);
+            return new Loaded(sequence, wallet, positions);
+        }, loader).thenApplyAsync(loaded -> apply(uid, loaded.sequence(), loaded.wallet(), loaded.positions(), push),
+                executor);
+    }
+
+    // Các hàm dưới đây chỉ chạy trên thread futures-risk
+
+    private Account apply(String uid, long sequence, FuturesWallet wallet, List<FuturesPosition> positions,
+            boolean push) {
+        Account account = accounts.computeIfAbsent(uid, Account::new);
+        if (sequence < account.loadedSequence) {
+            // Một lần đọc bắt đầu sau đã được áp: bỏ kết quả cũ hơn
+            return account;
+        }
+        account.loadedSequence = sequence;
+        for (String symbol : account.symbols()) {
+            unhold(symbol, uid);
+        }
+        account.balance = wallet != null ? wallet.getBalance() : BigDecimal.ZERO;
+        account.locked = wallet != null ? wallet.getLockedBalance() : BigDecimal.ZERO;
+        account.positions.clear();
+        account.unrealizedPnl = BigDecimal.ZERO;
+        account.positionValue = BigDecimal.ZERO;
+
+        Map<String, BigDecimal> prices = new HashMap<>();
+        for (FuturesPosition position : positions) {
+            PositionRisk risk = new PositionRisk(position);
+            BigDecimal price = prices.computeIfAbsent(risk.symbol, futuresPriceRegistry::getPrice);
+            account.positions.put(risk.id, risk);
+            account.reprice(risk, price);
+            holders.computeIfAbsent(risk.symbol, s -> ConcurrentHashMap.newKeySet()).add(uid);
+        }
+        publish(account, push);
+        return account;
+    }
+
+    private void reprice(String symbol, BigDecimal markPrice) {
+        Set<String> uids = holders.get(symbol);
+        if (uids == null || markPrice == null) {
+            return;
+        }
+        for (String uid : uids) {
+            Account account = accounts.get(uid);
+            if (account == null) {
+                continue;
+            }
+            for (PositionRisk risk : account.positions.values()) {
+                if (risk.symbol.equals(symbol)) {
+                    account.reprice(risk, markPrice);
+                }
+            }
+            publish(account, true);
+        }
+    }
+
+    private void unhold(String symbol, String uid) {
+        Set<String> uids = holders.get(symbol);
+        if (uids != null) {
+            uids.remove(uid);
+            if (uids.isEmpty()) {
+                holders.remove(symbol);
+            }
+        }
+    }
+
+    private void publish(Account account, boolean push) {
+        FuturesWalletResponse next = account.toResponse();
+        if (next.equals(account.snapshot)) {
+            return;
+        }
+        account.snapshot = next;
+        if (push) {
+            futuresOrderWebSocket.sendUserAccountUpdate(account.uid, next);
+        }
+    }
+
+    private static class Account {
+        private final String uid;
+        private final Map<Long, PositionRisk> positions = new HashMap<>();
+        private BigDecimal balance = BigDecimal.ZERO;
+        private BigDecimal locked = BigDecimal.ZERO;
+        private BigDecimal unrealizedPnl = BigDecimal.ZERO;
+        private BigDecimal positionValue = BigDecimal.ZERO;
+
+        private long loadedSequence;
+
+        private volatile FuturesWalletResponse snapshot;
+        private volatile long lastReadAt = System.currentTimeMillis();
+
+        private Account(String uid) {
+            this.uid = uid;
+        }
+
+        private Set<String> symbols() {
+            Set<String> symbols = new HashSet<>();
+            for (PositionRisk risk : positions.values()) {
+                symbols.add(risk.symbol);
+            }
+            return symbols;
+        }
+
+        /** Định giá lại một vị thế và cộng phần chênh lệch vào tổng tài khoản. */
+        private void reprice(PositionRisk risk, BigDecimal price) {
+            BigDecimal pnl = BigDecimal.ZERO;
+            BigDecimal value = BigDecimal.ZERO;
+            if (price != null && price.signum() > 0) {
+                pnl = risk.side == FuturesPosition.PositionSide.LONG
+                        ? price.subtract(risk.entryPrice).multiply(risk.quantity)
+                        : risk.entryPrice.subtract(price).multiply(risk.quantity);
+                value = price.multiply(risk.quantity);
+            }
+            unrealizedPnl = unrealizedPnl.add(pnl.subtract(risk.unrealizedPnl));
+            positionValue = positionValue.add(value.subtract(risk.positionValue));
+            risk.unrealizedPnl = pnl;
+            risk.positionValue = value;
+        }
+
+        private FuturesWalletResponse toResponse() {
+            BigDecimal marginRatio = BigDecimal.ZERO;
+            if (balance.compareTo(BigDecimal.ZERO) > 0) {
+                marginRatio = locked.divide(balance, 4, RoundingMode.HALF_UP).multiply(BigDecimal.valueOf(100));
+            }
+            return new FuturesWalletResponse(CURRENCY, balance, locked, balance.subtract(locked),
+                    unrealizedPnl.setScale(8, RoundingMode.HALF_UP), positionValue.setScale(8, RoundingMode.HALF_UP),
+                    marginRatio, positions.size());
+        }
+    }
+
+    private record Loaded(long sequence, FuturesWallet wallet, List<FuturesPosition> positions) {
+    }
+
+    private static class PositionRisk {
+        private final long id;
+        private final String symbol;
+        private final FuturesPosition.PositionSide side;
+        private final BigDecimal entryPrice;
+        private final BigDecimal quantity;
+        private final BigDecimal margin;
+        private BigDecimal unrealizedPnl = BigDecimal.ZERO;
+        private BigDecimal positionValue = BigDecimal.ZERO;
+
+        private PositionRisk(FuturesPosition position) {
+            this.id = position.getId();
+            this.symbol = position.getSymbol();
+            this.side = position.getSide();
+            this.entryPrice = position.getEntryPrice();
+            this.quantity = position.getQuantity();
+            this.margin = position.getMargin();
+        }
+    }
+}
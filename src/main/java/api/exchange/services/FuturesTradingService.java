@@ -4,21 +4,27 @@ import api.exchange.models.*;
 import api.exchange.repository.FuturesOrderRepository;
 import api.exchange.repository.FuturesPositionRepository;
 import api.exchange.repository.FuturesWalletRepository;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class FuturesTradingService {
 
+    @Value("${futures.settlement.max-attempts:3}")
+    private int maxSettlementAttempts;
+
     @Autowired
     private FuturesOrderRepository futuresOrderRepository;
 
@@ -29,11 +35,35 @@ public class FuturesTradingService {
     private FuturesWalletRepository futuresWalletRepository;
 
     @Autowired
-    private CoinDataService coinDataService;
+    private FuturesRiskEngine futuresRiskEngine;
+
+    @Autowired
+    private FuturesPriceRegistry futuresPriceRegistry;
 
     @Autowired
     private api.exchange.websocket.FuturesOrderWebSocket futuresOrderWebSocket;
 
+    @Autowired
+    private MarketDepthService marketDepthService;
+
+    @Autowired
+    @Lazy
+    private FuturesMatchingEngine futuresMatchingEngine;
+
+    @Autowired
+    private LiquidationService liquidationService;
+
+    @Autowired
+    private FuturesAccountCache futuresAccountCache;
+
+    @Autowired
+    private InsuranceFundService insuranceFundService;
+
+    // Proxy của chính bean này để flush chạy trong transaction khi gọi nội bộ
+    @Autowired
+    @Lazy
+    private FuturesTradingService self;
+
     @Transactional
     public FuturesOrder placeOrder(String uid, String symbol, FuturesOrder.OrderSide side,
             FuturesOrder.PositionSide positionSide,
@@ -48,10 +78,11 @@ public class FuturesTradingService {
         }
 
         // 2. Get Current Price (Mark Price)
-        BigDecimal currentPrice = coinDataService.getCurrentPrice(symbol);
+        BigDecimal currentPrice = futuresPriceRegistry.getPrice(symbol);
         if (currentPrice.compareTo(BigDecimal.ZERO) == 0) {
             throw new RuntimeException("Price unavailable for symbol: " + symbol);
         }
+        futuresMatchingEngine.checkCapacity(symbol);
 
         // 3. Calculate Required Margin
         // Initial Margin = (Price * Quantity) / Leverage
@@ -83,35 +114,151 @@ public class FuturesTradingService {
         // 6. Lock Margin
         wallet.setLockedBalance(wallet.getLockedBalance().add(requiredMargin));
         futuresWalletRepository.save(wallet);
+        futuresRiskEngine.onAccountChanged(wallet.getUid());
 
         futuresOrderRepository.save(order);
 
-        // 7. Trigger Matching Engine
-        matchOrders(symbol);
+        // 7. Trigger Matching Engine (khớp trên lane của symbol sau khi commit)
+        futuresMatchingEngine.submitAfterCommit(order);
 
         // 8. Send WebSocket Updates
         futuresOrderWebSocket.sendUserOrderUpdate(order);
-        if (order.getType() == FuturesOrder.OrderType.LIMIT) {
-            futuresOrderWebSocket.broadcastOrderBookUpdate(order);
-        }
 
         return order;
     }
 
-    @Transactional
-    public void executeTrade(FuturesOrder makerOrder, FuturesOrder takerOrder, BigDecimal price, BigDecimal quantity) {
+    /**
+     * Áp một fill vào chu kỳ khớp trong bộ nhớ: trừ khối lượng còn lại của hai
+     * lệnh, nhả margin đã khoá theo giá lệnh và cộng vào vị thế. Chưa ghi DB;
+     * {@link #settle} ghi cả chu kỳ một lần. Ném lỗi trước khi sửa entity nào nếu
+     * fill không áp được.
+     */
+    public void applyFill(FuturesFillCycle cycle, FuturesOrder makerOrder, FuturesOrder takerOrder,
+            BigDecimal price, BigDecimal quantity) {
+        // Nạp và kiểm tra tài khoản trước: lỗi ở đây không để lại thay đổi dở dang
+        checkPosition(cycle, makerOrder);
+        checkPosition(cycle, takerOrder);
+
         // 1. Update Orders
-        updateOrderAfterTrade(makerOrder, price, quantity);
-        updateOrderAfterTrade(takerOrder, price, quantity);
+        updateOrderAfterTrade(cycle, makerOrder, quantity);
+        updateOrderAfterTrade(cycle, takerOrder, quantity);
 
-        // 2. Update Positions for Maker
-        updatePosition(makerOrder, price, quantity);
+        // 2. Update Wallets & Positions
+        applyAccounts(cycle, cycle.addFill(makerOrder, takerOrder, price, quantity));
+    }
 
-        // 3. Update Positions for Taker
-        updatePosition(takerOrder, price, quantity);
+    /**
+     * Áp một fill ADL: đóng {@code quantity} của lệnh thanh lý thẳng vào vị thế
+     * đối ứng của {@code counterpartyUid} tại giá phá sản. Với counterpartyUid null
+     * phần còn lại được đóng mà không có đối ứng.
+     *
+     * @return khối lượng thực sự đóng (giới hạn bởi vị thế đối ứng)
+     */
+    public BigDecimal applyAdl(FuturesFillCycle cycle, FuturesOrder liquidationOrder, String counterpartyUid,
+            BigDecimal price, BigDecimal quantity) {
+        checkPosition(cycle, liquidationOrder);
+        BigDecimal closeQuantity = quantity.min(liquidationOrder.getQuantity());
+        if (counterpartyUid != null) {
+            walletOf(cycle, counterpartyUid);
+            FuturesPosition counterparty = positionOf(cycle, counterpartyUid);
+            if (counterparty == null || counterparty.getSide().name().equals(liquidationOrder.getPositionSide().name())) {
+                throw new RuntimeException("No opposite position to auto-deleverage for " + counterpartyUid);
+            }
+            closeQuantity = closeQuantity.min(counterparty.getQuantity());
+        }
+        updateOrderAfterTrade(cycle, liquidationOrder, closeQuantity);
+        applyAccounts(cycle, cycle.addAdlFill(liquidationOrder, counterpartyUid, price, closeQuantity));
+        return closeQuantity;
     }
 
-    private void updateOrderAfterTrade(FuturesOrder order, BigDecimal price, BigDecimal quantity) {
+    /**
+     * Huỷ phần chưa khớp của lệnh trong chu kỳ khớp: lệnh chuyển CANCELLED (giữ
+     * quantity còn lại như {@link #cancelOrder}) và margin đã khoá theo giá lệnh
+     * cho phần đó được nhả. Dùng cho phần còn lại của lệnh MARKET và lệnh không
+     * được nằm lại trên book; chưa ghi DB.
+     */
+    public void cancelRemainder(FuturesFillCycle cycle, FuturesOrder order) {
+        order.setStatus(FuturesOrder.OrderStatus.CANCELLED);
+        cycle.putOrder(order);
+        if (order.getQuantity().signum() > 0) {
+            applyAccounts(cycle, cycle.addCancel(order, order.getQuantity()));
+        }
+    }
+
+    /**
+     * Ghi các lệnh, ví và vị thế của chu kỳ khớp trong một transaction. Nếu ví
+     * hoặc vị thế đã bị nơi khác ghi (version lệch), các tài khoản được nạp lại và
+     * các fill được áp lại, tối đa {@code futures.settlement.max-attempts} lần.
+     */
+    public void settle(FuturesFillCycle cycle) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                self.flush(cycle);
+                break;
+            } catch (OptimisticLockingFailureException e) {
+                futuresAccountCache.evict(cycle.getSymbol(), cycle.getAccountUids());
+                if (attempt >= maxSettlementAttempts) {
+                    throw e;
+                }
+                log.warn("♻️ Futures settlement conflict on {} (attempt {}), reloading accounts",
+                        cycle.getSymbol(), attempt);
+                cycle.resetAccounts();
+                for (FuturesFillCycle.Fill fill : cycle.getFills()) {
+                    if (fill.maker != null) {
+                        checkPosition(cycle, fill.maker);
+                    }
+                    if (!fill.cancelled) {
+                        checkPosition(cycle, fill.taker);
+                    }
+                    applyAccounts(cycle, fill);
+                }
+            } catch (RuntimeException e) {
+                futuresAccountCache.evict(cycle.getSymbol(), cycle.getAccountUids());
+                throw e;
+            }
+        }
+        futuresAccountCache.putAll(cycle.getSymbol(), cycle.getWallets(), cycle.getPositions());
+        for (FuturesOrder order : cycle.getOrders()) {
+            futuresOrderWebSocket.sendUserOrderUpdate(order);
+        }
+    }
+
+    /**
+     * Chỉ gọi qua {@link #settle}; thay các ví/vị thế của chu kỳ bằng bản đã ghi
+     * (version mới).
+     */
+    @Transactional
+    public void flush(FuturesFillCycle cycle) {
+        futuresOrderRepository.saveAll(cycle.getOrders());
+        for (FuturesWallet wallet : futuresWalletRepository.saveAll(new ArrayList<>(cycle.getWallets()))) {
+            cycle.putWallet(wallet);
+            futuresRiskEngine.onAccountChanged(wallet.getUid());
+        }
+        for (FuturesPosition position : futuresPositionRepository.saveAll(new ArrayList<>(cycle.getPositions()))) {
+            cycle.putPosition(position);
+            liquidationService.track(position);
+        }
+        if (cycle.getInsuranceDelta().signum() != 0) {
+            insuranceFundService.apply(cycle.getInsuranceDelta());
+        }
+        // Kiểm tra version ngay trong transaction để lỗi rơi vào settle
+        futuresWalletRepository.flush();
+    }
+
+    private void checkPosition(FuturesFillCycle cycle, FuturesOrder order) {
+        walletOf(cycle, order.getUid());
+        FuturesPosition position = positionOf(cycle, order.getUid());
+        if (position == null && isLiquidation(order)) {
+            throw new RuntimeException("Liquidated position is no longer open");
+        }
+        if (position != null && !position.getSide().name().equals(order.getPositionSide().name())) {
+            // Reduce/Close position (Hedge mode logic or simple close)
+            // For P2P MVP, let's assume One-Way Mode for simplicity or throw error
+            throw new RuntimeException("Opposite side position handling not implemented in MVP");
+        }
+    }
+
+    private void updateOrderAfterTrade(FuturesFillCycle cycle, FuturesOrder order, BigDecimal quantity) {
         BigDecimal remaining = order.getQuantity().subtract(quantity);
         if (remaining.compareTo(BigDecimal.ZERO) == 0) {
             order.setStatus(FuturesOrder.OrderStatus.FILLED);
@@ -122,28 +269,37 @@ public class FuturesTradingService {
         // Note: For simplicity, we don't track cumulative filled quantity/avg price in
         // Order model yet.
         // In a real system, we would have 'filledQuantity' and 'averagePrice' fields.
-        futuresOrderRepository.save(order);
+        cycle.putOrder(order);
+    }
 
-        // Send WebSocket Updates
-        futuresOrderWebSocket.sendUserOrderUpdate(order);
-        if (order.getType() == FuturesOrder.OrderType.LIMIT) {
-            futuresOrderWebSocket.broadcastOrderBookUpdate(order);
+    private void applyAccounts(FuturesFillCycle cycle, FuturesFillCycle.Fill fill) {
+        if (fill.cancelled) {
+            releaseOrderMargin(cycle, fill.taker, fill.quantity);
+            return;
         }
+        if (fill.maker == null) {
+            // ADL: hai vị thế đóng vào nhau tại giá phá sản
+            reducePosition(cycle, fill.taker.getUid(), fill.price, fill.quantity, true);
+            if (fill.counterpartyUid != null) {
+                reducePosition(cycle, fill.counterpartyUid, fill.price, fill.quantity, false);
+            }
+            return;
+        }
+        releaseOrderMargin(cycle, fill.maker, fill.quantity);
+        releaseOrderMargin(cycle, fill.taker, fill.quantity);
+        updatePosition(cycle, fill.maker, fill.price, fill.quantity);
+        updatePosition(cycle, fill.taker, fill.price, fill.quantity);
+    }
 
+    private void releaseOrderMargin(FuturesFillCycle cycle, FuturesOrder order, BigDecimal quantity) {
+        if (isLiquidation(order)) {
+            return; // Lệnh thanh lý không khoá margin
+        }
         // Release Margin for the FILLED portion
-        FuturesWallet wallet = futuresWalletRepository
-                .findByUidAndCurrency(order.getUid(), "USDT")
-                .orElseThrow(() -> new RuntimeException("Wallet not found"));
-
-        BigDecimal tradeValue = price.multiply(quantity);
-        BigDecimal marginToRelease = tradeValue.divide(BigDecimal.valueOf(order.getLeverage()), 8,
-                RoundingMode.HALF_UP);
+        FuturesWallet wallet = walletOf(cycle, order.getUid());
 
-        // Note: The margin locked was based on Order Price, but we release based on
-        // Trade Price?
-        // NO. We must release the margin that was originally locked.
-        // Original Locked = OrderPrice * Qty / Leverage
-        // We should release: OrderPrice * TradeQty / Leverage
+        // The margin locked was based on Order Price, not Trade Price:
+        // release OrderPrice * TradeQty / Leverage
         BigDecimal originalMarginLocked = order.getPrice().multiply(quantity)
                 .divide(BigDecimal.valueOf(order.getLeverage()), 8, RoundingMode.HALF_UP);
 
@@ -151,43 +307,34 @@ public class FuturesTradingService {
         if (wallet.getLockedBalance().compareTo(BigDecimal.ZERO) < 0) {
             wallet.setLockedBalance(BigDecimal.ZERO);
         }
-        futuresWalletRepository.save(wallet);
     }
 
-    private void updatePosition(FuturesOrder order, BigDecimal price, BigDecimal quantity) {
-        Optional<FuturesPosition> existingPosition = futuresPositionRepository.findByUidAndSymbolAndStatus(
-                order.getUid(), order.getSymbol(), FuturesPosition.PositionStatus.OPEN);
+    private void updatePosition(FuturesFillCycle cycle, FuturesOrder order, BigDecimal price, BigDecimal quantity) {
+        if (isLiquidation(order)) {
+            reducePosition(cycle, order.getUid(), price, quantity, true);
+            return;
+        }
+        FuturesWallet wallet = walletOf(cycle, order.getUid());
+        FuturesPosition position = positionOf(cycle, order.getUid());
 
-        FuturesWallet wallet = futuresWalletRepository
-                .findByUidAndCurrency(order.getUid(), "USDT")
-                .orElseThrow(() -> new RuntimeException("Wallet not found"));
+        if (position != null) {
+            // Add to position (phía ngược chiều đã bị checkPosition từ chối)
+            BigDecimal totalQuantity = position.getQuantity().add(quantity);
+            BigDecimal totalCost = position.getQuantity().multiply(position.getEntryPrice())
+                    .add(quantity.multiply(price));
+            BigDecimal newEntryPrice = totalCost.divide(totalQuantity, 8, RoundingMode.HALF_UP);
 
-        FuturesPosition position;
-        if (existingPosition.isPresent()) {
-            position = existingPosition.get();
-            if (position.getSide().name().equals(order.getPositionSide().name())) {
-                // Add to position
-                BigDecimal totalQuantity = position.getQuantity().add(quantity);
-                BigDecimal totalCost = position.getQuantity().multiply(position.getEntryPrice())
-                        .add(quantity.multiply(price));
-                BigDecimal newEntryPrice = totalCost.divide(totalQuantity, 8, RoundingMode.HALF_UP);
-
-                position.setEntryPrice(newEntryPrice);
-                position.setQuantity(totalQuantity);
-
-                // Update Margin
-                BigDecimal notionalValue = price.multiply(quantity);
-                BigDecimal addedMargin = notionalValue.divide(BigDecimal.valueOf(order.getLeverage()), 8,
-                        RoundingMode.HALF_UP);
-                position.setMargin(position.getMargin().add(addedMargin));
+            position.setEntryPrice(newEntryPrice);
+            position.setQuantity(totalQuantity);
 
-                // Lock margin for the added position size
-                wallet.setLockedBalance(wallet.getLockedBalance().add(addedMargin));
-            } else {
-                // Reduce/Close position (Hedge mode logic or simple close)
-                // For P2P MVP, let's assume One-Way Mode for simplicity or throw error
-                throw new RuntimeException("Opposite side position handling not implemented in MVP");
-            }
+            // Update Margin
+            BigDecimal notionalValue = price.multiply(quantity);
+            BigDecimal addedMargin = notionalValue.divide(BigDecimal.valueOf(order.getLeverage()), 8,
+                    RoundingMode.HALF_UP);
+            position.setMargin(position.getMargin().add(addedMargin));
+
+            // Lock margin for the added position size
+            wallet.setLockedBalance(wallet.getLockedBalance().add(addedMargin));
         } else {
             // Create new position
             position = new FuturesPosition();
@@ -217,8 +364,63 @@ public class FuturesTradingService {
                 position.setLiquidationPrice(liqPrice);
             }
         }
-        futuresWalletRepository.save(wallet);
-        futuresPositionRepository.save(position);
+        cycle.putPosition(position);
+    }
+
+    /**
+     * Giảm vị thế {@code quantity} tại {@code price} và nhả phần margin tương ứng.
+     * Vị thế bị thanh lý mất phần margin đó; phần còn dư so với giá phá sản (âm nếu
+     * khớp xấu hơn) thuộc về quỹ bảo hiểm. Vị thế thường nhận PnL đã thực hiện.
+     */
+    private void reducePosition(FuturesFillCycle cycle, String uid, BigDecimal price, BigDecimal quantity,
+            boolean liquidated) {
+        FuturesWallet wallet = walletOf(cycle, uid);
+        FuturesPosition position = positionOf(cycle, uid);
+        BigDecimal closeQuantity = quantity.min(position.getQuantity());
+
+        // Long: (Exit - Entry) * Qty, Short: (Entry - Exit) * Qty
+        BigDecimal pnl = position.getSide() == FuturesPosition.PositionSide.LONG
+                ? price.subtract(position.getEntryPrice()).multiply(closeQuantity)
+                : position.getEntryPrice().subtract(price).multiply(closeQuantity);
+        BigDecimal remaining = position.getQuantity().subtract(closeQuantity);
+        BigDecimal releasedMargin = remaining.signum() == 0 ? position.getMargin()
+                : position.getMargin().multiply(closeQuantity).divide(position.getQuantity(), 8,
+                        RoundingMode.HALF_UP);
+
+        wallet.setLockedBalance(wallet.getLockedBalance().subtract(releasedMargin).max(BigDecimal.ZERO));
+        if (liquidated) {
+            wallet.setBalance(wallet.getBalance().subtract(releasedMargin));
+            cycle.addInsurance(pnl.add(releasedMargin));
+        } else {
+            wallet.setBalance(wallet.getBalance().add(pnl));
+        }
+
+        position.setQuantity(remaining);
+        position.setMargin(position.getMargin().subtract(releasedMargin));
+        if (remaining.signum() == 0) {
+            position.setStatus(liquidated ? FuturesPosition.PositionStatus.LIQUIDATED
+                    : FuturesPosition.PositionStatus.CLOSED);
+        }
+        cycle.putPosition(position);
+    }
+
+    private static boolean isLiquidation(FuturesOrder order) {
+        return order.getType() == FuturesOrder.OrderType.LIQUIDATION;
+    }
+
+    // Ví/vị thế của chu kỳ nếu đã chạm, nếu không thì bản trong cache
+    private FuturesWallet walletOf(FuturesFillCycle cycle, String uid) {
+        FuturesWallet wallet = cycle.getWallet(uid);
+        if (wallet == null) {
+            wallet = futuresAccountCache.wallet(uid);
+            cycle.putWallet(wallet);
+        }
+        return wallet;
+    }
+
+    private FuturesPosition positionOf(FuturesFillCycle cycle, String uid) {
+        FuturesPosition position = cycle.getPosition(uid);
+        return position != null ? position : futuresAccountCache.openPosition(cycle.getSymbol(), uid);
     }
 
     // Additional methods for Cancel Order, Close Position, etc. would go here
@@ -229,7 +431,7 @@ public class FuturesTradingService {
                 .findByUidAndSymbolAndStatus(uid, symbol, FuturesPosition.PositionStatus.OPEN)
                 .orElseThrow(() -> new RuntimeException("Position not found"));
 
-        BigDecimal currentPrice = coinDataService.getCurrentPrice(symbol);
+        BigDecimal currentPrice = futuresPriceRegistry.getPrice(symbol);
         if (currentPrice.compareTo(BigDecimal.ZERO) == 0) {
             throw new RuntimeException("Price unavailable");
         }
@@ -266,10 +468,12 @@ public class FuturesTradingService {
 
         wallet.setBalance(wallet.getBalance().add(pnl));
         futuresWalletRepository.save(wallet);
+        futuresRiskEngine.onAccountChanged(wallet.getUid());
 
         // Close Position
         position.setStatus(FuturesPosition.PositionStatus.CLOSED);
         futuresPositionRepository.save(position);
+        liquidationService.track(position);
 
         // Record Transaction (Realized PnL)
         // We could record a transaction here for history
@@ -309,6 +513,7 @@ public class FuturesTradingService {
         // Update Wallet Locked Balance
         wallet.setLockedBalance(wallet.getLockedBalance().add(marginDiff));
         futuresWalletRepository.save(wallet);
+        futuresRiskEngine.onAccountChanged(wallet.getUid());
 
         // Update Position Margin & Liquidation Price
         position.setMargin(newMargin);
@@ -325,6 +530,7 @@ public class FuturesTradingService {
         }
 
         futuresPositionRepository.save(position);
+        liquidationService.track(position);
     }
 
     /**
@@ -377,6 +583,13 @@ public class FuturesTradingService {
             throw new RuntimeException("Cannot cancel order in current status: " + order.getStatus());
         }
 
+        // Gỡ khỏi book trên lane trước để lệnh không còn được khớp
+        FuturesOrder live = futuresMatchingEngine.cancel(order);
+        if (live == null) {
+            throw new RuntimeException("Cannot cancel order: order is no longer on the book");
+        }
+        order.setQuantity(live.getQuantity());
+
         // 4. Release margin
         FuturesWallet wallet = futuresWalletRepository
                 .findByUidAndCurrency(uid, "USDT")
@@ -391,6 +604,7 @@ public class FuturesTradingService {
             wallet.setLockedBalance(BigDecimal.ZERO); // Safety check
         }
         futuresWalletRepository.save(wallet);
+        futuresRiskEngine.onAccountChanged(wallet.getUid());
 
         // 5. Update order status
         order.setStatus(FuturesOrder.OrderStatus.CANCELLED);
@@ -398,132 +612,19 @@ public class FuturesTradingService {
 
         // Send WebSocket Updates
         futuresOrderWebSocket.sendUserOrderUpdate(order);
-        if (order.getType() == FuturesOrder.OrderType.LIMIT) {
-            futuresOrderWebSocket.broadcastOrderBookUpdate(order);
-        }
     }
 
     /**
      * Get order book for a symbol
      */
     public Map<String, Object> getOrderBook(String symbol, int limit) {
-        Pageable pageable = PageRequest.of(0, limit);
-
-        List<FuturesOrder.OrderStatus> activeStatuses = Arrays.asList(
-                FuturesOrder.OrderStatus.PENDING,
-                FuturesOrder.OrderStatus.PARTIALLY_FILLED);
-
-        // Get BUY LIMIT orders (bids), sorted by price descending (highest first)
-        List<FuturesOrder> buyOrders = futuresOrderRepository
-                .findBySymbolAndSideAndStatusInAndType(
-                        symbol,
-                        FuturesOrder.OrderSide.BUY,
-                        activeStatuses,
-                        FuturesOrder.OrderType.LIMIT,
-                        PageRequest.of(0, limit, Sort.by("price").descending()));
-
-        // Get SELL LIMIT orders (asks), sorted by price ascending (lowest first)
-        List<FuturesOrder> sellOrders = futuresOrderRepository
-                .findBySymbolAndSideAndStatusInAndType(
-                        symbol,
-                        FuturesOrder.OrderSide.SELL,
-                        activeStatuses,
-                        FuturesOrder.OrderType.LIMIT,
-                        PageRequest.of(0, limit, Sort.by("price").ascending()));
-
-        // Aggregate orders by price level
-        List<List<String>> bids = aggregateOrdersByPrice(buyOrders);
-        List<List<String>> asks = aggregateOrdersByPrice(sellOrders);
+        // Snapshot L2 do engine duy trì, không truy vấn DB
+        DepthBook.Snapshot depth = marketDepthService.futuresSnapshot(symbol);
 
         return Map.of(
                 "symbol", symbol,
-                "lastUpdateId", System.currentTimeMillis(),
-                "bids", bids,
-                "asks", asks);
-    }
-
-    /**
-     * P2P Matching Engine
-     * Scans the order book for the given symbol and executes trades if crosses
-     * exist.
-     */
-    @Transactional
-    public void matchOrders(String symbol) {
-        List<FuturesOrder.OrderStatus> activeStatuses = Arrays.asList(
-                FuturesOrder.OrderStatus.PENDING,
-                FuturesOrder.OrderStatus.PARTIALLY_FILLED);
-
-        // 1. Fetch Pending Orders
-        // Buy Orders: Highest Price First (Best Bid)
-        List<FuturesOrder> buyOrders = futuresOrderRepository
-                .findBySymbolAndSideAndStatusInOrderByPriceDescCreatedAtAsc(
-                        symbol, FuturesOrder.OrderSide.BUY, activeStatuses);
-
-        // Sell Orders: Lowest Price First (Best Ask)
-        List<FuturesOrder> sellOrders = futuresOrderRepository
-                .findBySymbolAndSideAndStatusInOrderByPriceAscCreatedAtAsc(
-                        symbol, FuturesOrder.OrderSide.SELL, activeStatuses);
-
-        if (buyOrders.isEmpty() || sellOrders.isEmpty()) {
-            return; // No liquidity to match
-        }
-
-        // 2. Matching Loop
-        int buyIndex = 0;
-        int sellIndex = 0;
-
-        while (buyIndex < buyOrders.size() && sellIndex < sellOrders.size()) {
-            FuturesOrder bestBuy = buyOrders.get(buyIndex);
-            FuturesOrder bestSell = sellOrders.get(sellIndex);
-
-            // Check for Cross: Best Buy Price >= Best Sell Price
-            if (bestBuy.getPrice().compareTo(bestSell.getPrice()) >= 0) {
-                // MATCH FOUND!
-
-                // Determine Trade Price (Maker's Price)
-                // If Buy Order came first, it's the Maker -> Price = Buy Price
-                // If Sell Order came first, it's the Maker -> Price = Sell Price
-                BigDecimal tradePrice;
-                if (bestBuy.getCreatedAt().isBefore(bestSell.getCreatedAt())) {
-                    tradePrice = bestBuy.getPrice();
-                } else {
-                    tradePrice = bestSell.getPrice();
-                }
-
-                // Determine Trade Quantity (Min of remaining quantities)
-                BigDecimal tradeQuantity = bestBuy.getQuantity().min(bestSell.getQuantity());
-
-                // Execute Trade
-                System.out.println("⚡ P2P MATCH: Buy " + bestBuy.getId() + " vs Sell " + bestSell.getId() + " @ "
-                        + tradePrice + " Qty: " + tradeQuantity);
-                executeTrade(bestBuy, bestSell, tradePrice, tradeQuantity);
-                if (bestBuy.getQuantity().compareTo(BigDecimal.ZERO) == 0) {
-                    buyIndex++;
-                }
-                if (bestSell.getQuantity().compareTo(BigDecimal.ZERO) == 0) {
-                    sellIndex++;
-                }
-            } else {
-                // No more crosses possible (since lists are sorted)
-                break;
-            }
-        }
-    }
-
-    /**
-     * Helper method to aggregate orders by price level
-     */
-    private List<List<String>> aggregateOrdersByPrice(List<FuturesOrder> orders) {
-        Map<BigDecimal, BigDecimal> priceMap = new LinkedHashMap<>();
-
-        for (FuturesOrder order : orders) {
-            priceMap.merge(order.getPrice(), order.getQuantity(), BigDecimal::add);
-        }
-
-        return priceMap.entrySet().stream()
-                .map(e -> Arrays.asList(
-                        e.getKey().toPlainString(),
-                        e.getValue().toPlainString()))
-                .collect(Collectors.toList());
+                "lastUpdateId", depth.getLastUpdateId(),
+                "bids", depth.bids(limit),
+                "asks", depth.asks(limit));
     }
 }
@@ -0,0 +1,284 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import api.exchange.models.FuturesOrder;
+import api.exchange.models.FuturesWallet;
+import api.exchange.repository.FuturesOrderRepository;
+import api.exchange.repository.FuturesWalletRepository;
+import api.exchange.websocket.FuturesOrderWebSocket;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Engine lệnh điều kiện (STOP_MARKET, STOP_LIMIT, TAKE_PROFIT_MARKET,
+ * TAKE_PROFIT_LIMIT): lệnh UNTRIGGERED nằm trong {@link TriggerBook} theo symbol
+ * và loại giá kích hoạt, trên lane {@code futures:SYMBOL}. Mỗi mark price hoặc
+ * giá khớp cuối chỉ lấy ra các lệnh bị cắt giá; lệnh được chuyển thành
+ * MARKET/LIMIT trong một transaction rồi đưa thẳng vào
+ * {@link FuturesMatchingEngine} trên cùng lane.
+ */
+@Service
+@Slf4j
+public class FuturesTriggerEngine {
+
+    private static final long LANE_TIMEOUT_SECONDS = 5;
+
+    @Autowired
+    private FuturesOrderRepository futuresOrderRepository;
+
+    @Autowired
+    private FuturesWalletRepository futuresWalletRepository;
+
+    @Autowired
+    private FuturesRiskEngine futuresRiskEngine;
+
+    @Autowired
+    private FuturesOrderWebSocket futuresOrderWebSocket;
+
+    @Autowired
+    private MatchingSequencer matchingSequencer;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    // Engine khớp lệnh phụ thuộc ngược về registry giá, registry gọi vào engine này
+    @Autowired
+    @Lazy
+    private FuturesMatchingEngine futuresMatchingEngine;
+
+    // Proxy của chính bean này để activate chạy trong transaction khi gọi nội bộ
+    @Autowired
+    @Lazy
+    private FuturesTriggerEngine self;
+
+    // "SYMBOL:WORKING_TYPE" -> book
+    private final Map<String, TriggerBook> books = new ConcurrentHashMap<>();
+
+    // Giá mới nhất theo book; các tick đến khi lane chưa xử lý kịp được gộp lại
+    private final Map<String, BigDecimal> prices = new ConcurrentHashMap<>();
+    private final Set<String> pendingChecks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Dựng book từ các lệnh điều kiện đang chờ một lần khi khởi động.
+     */
+    @PostConstruct
+    public void load() {
+        List<FuturesOrder> untriggered = futuresOrderRepository
+                .findByStatusInOrderByIdAsc(List.of(FuturesOrder.OrderStatus.UNTRIGGERED));
+        for (FuturesOrder order : untriggered) {
+            bookFor(order.getSymbol(), workingTypeOf(order)).add(order);
+        }
+        log.info("📚 Loaded {} untriggered futures orders", untriggered.size());
+    }
+
+    /**
+     * Giá mới của symbol theo loại giá kích hoạt.
+     */
+    public void onPrice(String symbol, FuturesOrder.WorkingType workingType, BigDecimal price) {
+        String key = key(symbol, workingType);
+        if (price == null || price.signum() <= 0 || !books.containsKey(key)) {
+            return;
+        }
+        prices.put(key, price);
+        if (!pendingChecks.add(key)) {
+            return;
+        }
+        try {
+            matchingSequencer.submit(lane(symbol), () -> {
+                pendingChecks.remove(key);
+                check(symbol, workingType);
+            });
+        } catch (RejectedExecutionException e) {
+            // Tick sau sẽ kiểm tra lại với giá mới hơn
+            pendingChecks.remove(key);
+            log.warn("⚠️ Skipped trigger check for {}: matching lane is full", key);
+        }
+    }
+
+    /**
+     * Đưa lệnh điều kiện vừa lưu vào book sau khi transaction hiện tại commit.
+     */
+    public void registerAfterCommit(FuturesOrder order) {
+        Runnable register = () -> {
+            FuturesOrder.WorkingType workingType = workingTypeOf(order);
+            bookFor(order.getSymbol(), workingType).add(order);
+            check(order.getSymbol(), workingType);
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            runOnLane(order.getSymbol(), register);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                runOnLane(order.getSymbol(), register);
+            }
+        });
+    }
+
+    /**
+     * Gỡ lệnh điều kiện khỏi book; nếu transaction huỷ lệnh rollback, lệnh được
+     * đưa lại vào book.
+     *
+     * @return lệnh đã gỡ, hoặc null nếu lệnh đã được kích hoạt
+     */
+    public FuturesOrder cancel(FuturesOrder order) {
+        FuturesOrder.WorkingType workingType = workingTypeOf(order);
+        FuturesOrder removed = awaitOnLane(order.getSymbol(),
+                () -> bookFor(order.getSymbol(), workingType).remove(order.getId()));
+        if (removed != null && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        runOnLane(removed.getSymbol(), () -> bookFor(removed.getSymbol(), workingType).add(removed));
+                    }
+                }
+            });
+        }
+        return removed;
+    }
+
+    /**
+     * Chuyển lệnh điều kiện đã bị cắt giá thành lệnh thường. Lệnh *_MARKET lấy
+     * giá kích hoạt làm giá thực hiện nên phần ký quỹ đã khoá theo stopPrice được
+     * điều chỉnh theo; nếu ví không đủ, lệnh bị huỷ và ký quỹ được hoàn.
+     *
+     * @return lệnh đã kích hoạt (PENDING), hoặc null nếu lệnh không còn chờ hoặc bị huỷ
+     */
+    @Transactional
+    public FuturesOrder activate(long orderId, BigDecimal triggerPrice) {
+        FuturesOrder order = futuresOrderRepository.findById(orderId).orElse(null);
+        if (order == null || order.getStatus() != FuturesOrder.OrderStatus.UNTRIGGERED) {
+            return null;
+        }
+
+        boolean market = order.getType() == FuturesOrder.OrderType.STOP_MARKET
+                || order.getType() == FuturesOrder.OrderType.TAKE_PROFIT_MARKET;
+        if (market) {
+            FuturesWallet wallet = futuresWalletRepository.findByUidAndCurrency(order.getUid(), "USDT")
+                    .orElseThrow(() -> new RuntimeException("Wallet not found"));
+            BigDecimal lockedMargin = marginOf(order.getPrice(), order);
+            BigDecimal marginDiff = marginOf(triggerPrice, order).subtract(lockedMargin);
+            BigDecimal availableBalance = wallet.getBalance().subtract(wallet.getLockedBalance());
+
+            if (marginDiff.signum() > 0 && availableBalance.compareTo(marginDiff) < 0) {
+                wallet.setLockedBalance(wallet.getLockedBalance().subtract(lockedMargin).max(BigDecimal.ZERO));
+                futuresWalletRepository.save(wallet);
+                futuresRiskEngine.onAccountChanged(wallet.getUid());
+
+                order.setStatus(FuturesOrder.OrderStatus.CANCELLED);
+                futuresOrderRepository.save(order);
+                futuresOrderWebSocket.sendUserOrderUpdate(order);
+                log.warn("⚠️ Triggered order {} cancelled: insufficient margin", order.getId());
+                return null;
+            }
+
+            wallet.setLockedBalance(wallet.getLockedBalance().add(marginDiff));
+            futuresWalletRepository.save(wallet);
+            futuresRiskEngine.onAccountChanged(wallet.getUid());
+
+            order.setPrice(triggerPrice);
+            order.setType(FuturesOrder.OrderType.MARKET);
+        } else {
+            order.setType(FuturesOrder.OrderType.LIMIT);
+        }
+        order.setStatus(FuturesOrder.OrderStatus.PENDING);
+        futuresOrderRepository.save(order);
+
+        futuresOrderWebSocket.sendUserOrderUpdate(order);
+        log.info("🎯 Futures order {} triggered at {}", order.getId(), triggerPrice);
+        return order;
+    }
+
+    // Chỉ chạy trên lane của symbol
+    private void check(String symbol, FuturesOrder.WorkingType workingType) {
+        String key = key(symbol, workingType);
+        BigDecimal price = prices.get(key);
+        TriggerBook book = books.get(key);
+        if (price == null || book == null || book.isEmpty()) {
+            return;
+        }
+        for (FuturesOrder order : book.popTriggered(price)) {
+            FuturesOrder activated;
+            try {
+                activated = self.activate(order.getId(), price);
+            } catch (Exception e) {
+                // Đưa lại vào book để tick sau thử lại
+                book.add(order);
+                log.error("❌ Failed to trigger futures order {}: {}", order.getId(), e.getMessage());
+                continue;
+            }
+            if (activated != null) {
+                futuresMatchingEngine.matchOnLane(activated);
+            }
+        }
+    }
+
+    private static BigDecimal marginOf(BigDecimal price, FuturesOrder order) {
+        return price.multiply(order.getQuantity())
+                .divide(BigDecimal.valueOf(order.getLeverage()), 8, RoundingMode.HALF_UP);
+    }
+
+    private <T> T awaitOnLane(String symbol, Supplier<T> task) {
+        try {
+            return matchingSequencer.call(lane(symbol), task).get(LANE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for matching lane of " + symbol, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Matching lane unavailable for " + symbol, e);
+        }
+    }
+
+    private void runOnLane(String symbol, Runnable task) {
+        if (matchingSequencer.isCurrentLane(lane(symbol))) {
+            task.run();
+            return;
+        }
+        // Thay đổi đã commit nên không được bỏ: lane đầy thì chờ chỗ trống
+        while (true) {
+            try {
+                matchingSequencer.submit(lane(symbol), task);
+                return;
+            } catch (RejectedExecutionException e) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    private TriggerBook bookFor(String symbol, FuturesOrder.WorkingType workingType) {
+        return books.computeIfAbsent(key(symbol, workingType), k -> new TriggerBook(symbolSpecRegistry.get(symbol)));
+    }
+
+    private static FuturesOrder.WorkingType workingTypeOf(FuturesOrder order) {
+        return order.getWorkingType() != null ? order.getWorkingType() : FuturesOrder.WorkingType.MARK_PRICE;
+    }
+
+    private static String key(String symbol, FuturesOrder.WorkingType workingType) {
+        return symbol + ":" + workingType;
+    }
+
+    private static String lane(String symbol) {
+        return "futures:" + symbol;
+    }
+}
@@ -1,11 +1,9 @@
 package api.exchange.services;
 
 import api.exchange.dtos.Response.FuturesWalletResponse;
-import api.exchange.models.FuturesPosition;
 import api.exchange.models.FuturesTransaction;
 import api.exchange.models.FuturesWallet;
 import api.exchange.models.SpotWallet;
-import api.exchange.repository.FuturesPositionRepository;
 import api.exchange.repository.FuturesTransactionRepository;
 import api.exchange.repository.FuturesWalletRepository;
 import api.exchange.repository.SpotWalletRepository;
@@ -14,9 +12,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
-import java.util.List;
 
 @Service
 public class FuturesWalletService {
@@ -25,16 +21,13 @@ public class FuturesWalletService {
     private FuturesWalletRepository futuresWalletRepository;
 
     @Autowired
-    private FuturesTransactionRepository futuresTransactionRepository;
-
-    @Autowired
-    private SpotWalletRepository spotWalletRepository;
+    private FuturesRiskEngine futuresRiskEngine;
 
     @Autowired
-    private FuturesPositionRepository futuresPositionRepository;
+    private FuturesTransactionRepository futuresTransactionRepository;
 
     @Autowired
-    private CoinDataService coinDataService;
+    private SpotWalletRepository spotWalletRepository;
 
     public FuturesWallet getWallet(String uid, String currency) {
         return futuresWalletRepository.findByUidAndCurrency(uid, currency)
@@ -48,57 +41,24 @@ public class FuturesWalletService {
                 });
     }
 
+    /**
+     * Trạng thái ví đọc từ {@link FuturesRiskEngine}; chỉ lần đầu tiên của một
+     * tài khoản mới phải nạp từ DB.
+     */
     public FuturesWalletResponse getWalletInfo(String uid, String currency) {
-        FuturesWallet wallet = getWallet(uid, currency);
-
-        // Get open positions
-        List<FuturesPosition> openPositions = futuresPositionRepository
-                .findByUidAndStatus(uid, FuturesPosition.PositionStatus.OPEN);
-
-        // Calculate available balance
-        BigDecimal availableBalance = wallet.getBalance().subtract(wallet.getLockedBalance());
-
-        // Calculate unrealized PnL and total position value
-        BigDecimal unrealizedPnl = BigDecimal.ZERO;
-        BigDecimal totalPositionValue = BigDecimal.ZERO;
-
-        for (FuturesPosition position : openPositions) {
-            BigDecimal currentPrice = coinDataService.getCurrentPrice(position.getSymbol());
-            if (currentPrice.compareTo(BigDecimal.ZERO) > 0) {
-                // Calculate PnL
-                BigDecimal pnl;
-                if (position.getSide() == FuturesPosition.PositionSide.LONG) {
-                    pnl = currentPrice.subtract(position.getEntryPrice())
-                            .multiply(position.getQuantity());
-                } else {
-                    pnl = position.getEntryPrice().subtract(currentPrice)
-                            .multiply(position.getQuantity());
-                }
-                unrealizedPnl = unrealizedPnl.add(pnl);
-
-                // Calculate position value
-                BigDecimal positionValue = currentPrice.multiply(position.getQuantity());
-                totalPositionValue = totalPositionValue.add(positionValue);
-            }
+        if (!FuturesRiskEngine.CURRENCY.equals(currency)) {
+            // Vị thế chỉ ký quỹ bằng USDT
+            FuturesWallet wallet = getWallet(uid, currency);
+            BigDecimal availableBalance = wallet.getBalance().subtract(wallet.getLockedBalance());
+            return new FuturesWalletResponse(wallet.getCurrency(), wallet.getBalance(), wallet.getLockedBalance(),
+                    availableBalance, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, 0);
         }
-
-        // Calculate margin ratio
-        BigDecimal marginRatio = BigDecimal.ZERO;
-        if (wallet.getBalance().compareTo(BigDecimal.ZERO) > 0) {
-            marginRatio = wallet.getLockedBalance()
-                    .divide(wallet.getBalance(), 4, RoundingMode.HALF_UP)
-                    .multiply(BigDecimal.valueOf(100));
+        FuturesWalletResponse walletInfo = futuresRiskEngine.get(uid);
+        if (walletInfo != null) {
+            return walletInfo;
         }
-
-        return new FuturesWalletResponse(
-                wallet.getCurrency(),
-                wallet.getBalance(),
-                wallet.getLockedBalance(),
-                availableBalance,
-                unrealizedPnl,
-                totalPositionValue,
-                marginRatio,
-                openPositions.size());
+        getWallet(uid, currency);
+        return futuresRiskEngine.load(uid);
     }
 
     @Transactional
@@ -124,6 +84,7 @@ public class FuturesWalletService {
         FuturesWallet futuresWallet = getWallet(uid, "USDT");
         futuresWallet.setBalance(futuresWallet.getBalance().add(amount));
         futuresWalletRepository.save(futuresWallet);
+        futuresRiskEngine.onAccountChanged(futuresWallet.getUid());
 
         // 3. Record Transactions
         FuturesTransaction tx = new FuturesTransaction();
@@ -151,6 +112,7 @@ public class FuturesWalletService {
 
         futuresWallet.setBalance(futuresWallet.getBalance().subtract(amount));
         futuresWalletRepository.save(futuresWallet);
+        futuresRiskEngine.onAccountChanged(futuresWallet.getUid());
 
         // 2. Add to Spot
         SpotWallet spotWallet = spotWalletRepository.findByUidAndCurrency(uid, "USDT");
@@ -7,7 +7,6 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -15,13 +14,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import api.exchange.models.coinModel;
 import api.exchange.repository.coinRepository;
 import api.exchange.websocket.FuturesMarketWebSocket;
+import api.exchange.websocket.MarketDataFanout;
 import jakarta.annotation.PostConstruct;
 
 @Service
 public class FuturesWebSocketService {
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private MarketDataFanout marketDataFanout;
 
     @Autowired
     private ObjectMapper objectMapper;
@@ -35,6 +35,12 @@ public class FuturesWebSocketService {
     @Autowired
     private api.exchange.services.RedisCacheService redisCacheService;
 
+    @Autowired
+    private FuturesPriceRegistry futuresPriceRegistry;
+
+    @Autowired
+    private MarketDataIngest marketDataIngest;
+
     private FuturesMarketWebSocket futuresMarketWebSocket;
 
     @PostConstruct
@@ -55,8 +61,8 @@ public class FuturesWebSocketService {
             URI uri = new URI("wss://fstream.binance.com/stream?streams=!ticker@arr/!markPrice@arr@1s");
             System.out.println("📡 Connecting to: " + uri);
 
-            futuresMarketWebSocket = new FuturesMarketWebSocket(uri, messagingTemplate, objectMapper, supplyMap,
-                    futuresDataService, redisCacheService);
+            futuresMarketWebSocket = new FuturesMarketWebSocket(uri, marketDataFanout, objectMapper, supplyMap,
+                    futuresDataService, redisCacheService, futuresPriceRegistry, marketDataIngest);
             futuresMarketWebSocket.connect();
 
             System.out.println("✅ Futures WebSocket service initialized successfully!");
@@ -0,0 +1,76 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import api.exchange.models.FuturesInsuranceFund;
+import api.exchange.repository.FuturesInsuranceFundRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Số dư quỹ bảo hiểm USDT. Trong bộ nhớ giữ phần còn dùng được (số dư trừ các
+ * khoản đang được giữ cho lệnh thanh lý chưa xong) để các lane futures không
+ * cùng hứa một khoản tiền; DB chỉ nhận các thay đổi đã thanh toán.
+ */
+@Service
+@Slf4j
+public class InsuranceFundService {
+
+    private static final String CURRENCY = "USDT";
+
+    @Autowired
+    private FuturesInsuranceFundRepository futuresInsuranceFundRepository;
+
+    private final AtomicReference<BigDecimal> available = new AtomicReference<>(BigDecimal.ZERO);
+
+    @PostConstruct
+    public void load() {
+        FuturesInsuranceFund fund = futuresInsuranceFundRepository.findByCurrency(CURRENCY).orElseGet(() -> {
+            FuturesInsuranceFund created = new FuturesInsuranceFund();
+            created.setCurrency(CURRENCY);
+            return futuresInsuranceFundRepository.save(created);
+        });
+        available.set(fund.getBalance());
+        log.info("🛡️ Insurance fund loaded: {} {}", fund.getBalance(), CURRENCY);
+    }
+
+    /**
+     * Giữ tối đa {@code max} từ quỹ cho một lần thanh lý.
+     *
+     * @return số tiền đã giữ (có thể bằng 0)
+     */
+    public BigDecimal reserve(BigDecimal max) {
+        while (true) {
+            BigDecimal current = available.get();
+            BigDecimal taken = current.min(max).max(BigDecimal.ZERO);
+            if (available.compareAndSet(current, current.subtract(taken))) {
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * Trả lại khoản đã giữ cùng thay đổi đã thanh toán của lần thanh lý.
+     */
+    public void release(BigDecimal reserved, BigDecimal settledDelta) {
+        available.accumulateAndGet(reserved.add(settledDelta), BigDecimal::add);
+    }
+
+    /**
+     * Ghi thay đổi số dư trong transaction thanh toán của chu kỳ khớp.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void apply(BigDecimal delta) {
+        futuresInsuranceFundRepository.addBalance(CURRENCY, delta);
+    }
+
+    public BigDecimal getAvailable() {
+        return available.get();
+    }
+}
@@ -0,0 +1,190 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import api.exchange.models.FuturesPosition;
+
+/**
+ * Chỉ mục giá thanh lý của các vị thế OPEN trong một symbol, giá theo tick của
+ * {@link SymbolSpec}. LONG sắp theo giá thanh lý giảm dần, SHORT tăng dần, nên
+ * ở mỗi mark price chỉ cần lấy ra các vị thế ở đầu cây cho tới khi gặp vị thế
+ * chưa bị cắt giá: chi phí tỉ lệ với số vị thế bị thanh lý, không phải số vị thế
+ * đang mở. Mỗi entry còn giữ giá vào, khối lượng và đòn bẩy để xếp hạng đối ứng
+ * ADL trong bộ nhớ mà không quét bảng vị thế.
+ * Không thread-safe: chỉ lane futures của symbol được phép ghi.
+ */
+public class LiquidationBook {
+
+    private final SymbolSpec spec;
+
+    // LONG: giá thanh lý cao nhất trước (bị cắt đầu tiên khi giá giảm)
+    private final TreeMap<Long, LinkedHashSet<Long>> longs = new TreeMap<>(Collections.reverseOrder());
+    // SHORT: giá thanh lý thấp nhất trước (bị cắt đầu tiên khi giá tăng)
+    private final TreeMap<Long, LinkedHashSet<Long>> shorts = new TreeMap<>();
+
+    private final Map<Long, Entry> entries = new HashMap<>();
+
+    public LiquidationBook(SymbolSpec spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * Thêm hoặc cập nhật vị thế OPEN (có giá thanh lý). Giá thanh lý là giá tính
+     * toán nên được làm tròn về phía vị thế (LONG xuống, SHORT lên): chỉ mục không
+     * bao giờ báo cắt giá sớm hơn so với giá chính xác.
+     */
+    public void upsert(FuturesPosition position) {
+        RoundingMode roundingMode = position.getSide() == FuturesPosition.PositionSide.LONG ? RoundingMode.FLOOR
+                : RoundingMode.CEILING;
+        put(new Entry(position.getId(), position.getUid(), position.getSide(),
+                spec.toTicks(position.getLiquidationPrice(), roundingMode), position.getEntryPrice(),
+                position.getQuantity(), position.getLeverage()));
+    }
+
+    /**
+     * Đưa lại một vị thế vừa lấy ra (ví dụ khi thanh lý thất bại).
+     */
+    public void reinsert(Entry entry) {
+        put(entry);
+    }
+
+    private void put(Entry entry) {
+        remove(entry.positionId);
+        sideOf(entry.side).computeIfAbsent(entry.liquidationTicks, p -> new LinkedHashSet<>()).add(entry.positionId);
+        entries.put(entry.positionId, entry);
+    }
+
+    public void remove(long positionId) {
+        Entry entry = entries.remove(positionId);
+        if (entry == null) {
+            return;
+        }
+        TreeMap<Long, LinkedHashSet<Long>> side = sideOf(entry.side);
+        LinkedHashSet<Long> level = side.get(entry.liquidationTicks);
+        if (level != null) {
+            level.remove(positionId);
+            if (level.isEmpty()) {
+                side.remove(entry.liquidationTicks);
+            }
+        }
+    }
+
+    /**
+     * Lấy ra khỏi chỉ mục mọi vị thế có giá thanh lý bị mark price cắt qua: LONG
+     * khi mark ≤ giá thanh lý, SHORT khi mark ≥ giá thanh lý.
+     */
+    public List<Entry> popCrossed(BigDecimal markPrice) {
+        long markTicks = spec.toTicks(markPrice, RoundingMode.HALF_UP);
+        List<Entry> crossed = new ArrayList<>();
+        popWhile(longs, crossed, markTicks, true);
+        popWhile(shorts, crossed, markTicks, false);
+        return crossed;
+    }
+
+    private void popWhile(TreeMap<Long, LinkedHashSet<Long>> side, List<Entry> crossed, long markTicks,
+            boolean isLong) {
+        Iterator<Map.Entry<Long, LinkedHashSet<Long>>> levels = side.entrySet().iterator();
+        while (levels.hasNext()) {
+            Map.Entry<Long, LinkedHashSet<Long>> level = levels.next();
+            boolean hit = isLong ? markTicks <= level.getKey() : markTicks >= level.getKey();
+            if (!hit) {
+                return;
+            }
+            for (Long positionId : level.getValue()) {
+                crossed.add(entries.remove(positionId));
+            }
+            levels.remove();
+        }
+    }
+
+    /**
+     * Hàng đợi đối ứng ADL của một phía: vị thế có PnL% × đòn bẩy cao nhất ở mark
+     * price hiện tại bị giảm trước. Thứ hạng đổi theo giá nên hàng đợi được dựng
+     * lúc cần từ chỉ mục trong bộ nhớ của symbol.
+     */
+    public PriorityQueue<Entry> adlQueue(FuturesPosition.PositionSide side, BigDecimal markPrice) {
+        Map<Long, BigDecimal> scores = new HashMap<>();
+        PriorityQueue<Entry> queue = new PriorityQueue<>(
+                Comparator.comparing((Entry e) -> scores.get(e.positionId)).reversed());
+        for (Entry entry : entries.values()) {
+            if (entry.side != side || entry.entryPrice.signum() <= 0) {
+                continue;
+            }
+            BigDecimal pnlRatio = markPrice.subtract(entry.entryPrice)
+                    .divide(entry.entryPrice, 8, RoundingMode.HALF_UP);
+            if (side == FuturesPosition.PositionSide.SHORT) {
+                pnlRatio = pnlRatio.negate();
+            }
+            scores.put(entry.positionId, pnlRatio.multiply(BigDecimal.valueOf(entry.leverage)));
+            queue.add(entry);
+        }
+        return queue;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private TreeMap<Long, LinkedHashSet<Long>> sideOf(FuturesPosition.PositionSide side) {
+        return side == FuturesPosition.PositionSide.LONG ? longs : shorts;
+    }
+
+    /**
+     * Một vị thế trong chỉ mục (trạng thái đã commit gần nhất); bất biến.
+     */
+    public static class Entry {
+        private final long positionId;
+        private final String uid;
+        private final FuturesPosition.PositionSide side;
+        private final long liquidationTicks;
+        private final BigDecimal entryPrice;
+        private final BigDecimal quantity;
+        private final int leverage;
+
+        Entry(long positionId, String uid, FuturesPosition.PositionSide side, long liquidationTicks,
+                BigDecimal entryPrice, BigDecimal quantity, int leverage) {
+            this.positionId = positionId;
+            this.uid = uid;
+            this.side = side;
+            this.liquidationTicks = liquidationTicks;
+            this.entryPrice = entryPrice;
+            this.quantity = quantity;
+            this.leverage = leverage;
+        }
+
+        public long getPositionId() {
+            return positionId;
+        }
+
+        public String getUid() {
+            return uid;
+        }
+
+        public BigDecimal getQuantity() {
+            return quantity;
+        }
+
+        public FuturesPosition.PositionSide getSide() {
+            return side;
+        }
+
+        public long getLiquidationTicks() {
+            return liquidationTicks;
+        }
+    }
+}
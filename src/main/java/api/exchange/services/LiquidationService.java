@@ -1,64 +1,334 @@
 package api.exchange.services;
 
+import api.exchange.models.FuturesOrder;
 import api.exchange.models.FuturesPosition;
+import api.exchange.repository.FuturesOrderRepository;
 import api.exchange.repository.FuturesPositionRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Thanh lý hướng sự kiện: các vị thế OPEN được giữ trong một
+ * {@link LiquidationBook} theo symbol, chạy trên lane {@code futures:SYMBOL}
+ * của {@link MatchingSequencer}. Mỗi mark price chỉ lấy ra các vị thế bị cắt giá
+ * thay vì quét toàn bộ bảng vị thế mỗi giây.
+ * Vị thế bị cắt giá được đóng bằng lệnh LIQUIDATION khớp ngay với book trên lane
+ * (trước các lệnh đang xếp hàng), tới giá xấu nhất mà phần quỹ bảo hiểm được giữ
+ * còn bù được so với giá phá sản. Phần book không nhận hết được đóng bằng ADL vào
+ * các vị thế đối ứng có PnL% × đòn bẩy cao nhất, tại giá phá sản.
+ */
 @Service
+@Slf4j
 public class LiquidationService {
 
     @Autowired
     private FuturesPositionRepository futuresPositionRepository;
 
     @Autowired
-    private CoinDataService coinDataService;
+    private MatchingSequencer matchingSequencer;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    @Autowired
+    private FuturesOrderRepository futuresOrderRepository;
+
+    @Autowired
+    private InsuranceFundService insuranceFundService;
 
-    @Scheduled(fixedRate = 1000) // Run every second
-    @Transactional
-    public void checkLiquidations() {
-        // In a real system, we would iterate efficiently or use a queue.
-        // For MVP, we fetch all open positions.
-        List<FuturesPosition> openPositions = futuresPositionRepository.findAll(); // Should filter by status=OPEN
+    // Engine khớp lệnh và tầng thanh toán cùng báo ngược về chỉ mục này
+    @Autowired
+    @Lazy
+    private FuturesMatchingEngine futuresMatchingEngine;
 
+    @Autowired
+    @Lazy
+    private FuturesTradingService futuresTradingService;
+
+    // Phần notional (tại giá phá sản) quỹ bảo hiểm được bù cho một lần thanh lý
+    @Value("${futures.liquidation.insurance-cover-ratio:0.01}")
+    private BigDecimal insuranceCoverRatio;
+
+    private final Map<String, LiquidationBook> books = new ConcurrentHashMap<>();
+
+    // Mark price mới nhất theo symbol; các tick đến khi lane chưa xử lý kịp được gộp lại
+    private final Map<String, BigDecimal> markPrices = new ConcurrentHashMap<>();
+    private final Set<String> pendingChecks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Dựng chỉ mục từ các vị thế đang mở một lần khi khởi động.
+     */
+    @PostConstruct
+    public void load() {
+        List<FuturesPosition> openPositions = futuresPositionRepository
+                .findByStatus(FuturesPosition.PositionStatus.OPEN);
         for (FuturesPosition position : openPositions) {
-            if (position.getStatus() != FuturesPosition.PositionStatus.OPEN)
-                continue;
+            if (position.getLiquidationPrice() != null) {
+                bookFor(position.getSymbol()).upsert(position);
+            }
+        }
+        log.info("📚 Loaded liquidation index for {} open positions in {} symbols", openPositions.size(),
+                books.size());
+    }
 
-            BigDecimal currentPrice = coinDataService.getCurrentPrice(position.getSymbol());
-            if (currentPrice.compareTo(BigDecimal.ZERO) == 0)
-                continue;
+    /**
+     * Mark price mới của symbol. Việc kiểm tra được đưa lên lane của symbol; nếu
+     * một lần kiểm tra đang chờ thì chỉ cập nhật giá để lần đó dùng giá mới nhất.
+     */
+    public void onMarkPrice(String symbol, BigDecimal markPrice) {
+        if (markPrice == null || markPrice.signum() <= 0 || !books.containsKey(symbol)) {
+            return;
+        }
+        markPrices.put(symbol, markPrice);
+        scheduleCheck(symbol);
+    }
 
-            boolean shouldLiquidate = false;
-            if (position.getSide() == FuturesPosition.PositionSide.LONG) {
-                if (currentPrice.compareTo(position.getLiquidationPrice()) <= 0) {
-                    shouldLiquidate = true;
-                }
-            } else {
-                if (currentPrice.compareTo(position.getLiquidationPrice()) >= 0) {
-                    shouldLiquidate = true;
+    /**
+     * Xếp một lần kiểm tra thành task riêng trên lane của symbol. Không bao giờ
+     * chạy check ngay tại chỗ: người gọi có thể đang ở trong afterCommit của một
+     * transaction vừa commit, nơi thanh lý (transaction REQUIRED) không được ghi.
+     */
+    private void scheduleCheck(String symbol) {
+        if (!pendingChecks.add(symbol)) {
+            return;
+        }
+        try {
+            matchingSequencer.submit(lane(symbol), () -> {
+                pendingChecks.remove(symbol);
+                check(symbol);
+            });
+        } catch (RejectedExecutionException e) {
+            // Tick sau sẽ kiểm tra lại với giá mới hơn
+            pendingChecks.remove(symbol);
+            log.warn("⚠️ Skipped liquidation check for {}: matching lane is full", symbol);
+        }
+    }
+
+    /**
+     * Cập nhật chỉ mục theo trạng thái vừa lưu của vị thế (mở, tăng vị thế, đổi
+     * đòn bẩy, đóng) sau khi transaction hiện tại commit. afterCommit chỉ sửa chỉ
+     * mục trong bộ nhớ; việc kiểm tra cắt giá luôn là một task lane riêng.
+     */
+    public void track(FuturesPosition position) {
+        String symbol = position.getSymbol();
+        long positionId = position.getId();
+        // Chụp trạng thái lúc commit: entity có thể còn bị sửa trước khi lane chạy
+        FuturesPosition snapshot = null;
+        if (position.getStatus() == FuturesPosition.PositionStatus.OPEN && position.getLiquidationPrice() != null) {
+            snapshot = new FuturesPosition();
+            snapshot.setId(positionId);
+            snapshot.setUid(position.getUid());
+            snapshot.setSide(position.getSide());
+            snapshot.setLiquidationPrice(position.getLiquidationPrice());
+            snapshot.setEntryPrice(position.getEntryPrice());
+            snapshot.setQuantity(position.getQuantity());
+            snapshot.setLeverage(position.getLeverage());
+        }
+        FuturesPosition tracked = snapshot;
+        Runnable update = () -> {
+            LiquidationBook book = bookFor(symbol);
+            if (tracked == null) {
+                book.remove(positionId);
+                return;
+            }
+            book.upsert(tracked);
+            // Vị thế có thể đã bị cắt giá ngay khi mở; kiểm tra ở task sau, khi
+            // chu kỳ thanh toán hiện tại đã xong và cache đã được làm mới
+            scheduleCheck(symbol);
+        };
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            runOnLane(symbol, update);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                runOnLane(symbol, update);
+            }
+        });
+    }
+
+    // Chỉ chạy trên lane của symbol
+    private void check(String symbol) {
+        BigDecimal markPrice = markPrices.get(symbol);
+        LiquidationBook book = books.get(symbol);
+        if (markPrice == null || book == null || book.isEmpty()) {
+            return;
+        }
+        for (LiquidationBook.Entry entry : book.popCrossed(markPrice)) {
+            try {
+                FuturesPosition stillOpen = liquidate(book, entry.getPositionId(), markPrice);
+                if (stillOpen != null) {
+                    book.upsert(stillOpen);
                 }
+            } catch (Exception e) {
+                // Đưa lại vào chỉ mục để tick sau thử lại
+                book.reinsert(entry);
+                log.error("❌ Failed to liquidate position {}: {}", entry.getPositionId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Thanh lý một vị thế đã bị lấy ra khỏi chỉ mục, sau khi kiểm tra lại trạng
+     * thái trong DB: khớp lệnh LIQUIDATION với book rồi ADL phần còn lại.
+     *
+     * @return vị thế nếu vẫn còn mở (chưa bị cắt giá theo DB), null nếu đã thanh lý
+     *         hoặc không còn mở
+     */
+    private FuturesPosition liquidate(LiquidationBook book, long positionId, BigDecimal markPrice) {
+        FuturesPosition position = futuresPositionRepository.findById(positionId).orElse(null);
+        if (position == null || position.getStatus() != FuturesPosition.PositionStatus.OPEN
+                || position.getLiquidationPrice() == null) {
+            return null;
+        }
+        if (!isCrossed(position, markPrice)) {
+            return position;
+        }
+
+        BigDecimal bankruptcyPrice = bankruptcyPrice(position);
+        BigDecimal reserved = insuranceFundService.reserve(
+                bankruptcyPrice.multiply(position.getQuantity()).multiply(insuranceCoverRatio));
+        BigDecimal insuranceDelta = BigDecimal.ZERO;
+        try {
+            FuturesOrder order = futuresOrderRepository.save(liquidationOrder(position,
+                    limitPrice(position, bankruptcyPrice, reserved)));
+            FuturesFillCycle cycle = futuresMatchingEngine.matchLiquidation(order);
+            if (cycle == null) {
+                order.setStatus(FuturesOrder.OrderStatus.CANCELLED);
+                futuresOrderRepository.save(order);
+                throw new IllegalStateException("Liquidation order settlement failed");
+            }
+            insuranceDelta = cycle.getInsuranceDelta();
+            if (order.getQuantity().signum() > 0) {
+                insuranceDelta = insuranceDelta.add(autoDeleverage(book, order, bankruptcyPrice, markPrice));
+            }
+        } finally {
+            insuranceFundService.release(reserved, insuranceDelta);
+        }
+        log.info("💥 LIQUIDATED Position: {} Symbol: {} Price: {} Insurance: {}", position.getId(),
+                position.getSymbol(), markPrice, insuranceDelta);
+        return null;
+    }
+
+    /**
+     * Đóng phần lệnh thanh lý book không nhận hết vào các vị thế đối ứng theo thứ
+     * hạng ADL, tại giá phá sản, trong một chu kỳ thanh toán.
+     *
+     * @return thay đổi quỹ bảo hiểm đã thanh toán
+     */
+    private BigDecimal autoDeleverage(LiquidationBook book, FuturesOrder order, BigDecimal bankruptcyPrice,
+            BigDecimal markPrice) {
+        FuturesPosition.PositionSide opposite = order.getPositionSide() == FuturesOrder.PositionSide.LONG
+                ? FuturesPosition.PositionSide.SHORT
+                : FuturesPosition.PositionSide.LONG;
+        PriorityQueue<LiquidationBook.Entry> queue = book.adlQueue(opposite, markPrice);
+        FuturesFillCycle cycle = new FuturesFillCycle(order.getSymbol());
+        int counterparties = 0;
+        while (order.getQuantity().signum() > 0 && !queue.isEmpty()) {
+            LiquidationBook.Entry counterparty = queue.poll();
+            try {
+                futuresTradingService.applyAdl(cycle, order, counterparty.getUid(), bankruptcyPrice,
+                        counterparty.getQuantity());
+                counterparties++;
+            } catch (Exception e) {
+                log.warn("⚠️ Skipped ADL counterparty {}: {}", counterparty.getPositionId(), e.getMessage());
             }
+        }
+        if (order.getQuantity().signum() > 0) {
+            log.error("❌ No ADL counterparty left for {} {}, closing unhedged", order.getQuantity(),
+                    order.getSymbol());
+            futuresTradingService.applyAdl(cycle, order, null, bankruptcyPrice, order.getQuantity());
+        }
+        futuresTradingService.settle(cycle);
+        log.info("⚖️ Auto-deleveraged liquidation order {} against {} positions", order.getId(), counterparties);
+        return cycle.getInsuranceDelta();
+    }
+
+    private FuturesOrder liquidationOrder(FuturesPosition position, BigDecimal limitPrice) {
+        FuturesOrder order = new FuturesOrder();
+        order.setUid(position.getUid());
+        order.setSymbol(position.getSymbol());
+        order.setSide(position.getSide() == FuturesPosition.PositionSide.LONG ? FuturesOrder.OrderSide.SELL
+                : FuturesOrder.OrderSide.BUY);
+        order.setPositionSide(FuturesOrder.PositionSide.valueOf(position.getSide().name()));
+        order.setType(FuturesOrder.OrderType.LIQUIDATION);
+        order.setPrice(limitPrice);
+        order.setQuantity(position.getQuantity());
+        order.setLeverage(position.getLeverage());
+        order.setStatus(FuturesOrder.OrderStatus.PENDING);
+        return order;
+    }
+
+    /**
+     * Giá mà lỗ của vị thế bằng đúng margin: LONG = entry - margin/qty, SHORT =
+     * entry + margin/qty.
+     */
+    private static BigDecimal bankruptcyPrice(FuturesPosition position) {
+        BigDecimal marginPerUnit = position.getMargin().divide(position.getQuantity(), 8, RoundingMode.HALF_UP);
+        return position.getSide() == FuturesPosition.PositionSide.LONG
+                ? position.getEntryPrice().subtract(marginPerUnit)
+                : position.getEntryPrice().add(marginPerUnit);
+    }
 
-            if (shouldLiquidate) {
-                liquidatePosition(position, currentPrice);
+    /**
+     * Giá xấu nhất lệnh thanh lý được khớp: giá phá sản lùi thêm phần quỹ bảo hiểm
+     * đã giữ chia theo khối lượng, làm tròn vào trong lưới tick.
+     */
+    private BigDecimal limitPrice(FuturesPosition position, BigDecimal bankruptcyPrice, BigDecimal reserved) {
+        SymbolSpec spec = symbolSpecRegistry.get(position.getSymbol());
+        BigDecimal cover = reserved.divide(position.getQuantity(), 8, RoundingMode.DOWN);
+        if (position.getSide() == FuturesPosition.PositionSide.LONG) {
+            BigDecimal limit = spec.priceOf(spec.toTicks(bankruptcyPrice.subtract(cover), RoundingMode.CEILING));
+            return limit.max(spec.getTickSize());
+        }
+        return spec.priceOf(spec.toTicks(bankruptcyPrice.add(cover), RoundingMode.FLOOR));
+    }
+
+    private static boolean isCrossed(FuturesPosition position, BigDecimal markPrice) {
+        int cmp = markPrice.compareTo(position.getLiquidationPrice());
+        return position.getSide() == FuturesPosition.PositionSide.LONG ? cmp <= 0 : cmp >= 0;
+    }
+
+    private void runOnLane(String symbol, Runnable task) {
+        if (matchingSequencer.isCurrentLane(lane(symbol))) {
+            task.run();
+            return;
+        }
+        // Thay đổi đã commit nên không được bỏ: lane đầy thì chờ chỗ trống
+        while (true) {
+            try {
+                matchingSequencer.submit(lane(symbol), task);
+                return;
+            } catch (RejectedExecutionException e) {
+                LockSupport.parkNanos(100_000);
             }
         }
     }
 
-    private void liquidatePosition(FuturesPosition position, BigDecimal currentPrice) {
-        position.setStatus(FuturesPosition.PositionStatus.LIQUIDATED);
-        // In real system, we might sell into the market or insurance fund takes over.
-        // Here we just close it.
-        // Margin is lost (already locked in wallet, we don't return it).
+    private LiquidationBook bookFor(String symbol) {
+        return books.computeIfAbsent(symbol, s -> new LiquidationBook(symbolSpecRegistry.get(s)));
+    }
 
-        futuresPositionRepository.save(position);
-        System.out.println("💥 LIQUIDATED Position: " + position.getId() + " Symbol: " + position.getSymbol()
-                + " Price: " + currentPrice);
+    private static String lane(String symbol) {
+        return "futures:" + symbol;
     }
 }
@@ -0,0 +1,193 @@
+package api.exchange.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tầng nhận frame thô từ các WebSocket client của Binance. Thread đọc của
+ * Java-WebSocket chỉ đưa frame vào hàng đợi có giới hạn của stream rồi quay lại
+ * đọc tiếp; việc parse, ghi Redis và broadcast STOMP chạy trên một worker riêng
+ * của mỗi stream, nên broker hay Redis chậm không làm nghẽn socket upstream.
+ * Frame có khoá gộp (ví dụ ticker theo symbol) chỉ giữ bản mới nhất khi worker
+ * còn chưa xử lý bản trước; frame không có khoá giữ thứ tự FIFO và bị bỏ khi
+ * hàng đợi đầy.
+ */
+@Component
+@Slf4j
+public class MarketDataIngest {
+
+    private static final String SYMBOL_FIELD = "\"s\":\"";
+    private static final String STREAM_FIELD = "\"stream\":\"";
+
+    @Value("${market-data.ingest.queue-capacity:1024}")
+    private int queueCapacity;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, IngestStream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Mở stream nhận frame với worker riêng.
+     *
+     * @param conflationKey khoá gộp của frame, trả về null nếu frame không được gộp;
+     *                      null nếu stream không gộp frame nào
+     * @param handler       xử lý frame, chạy trên worker của stream
+     */
+    public IngestStream open(String name, Function<String, String> conflationKey, Consumer<String> handler) {
+        IngestStream stream = new IngestStream(name, queueCapacity, conflationKey, handler);
+        if (streams.putIfAbsent(name, stream) != null) {
+            throw new IllegalStateException("Ingest stream already opened: " + name);
+        }
+        Gauge.builder("market-data.ingest.depth", stream.queue, BlockingQueue::size)
+                .tag("stream", name)
+                .register(meterRegistry);
+        stream.dropped = Counter.builder("market-data.ingest.dropped").tag("stream", name).register(meterRegistry);
+        stream.conflated = Counter.builder("market-data.ingest.conflated").tag("stream", name)
+                .register(meterRegistry);
+        stream.lag = Timer.builder("market-data.ingest.lag").tag("stream", name).register(meterRegistry);
+        stream.thread.start();
+        log.info("📥 Market data ingest stream '{}' started (queue capacity {})", name, queueCapacity);
+        return stream;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (IngestStream stream : new ArrayList<>(streams.values())) {
+            stream.running = false;
+            stream.thread.interrupt();
+        }
+    }
+
+    /**
+     * @return giá trị trường {@code "s"} đầu tiên của frame (symbol của event
+     *         đơn lẻ), hoặc null nếu không có
+     */
+    public static String symbolOf(String frame) {
+        return stringField(frame, SYMBOL_FIELD);
+    }
+
+    /**
+     * @return tên stream của frame dạng combined ({@code {"stream":..,"data":..}}),
+     *         hoặc null nếu không có
+     */
+    public static String streamOf(String frame) {
+        return stringField(frame, STREAM_FIELD);
+    }
+
+    // Tìm trên chuỗi thô, không parse: chỉ dùng cho khoá gộp trên thread đọc
+    private static String stringField(String frame, String prefix) {
+        int start = frame.indexOf(prefix);
+        if (start < 0) {
+            return null;
+        }
+        start += prefix.length();
+        int end = frame.indexOf('"', start);
+        return end > start ? frame.substring(start, end) : null;
+    }
+
+    /**
+     * Hàng đợi có giới hạn của một stream cùng worker xử lý. Hàng đợi chứa frame
+     * không gộp hoặc khoá gộp; frame mới nhất của mỗi khoá nằm trong
+     * {@code latest} và được lấy ra lúc worker tới lượt khoá đó.
+     */
+    public static final class IngestStream {
+        private final String name;
+        private final BlockingQueue<Object> queue;
+        private final Map<String, Frame> latest = new ConcurrentHashMap<>();
+        private final Function<String, String> conflationKey;
+        private final Consumer<String> handler;
+        private final Thread thread;
+        private volatile boolean running = true;
+        private Counter dropped;
+        private Counter conflated;
+        private Timer lag;
+
+        private IngestStream(String name, int capacity, Function<String, String> conflationKey,
+                Consumer<String> handler) {
+            this.name = name;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.conflationKey = conflationKey;
+            this.handler = handler;
+            this.thread = new Thread(this::run, "market-ingest-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Nhận frame từ thread đọc; không bao giờ chặn.
+         *
+         * @return false nếu frame bị bỏ vì hàng đợi đầy
+         */
+        public boolean offer(String payload) {
+            Frame frame = new Frame(payload, System.nanoTime());
+            String key = conflationKey != null ? conflationKey.apply(payload) : null;
+            if (key == null) {
+                if (queue.offer(frame)) {
+                    return true;
+                }
+                dropped.increment();
+                return false;
+            }
+            if (latest.put(key, frame) != null) {
+                // Bản trước của khoá chưa được xử lý: chỉ thay nội dung, giữ chỗ trong hàng
+                conflated.increment();
+                return true;
+            }
+            if (queue.offer(key)) {
+                return true;
+            }
+            latest.remove(key, frame);
+            dropped.increment();
+            return false;
+        }
+
+        public int getDepth() {
+            return queue.size();
+        }
+
+        private void run() {
+            while (running) {
+                Object next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+                Frame frame = next instanceof Frame f ? f : latest.remove((String) next);
+                if (frame == null) {
+                    continue;
+                }
+                lag.record(System.nanoTime() - frame.receivedAt, TimeUnit.NANOSECONDS);
+                try {
+                    handler.accept(frame.payload);
+                } catch (Exception e) {
+                    log.error("❌ Ingest stream '{}' failed to process frame: {}", name, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private record Frame(String payload, long receivedAt) {
+    }
+}
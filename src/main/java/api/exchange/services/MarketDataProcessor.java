@@ -1,7 +1,6 @@
 package api.exchange.services;
 
 import api.exchange.dtos.Response.CoinSpotResponse;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -22,38 +21,28 @@ public class MarketDataProcessor {
     @Autowired
     private ObjectMapper objectMapper;
 
+    // Mỗi kết nối WebSocket gọi từ thread riêng; decoder dùng lại holder nên không chia sẻ
+    private final ThreadLocal<BinanceFrameDecoder> decoders = ThreadLocal
+            .withInitial(() -> new BinanceFrameDecoder(objectMapper.getFactory(), null));
+
     /**
      * Parse message từ Binance và chuyển đổi thành model CoinSpotResponse
      */
     public CoinSpotResponse processMessage(String message) {
         try {
-            JsonNode jsonNode = objectMapper.readTree(message);
-
-            // Case 1: Stream Combined (Multi-stream)
-            if (jsonNode.has("stream") && jsonNode.has("data")) {
-                JsonNode data = jsonNode.get("data");
-                return parseTickerData(data);
-            }
-            // Case 2: Single Stream
-            else if (jsonNode.has("e") && jsonNode.has("s")) {
-                return parseTickerData(jsonNode);
-            }
-            // Case 3: Subscription Confirmation (Ignore)
-            else if (jsonNode.has("result") && jsonNode.has("id")) {
-                // Log debug if needed
-                return null;
-            }
-
-            return null;
+            // Stream combined hoặc single stream; xác nhận subscribe không có sự kiện nên bị bỏ qua
+            CoinSpotResponse[] result = new CoinSpotResponse[1];
+            decoders.get().decode(message, event -> result[0] = parseTickerData(event));
+            return result[0];
         } catch (Exception e) {
             System.err.println("❌ MarketDataProcessor Error: " + e.getMessage());
             return null;
         }
     }
 
-    private CoinSpotResponse parseTickerData(JsonNode node) {
-        String symbol = node.path("s").asText();
-        BigDecimal price = new BigDecimal(node.path("c").asText("0"));
+    private CoinSpotResponse parseTickerData(BinanceFrameDecoder.Event event) {
+        String symbol = event.getSymbol();
+        BigDecimal price = event.bigDecimal('c');
 
         // Calculate Market Cap
         BigDecimal supply = coinDataService.getCirculatingSupply(symbol);
@@ -62,11 +51,11 @@ public class MarketDataProcessor {
         return new CoinSpotResponse(
                 symbol,
                 price,
-                new BigDecimal(node.path("P").asText("0")), // Price Change Percent
-                new BigDecimal(node.path("h").asText("0")), // High
-                new BigDecimal(node.path("l").asText("0")), // Low
-                new BigDecimal(node.path("v").asText("0")), // Volume
-                node.path("E").asLong(), // Event Time
+                event.bigDecimal('P'), // Price Change Percent
+                event.bigDecimal('h'), // High
+                event.bigDecimal('l'), // Low
+                event.bigDecimal('v'), // Volume
+                event.getLong('E'), // Event Time
                 marketCap);
     }
 
@@ -75,39 +64,32 @@ public class MarketDataProcessor {
      */
     public api.exchange.dtos.Response.KlinesSpotResponse processKlineMessage(String message) {
         try {
-            JsonNode jsonNode = objectMapper.readTree(message);
-
-            // Case 1: Stream Combined (Multi-stream)
-            if (jsonNode.has("stream") && jsonNode.has("data")) {
-                JsonNode data = jsonNode.get("data");
-                if (data.has("k")) {
-                    return parseKlineData(data.get("k"), data.get("s").asText());
+            api.exchange.dtos.Response.KlinesSpotResponse[] result = new api.exchange.dtos.Response.KlinesSpotResponse[1];
+            decoders.get().decode(message, event -> {
+                if (BinanceFrameDecoder.KLINE.equals(event.getType())) {
+                    result[0] = parseKlineData(event.getKline(), event.getSymbol());
                 }
-            }
-            // Case 2: Single Stream
-            else if (jsonNode.has("e") && "kline".equals(jsonNode.get("e").asText()) && jsonNode.has("k")) {
-                return parseKlineData(jsonNode.get("k"), jsonNode.get("s").asText());
-            }
-
-            return null;
+            });
+            return result[0];
         } catch (Exception e) {
             System.err.println("❌ MarketDataProcessor Kline Error: " + e.getMessage());
             return null;
         }
     }
 
-    private api.exchange.dtos.Response.KlinesSpotResponse parseKlineData(JsonNode klineNode, String symbol) {
+    private api.exchange.dtos.Response.KlinesSpotResponse parseKlineData(BinanceFrameDecoder.Event kline,
+            String symbol) {
         return new api.exchange.dtos.Response.KlinesSpotResponse(
                 symbol,
-                new BigDecimal(klineNode.path("o").asText("0")), // Open price
-                new BigDecimal(klineNode.path("c").asText("0")), // Close price
-                new BigDecimal(klineNode.path("h").asText("0")), // High price
-                new BigDecimal(klineNode.path("l").asText("0")), // Low price
-                new BigDecimal(klineNode.path("v").asText("0")), // Volume
-                klineNode.path("t").asLong(), // Start time
-                klineNode.path("T").asLong(), // Close time
-                klineNode.path("i").asText(), // Interval
-                klineNode.path("x").asBoolean() // Is closed
+                kline.bigDecimal('o'), // Open price
+                kline.bigDecimal('c'), // Close price
+                kline.bigDecimal('h'), // High price
+                kline.bigDecimal('l'), // Low price
+                kline.bigDecimal('v'), // Volume
+                kline.getLong('t'), // Start time
+                kline.getLong('T'), // Close time
+                kline.getText('i') != null ? kline.getText('i') : "", // Interval
+                kline.getBoolean('x') // Is closed
         );
     }
 }
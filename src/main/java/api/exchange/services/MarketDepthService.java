@@ -0,0 +1,60 @@
+package api.exchange.services;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Nơi giữ {@link DepthBook} của các symbol spot và futures. Endpoint độ sâu chỉ
+ * đọc snapshot đã công bố ở đây, không truy vấn DB.
+ */
+@Component
+public class MarketDepthService {
+
+    @Value("${market-depth.snapshot-levels:100}")
+    private int snapshotLevels;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    private final Map<String, DepthBook> spotBooks = new ConcurrentHashMap<>();
+    private final Map<String, DepthBook> futuresBooks = new ConcurrentHashMap<>();
+
+    /**
+     * Tạo mới độ sâu spot của symbol (khi book được dựng lại từ đầu).
+     */
+    public DepthBook newSpotDepth(String symbol) {
+        DepthBook depth = new DepthBook(symbolSpecRegistry.get(symbol), snapshotLevels);
+        spotBooks.put(symbol, depth);
+        return depth;
+    }
+
+    public DepthBook findSpotDepth(String symbol) {
+        return spotBooks.get(symbol);
+    }
+
+    public DepthBook futuresDepth(String symbol) {
+        return futuresBooks.computeIfAbsent(symbol,
+                s -> new DepthBook(symbolSpecRegistry.get(s), snapshotLevels, true));
+    }
+
+    public Collection<DepthBook> futuresDepths() {
+        return futuresBooks.values();
+    }
+
+    /**
+     * @return snapshot độ sâu spot, hoặc null nếu symbol chưa có book
+     */
+    public DepthBook.Snapshot spotSnapshot(String symbol) {
+        DepthBook depth = spotBooks.get(symbol);
+        return depth != null ? depth.snapshot() : null;
+    }
+
+    public DepthBook.Snapshot futuresSnapshot(String symbol) {
+        return futuresDepth(symbol).snapshot();
+    }
+}
@@ -0,0 +1,567 @@
+package api.exchange.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderStatus;
+import api.exchange.models.OrderBooks.OrderType;
+import api.exchange.models.OrderBooks.TradeType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Journal append-only, đánh số tuần tự cho các sự kiện của matching engine spot
+ * (lệnh vào book, fill, huỷ, sửa khối lượng), ghi vào các segment file
+ * memory-mapped. Kèm snapshot định kỳ của các book để khi khởi động lại chỉ cần
+ * nạp snapshot mới nhất rồi replay phần đuôi journal, không phải quét
+ * {@code order_books}.
+ *
+ * <p>
+ * Bản ghi: {@code [int độ dài][long sequence][byte loại][nội dung]}. Độ dài
+ * được ghi sau cùng nên bản ghi ghi dở (crash) có độ dài 0 và đánh dấu cuối
+ * journal. Giá/khối lượng lưu theo tick/lot của {@link SymbolSpec}.
+ *
+ * <p>
+ * Sự kiện append trong một transaction (ví dụ lượt khớp cùng thanh toán ví) được
+ * mã hoá ngay nhưng chỉ được ghi khi transaction commit, theo đúng thứ tự append;
+ * rollback thì bị bỏ. Journal vì vậy không bao giờ chứa fill mà tiền chưa được
+ * chuyển.
+ */
+@Component
+@Slf4j
+public class MatchingJournal {
+
+    private static final byte ORDER = 1;
+    private static final byte FILL = 2;
+    private static final byte CANCEL = 3;
+    private static final byte AMEND = 4;
+
+    // Đủ cho bản ghi lớn nhất (ORDER với symbol/uid dài)
+    private static final int MAX_RECORD_SIZE = 1024;
+
+    @Value("${matching.journal.dir:data/journal}")
+    private String journalDir;
+
+    @Value("${matching.journal.segment-size-mb:64}")
+    private int segmentSizeMb;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    private Path dir;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long lastSequence = 0;
+    private int recordStart;
+
+    // Symbol có sự kiện trong các segment hiện có: chỉ xoá segment khi snapshot phủ hết
+    private final Set<String> journaledSymbols = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void open() throws IOException {
+        dir = Paths.get(journalDir);
+        Files.createDirectories(dir);
+        List<Path> segments = segments();
+        if (segments.isEmpty()) {
+            openSegment(1);
+            return;
+        }
+        // Tiếp tục ghi vào cuối segment mới nhất
+        Path last = segments.get(segments.size() - 1);
+        mapSegment(last);
+        while (buffer.remaining() >= 4 && buffer.getInt(buffer.position()) > 0) {
+            int length = buffer.getInt(buffer.position());
+            lastSequence = buffer.getLong(buffer.position() + 4);
+            buffer.position(buffer.position() + 4 + length);
+        }
+        if (lastSequence == 0) {
+            lastSequence = firstSequence(last) - 1;
+        }
+        log.info("📒 Matching journal opened at {} (last sequence {})", last, lastSequence);
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${matching.journal.force-interval-ms:200}")
+    public synchronized void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Lệnh được đưa vào matching (lệnh mới, lệnh sửa giá hoặc lệnh được trả lại
+     * book) với trạng thái trước khi khớp.
+     */
+    public void appendOrder(OrderBooks order) {
+        SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+        append(order.getSymbol(), ORDER, out -> writeOrder(out, order, spec));
+    }
+
+    public void appendFill(String symbol, Long makerId, Long takerId, long priceTicks, long lots) {
+        append(symbol, FILL, out -> {
+            writeString(out, symbol);
+            out.putLong(makerId);
+            out.putLong(takerId);
+            out.putLong(priceTicks);
+            out.putLong(lots);
+        });
+    }
+
+    public void appendCancel(String symbol, Long orderId) {
+        append(symbol, CANCEL, out -> {
+            writeString(out, symbol);
+            out.putLong(orderId);
+        });
+    }
+
+    public void appendAmend(String symbol, Long orderId, long quantityLots) {
+        append(symbol, AMEND, out -> {
+            writeString(out, symbol);
+            out.putLong(orderId);
+            out.putLong(quantityLots);
+        });
+    }
+
+    // Ngoài transaction: ghi thẳng vào segment. Trong transaction: mã hoá ngay
+    // (trạng thái lệnh tại lúc append) và chờ commit
+    private void append(String symbol, byte type, Consumer<ByteBuffer> content) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            synchronized (this) {
+                write(symbol, type, content);
+            }
+            return;
+        }
+        ByteBuffer out = ByteBuffer.allocate(MAX_RECORD_SIZE);
+        content.accept(out);
+        out.flip();
+        pendingRecords().add(new PendingRecord(symbol, type, out));
+    }
+
+    private void write(String symbol, byte type, Consumer<ByteBuffer> content) {
+        journaledSymbols.add(symbol);
+        ByteBuffer out = begin(type);
+        content.accept(out);
+        commit(out);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<PendingRecord> pendingRecords() {
+        List<PendingRecord> pending = (List<PendingRecord>) TransactionSynchronizationManager.getResource(this);
+        if (pending != null) {
+            return pending;
+        }
+        List<PendingRecord> records = new ArrayList<>();
+        TransactionSynchronizationManager.bindResource(this, records);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResource(MatchingJournal.this);
+                if (status != STATUS_COMMITTED) {
+                    return;
+                }
+                synchronized (MatchingJournal.this) {
+                    for (PendingRecord record : records) {
+                        write(record.symbol, record.type, out -> out.put(record.content));
+                    }
+                }
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Chụp các lệnh đang nằm trên book của một symbol. Phải gọi trên lane của
+     * symbol: lệnh được mã hoá ngay và sequence hiện tại của journal được ghi kèm,
+     * không sự kiện nào của symbol có thể chen vào giữa.
+     */
+    public SymbolSnapshot snapshotOf(String symbol, Collection<OrderBooks> orders) {
+        SymbolSpec spec = symbolSpecRegistry.get(symbol);
+        ByteBuffer out = ByteBuffer.allocate(orders.size() * MAX_RECORD_SIZE);
+        for (OrderBooks order : orders) {
+            writeOrder(out, order, spec);
+        }
+        byte[] encoded = new byte[out.position()];
+        out.flip();
+        out.get(encoded);
+        return new SymbolSnapshot(symbol, lastSequence(), orders.size(), encoded);
+    }
+
+    /**
+     * Ghi snapshot các book rồi xoá snapshot cũ và các segment đã nằm trọn trước
+     * sequence nhỏ nhất của snapshot. Segment chỉ bị xoá khi snapshot phủ mọi
+     * symbol có trong journal (ở chế độ redis không có book trong bộ nhớ nên
+     * journal không bị cắt).
+     */
+    public void writeSnapshot(Collection<SymbolSnapshot> books) throws IOException {
+        long minSequence = lastSequence();
+        Set<String> covered = new HashSet<>();
+        int size = 4;
+        for (SymbolSnapshot snapshot : books) {
+            covered.add(snapshot.symbol);
+            minSequence = Math.min(minSequence, snapshot.sequence);
+            size += 2 + snapshot.symbol.getBytes(StandardCharsets.UTF_8).length + 8 + 4 + snapshot.orders.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(books.size());
+        for (SymbolSnapshot snapshot : books) {
+            writeString(out, snapshot.symbol);
+            out.putLong(snapshot.sequence);
+            out.putInt(snapshot.count);
+            out.put(snapshot.orders);
+        }
+        out.flip();
+
+        Path target = dir.resolve(String.format("snapshot-%020d.snap", minSequence));
+        Path tmp = dir.resolve(target.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                file.write(out);
+            }
+            file.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Path old : snapshots()) {
+            if (!old.equals(target)) {
+                Files.deleteIfExists(old);
+            }
+        }
+        if (!covered.containsAll(journaledSymbols)) {
+            log.info("📸 Snapshot {} written ({} books), journal kept: not every symbol is covered",
+                    target.getFileName(), books.size());
+            return;
+        }
+        List<Path> segments = segments();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstSequence(segments.get(i + 1)) - 1 <= minSequence) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+        log.info("📸 Snapshot {} written ({} books)", target.getFileName(), books.size());
+    }
+
+    /**
+     * Dựng lại các lệnh đang nằm trên book của từng symbol từ snapshot mới nhất
+     * và phần journal sau nó, theo đúng thứ tự ưu tiên thời gian. Kèm trạng thái
+     * cuối của mọi lệnh journal biết tới, để đối chiếu với {@code order_books}
+     * (các ghi DB theo batch có thể chưa kịp flush trước khi dừng).
+     */
+    public Recovery recover() throws IOException {
+        Map<String, LinkedHashMap<Long, OrderBooks>> books = new HashMap<>();
+        Map<Long, OrderBooks> orders = new HashMap<>();
+        Map<String, Long> snapshotSequences = new HashMap<>();
+
+        List<Path> snapshots = snapshots();
+        if (!snapshots.isEmpty()) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(snapshots.get(snapshots.size() - 1)));
+            int symbols = in.getInt();
+            for (int i = 0; i < symbols; i++) {
+                String symbol = readString(in);
+                snapshotSequences.put(symbol, in.getLong());
+                int count = in.getInt();
+                LinkedHashMap<Long, OrderBooks> resting = new LinkedHashMap<>();
+                for (int j = 0; j < count; j++) {
+                    OrderBooks order = readOrder(in);
+                    resting.put(order.getId(), order);
+                    orders.put(order.getId(), order);
+                }
+                books.put(symbol, resting);
+            }
+        }
+
+        long replayed = 0;
+        for (Path segment : segments()) {
+            try (FileChannel file = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer in = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+                while (in.remaining() >= 4) {
+                    int length = in.getInt();
+                    if (length <= 0) {
+                        break;
+                    }
+                    int end = in.position() + length;
+                    long sequence = in.getLong();
+                    byte type = in.get();
+                    String symbol = peekSymbol(in, type);
+                    journaledSymbols.add(symbol);
+                    Long fromSnapshot = snapshotSequences.get(symbol);
+                    if (fromSnapshot == null || sequence > fromSnapshot) {
+                        apply(books.computeIfAbsent(symbol, s -> new LinkedHashMap<>()), orders, type, in);
+                        replayed++;
+                    }
+                    in.position(end);
+                }
+            }
+        }
+        log.info("📒 Recovered {} books from snapshot + {} journal events", books.size(), replayed);
+        return new Recovery(books, orders);
+    }
+
+    // orders: trạng thái cuối của mọi lệnh đã gặp, kể cả lệnh đã rời book
+    private void apply(LinkedHashMap<Long, OrderBooks> book, Map<Long, OrderBooks> orders, byte type,
+            ByteBuffer in) {
+        switch (type) {
+            case ORDER: {
+                OrderBooks order = readOrder(in);
+                book.remove(order.getId());
+                orders.put(order.getId(), order);
+                if (!order.isFullyFilled()) {
+                    book.put(order.getId(), order);
+                } else {
+                    order.setStatus(OrderStatus.FILLED);
+                }
+                break;
+            }
+            case FILL: {
+                SymbolSpec spec = symbolSpecRegistry.get(readString(in));
+                long makerId = in.getLong();
+                long takerId = in.getLong();
+                in.getLong();
+                BigDecimal quantity = spec.quantityOf(in.getLong());
+                applyFill(book, makerId, quantity);
+                applyFill(book, takerId, quantity);
+                break;
+            }
+            case CANCEL: {
+                readString(in);
+                OrderBooks order = book.remove(in.getLong());
+                if (order != null) {
+                    order.setStatus(OrderStatus.CANCELLED);
+                }
+                break;
+            }
+            case AMEND: {
+                SymbolSpec spec = symbolSpecRegistry.get(readString(in));
+                OrderBooks order = book.get(in.getLong());
+                long quantityLots = in.getLong();
+                if (order != null) {
+                    order.setQuantity(spec.quantityOf(quantityLots));
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private void applyFill(LinkedHashMap<Long, OrderBooks> orders, long orderId, BigDecimal quantity) {
+        OrderBooks order = orders.get(orderId);
+        if (order == null) {
+            return;
+        }
+        order.setFilledQuantity(order.getFilledQuantity().add(quantity));
+        order.setStatus(OrderStatus.PARTIALLY_FILLED);
+        if (order.isFullyFilled()) {
+            order.setStatus(OrderStatus.FILLED);
+            orders.remove(orderId);
+        }
+    }
+
+    private ByteBuffer begin(byte type) {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            openSegment(lastSequence + 1);
+        }
+        recordStart = buffer.position();
+        buffer.position(recordStart + 4);
+        buffer.putLong(++lastSequence);
+        buffer.put(type);
+        return buffer;
+    }
+
+    private void commit(ByteBuffer out) {
+        out.putInt(recordStart, out.position() - recordStart - 4);
+    }
+
+    private void openSegment(long firstSequence) {
+        try {
+            if (buffer != null) {
+                buffer.force();
+                channel.close();
+            }
+            mapSegment(dir.resolve(String.format("journal-%020d.log", firstSequence)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void mapSegment(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentSizeMb * 1024 * 1024);
+    }
+
+    private List<Path> segments() throws IOException {
+        return list("journal-", ".log");
+    }
+
+    private List<Path> snapshots() throws IOException {
+        return list("snapshot-", ".snap");
+    }
+
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(prefix) && name.endsWith(suffix);
+            }).sorted().forEach(paths::add);
+        }
+        return paths;
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.lastIndexOf('.')));
+    }
+
+    private static String peekSymbol(ByteBuffer in, byte type) {
+        int position = in.position();
+        if (type == ORDER) {
+            in.position(position + 8);
+        }
+        String symbol = readString(in);
+        in.position(position);
+        return symbol;
+    }
+
+    private static void writeOrder(ByteBuffer out, OrderBooks order, SymbolSpec spec) {
+        out.putLong(order.getId());
+        writeString(out, order.getSymbol());
+        writeString(out, order.getUid());
+        out.put((byte) order.getOrderType().ordinal());
+        out.put((byte) order.getTradeType().ordinal());
+        out.putLong(order.isMarketOrder() ? SpotOrderBook.NO_PRICE : spec.toTicks(order.getPrice()));
+        out.putLong(spec.toLots(order.getQuantity()));
+        out.putLong(spec.toLots(order.getFilledQuantity()));
+        out.putLong(order.getCreatedAt() != null ? order.getCreatedAt().toEpochSecond(ZoneOffset.UTC) : -1);
+        out.putInt(order.getCreatedAt() != null ? order.getCreatedAt().getNano() : 0);
+    }
+
+    private OrderBooks readOrder(ByteBuffer in) {
+        OrderBooks order = new OrderBooks();
+        order.setId(in.getLong());
+        order.setSymbol(readString(in));
+        order.setUid(readString(in));
+        order.setOrderType(OrderType.values()[in.get()]);
+        order.setTradeType(TradeType.values()[in.get()]);
+        SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+        long priceTicks = in.getLong();
+        order.setPrice(priceTicks != SpotOrderBook.NO_PRICE ? spec.priceOf(priceTicks) : null);
+        order.setQuantity(spec.quantityOf(in.getLong()));
+        order.setFilledQuantity(spec.quantityOf(in.getLong()));
+        long createdAt = in.getLong();
+        int nanos = in.getInt();
+        order.setCreatedAt(createdAt >= 0 ? LocalDateTime.ofEpochSecond(createdAt, nanos, ZoneOffset.UTC) : null);
+        order.setStatus(order.getFilledQuantity().signum() > 0 ? OrderStatus.PARTIALLY_FILLED : OrderStatus.ACTIVE);
+        return order;
+    }
+
+    private static void writeString(ByteBuffer out, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Kết quả của {@link #recover()}: các lệnh đang nằm trên book theo symbol, và
+     * trạng thái cuối (FILLED/CANCELLED nếu đã rời book) của mọi lệnh trong
+     * snapshot và phần journal được replay.
+     */
+    public static class Recovery {
+        private final Map<String, LinkedHashMap<Long, OrderBooks>> books;
+        private final Map<Long, OrderBooks> orders;
+
+        Recovery(Map<String, LinkedHashMap<Long, OrderBooks>> books, Map<Long, OrderBooks> orders) {
+            this.books = books;
+            this.orders = orders;
+        }
+
+        public Map<String, LinkedHashMap<Long, OrderBooks>> getBooks() {
+            return books;
+        }
+
+        public Map<Long, OrderBooks> getOrders() {
+            return orders;
+        }
+    }
+
+    private static class PendingRecord {
+        private final String symbol;
+        private final byte type;
+        private final ByteBuffer content;
+
+        private PendingRecord(String symbol, byte type, ByteBuffer content) {
+            this.symbol = symbol;
+            this.type = type;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Các lệnh đang nằm trên book của một symbol, đã mã hoá tại thời điểm chụp.
+     */
+    public static class SymbolSnapshot {
+        private final String symbol;
+        private final long sequence;
+        private final int count;
+        private final byte[] orders;
+
+        SymbolSnapshot(String symbol, long sequence, int count, byte[] orders) {
+            this.symbol = symbol;
+            this.sequence = sequence;
+            this.count = count;
+            this.orders = orders;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package api.exchange.services;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sequencer cho matching engine: mỗi symbol được gắn cố định vào một lane, mỗi
+ * lane là một thread ghi duy nhất với hàng đợi vào có giới hạn. Mọi thao tác lên
+ * book của một symbol (khớp, huỷ, sửa) đều chạy tuần tự trên lane đó nên không
+ * cần khoá; các symbol khác nhau chạy song song trên các lane khác nhau.
+ * Key {@code futures:SYMBOL} chạy trên nhóm lane riêng ({@code matching.futures-lanes})
+ * vì mỗi fill futures ghi DB ngay trên lane: một symbol futures chậm không làm
+ * trễ các symbol spot dùng chung lane.
+ */
+@Component
+@Slf4j
+public class MatchingSequencer {
+
+    @Value("${matching.lanes:0}")
+    private int configuredLanes;
+
+    @Value("${matching.futures-lanes:0}")
+    private int configuredFuturesLanes;
+
+    @Value("${matching.queue-capacity:4096}")
+    private int queueCapacity;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private static final String FUTURES_PREFIX = "futures:";
+
+    private Lane[] lanes;
+    private Lane[] futuresLanes;
+    private final Map<String, Lane> symbolLanes = new ConcurrentHashMap<>();
+    private final Map<String, Meters> symbolMeters = new ConcurrentHashMap<>();
+    private final AtomicInteger nextLane = new AtomicInteger();
+    private final AtomicInteger nextFuturesLane = new AtomicInteger();
+    private Counter rejectedCounter;
+
+    @PostConstruct
+    public void start() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        lanes = startLanes("", configuredLanes > 0 ? configuredLanes : cpus);
+        futuresLanes = startLanes("futures-", configuredFuturesLanes > 0 ? configuredFuturesLanes : cpus);
+        rejectedCounter = Counter.builder("matching.rejected").register(meterRegistry);
+        log.info("⚙️ Matching sequencer started with {} spot and {} futures lanes (queue capacity {})",
+                lanes.length, futuresLanes.length, queueCapacity);
+    }
+
+    private Lane[] startLanes(String prefix, int laneCount) {
+        Lane[] group = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            Lane lane = new Lane(prefix + i, queueCapacity);
+            Gauge.builder("matching.queue.depth", lane.queue, BlockingQueue::size)
+                    .tag("lane", prefix + i)
+                    .register(meterRegistry);
+            group[i] = lane;
+            lane.thread.start();
+        }
+        return group;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Lane[] group : new Lane[][] { lanes, futuresLanes }) {
+            for (Lane lane : group) {
+                lane.running = false;
+                lane.thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Đưa task vào lane của symbol. Ném {@link RejectedExecutionException} khi
+     * hàng đợi của lane đã đầy (back-pressure về phía người gọi).
+     */
+    public void submit(String symbol, Runnable task) {
+        Lane lane = laneFor(symbol);
+        Meters meters = symbolMeters.computeIfAbsent(symbol, this::metersFor);
+        long enqueuedAt = System.nanoTime();
+        Runnable timed = () -> {
+            meters.pending.decrementAndGet();
+            meters.wait.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+            meters.service.record(task);
+        };
+        meters.pending.incrementAndGet();
+        if (!lane.queue.offer(timed)) {
+            meters.pending.decrementAndGet();
+            rejectedCounter.increment();
+            throw new RejectedExecutionException("Matching queue is full for symbol " + symbol);
+        }
+    }
+
+    /**
+     * Chạy task trên lane của symbol và trả về kết quả cho người gọi.
+     */
+    public <T> CompletableFuture<T> call(String symbol, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        submit(symbol, () -> {
+            try {
+                result.complete(task.get());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return true nếu thread hiện tại chính là lane của symbol (task có thể chạy
+     *         trực tiếp thay vì xếp hàng, tránh tự chờ hàng đợi của mình)
+     */
+    public boolean isCurrentLane(String symbol) {
+        return Thread.currentThread() == laneFor(symbol).thread;
+    }
+
+    /**
+     * @return số task của riêng symbol đang chờ trên lane (không tính task của
+     *         các symbol khác dùng chung lane)
+     */
+    public int getQueueDepth(String symbol) {
+        Meters meters = symbolMeters.get(symbol);
+        return meters != null ? meters.pending.get() : 0;
+    }
+
+    private Lane laneFor(String symbol) {
+        return symbolLanes.computeIfAbsent(symbol, s -> s.startsWith(FUTURES_PREFIX)
+                ? futuresLanes[Math.floorMod(nextFuturesLane.getAndIncrement(), futuresLanes.length)]
+                : lanes[Math.floorMod(nextLane.getAndIncrement(), lanes.length)]);
+    }
+
+    private Meters metersFor(String symbol) {
+        Meters meters = new Meters(
+                Timer.builder("matching.queue.wait").tag("symbol", symbol).register(meterRegistry),
+                Timer.builder("matching.service.time").tag("symbol", symbol).register(meterRegistry));
+        Gauge.builder("matching.symbol.queue.depth", meters.pending, AtomicInteger::get)
+                .tag("symbol", symbol)
+                .register(meterRegistry);
+        return meters;
+    }
+
+    // Số task đang chờ, thời gian chờ trong hàng đợi và thời gian xử lý của task theo symbol
+    private static class Meters {
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Timer wait;
+        private final Timer service;
+
+        Meters(Timer wait, Timer service) {
+            this.wait = wait;
+            this.service = service;
+        }
+    }
+
+    private static class Lane {
+        private final BlockingQueue<Runnable> queue;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        Lane(String name, int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this::run, "matching-lane-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            while (running) {
+                try {
+                    Runnable task = queue.poll(1, TimeUnit.SECONDS);
+                    if (task != null) {
+                        task.run();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("❌ Matching task failed on {}", thread.getName(), e);
+                }
+            }
+        }
+    }
+}
@@ -2,104 +2,84 @@ package api.exchange.services;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import jakarta.annotation.PreDestroy;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
 import api.exchange.models.OrderBooks;
 import api.exchange.repository.OrderBooksRepository;
-import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Ghi trạng thái lệnh sau khớp xuống DB theo lô. Độ bền do
+ * {@link MatchingJournal} đảm nhận nên ở đây chỉ có hàng đợi giới hạn trong bộ
+ * nhớ: hàng đợi đầy thì người gọi tự flush (back-pressure), lô lỗi được ghi lại
+ * từng lệnh một thay vì xếp hàng lại vô hạn.
+ */
 @Component
 @Slf4j
 public class OrderBatchProcessor  {
         private final OrderBooksRepository orderBooksRepository;
-        
+
         // Batch configuration
         private static final int BATCH_SIZE = 100;
+        private static final int QUEUE_CAPACITY = 10_000;
         private static final long FLUSH_INTERVAL = 1000; // 1 second
-        private static final String ORDER_QUEUE_KEY = "batch:orders";
-
-        @Autowired
-        private RedisTemplate<String, OrderBooks> redisTemplate;        
 
-        private final List<OrderBooks> orderBatch = new ArrayList<>();
+        private final BlockingQueue<OrderBooks> orderQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
         private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        
+
         public OrderBatchProcessor(OrderBooksRepository orderBooksRepository) {
             this.orderBooksRepository = orderBooksRepository;
-            
+
             // Schedule batch flushing
             scheduler.scheduleAtFixedRate(this::flushBatches, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
         }
-        
+
         @PreDestroy
         public void shutdown(){
             scheduler.shutdown();
+            flushBatches();
         }
 
         // Add order to batch queue
         public void addOrderToBatch(OrderBooks order) {
-            synchronized (orderBatch) {
-                orderBatch.add(order);
-                if (orderBatch.size() >= BATCH_SIZE) {
-                    flushOrderBatch();
-                }
+            while (!orderQueue.offer(order)) {
+                flushOrderBatch();
+            }
+            if (orderQueue.size() >= BATCH_SIZE) {
+                flushOrderBatch();
             }
-            
-            // Also add to Redis for persistence
-            redisTemplate.opsForList().rightPush(ORDER_QUEUE_KEY, order);
         }
 
-        private void flushOrderBatch() {
-            List<OrderBooks> batchToSave;
-            synchronized (orderBatch) {
-                if (orderBatch.isEmpty()) return;
-                batchToSave = new ArrayList<>(orderBatch);
-                orderBatch.clear();
-            }
-            
-            if (!batchToSave.isEmpty()) {
-                try {
-                    orderBooksRepository.saveAll(batchToSave);
-                    log.info("✅ Saved {} orders to database via batch", batchToSave.size());
-                } catch (Exception e) {
-                    log.error("❌ Failed to save order batch, re-queueing", e);
-                    // Re-queue failed batch
-                    synchronized (orderBatch) {
-                        orderBatch.addAll(0, batchToSave);
+        private synchronized void flushOrderBatch() {
+            List<OrderBooks> batchToSave = new ArrayList<>(BATCH_SIZE);
+            orderQueue.drainTo(batchToSave, BATCH_SIZE);
+            if (batchToSave.isEmpty()) return;
+
+            try {
+                orderBooksRepository.saveAll(batchToSave);
+                log.info("✅ Saved {} orders to database via batch", batchToSave.size());
+            } catch (Exception e) {
+                log.error("❌ Failed to save order batch, saving orders one by one", e);
+                for (OrderBooks order : batchToSave) {
+                    try {
+                        orderBooksRepository.save(order);
+                    } catch (Exception ex) {
+                        log.error("❌ Failed to save order {}: {}", order.getId(), ex.getMessage());
                     }
                 }
             }
         }
-        
+
         // Scheduled batch flushing
         private void flushBatches() {
-            flushOrderBatch();
-        }
-        
-        // Recovery mechanism for system crash
-        @PostConstruct
-        public void recoverFromRedis() {
-            log.info("🔄 Recovering batches from Redis...");
-            recoverOrdersFromRedis();
-        }
-        
-        private void recoverOrdersFromRedis() {
-            try {
-                List<OrderBooks> orders = redisTemplate.opsForList().range(ORDER_QUEUE_KEY, 0, -1);
-                if (orders != null) {
-                    orders.forEach(order -> addOrderToBatch((OrderBooks) order));
-                    redisTemplate.delete(ORDER_QUEUE_KEY);
-                    log.info("🔄 Recovered {} orders from Redis", orders.size());
-                }
-            } catch (Exception e) {
-                log.error("❌ Failed to recover orders from Redis", e);
+            while (!orderQueue.isEmpty()) {
+                flushOrderBatch();
             }
         }
 }
@@ -2,10 +2,21 @@ package api.exchange.services;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -27,27 +38,136 @@ public class OrderBooksService {
     private OrderBooksRepository orderBooksRepository;
 
     @Autowired
-    private RedisTemplate<String, OrderBooks> redisTemplate;
+    private SpotWalletHistoryRepository spotWalletHistoryRepository;
 
     @Autowired
-    private OrderBatchProcessor batchProcessor;
+    private TransactionSpotRepository transactionSpotRepository;
 
     @Autowired
-    private SpotWalletHistoryRepository spotWalletHistoryRepository;
+    private SpotWalletService spotWalletService;
 
     @Autowired
-    private TransactionSpotRepository transactionSpotRepository;
+    private SpotOrderBookService spotOrderBookService;
 
     @Autowired
-    private SpotWalletService spotWalletService;
+    private SpotSettlementService spotSettlementService;
+
+    @Autowired
+    private SpotMarketStats spotMarketStats;
+
+    @Autowired
+    private MarketDepthService marketDepthService;
+
+    @Autowired
+    private MatchingSequencer matchingSequencer;
+
+    @Autowired
+    private SpotRedisBook spotRedisBook;
+
+    @Autowired
+    private SpotRedisMatcher spotRedisMatcher;
+
+    @Autowired
+    private MatchingJournal matchingJournal;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    // memory: book trong bộ nhớ, Redis chỉ là bản sao; redis: khớp bằng script Lua
+    @Value("${matching.mode:memory}")
+    private String matchingMode;
+
+    // Proxy của chính bean này để matchOrders chạy trong transaction khi gọi nội bộ
+    @Autowired
+    @Lazy
+    private OrderBooksService self;
+
+    private static final long LANE_TIMEOUT_SECONDS = 5;
+
+    private static final List<OrderStatus> RESTING_STATUSES = Arrays.asList(
+            OrderStatus.ACTIVE, OrderStatus.PARTIALLY_FILLED);
+
+    /**
+     * Dựng sẵn book (hoặc độ sâu ở chế độ redis) của mọi symbol còn lệnh mở, để
+     * snapshot độ sâu có dữ liệu ngay từ đầu thay vì chờ lệnh đầu tiên của symbol.
+     * Symbol không có lệnh mở thì snapshot rỗng là đúng.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmBooks() {
+        List<String> symbols = orderBooksRepository.findSymbolsByStatusIn(RESTING_STATUSES);
+        for (String symbol : symbols) {
+            try {
+                matchingSequencer.submit(symbol, () -> publishMarketData(symbol,
+                        isRedisMatching() ? null : spotOrderBookService.getBook(symbol)));
+            } catch (RejectedExecutionException e) {
+                log.warn("⚠️ Matching lane full, book {} will load on first order", symbol);
+            }
+        }
+        log.info("📚 Warming {} spot books", symbols.size());
+    }
 
-    public void addOrderToRedis(OrderBooks order) {
-        String key = order.isBuyOrder() ? "buyOrders:" + order.getSymbol() : "sellOrders:" + order.getSymbol();
-        double score = order.isMarketOrder() ? 0 : order.getPrice().doubleValue() * (order.isBuyOrder() ? -1 : 1);
-        redisTemplate.opsForZSet().add(key, order, score);
-        log.info("➕ Added order to Redis: {} with score {}", order.getId(), score);
+    /**
+     * Stage risk của {@link OrderIntakePipeline}: kiểm tra số dư, gộp vào lệnh
+     * cùng giá đang mở hoặc khoá số dư và lưu lệnh mới. Không chạy trong
+     * transaction: việc gộp chờ lane của symbol và tự commit trên lane.
+     */
+    public OrderIntakePipeline.Outcome acceptOrder(OrderBooks entity, String uid) {
+        if (!spotWalletService.checkBalance(entity, uid)) {
+            return OrderIntakePipeline.Outcome.INSUFFICIENT_BALANCE;
+        }
+        spotWalletService.checkWalletRecive(entity, uid);
+        OrderBooks orderBooks = orderBooksRepository.findByUidAndSymbolAndPriceAndStatusAndOrderTypeAndTradeType(uid,
+                entity.getSymbol(),
+                entity.getPrice(), OrderStatus.ACTIVE, entity.getOrderType(), entity.getTradeType());
+        LocalDateTime createAt = LocalDateTime.now(ZoneId.of("Asia/Ho_Chi_Minh"));
+
+        // Không sửa entity đang được quản lý: lane có thể đang ghi filledQuantity của chính lệnh này
+        if (orderBooks != null) {
+            OrderIntakePipeline.Outcome merged = addOrderQuantity(orderBooks, entity, uid, createAt);
+            if (merged != null) {
+                return merged;
+            }
+        }
+        return self.saveNewOrder(entity, uid, createAt);
+    }
+
+    /**
+     * Khoá số dư và lưu lệnh mới trong một transaction; chỉ gọi qua
+     * {@link #acceptOrder}.
+     */
+    @Transactional
+    public OrderIntakePipeline.Outcome saveNewOrder(OrderBooks entity, String uid, LocalDateTime createAt) {
+        entity.setStatus(OrderStatus.ACTIVE);
+        entity.setUid(uid);
+        entity.setCreatedAt(createAt);
+
+        spotWalletService.lockBalanceLimit(entity, uid);
+
+        BigDecimal balance;
+        String asset = "";
+        if (entity.getOrderType().equals(OrderType.BUY)) {
+            balance = entity.getPrice().multiply(entity.getQuantity());
+            asset = entity.getSymbol().split("/")[1];
+        } else {
+            balance = entity.getQuantity();
+            asset = entity.getSymbol().split("/")[0];
+        }
+        SpotWalletHistory spotWalletHistory = new SpotWalletHistory();
+        spotWalletHistory.setUserId(uid);
+        spotWalletHistory.setAsset(asset);
+        spotWalletHistory.setType("Tạo lệnh");
+        spotWalletHistory.setBalance(balance);
+        spotWalletHistory.setCreateDt(createAt);
+        spotWalletHistoryRepository.save(spotWalletHistory);
+
+        orderBooksRepository.saveAndFlush(entity);
+        return OrderIntakePipeline.Outcome.ACCEPTED;
     }
 
+    /**
+     * Khớp lệnh mới với book của symbol. Chỉ được gọi trên lane matching của
+     * symbol (xem {@link MatchingSequencer}), nên book không cần khoá.
+     */
     @Transactional
     public void matchOrders(OrderBooks newOrder) {
         log.info("🔍 Starting matching for order ID: {}", newOrder.getId());
@@ -57,108 +177,380 @@ public class OrderBooksService {
             return;
         }
 
-        String oppositeKey = getOppositeOrderKey(newOrder);
-        Set<OrderBooks> oppositeOrders = getOppositeOrdersFromRedis(oppositeKey);
+        if (!isValidOrder(newOrder)) {
+            log.warn("⚠️ Skipping invalid order: {}", newOrder.getId());
+            return;
+        }
+
+        long referenceTicks = spotMarketStats.referenceTicks(newOrder.getSymbol());
 
-        if (oppositeOrders.isEmpty()) {
-            addOrderToRedis(newOrder);
-            log.info("📥 No opposite orders, added to Redis. Order ID: {}", newOrder.getId());
+        List<SpotOrderBook.Fill> fills;
+        SpotOrderBook book = isRedisMatching() ? null : spotOrderBookService.getBook(newOrder.getSymbol());
+        matchingJournal.appendOrder(newOrder);
+        DepthBook redisDepth = book == null ? redisDepth(newOrder.getSymbol(), newOrder.getId()) : null;
+        if (book == null) {
+            // Một lần gọi script: khớp, cập nhật maker và đặt phần còn lại lên book Redis
+            fills = spotRedisMatcher.match(newOrder, referenceTicks);
+        } else {
+            // Khớp hoàn toàn trong bộ nhớ, Redis và DB chỉ được ghi sau đó
+            fills = book.match(newOrder, referenceTicks);
+            for (SpotOrderBook.Fill fill : fills) {
+                fill.getMaker().setFilledQuantity(fill.getMaker().getFilledQuantity().add(fill.getQuantity()));
+            }
+        }
+        for (SpotOrderBook.Fill fill : fills) {
+            newOrder.setFilledQuantity(newOrder.getFilledQuantity().add(fill.getQuantity()));
+            matchingJournal.appendFill(newOrder.getSymbol(), fill.getMaker().getId(), newOrder.getId(),
+                    fill.getPriceTicks(), fill.getLots());
+        }
+        updateOrderStatus(newOrder);
+        if (book != null && !newOrder.isFullyFilled()) {
+            book.add(newOrder);
+        }
+        if (redisDepth != null) {
+            applyRedisMatch(redisDepth, newOrder, fills);
+        }
+
+        log.info("🔍 Order {} matched {} times ({} mode)", newOrder.getId(), fills.size(), matchingMode);
+
+        for (SpotOrderBook.Fill fill : fills) {
+            executeTrade(fill);
+        }
+
+        // Thanh toán ví một lần cho cả lượt khớp; lỗi được ném lại để transaction
+        // rollback và người gọi dựng lại book (xem matchOnLane)
+        spotSettlementService.settle(newOrder.getSymbol(), fills);
+
+        if (fills.isEmpty()) {
+            publishMarketData(newOrder.getSymbol(), book);
+        } else {
+            depthOf(newOrder.getSymbol(), book).publish();
+            spotMarketStats.onTrades(newOrder.getSymbol(), fills, bestBid(newOrder.getSymbol(), book),
+                    bestAsk(newOrder.getSymbol(), book));
+        }
+
+        handleOrderAfterMatching(newOrder);
+    }
+
+    /**
+     * Khớp lệnh trên lane hiện tại. Nếu lượt khớp thất bại (ví dụ thanh toán ví
+     * lỗi) thì DB đã rollback trong khi book đã ghi nhận các fill, nên book của
+     * symbol được dựng lại từ DB.
+     *
+     * @return false nếu lượt khớp thất bại; trạng thái trong {@code order} khi đó
+     *         không còn đúng và không được lưu
+     */
+    public boolean matchOnLane(OrderBooks order) {
+        try {
+            self.matchOrders(order);
+            return true;
+        } catch (Exception e) {
+            log.error("❌ Matching failed for order {}, rebuilding book {} from DB", order.getId(),
+                    order.getSymbol(), e);
+            rebuildBook(order.getSymbol());
+            return false;
+        }
+    }
+
+    // Chỉ gọi trên lane của symbol
+    private void rebuildBook(String symbol) {
+        if (!isRedisMatching()) {
+            publishMarketData(symbol, spotOrderBookService.reloadBook(symbol));
             return;
         }
+        spotRedisBook.clear(symbol);
+        for (OrderBooks order : spotRedisMatcher.reseed(symbol)) {
+            matchingJournal.appendOrder(order);
+        }
+        DepthBook depth = marketDepthService.newSpotDepth(symbol);
+        spotRedisBook.loadDepth(symbol, depth);
+        publishMarketData(symbol, null);
+    }
 
-        log.info("🔍 Matching order {} with {} opposite orders", newOrder.getId(), oppositeOrders.size());
+    /**
+     * Huỷ lệnh khỏi book trong bộ nhớ và Redis để lệnh không còn được khớp. Chạy
+     * trên lane matching của symbol và chờ kết quả.
+     *
+     * @return bản lệnh đang sống trong book (filledQuantity mới nhất), hoặc null
+     *         nếu lệnh không còn trong book
+     */
+    public OrderBooks cancelOrder(OrderBooks order) {
+        return awaitOnLane(order.getSymbol(), () -> removeFromBook(order));
+    }
 
-        // Sử dụng iterator để tránh concurrent modification
-        Iterator<OrderBooks> iterator = oppositeOrders.iterator();
-        while (iterator.hasNext() && !newOrder.isFullyFilled()) {
-            OrderBooks oppositeOrder = iterator.next();
+    /**
+     * Sửa giá lệnh LIMIT đang mở trong một task duy nhất trên lane của symbol:
+     * gỡ khỏi book, khoá lại số dư theo giá mới, khớp lại như lệnh mới (mất ưu
+     * tiên thời gian) rồi lưu lệnh. Lane đầy thì task không được nhận nên book và
+     * số dư giữ nguyên; khoá số dư thất bại thì lệnh được đưa lại vào book.
+     *
+     * @return ACCEPTED, INVALID nếu lệnh không còn trong book,
+     *         INSUFFICIENT_BALANCE hoặc BUSY nếu lane không nhận task
+     */
+    public OrderIntakePipeline.Outcome amendOrderPrice(OrderBooks order, BigDecimal newPrice) {
+        try {
+            return awaitOnLane(order.getSymbol(), () -> {
+                OrderBooks live = removeFromBook(order);
+                if (live == null) {
+                    return OrderIntakePipeline.Outcome.INVALID;
+                }
+                if (live.isBuyOrder()) {
+                    BigDecimal delta = newPrice.subtract(live.getPrice()).multiply(live.getRemainingQuantity());
+                    String quote = live.getSymbol().split("/")[1];
+                    if (!spotWalletService.adjustLockedBalance(live.getUid(), quote, delta)) {
+                        restoreToBook(live);
+                        return OrderIntakePipeline.Outcome.INSUFFICIENT_BALANCE;
+                    }
+                }
+                live.setPrice(newPrice);
+                live.setUpdatedAt(LocalDateTime.now(ZoneId.of("Asia/Ho_Chi_Minh")));
+                // Lưu giá mới trước: nếu khớp lỗi, book dựng lại từ DB khớp với số dư đã khoá
+                orderBooksRepository.save(live);
+                if (!matchOnLane(live)) {
+                    return OrderIntakePipeline.Outcome.FAILED;
+                }
+                // matchOrders chỉ lưu maker; taker được lưu ở đây giống stage journal của pipeline
+                orderBooksRepository.save(live);
+                return OrderIntakePipeline.Outcome.ACCEPTED;
+            });
+        } catch (RejectedExecutionException e) {
+            return OrderIntakePipeline.Outcome.BUSY;
+        }
+    }
 
-            if (!isValidOrder(oppositeOrder)) {
-                log.warn("⚠️ Skipping invalid order from Redis: {}", oppositeOrder.getId());
-                continue;
+    // Chỉ gọi trên lane của symbol
+    private OrderBooks removeFromBook(OrderBooks order) {
+        if (isRedisMatching()) {
+            DepthBook depth = redisDepth(order.getSymbol(), null);
+            Long filledLots = spotRedisMatcher.cancel(order);
+            if (filledLots == null) {
+                return null;
             }
+            matchingJournal.appendCancel(order.getSymbol(), order.getId());
+            SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+            order.setFilledQuantity(spec.quantityOf(filledLots));
+            if (order.isLimitOrder()) {
+                depth.reduce(order.isBuyOrder(), spec.toTicks(order.getPrice()),
+                        spec.toLots(order.getQuantity()) - filledLots, true);
+            }
+            publishMarketData(order.getSymbol(), null);
+            return order;
+        }
+        SpotOrderBook book = spotOrderBookService.getBook(order.getSymbol());
+        OrderBooks removed = book.cancel(order.getId());
+        if (removed != null) {
+            spotRedisBook.remove(removed);
+            matchingJournal.appendCancel(removed.getSymbol(), removed.getId());
+            publishMarketData(order.getSymbol(), book);
+        }
+        return removed;
+    }
 
-            if (canMatch(newOrder, oppositeOrder)) {
-                // THÊM: Lấy order mới nhất từ DB trước khi khớp
-                OrderBooks freshOppositeOrder = orderBooksRepository.findById(oppositeOrder.getId())
-                        .orElse(oppositeOrder);
+    // Đưa lại lệnh vào book (cuối hàng đợi của mức giá); chỉ gọi trên lane của symbol
+    private void restoreToBook(OrderBooks order) {
+        SpotOrderBook book = isRedisMatching() ? null : spotOrderBookService.getBook(order.getSymbol());
+        if (book != null) {
+            book.add(order);
+        } else if (order.isLimitOrder()) {
+            SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+            redisDepth(order.getSymbol(), order.getId()).add(order.isBuyOrder(), spec.toTicks(order.getPrice()),
+                    spec.toLots(order.getRemainingQuantity()));
+        }
+        spotRedisBook.add(order);
+        matchingJournal.appendOrder(order);
+        publishMarketData(order.getSymbol(), book);
+    }
 
-                executeTrade(newOrder, freshOppositeOrder, oppositeKey);
+    /**
+     * Gộp khối lượng của lệnh mới {@code added} vào lệnh cùng giá đang nằm trong
+     * book. Chạy trên lane của symbol: số dư của phần thêm được khoá và lệnh được
+     * cộng khối lượng (UPDATE cộng dồn, không ghi cả entity) trong cùng một
+     * transaction, rồi book, Redis và journal mới được cập nhật, nên phần thêm
+     * không bao giờ khớp được khi số dư chưa khoá. Nếu quá thời gian chờ mà task
+     * chưa chạy, task bị bỏ và không gì thay đổi.
+     *
+     * @return MERGED, INSUFFICIENT_BALANCE, hoặc null nếu lệnh không còn trong
+     *         book (đã khớp hết hoặc bị huỷ)
+     * @throws IllegalStateException nếu lane không nhận task kịp thời hạn
+     */
+    public OrderIntakePipeline.Outcome addOrderQuantity(OrderBooks order, OrderBooks added, String uid,
+            LocalDateTime updatedAt) {
+        AtomicBoolean claimed = new AtomicBoolean();
+        CompletableFuture<OrderIntakePipeline.Outcome> merged = matchingSequencer.call(order.getSymbol(),
+                () -> claimed.compareAndSet(false, true) ? mergeOnLane(order, added, uid, updatedAt) : null);
+        try {
+            try {
+                return merged.get(LANE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                if (claimed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("Matching lane unavailable for " + order.getSymbol(), e);
+                }
+                // Task đã bắt đầu: kết quả của nó là kết quả của lệnh
+                return merged.get();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for matching lane of " + order.getSymbol(), e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Matching lane unavailable for " + order.getSymbol(), e);
         }
+    }
 
-        handleOrderAfterMatching(newOrder);
+    // Chỉ gọi trên lane của symbol
+    private OrderIntakePipeline.Outcome mergeOnLane(OrderBooks order, OrderBooks added, String uid,
+            LocalDateTime updatedAt) {
+        SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+        BigDecimal addedQuantity = added.getQuantity();
+        if (isRedisMatching()) {
+            // Lệnh cùng uid luôn qua cùng worker risk nên quantity đọc từ DB là mới nhất
+            long quantityLots = spec.toLots(order.getQuantity().add(addedQuantity));
+            DepthBook depth = redisDepth(order.getSymbol(), null);
+            Long previousLots = spotRedisMatcher.amendQuantity(order.getSymbol(), order.getId(), quantityLots);
+            if (previousLots == null) {
+                return null;
+            }
+            // Lane chưa khớp gì kể từ lúc sửa nên trả lại khối lượng cũ là an toàn
+            boolean extended;
+            try {
+                extended = self.extendOrder(order.getId(), added, uid, updatedAt);
+            } catch (RuntimeException e) {
+                spotRedisMatcher.amendQuantity(order.getSymbol(), order.getId(), previousLots);
+                throw e;
+            }
+            if (!extended) {
+                spotRedisMatcher.amendQuantity(order.getSymbol(), order.getId(), previousLots);
+                return OrderIntakePipeline.Outcome.INSUFFICIENT_BALANCE;
+            }
+            matchingJournal.appendAmend(order.getSymbol(), order.getId(), quantityLots);
+            if (order.isLimitOrder()) {
+                depth.adjust(order.isBuyOrder(), spec.toTicks(order.getPrice()), quantityLots - previousLots);
+                depth.publish();
+            }
+            return OrderIntakePipeline.Outcome.MERGED;
+        }
+        SpotOrderBook book = spotOrderBookService.getBook(order.getSymbol());
+        OrderBooks resting = book.get(order.getId());
+        if (resting == null) {
+            return null;
+        }
+        if (!self.extendOrder(order.getId(), added, uid, updatedAt)) {
+            return OrderIntakePipeline.Outcome.INSUFFICIENT_BALANCE;
+        }
+        BigDecimal quantity = resting.getQuantity().add(addedQuantity);
+        matchingJournal.appendAmend(order.getSymbol(), order.getId(), spec.toLots(quantity));
+        book.amendQuantity(order.getId(), spec.toLots(quantity));
+        resting.setQuantity(quantity);
+        resting.setUpdatedAt(updatedAt);
+        spotRedisBook.updateState(resting);
+        book.getDepth().publish();
+        return OrderIntakePipeline.Outcome.MERGED;
+    }
+
+    /**
+     * Khoá số dư cho khối lượng của {@code added} (lệnh LIMIT) và cộng khối lượng
+     * đó vào lệnh {@code orderId} trong một transaction; chỉ gọi qua
+     * {@link #addOrderQuantity}.
+     *
+     * @return false nếu không đủ số dư khả dụng (không gì được ghi)
+     */
+    @Transactional
+    public boolean extendOrder(Long orderId, OrderBooks added, String uid, LocalDateTime updatedAt) {
+        if (added.isLimitOrder()) {
+            String[] assets = added.getSymbol().split("/");
+            boolean locked = added.isBuyOrder()
+                    ? spotWalletService.adjustLockedBalance(uid, assets[1],
+                            added.getPrice().multiply(added.getQuantity()))
+                    : spotWalletService.adjustLockedBalance(uid, assets[0], added.getQuantity());
+            if (!locked) {
+                return false;
+            }
+        }
+        orderBooksRepository.addQuantity(orderId, added.getQuantity(), updatedAt);
+        return true;
+    }
+
+    /** Giá tốt nhất lấy từ book trong bộ nhớ, hoặc từ Redis khi book == null. */
+    private long bestBid(String symbol, SpotOrderBook book) {
+        return book != null ? book.bestBid() : spotRedisBook.bestBid(symbol);
+    }
+
+    private long bestAsk(String symbol, SpotOrderBook book) {
+        return book != null ? book.bestAsk() : spotRedisBook.bestAsk(symbol);
+    }
+
+    private void publishMarketData(String symbol, SpotOrderBook book) {
+        depthOf(symbol, book).publish();
+        spotMarketStats.onQuotes(symbol, bestBid(symbol, book), bestAsk(symbol, book));
+    }
+
+    private DepthBook depthOf(String symbol, SpotOrderBook book) {
+        return book != null ? book.getDepth() : redisDepth(symbol, null);
+    }
+
+    /**
+     * Độ sâu L2 ở chế độ redis: lần đầu gặp symbol thì dựng từ book trên Redis,
+     * sau đó cập nhật tăng dần từ kết quả của các script.
+     */
+    private DepthBook redisDepth(String symbol, Long excludeOrderId) {
+        DepthBook depth = marketDepthService.findSpotDepth(symbol);
+        if (depth == null) {
+            spotRedisMatcher.ensureSeeded(symbol, excludeOrderId);
+            depth = marketDepthService.newSpotDepth(symbol);
+            spotRedisBook.loadDepth(symbol, depth);
+        }
+        return depth;
+    }
+
+    private void applyRedisMatch(DepthBook depth, OrderBooks taker, List<SpotOrderBook.Fill> fills) {
+        SymbolSpec spec = symbolSpecRegistry.get(taker.getSymbol());
+        for (SpotOrderBook.Fill fill : fills) {
+            OrderBooks maker = fill.getMaker();
+            if (maker.isLimitOrder()) {
+                depth.reduce(maker.isBuyOrder(), spec.toTicks(maker.getPrice()), fill.getLots(),
+                        maker.isFullyFilled());
+            }
+        }
+        if (taker.isLimitOrder() && !taker.isFullyFilled()) {
+            depth.add(taker.isBuyOrder(), spec.toTicks(taker.getPrice()), spec.toLots(taker.getRemainingQuantity()));
+        }
     }
 
-    private void executeTrade(OrderBooks newOrder, OrderBooks oppositeOrder, String oppositeKey) {
-        // Tính toán match quantity dựa trên remaining quantity thực tế
-        BigDecimal newOrderRemaining = newOrder.getRemainingQuantity();
-        BigDecimal oppositeRemaining = oppositeOrder.getRemainingQuantity();
-        BigDecimal matchQuantity = newOrderRemaining.min(oppositeRemaining);
+    private boolean isRedisMatching() {
+        return "redis".equalsIgnoreCase(matchingMode);
+    }
 
-        BigDecimal tradePrice = calculateTradePrice(newOrder, oppositeOrder);
+    private <T> T awaitOnLane(String symbol, Supplier<T> task) {
+        try {
+            return matchingSequencer.call(symbol, task).get(LANE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for matching lane of " + symbol, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Matching lane unavailable for " + symbol, e);
+        }
+    }
 
-        log.info("🎯 Executing trade: {} units at {} between order {} (rem: {}) and order {} (rem: {})",
-                matchQuantity, tradePrice,
-                newOrder.getId(), newOrderRemaining,
-                oppositeOrder.getId(), oppositeRemaining);
+    private void executeTrade(SpotOrderBook.Fill fill) {
+        OrderBooks newOrder = fill.getTaker();
+        OrderBooks oppositeOrder = fill.getMaker();
+        BigDecimal matchQuantity = fill.getQuantity();
+        BigDecimal tradePrice = fill.getPrice();
 
-        // Cập nhật filled quantity - cộng dồn
-        newOrder.setFilledQuantity(newOrder.getFilledQuantity().add(matchQuantity));
-        oppositeOrder.setFilledQuantity(oppositeOrder.getFilledQuantity().add(matchQuantity));
+        log.info("🎯 Executing trade: {} units at {} between order {} and order {}",
+                matchQuantity, tradePrice, newOrder.getId(), oppositeOrder.getId());
 
         log.info("📊 After trade - Order {}: filled {}/{}, Order {}: filled {}/{}",
                 newOrder.getId(), newOrder.getFilledQuantity(), newOrder.getQuantity(),
                 oppositeOrder.getId(), oppositeOrder.getFilledQuantity(), oppositeOrder.getQuantity());
 
         // Cập nhật trạng thái
-        updateOrderStatus(newOrder);
         updateOrderStatus(oppositeOrder);
 
         // Cập nhật opposite order trong Redis và DB
-        updateOrderInRedisAndDB(oppositeOrder, oppositeKey);
+        updateOrderInRedisAndDB(oppositeOrder);
 
         // Tạo trade record
-        createTradeRecord(newOrder, oppositeOrder, oppositeKey, matchQuantity, tradePrice);
-
-        // Execute Trade in Wallets (Transfer funds)
-        try {
-            // Determine buyer and seller
-            String buyerUid = newOrder.isBuyOrder() ? newOrder.getUid() : oppositeOrder.getUid();
-            String sellerUid = newOrder.isBuyOrder() ? oppositeOrder.getUid() : newOrder.getUid();
-
-            // Determine TradeType for wallet logic
-            api.exchange.models.SpotHistory.TradeType walletTradeType;
-            if (newOrder.isMarketOrder() && oppositeOrder.isMarketOrder()) {
-                walletTradeType = api.exchange.models.SpotHistory.TradeType.MARKET_MARKET;
-            } else if (newOrder.isBuyOrder() && newOrder.isMarketOrder() && !oppositeOrder.isMarketOrder()) {
-                walletTradeType = api.exchange.models.SpotHistory.TradeType.MARKET_LIMIT_BUY;
-            } else if (!newOrder.isBuyOrder() && newOrder.isMarketOrder() && !oppositeOrder.isMarketOrder()) {
-                walletTradeType = api.exchange.models.SpotHistory.TradeType.MARKET_LIMIT_SELL;
-            } else if (!newOrder.isMarketOrder() && oppositeOrder.isMarketOrder()) {
-                if (newOrder.isBuyOrder()) {
-                    walletTradeType = api.exchange.models.SpotHistory.TradeType.MARKET_LIMIT_SELL;
-                } else {
-                    walletTradeType = api.exchange.models.SpotHistory.TradeType.MARKET_LIMIT_BUY;
-                }
-            } else {
-                walletTradeType = api.exchange.models.SpotHistory.TradeType.LIMIT_LIMIT;
-            }
-
-            // Calculate locked price (for Limit orders)
-            BigDecimal lockedPrice = BigDecimal.ZERO;
-            if (newOrder.isBuyOrder() && !newOrder.isMarketOrder()) {
-                lockedPrice = newOrder.getPrice();
-            } else if (oppositeOrder.isBuyOrder() && !oppositeOrder.isMarketOrder()) {
-                lockedPrice = oppositeOrder.getPrice();
-            }
-
-            spotWalletService.executeTradeSpot(sellerUid, buyerUid, tradePrice, matchQuantity, walletTradeType,
-                    newOrder.getSymbol(), lockedPrice);
-
-        } catch (Exception e) {
-            log.error("❌ Failed to execute wallet trade: {}", e.getMessage());
-        }
+        createTradeRecord(newOrder, oppositeOrder, matchQuantity, tradePrice);
 
         log.info("✅ Trade executed successfully");
     }
@@ -170,14 +562,13 @@ public class OrderBooksService {
             log.info("✅ Order fully filled: {}", order.getId());
             // Không cần thêm vào Redis vì đã filled
         } else {
-            // Order chưa filled hết, thêm vào Redis để chờ khớp tiếp
-            addOrderToRedis(order);
+            // Order chưa filled hết, thêm vào Redis để chờ khớp tiếp (chế độ redis: script đã thêm)
+            if (!isRedisMatching()) {
+                spotRedisBook.add(order);
+            }
             log.info("🟡 Order partially filled, added to Redis: {} (filled: {}/{})",
                     order.getId(), order.getFilledQuantity(), order.getQuantity());
         }
-
-        // Luôn cập nhật vào DB
-        batchProcessor.addOrderToBatch(order);
     }
 
     private void updateOrderStatus(OrderBooks order) {
@@ -191,40 +582,6 @@ public class OrderBooksService {
         order.setUpdatedAt(LocalDateTime.now());
     }
 
-    private String getOppositeOrderKey(OrderBooks order) {
-        return order.isBuyOrder() ? "sellOrders:" + order.getSymbol() : "buyOrders:" + order.getSymbol();
-    }
-
-    private Set<OrderBooks> getOppositeOrdersFromRedis(String oppositeKey) {
-        try {
-            Set<OrderBooks> redisOrders = redisTemplate.opsForZSet().range(oppositeKey, 0, -1);
-            if (redisOrders == null || redisOrders.isEmpty()) {
-                return new HashSet<>();
-            }
-
-            // Tạo set mới với orders đã được refresh từ DB
-            Set<OrderBooks> refreshedOrders = new HashSet<>();
-            for (OrderBooks redisOrder : redisOrders) {
-                try {
-                    // Lấy order mới nhất từ DB để có filled quantity chính xác
-                    OrderBooks freshOrder = orderBooksRepository.findById(redisOrder.getId())
-                            .orElse(redisOrder);
-                    refreshedOrders.add(freshOrder);
-                } catch (Exception e) {
-                    log.warn("⚠️ Failed to refresh order {} from DB, using Redis version: {}",
-                            redisOrder.getId(), e.getMessage());
-                    refreshedOrders.add(redisOrder);
-                }
-            }
-
-            return refreshedOrders;
-
-        } catch (Exception e) {
-            log.error("❌ Error reading from Redis: {}", e.getMessage());
-            return new HashSet<>();
-        }
-    }
-
     private boolean isValidOrder(OrderBooks order) {
         if (order == null) {
             log.warn("⚠️ Order is null");
@@ -249,35 +606,7 @@ public class OrderBooksService {
         return true;
     }
 
-    private boolean canMatch(OrderBooks newOrder, OrderBooks oppositeOrder) {
-        // Market orders always match
-        if (newOrder.isMarketOrder() || oppositeOrder.isMarketOrder()) {
-            return true;
-        }
-
-        // Limit order matching logic
-        if (newOrder.isBuyOrder()) {
-            return newOrder.getPrice().compareTo(oppositeOrder.getPrice()) >= 0;
-        } else {
-            return newOrder.getPrice().compareTo(oppositeOrder.getPrice()) <= 0;
-        }
-    }
-
-    private BigDecimal calculateTradePrice(OrderBooks order1, OrderBooks order2) {
-        // Priority: existing limit order price > market order logic
-        if (order1.isMarketOrder() && !order2.isMarketOrder()) {
-            return order2.getPrice();
-        } else if (!order1.isMarketOrder() && order2.isMarketOrder()) {
-            return order1.getPrice();
-        } else if (order1.isMarketOrder() && order2.isMarketOrder()) {
-            return getLastTradedPrice(order1.getSymbol());
-        } else {
-            // Both are limit orders - use the opposite order's price
-            return order1.isBuyOrder() ? order2.getPrice() : order1.getPrice();
-        }
-    }
-
-    private void updateOrderInRedisAndDB(OrderBooks order, String redisKey) {
+    private void updateOrderInRedisAndDB(OrderBooks order) {
         try {
             // LUÔN cập nhật DB trước
             OrderBooks updatedOrder = orderBooksRepository.save(order);
@@ -285,14 +614,17 @@ public class OrderBooksService {
                     updatedOrder.getId(), updatedOrder.getFilledQuantity(),
                     updatedOrder.getQuantity(), updatedOrder.getStatus());
 
-            // Sau đó cập nhật Redis
+            // Sau đó cập nhật Redis (chế độ redis: script đã cập nhật book)
+            if (isRedisMatching()) {
+                return;
+            }
             if (updatedOrder.isFullyFilled()) {
                 // Xóa khỏi Redis nếu đã filled hết
-                removeOrderFromRedis(redisKey, updatedOrder);
+                spotRedisBook.remove(updatedOrder);
                 log.info("🗑️ Order fully filled, removed from Redis: {}", updatedOrder.getId());
             } else {
-                // Cập nhật order trong Redis với data mới nhất từ DB
-                updateOrderInRedis(redisKey, updatedOrder);
+                // Khớp một phần: chỉ ghi lại trạng thái, vị trí trong ZSET giữ nguyên
+                spotRedisBook.updateState(updatedOrder);
                 log.info("📝 Order updated in Redis: {} (filled: {}/{})",
                         updatedOrder.getId(), updatedOrder.getFilledQuantity(),
                         updatedOrder.getQuantity());
@@ -303,49 +635,7 @@ public class OrderBooksService {
         }
     }
 
-    private void updateOrderInRedis(String redisKey, OrderBooks order) {
-        try {
-            // Xóa order cũ khỏi Redis
-            removeOrderFromRedis(redisKey, order);
-
-            // Thêm order mới với filled quantity đã cập nhật
-            Double score = calculateScore(order);
-            redisTemplate.opsForZSet().add(redisKey, order, score);
-
-            log.debug("🔄 Order updated in Redis: {} with score {}", order.getId(), score);
-
-        } catch (Exception e) {
-            log.error("❌ Failed to update order {} in Redis: {}", order.getId(), e.getMessage());
-        }
-    }
-
-    private void removeOrderFromRedis(String redisKey, OrderBooks orderToRemove) {
-        try {
-            Set<OrderBooks> ordersInRedis = redisTemplate.opsForZSet().range(redisKey, 0, -1);
-            if (ordersInRedis != null) {
-                for (OrderBooks order : ordersInRedis) {
-                    if (order.getId().equals(orderToRemove.getId())) {
-                        redisTemplate.opsForZSet().remove(redisKey, order);
-                        log.debug("🧹 Removed order {} from Redis", order.getId());
-                        break;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            log.error("❌ Failed to remove order {} from Redis: {}", orderToRemove.getId(), e.getMessage());
-        }
-    }
-
-    private double calculateScore(OrderBooks order) {
-        if (order.isMarketOrder()) {
-            return 0;
-        }
-
-        double score = order.getPrice().doubleValue();
-        return order.isBuyOrder() ? -score : score;
-    }
-
-    private void createTradeRecord(OrderBooks newOrder, OrderBooks oppositeOrder, String oppositeKey,
+    private void createTradeRecord(OrderBooks newOrder, OrderBooks oppositeOrder,
             BigDecimal mathQuality, BigDecimal tradePrice) {
         try {
             TransactionSpot transactionSpot = new TransactionSpot();
@@ -365,14 +655,16 @@ public class OrderBooksService {
             transactionSpot.setPrice(tradePrice);
             transactionSpotRepository.save(transactionSpot);
         } catch (Exception e) {
-            log.error("Error creating trade record for key {}:", oppositeKey, e);
+            log.error("Error creating trade record for orders {} / {}:", newOrder.getId(), oppositeOrder.getId(), e);
         }
     }
 
+    /**
+     * @return giá khớp cuối của symbol, hoặc null nếu chưa có giao dịch
+     */
     public BigDecimal getLastTradedPrice(String symbol) {
-        // Trong thực tế, lấy từ database hoặc cache
-        // Tạm thời return giá mặc định
-        return BigDecimal.valueOf(100); // Example price
+        SpotMarketStats.Snapshot snapshot = spotMarketStats.get(symbol);
+        return snapshot != null ? snapshot.getLastPrice() : null;
     }
 
     public List<OrderBooks> listOrderBookBuy(String symbol) {
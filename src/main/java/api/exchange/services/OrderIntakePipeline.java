@@ -0,0 +1,272 @@
+package api.exchange.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.websocket.SpotOrderWebSocket;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pipeline nhận lệnh spot trên {@link OrderIntakeRing}:
+ * validate -> risk/số dư -> match -> journal -> publish.
+ * Mỗi stage là một thread riêng đọc ring theo thứ tự sequence; stage risk được
+ * chia theo uid cho nhiều handler để các lệnh của cùng user vẫn tuần tự. Stage
+ * match chuyển slot sang lane của symbol trong {@link MatchingSequencer}.
+ */
+@Component
+@Slf4j
+public class OrderIntakePipeline {
+
+    public enum Outcome {
+        ACCEPTED, MERGED, INVALID, INSUFFICIENT_BALANCE, FAILED, BUSY
+    }
+
+    private static final int VALIDATE = 0;
+    private static final int RISK = 1;
+    private static final int MATCH = 2;
+    private static final int JOURNAL = 3;
+    private static final int PUBLISH = 4;
+
+    @Value("${order-intake.ring-size:1024}")
+    private int ringSize;
+
+    @Value("${order-intake.risk-workers:4}")
+    private int riskWorkers;
+
+    @Value("${order-intake.reply-timeout-ms:5000}")
+    private long replyTimeoutMs;
+
+    @Autowired
+    private OrderBooksService orderBooksService;
+
+    @Autowired
+    private MatchingSequencer matchingSequencer;
+
+    @Autowired
+    private OrderBatchProcessor batchProcessor;
+
+    @Autowired
+    private SpotOrderWebSocket spotOrderWebsocket;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private OrderIntakeRing ring;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = true;
+    private Timer intakeTimer;
+
+    @PostConstruct
+    public void start() {
+        int workers = Math.max(1, riskWorkers);
+        ring = new OrderIntakeRing(ringSize, new int[] { 1, workers, 1, 1, 1 },
+                event -> {
+                    if (!orderBooksService.matchOnLane(event.order)) {
+                        // Book đã dựng lại từ DB: stage journal không được ghi đè bằng trạng thái lỗi
+                        event.outcome = Outcome.FAILED;
+                    }
+                });
+
+        startHandler("order-validate", VALIDATE, 0, 1);
+        for (int i = 0; i < workers; i++) {
+            startHandler("order-risk-" + i, RISK, i, workers);
+        }
+        startHandler("order-match", MATCH, 0, 1);
+        startHandler("order-journal", JOURNAL, 0, 1);
+        startHandler("order-publish", PUBLISH, 0, 1);
+
+        intakeTimer = Timer.builder("order.intake.latency").register(meterRegistry);
+        Gauge.builder("order.intake.backlog", ring, OrderIntakeRing::backlog).register(meterRegistry);
+        log.info("⚙️ Order intake ring started with {} slots, {} risk workers", ring.capacity(), workers);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Thread thread : threads) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Đưa lệnh vào ring và chờ tới khi stage risk trả kết quả chấp nhận/từ chối.
+     * Việc khớp, ghi journal và broadcast tiếp tục bất đồng bộ. Hết thời gian chờ
+     * mà stage risk chưa nhận slot thì slot bị bỏ (risk sẽ bỏ qua) và trả BUSY;
+     * risk đã nhận slot thì tiếp tục chờ để kết quả trả về luôn khớp với DB.
+     */
+    public Outcome submit(OrderBooks order, String uid) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replyTimeoutMs);
+        long sequence;
+        while ((sequence = ring.tryClaim()) < 0) {
+            if (System.nanoTime() > deadline) {
+                return Outcome.BUSY;
+            }
+            LockSupport.parkNanos(50_000);
+        }
+
+        OrderIntakeRing.OrderEvent event = ring.get(sequence);
+        event.reset(sequence, order, uid);
+        ring.publish(sequence);
+
+        try {
+            while (!event.replyReady) {
+                if (System.nanoTime() > deadline && event.abandon()) {
+                    log.warn("⚠️ Order intake reply timed out at sequence {}", sequence);
+                    return Outcome.BUSY;
+                }
+                LockSupport.parkNanos(20_000);
+            }
+            return event.outcome;
+        } finally {
+            event.awaitingReply = false;
+        }
+    }
+
+    private void startHandler(String name, int stage, int handler, int handlers) {
+        Thread thread = new Thread(() -> runHandler(stage, handler, handlers), name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void runHandler(int stage, int handler, int handlers) {
+        AtomicLong sequence = ring.sequence(stage, handler);
+        long next = sequence.get() + 1;
+        int idle = 0;
+        while (running) {
+            long available = ring.availableFor(stage, next);
+            if (available < next) {
+                idle = idle(idle);
+                continue;
+            }
+            idle = 0;
+            for (long s = next; s <= available; s++) {
+                OrderIntakeRing.OrderEvent event = ring.get(s);
+                if (handlers > 1 && Math.floorMod(event.uid.hashCode(), handlers) != handler) {
+                    continue;
+                }
+                try {
+                    handle(stage, event);
+                } catch (Exception e) {
+                    log.error("❌ Order intake stage {} failed at sequence {}", stage, s, e);
+                    if (stage <= RISK) {
+                        reply(event, Outcome.FAILED);
+                    }
+                }
+            }
+            sequence.set(available);
+            next = available + 1;
+        }
+    }
+
+    private void handle(int stage, OrderIntakeRing.OrderEvent event) {
+        switch (stage) {
+            case VALIDATE:
+                if (!isValid(event.order)) {
+                    reply(event, Outcome.INVALID);
+                }
+                break;
+            case RISK:
+                if (event.outcome == null) {
+                    if (!event.claimForRisk()) {
+                        // Người gọi đã nhận BUSY: không khoá số dư, các stage sau bỏ qua
+                        event.outcome = Outcome.BUSY;
+                        break;
+                    }
+                    reply(event, orderBooksService.acceptOrder(event.order, event.uid));
+                }
+                break;
+            case MATCH:
+                if (event.outcome == Outcome.ACCEPTED) {
+                    dispatchMatch(event);
+                }
+                break;
+            case JOURNAL:
+                if (event.outcome == Outcome.ACCEPTED) {
+                    awaitMatched(event);
+                    batchProcessor.addOrderToBatch(event.order);
+                }
+                break;
+            case PUBLISH:
+                if (event.outcome == Outcome.ACCEPTED || event.outcome == Outcome.MERGED) {
+                    spotOrderWebsocket.broadcastOrderBooks(event.order);
+                }
+                intakeTimer.record(System.nanoTime() - event.claimedAtNanos, TimeUnit.NANOSECONDS);
+                event.order = null;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void reply(OrderIntakeRing.OrderEvent event, Outcome outcome) {
+        event.outcome = outcome;
+        event.replyReady = true;
+    }
+
+    /**
+     * Lane đầy thì chờ thay vì bỏ lệnh: back-pressure dồn ngược về ring và
+     * cuối cùng về người gọi (BUSY).
+     */
+    private void dispatchMatch(OrderIntakeRing.OrderEvent event) {
+        while (running) {
+            try {
+                matchingSequencer.submit(event.order.getSymbol(), event.matchTask);
+                return;
+            } catch (RejectedExecutionException e) {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    private void awaitMatched(OrderIntakeRing.OrderEvent event) {
+        int idle = 0;
+        while (!event.matched && running) {
+            idle = idle(idle);
+        }
+    }
+
+    private int idle(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(100_000);
+        }
+        return idle + 1;
+    }
+
+    private boolean isValid(OrderBooks order) {
+        if (order.getSymbol() == null || order.getSymbol().indexOf('/') <= 0) {
+            return false;
+        }
+        if (order.getOrderType() == null || order.getTradeType() == null) {
+            return false;
+        }
+        SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+        if (order.getQuantity() == null || order.getQuantity().signum() <= 0
+                || !spec.isValidQuantity(order.getQuantity())) {
+            return false;
+        }
+        return !order.isLimitOrder()
+                || (order.getPrice() != null && order.getPrice().signum() > 0 && spec.isValidPrice(order.getPrice()));
+    }
+}
@@ -0,0 +1,180 @@
+package api.exchange.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import api.exchange.models.OrderBooks;
+
+/**
+ * Ring buffer cấp phát sẵn cho pipeline nhận lệnh spot (kiểu Disruptor).
+ * Producer claim sequence bằng CAS và ghi vào slot có sẵn; mỗi stage giữ
+ * sequence đã xử lý của mình và chỉ đọc slot khi stage trước đã đi qua
+ * (sequence barrier). Slot chỉ được claim lại khi stage cuối đã xử lý xong và
+ * người gọi đã đọc kết quả, nên không có object event nào được tạo mới.
+ */
+public class OrderIntakeRing {
+
+    private final OrderEvent[] slots;
+    private final int mask;
+    private final AtomicLong claimCursor = new AtomicLong(-1);
+    private final AtomicLongArray published;
+
+    // stageSequences[stage][handler]: sequence cuối cùng handler đã xử lý
+    private final AtomicLong[][] stageSequences;
+
+    public OrderIntakeRing(int requestedSize, int[] handlersPerStage, Consumer<OrderEvent> matcher) {
+        int size = Integer.highestOneBit(Math.max(2, requestedSize - 1)) << 1;
+        this.slots = new OrderEvent[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new OrderEvent(matcher);
+            published.set(i, -1);
+        }
+        this.stageSequences = new AtomicLong[handlersPerStage.length][];
+        for (int stage = 0; stage < handlersPerStage.length; stage++) {
+            stageSequences[stage] = new AtomicLong[handlersPerStage[stage]];
+            for (int h = 0; h < handlersPerStage[stage]; h++) {
+                stageSequences[stage][h] = new AtomicLong(-1);
+            }
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Claim sequence tiếp theo.
+     *
+     * @return sequence đã claim, hoặc -1 nếu ring đầy
+     */
+    public long tryClaim() {
+        while (true) {
+            long current = claimCursor.get();
+            long next = current + 1;
+            if (next - slots.length > minSequence(stageSequences.length - 1) || slots[index(next)].awaitingReply) {
+                return -1;
+            }
+            if (claimCursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    public OrderEvent get(long sequence) {
+        return slots[index(sequence)];
+    }
+
+    public void publish(long sequence) {
+        published.set(index(sequence), sequence);
+    }
+
+    /**
+     * Sequence cao nhất mà stage được phép xử lý, bắt đầu từ {@code next}.
+     * Trả về {@code next - 1} nếu chưa có gì.
+     */
+    public long availableFor(int stage, long next) {
+        if (stage > 0) {
+            return minSequence(stage - 1);
+        }
+        long highest = claimCursor.get();
+        long sequence = next;
+        while (sequence <= highest && published.get(index(sequence)) == sequence) {
+            sequence++;
+        }
+        return sequence - 1;
+    }
+
+    public AtomicLong sequence(int stage, int handler) {
+        return stageSequences[stage][handler];
+    }
+
+    /**
+     * Số event đã claim nhưng stage cuối chưa xử lý xong.
+     */
+    public long backlog() {
+        return claimCursor.get() - minSequence(stageSequences.length - 1);
+    }
+
+    private long minSequence(int stage) {
+        long min = Long.MAX_VALUE;
+        for (AtomicLong sequence : stageSequences[stage]) {
+            min = Math.min(min, sequence.get());
+        }
+        return min;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    /**
+     * Slot dùng lại của ring. Các field thường được ghi bởi một stage và đọc bởi
+     * stage sau; thứ tự nhìn thấy được đảm bảo qua sequence (AtomicLong).
+     */
+    public static class OrderEvent {
+        private static final int PENDING = 0;
+        private static final int RISK_CLAIMED = 1;
+        private static final int ABANDONED = 2;
+
+        long sequence;
+        long claimedAtNanos;
+        OrderBooks order;
+        String uid;
+        OrderIntakePipeline.Outcome outcome;
+
+        // Người gọi HTTP chờ replyReady, sau đó trả slot bằng awaitingReply = false
+        volatile boolean replyReady;
+        volatile boolean awaitingReply;
+
+        // Người gọi hết thời gian chờ và stage risk tranh nhau slot bằng CAS
+        private final AtomicInteger replyState = new AtomicInteger(PENDING);
+
+        // Match chạy trên lane của symbol, stage journal chờ cờ này
+        volatile boolean matched;
+        final Runnable matchTask;
+
+        OrderEvent(Consumer<OrderEvent> matcher) {
+            this.matchTask = () -> {
+                try {
+                    matcher.accept(this);
+                } finally {
+                    matched = true;
+                }
+            };
+        }
+
+        void reset(long sequence, OrderBooks order, String uid) {
+            this.sequence = sequence;
+            this.claimedAtNanos = System.nanoTime();
+            this.order = order;
+            this.uid = uid;
+            this.outcome = null;
+            this.replyReady = false;
+            this.matched = false;
+            this.awaitingReply = true;
+            this.replyState.set(PENDING);
+        }
+
+        /**
+         * Stage risk nhận slot trước khi xử lý.
+         *
+         * @return false nếu người gọi đã bỏ slot
+         */
+        boolean claimForRisk() {
+            return replyState.compareAndSet(PENDING, RISK_CLAIMED);
+        }
+
+        /**
+         * Người gọi bỏ slot khi hết thời gian chờ.
+         *
+         * @return false nếu stage risk đã nhận slot (phải chờ tiếp kết quả)
+         */
+        boolean abandon() {
+            return replyState.compareAndSet(PENDING, ABANDONED);
+        }
+    }
+}
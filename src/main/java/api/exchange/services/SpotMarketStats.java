@@ -0,0 +1,336 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import api.exchange.models.TransactionSpot;
+import api.exchange.repository.TransactionSpotRepository;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Giá khớp cuối, giá mua/bán tốt nhất và thống kê 24h cuốn theo từng symbol
+ * spot. Chỉ lane matching của symbol ghi (xem {@link MatchingSequencer}); mỗi lần
+ * ghi tạo một {@link Snapshot} bất biến có số thứ tự tăng dần và công bố qua một
+ * biến volatile, nên người đọc ở thread khác không cần khoá và không chạm DB.
+ */
+@Component
+@Slf4j
+public class SpotMarketStats {
+
+    private static final int WINDOW_MINUTES = 24 * 60;
+    private static final long MINUTE_MILLIS = 60_000L;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    @Autowired
+    private TransactionSpotRepository transactionSpotRepository;
+
+    @Autowired
+    private MatchingSequencer matchingSequencer;
+
+    private final Map<String, SymbolStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @return snapshot mới nhất của symbol, hoặc null nếu chưa có dữ liệu
+     */
+    public Snapshot get(String symbol) {
+        SymbolStats symbolStats = stats.get(symbol);
+        return symbolStats != null ? symbolStats.snapshot : null;
+    }
+
+    public List<Snapshot> getAll() {
+        List<Snapshot> snapshots = new ArrayList<>(stats.size());
+        for (SymbolStats symbolStats : stats.values()) {
+            if (symbolStats.snapshot != null) {
+                snapshots.add(symbolStats.snapshot);
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Giá (tick) dùng khi lệnh MARKET gặp MARKET. Chỉ gọi trên lane của symbol:
+     * lần đầu gặp symbol sẽ lấy giá khớp cuối đã lưu trong DB.
+     *
+     * @return giá khớp cuối (tick), hoặc {@link SpotOrderBook#NO_PRICE}
+     */
+    public long referenceTicks(String symbol) {
+        return stateFor(symbol).lastTicks;
+    }
+
+    /**
+     * Ghi nhận các fill của một lần khớp và giá tốt nhất sau khi khớp. Chỉ gọi
+     * trên lane của symbol.
+     */
+    public void onTrades(String symbol, List<SpotOrderBook.Fill> fills, long bestBidTicks, long bestAskTicks) {
+        SymbolStats symbolStats = stateFor(symbol);
+        long now = System.currentTimeMillis();
+        for (SpotOrderBook.Fill fill : fills) {
+            symbolStats.record(now, fill.getPriceTicks(), fill.getLots(), fill.getPrice().multiply(fill.getQuantity()));
+        }
+        symbolStats.bestBidTicks = bestBidTicks;
+        symbolStats.bestAskTicks = bestAskTicks;
+        symbolStats.publish(now);
+    }
+
+    /**
+     * Cập nhật giá tốt nhất khi book thay đổi mà không có khớp (huỷ, đặt lại lệnh).
+     * Chỉ gọi trên lane của symbol.
+     */
+    public void onQuotes(String symbol, long bestBidTicks, long bestAskTicks) {
+        SymbolStats symbolStats = stateFor(symbol);
+        if (symbolStats.bestBidTicks == bestBidTicks && symbolStats.bestAskTicks == bestAskTicks) {
+            return;
+        }
+        symbolStats.bestBidTicks = bestBidTicks;
+        symbolStats.bestAskTicks = bestAskTicks;
+        symbolStats.publish(System.currentTimeMillis());
+    }
+
+    /**
+     * Cuốn cửa sổ 24h cho các symbol không có giao dịch mới. Việc cuốn được đưa
+     * lên lane của symbol để giữ nguyên một thread ghi.
+     */
+    @Scheduled(fixedDelay = MINUTE_MILLIS)
+    public void roll() {
+        for (Map.Entry<String, SymbolStats> entry : stats.entrySet()) {
+            SymbolStats symbolStats = entry.getValue();
+            try {
+                matchingSequencer.submit(entry.getKey(), () -> symbolStats.publish(System.currentTimeMillis()));
+            } catch (RejectedExecutionException e) {
+                log.warn("⚠️ Skipped 24h stats roll for {}: matching lane is full", entry.getKey());
+            }
+        }
+    }
+
+    private SymbolStats stateFor(String symbol) {
+        SymbolStats symbolStats = stats.get(symbol);
+        if (symbolStats != null) {
+            return symbolStats;
+        }
+        symbolStats = new SymbolStats(symbolSpecRegistry.get(symbol));
+        try {
+            TransactionSpot lastTrade = transactionSpotRepository.findTopBySymbolOrderByIdDesc(symbol);
+            if (lastTrade != null) {
+                symbolStats.lastTicks = symbolStats.spec.toTicks(lastTrade.getPrice());
+                symbolStats.lastLots = symbolStats.spec.toLots(lastTrade.getQuantity());
+            }
+        } catch (Exception e) {
+            log.error("❌ Failed to load last trade for {}: {}", symbol, e.getMessage());
+        }
+        stats.put(symbol, symbolStats);
+        return symbolStats;
+    }
+
+    /**
+     * Trạng thái ghi của một symbol: vòng 1440 bucket theo phút cho cửa sổ 24h.
+     * Tổng volume/số lệnh/quote volume được cộng dồn và trừ đi khi bucket hết
+     * hạn; high/low lấy từ hai hàng đợi đơn điệu theo phút, open là bucket cũ
+     * nhất còn sống, nên mỗi fill và mỗi lần công bố đều O(1) (khấu hao).
+     * Chỉ lane của symbol chạm vào các field không volatile.
+     */
+    private static class SymbolStats {
+        private final SymbolSpec spec;
+
+        private final long[] bucketOpen = new long[WINDOW_MINUTES];
+        private final long[] bucketHigh = new long[WINDOW_MINUTES];
+        private final long[] bucketLow = new long[WINDOW_MINUTES];
+        private final long[] bucketVolume = new long[WINDOW_MINUTES];
+        private final long[] bucketCount = new long[WINDOW_MINUTES];
+        private final BigDecimal[] bucketQuoteVolume = new BigDecimal[WINDOW_MINUTES];
+
+        // Các phút có bucket còn trong cửa sổ, cũ nhất ở đầu
+        private final MinuteQueue live = new MinuteQueue();
+        // high giảm dần / low tăng dần từ đầu tới cuối
+        private final MinuteQueue highs = new MinuteQueue();
+        private final MinuteQueue lows = new MinuteQueue();
+        private long volume;
+        private long count;
+        private BigDecimal quoteVolume = BigDecimal.ZERO;
+
+        private long lastTicks = SpotOrderBook.NO_PRICE;
+        private long lastLots;
+        private long lastTradeTime;
+        private long bestBidTicks = SpotOrderBook.NO_PRICE;
+        private long bestAskTicks = SpotOrderBook.NO_PRICE;
+        private long sequence;
+
+        private volatile Snapshot snapshot;
+
+        private SymbolStats(SymbolSpec spec) {
+            this.spec = spec;
+        }
+
+        private void record(long now, long priceTicks, long lots, BigDecimal quoteVolume) {
+            long minute = now / MINUTE_MILLIS;
+            if (!live.isEmpty() && minute < live.last()) {
+                // Đồng hồ lùi: gộp vào bucket mới nhất
+                minute = live.last();
+            }
+            expire(minute);
+            int i = index(minute);
+            if (live.isEmpty() || live.last() != minute) {
+                live.addLast(minute);
+                bucketOpen[i] = priceTicks;
+                bucketHigh[i] = priceTicks;
+                bucketLow[i] = priceTicks;
+                bucketVolume[i] = 0;
+                bucketCount[i] = 0;
+                bucketQuoteVolume[i] = BigDecimal.ZERO;
+            }
+            bucketHigh[i] = Math.max(bucketHigh[i], priceTicks);
+            bucketLow[i] = Math.min(bucketLow[i], priceTicks);
+            bucketVolume[i] += lots;
+            bucketCount[i]++;
+            bucketQuoteVolume[i] = bucketQuoteVolume[i].add(quoteVolume);
+            volume += lots;
+            count++;
+            this.quoteVolume = this.quoteVolume.add(quoteVolume);
+
+            // Bucket hiện tại luôn ở cuối hai hàng đợi; bỏ các bucket bị nó lấn át
+            if (!highs.isEmpty() && highs.last() == minute) {
+                highs.removeLast();
+            }
+            while (!highs.isEmpty() && bucketHigh[index(highs.last())] <= bucketHigh[i]) {
+                highs.removeLast();
+            }
+            highs.addLast(minute);
+            if (!lows.isEmpty() && lows.last() == minute) {
+                lows.removeLast();
+            }
+            while (!lows.isEmpty() && bucketLow[index(lows.last())] >= bucketLow[i]) {
+                lows.removeLast();
+            }
+            lows.addLast(minute);
+
+            lastTicks = priceTicks;
+            lastLots = lots;
+            lastTradeTime = now;
+        }
+
+        // Gỡ các bucket đã ra khỏi cửa sổ 24h tính tới currentMinute
+        private void expire(long currentMinute) {
+            while (!live.isEmpty() && currentMinute - live.first() >= WINDOW_MINUTES) {
+                int i = index(live.removeFirst());
+                volume -= bucketVolume[i];
+                count -= bucketCount[i];
+                quoteVolume = quoteVolume.subtract(bucketQuoteVolume[i]);
+            }
+            while (!highs.isEmpty() && currentMinute - highs.first() >= WINDOW_MINUTES) {
+                highs.removeFirst();
+            }
+            while (!lows.isEmpty() && currentMinute - lows.first() >= WINDOW_MINUTES) {
+                lows.removeFirst();
+            }
+        }
+
+        private void publish(long now) {
+            long currentMinute = now / MINUTE_MILLIS;
+            if (live.isEmpty() || currentMinute >= live.last()) {
+                expire(currentMinute);
+            }
+            long open = live.isEmpty() ? SpotOrderBook.NO_PRICE : bucketOpen[index(live.first())];
+
+            BigDecimal lastPrice = price(lastTicks);
+            BigDecimal openPrice = price(open);
+            BigDecimal priceChange = null;
+            BigDecimal priceChangePercent = null;
+            if (lastPrice != null && openPrice != null) {
+                priceChange = lastPrice.subtract(openPrice);
+                if (openPrice.signum() != 0) {
+                    priceChangePercent = priceChange.multiply(BigDecimal.valueOf(100))
+                            .divide(openPrice, 2, RoundingMode.HALF_UP);
+                }
+            }
+
+            snapshot = new Snapshot(spec.getSymbol(), ++sequence, lastPrice,
+                    lastTicks != SpotOrderBook.NO_PRICE ? spec.quantityOf(lastLots) : null, lastTradeTime,
+                    price(bestBidTicks), price(bestAskTicks), openPrice,
+                    count > 0 ? spec.priceOf(bucketHigh[index(highs.first())]) : null,
+                    count > 0 ? spec.priceOf(bucketLow[index(lows.first())]) : null,
+                    spec.quantityOf(volume), quoteVolume, count, priceChange, priceChangePercent, now);
+        }
+
+        private static int index(long minute) {
+            return (int) (minute % WINDOW_MINUTES);
+        }
+
+        private BigDecimal price(long ticks) {
+            return ticks != SpotOrderBook.NO_PRICE ? spec.priceOf(ticks) : null;
+        }
+    }
+
+    /**
+     * Hàng đợi hai đầu các phút, sức chứa bằng cửa sổ 24h (mỗi phút xuất hiện
+     * nhiều nhất một lần).
+     */
+    private static class MinuteQueue {
+        private final long[] minutes = new long[WINDOW_MINUTES];
+        private int head;
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long first() {
+            return minutes[head];
+        }
+
+        long last() {
+            return minutes[(head + size - 1) % WINDOW_MINUTES];
+        }
+
+        void addLast(long minute) {
+            minutes[(head + size) % WINDOW_MINUTES] = minute;
+            size++;
+        }
+
+        long removeFirst() {
+            long minute = minutes[head];
+            head = (head + 1) % WINDOW_MINUTES;
+            size--;
+            return minute;
+        }
+
+        void removeLast() {
+            size--;
+        }
+    }
+
+    /**
+     * Ảnh chụp bất biến; {@code sequence} tăng mỗi lần công bố.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Snapshot {
+        private final String symbol;
+        private final long sequence;
+        private final BigDecimal lastPrice;
+        private final BigDecimal lastQuantity;
+        private final long lastTradeTime;
+        private final BigDecimal bestBid;
+        private final BigDecimal bestAsk;
+        private final BigDecimal openPrice;
+        private final BigDecimal highPrice;
+        private final BigDecimal lowPrice;
+        private final BigDecimal volume;
+        private final BigDecimal quoteVolume;
+        private final long tradeCount;
+        private final BigDecimal priceChange;
+        private final BigDecimal priceChangePercent;
+        private final long updatedAt;
+    }
+}
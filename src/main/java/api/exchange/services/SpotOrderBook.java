@@ -0,0 +1,311 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import api.exchange.models.OrderBooks;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Order book trong bộ nhớ cho một symbol spot (price-time priority).
+ * Mỗi mức giá giữ một hàng đợi FIFO, kèm index orderId -> lệnh để huỷ lệnh O(1).
+ * Giá và khối lượng bên trong book là số tick/lot kiểu long theo
+ * {@link SymbolSpec}; lệnh {@link OrderBooks} chỉ được giữ để trả về cho tầng
+ * lưu trữ, book không sửa entity.
+ * Mọi thay đổi trên các mức giá LIMIT được phản ánh tăng dần vào
+ * {@link DepthBook} của symbol.
+ * Không thread-safe: chỉ thread matching của symbol được phép ghi.
+ */
+public class SpotOrderBook {
+
+    public static final long NO_PRICE = Long.MIN_VALUE;
+
+    private final SymbolSpec spec;
+
+    // Bids: giá cao nhất trước, Asks: giá thấp nhất trước
+    private final TreeMap<Long, PriceLevel> bids = new TreeMap<>(Collections.reverseOrder());
+    private final TreeMap<Long, PriceLevel> asks = new TreeMap<>();
+
+    // Lệnh MARKET chưa khớp hết được ưu tiên trước mọi mức giá LIMIT
+    private final PriceLevel marketBuys = new PriceLevel(NO_PRICE);
+    private final PriceLevel marketSells = new PriceLevel(NO_PRICE);
+
+    private final Map<Long, RestingOrder> orderIndex = new HashMap<>();
+
+    private final DepthBook depth;
+
+    public SpotOrderBook(SymbolSpec spec, DepthBook depth) {
+        this.spec = spec;
+        this.depth = depth;
+    }
+
+    public String getSymbol() {
+        return spec.getSymbol();
+    }
+
+    public SymbolSpec getSpec() {
+        return spec;
+    }
+
+    public DepthBook getDepth() {
+        return depth;
+    }
+
+    /**
+     * Khớp lệnh taker với phía đối diện. Gỡ các lệnh maker đã khớp hết khỏi
+     * book; filledQuantity của entity do người gọi cập nhật từ các {@link Fill}.
+     * Không tự thêm phần còn lại của taker vào book.
+     *
+     * @param referenceTicks giá (tick) dùng khi MARKET gặp MARKET, {@link #NO_PRICE}
+     *                       nếu chưa có
+     */
+    public List<Fill> match(OrderBooks taker, long referenceTicks) {
+        List<Fill> fills = new ArrayList<>();
+        boolean buy = taker.isBuyOrder();
+        boolean limit = taker.isLimitOrder();
+        long limitTicks = limit ? spec.toTicks(taker.getPrice()) : NO_PRICE;
+        long remaining = spec.toLots(taker.getRemainingQuantity());
+
+        PriceLevel oppositeMarket = buy ? marketSells : marketBuys;
+        TreeMap<Long, PriceLevel> oppositeLevels = buy ? asks : bids;
+
+        while (remaining > 0) {
+            PriceLevel level;
+            long tradeTicks;
+
+            if (!oppositeMarket.isEmpty() && (limit || referenceTicks != NO_PRICE)) {
+                level = oppositeMarket;
+                tradeTicks = limit ? limitTicks : referenceTicks;
+            } else {
+                Map.Entry<Long, PriceLevel> best = oppositeLevels.firstEntry();
+                if (best == null || !crosses(buy, limitTicks, best.getValue().price)) {
+                    break;
+                }
+                level = best.getValue();
+                tradeTicks = level.price;
+            }
+
+            RestingOrder maker = level.peek();
+            long lots = Math.min(remaining, maker.remainingLots());
+
+            remaining -= lots;
+            maker.filledLots += lots;
+            fills.add(new Fill(maker.order, taker, tradeTicks, lots, spec));
+            if (level.price != NO_PRICE) {
+                depth.reduce(!buy, level.price, lots, maker.remainingLots() == 0);
+            }
+
+            if (maker.remainingLots() == 0) {
+                level.remove(maker.id);
+                orderIndex.remove(maker.id);
+                if (level.isEmpty() && level.price != NO_PRICE) {
+                    oppositeLevels.remove(level.price);
+                }
+            }
+        }
+        return fills;
+    }
+
+    /**
+     * Thêm lệnh (chưa khớp hết) vào cuối hàng đợi của mức giá tương ứng.
+     */
+    public void add(OrderBooks order) {
+        RestingOrder resting = new RestingOrder(order,
+                order.isMarketOrder() ? NO_PRICE : spec.toTicks(order.getPrice()),
+                spec.toLots(order.getQuantity()),
+                spec.toLots(order.getFilledQuantity()));
+        PriceLevel level;
+        if (order.isMarketOrder()) {
+            level = order.isBuyOrder() ? marketBuys : marketSells;
+        } else {
+            TreeMap<Long, PriceLevel> levels = order.isBuyOrder() ? bids : asks;
+            level = levels.computeIfAbsent(resting.priceTicks, PriceLevel::new);
+        }
+        level.add(resting);
+        resting.level = level;
+        orderIndex.put(resting.id, resting);
+        if (level.price != NO_PRICE) {
+            depth.add(order.isBuyOrder(), level.price, resting.remainingLots());
+        }
+    }
+
+    /**
+     * Gỡ lệnh khỏi book theo id.
+     *
+     * @return lệnh đã gỡ, hoặc null nếu không còn trong book
+     */
+    public OrderBooks cancel(Long orderId) {
+        RestingOrder resting = orderIndex.remove(orderId);
+        if (resting == null) {
+            return null;
+        }
+        PriceLevel level = resting.level;
+        level.remove(orderId);
+        if (level.price != NO_PRICE) {
+            depth.reduce(resting.order.isBuyOrder(), level.price, resting.remainingLots(), true);
+        }
+        if (level.isEmpty() && level.price != NO_PRICE) {
+            TreeMap<Long, PriceLevel> levels = resting.order.isBuyOrder() ? bids : asks;
+            levels.remove(level.price);
+        }
+        return resting.order;
+    }
+
+    /**
+     * Cập nhật tổng khối lượng (lot) của lệnh đang nằm trong book (giữ nguyên vị
+     * trí trong hàng đợi).
+     */
+    public OrderBooks amendQuantity(Long orderId, long quantityLots) {
+        RestingOrder resting = orderIndex.get(orderId);
+        if (resting == null) {
+            return null;
+        }
+        long before = resting.remainingLots();
+        resting.quantityLots = quantityLots;
+        if (resting.level.price != NO_PRICE) {
+            depth.adjust(resting.order.isBuyOrder(), resting.priceTicks, resting.remainingLots() - before);
+        }
+        return resting.order;
+    }
+
+    /**
+     * Các lệnh đang nằm trên book, mỗi mức giá theo thứ tự FIFO; thêm lại lần lượt
+     * bằng {@link #add(OrderBooks)} sẽ dựng lại đúng book này.
+     */
+    public List<OrderBooks> restingOrders() {
+        List<OrderBooks> orders = new ArrayList<>(orderIndex.size());
+        collect(marketBuys, orders);
+        for (PriceLevel level : bids.values()) {
+            collect(level, orders);
+        }
+        collect(marketSells, orders);
+        for (PriceLevel level : asks.values()) {
+            collect(level, orders);
+        }
+        return orders;
+    }
+
+    private static void collect(PriceLevel level, List<OrderBooks> orders) {
+        for (RestingOrder resting : level.orders.values()) {
+            orders.add(resting.order);
+        }
+    }
+
+    public OrderBooks get(Long orderId) {
+        RestingOrder resting = orderIndex.get(orderId);
+        return resting != null ? resting.order : null;
+    }
+
+    public boolean contains(Long orderId) {
+        return orderIndex.containsKey(orderId);
+    }
+
+    public int size() {
+        return orderIndex.size();
+    }
+
+    /**
+     * @return giá mua tốt nhất (tick), hoặc {@link #NO_PRICE}
+     */
+    public long bestBid() {
+        return bids.isEmpty() ? NO_PRICE : bids.firstKey();
+    }
+
+    /**
+     * @return giá bán tốt nhất (tick), hoặc {@link #NO_PRICE}
+     */
+    public long bestAsk() {
+        return asks.isEmpty() ? NO_PRICE : asks.firstKey();
+    }
+
+    private boolean crosses(boolean buy, long limitTicks, long makerTicks) {
+        if (limitTicks == NO_PRICE) {
+            return true;
+        }
+        return buy ? limitTicks >= makerTicks : limitTicks <= makerTicks;
+    }
+
+    /**
+     * Trạng thái của một lệnh đang nằm trong book, tính theo tick/lot.
+     */
+    private static class RestingOrder {
+        private final OrderBooks order;
+        private final Long id;
+        private final long priceTicks;
+        private long quantityLots;
+        private long filledLots;
+        private PriceLevel level;
+
+        RestingOrder(OrderBooks order, long priceTicks, long quantityLots, long filledLots) {
+            this.order = order;
+            this.id = order.getId();
+            this.priceTicks = priceTicks;
+            this.quantityLots = quantityLots;
+            this.filledLots = filledLots;
+        }
+
+        long remainingLots() {
+            return Math.max(0, quantityLots - filledLots);
+        }
+    }
+
+    /**
+     * Một mức giá: hàng đợi FIFO có thể gỡ phần tử ở giữa theo id.
+     */
+    private static class PriceLevel {
+        private final long price;
+        private final LinkedHashMap<Long, RestingOrder> orders = new LinkedHashMap<>();
+
+        PriceLevel(long price) {
+            this.price = price;
+        }
+
+        void add(RestingOrder order) {
+            orders.put(order.id, order);
+        }
+
+        RestingOrder peek() {
+            Iterator<RestingOrder> it = orders.values().iterator();
+            return it.hasNext() ? it.next() : null;
+        }
+
+        RestingOrder remove(Long orderId) {
+            return orders.remove(orderId);
+        }
+
+        boolean isEmpty() {
+            return orders.isEmpty();
+        }
+    }
+
+    /**
+     * Kết quả một lần khớp giữa lệnh maker (đang nằm trong book) và taker, tính
+     * theo tick/lot. {@link #getPrice()} và {@link #getQuantity()} đổi sang
+     * BigDecimal cho tầng lưu trữ.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Fill {
+        private final OrderBooks maker;
+        private final OrderBooks taker;
+        private final long priceTicks;
+        private final long lots;
+        private final SymbolSpec spec;
+
+        public BigDecimal getPrice() {
+            return spec.priceOf(priceTicks);
+        }
+
+        public BigDecimal getQuantity() {
+            return spec.quantityOf(lots);
+        }
+    }
+}
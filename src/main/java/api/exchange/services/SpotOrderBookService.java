@@ -0,0 +1,248 @@
+package api.exchange.services;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderStatus;
+import api.exchange.repository.OrderBooksRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Quản lý các {@link SpotOrderBook} trong bộ nhớ, mỗi symbol một book.
+ * Khi khởi động, book được dựng lại từ snapshot + journal của
+ * {@link MatchingJournal}; symbol chưa có trong journal mới được nạp từ DB ở lần
+ * truy cập đầu tiên. Sau đó mọi thao tác khớp/huỷ chạy hoàn toàn trong bộ nhớ.
+ * Trạng thái trong journal cũng được ghi bù vào {@code order_books} lúc khởi
+ * động (cả ở chế độ redis), vì lệnh taker được lưu theo batch bất đồng bộ.
+ * Lệnh trong DB lệch lưới tick/lot hiện tại bị huỷ khi nạp thay vì làm hỏng
+ * book của symbol.
+ */
+@Service
+@Slf4j
+public class SpotOrderBookService {
+
+    private static final long SNAPSHOT_TIMEOUT_SECONDS = 10;
+
+    private static final int RECONCILE_CHUNK = 1000;
+
+    private static final List<OrderStatus> RESTING_STATUSES = Arrays.asList(
+            OrderStatus.ACTIVE, OrderStatus.PARTIALLY_FILLED);
+
+    @Autowired
+    private OrderBooksRepository orderBooksRepository;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    @Autowired
+    private MatchingJournal matchingJournal;
+
+    @Autowired
+    private MatchingSequencer matchingSequencer;
+
+    @Autowired
+    private MarketDepthService marketDepthService;
+
+    @Autowired
+    private SpotRedisBook spotRedisBook;
+
+    @Autowired
+    private SpotWalletService spotWalletService;
+
+    // Proxy của chính bean này để huỷ lệnh lệch lưới chạy trong transaction
+    @Autowired
+    @Lazy
+    private SpotOrderBookService self;
+
+    // Ở chế độ redis book nằm trên Redis: không dựng book trong bộ nhớ, không snapshot
+    @Value("${matching.mode:memory}")
+    private String matchingMode;
+
+    private final Map<String, SpotOrderBook> books = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void recover() throws IOException {
+        MatchingJournal.Recovery recovery = matchingJournal.recover();
+        Map<String, LinkedHashMap<Long, OrderBooks>> recovered = recovery.getBooks();
+        reconcile(recovery.getOrders(), recovered);
+        if (isRedisMatching()) {
+            return;
+        }
+        for (Map.Entry<String, LinkedHashMap<Long, OrderBooks>> entry : recovered.entrySet()) {
+            SpotOrderBook book = newBook(entry.getKey());
+            for (OrderBooks order : entry.getValue().values()) {
+                book.add(order);
+            }
+            book.getDepth().publish();
+            books.put(entry.getKey(), book);
+        }
+    }
+
+    public SpotOrderBook getBook(String symbol) {
+        return books.computeIfAbsent(symbol, this::loadBook);
+    }
+
+    /**
+     * Dựng lại book của symbol từ DB sau khi một lượt khớp thất bại (DB đã
+     * rollback nhưng book trong bộ nhớ đã ghi nhận fill). Chỉ gọi trên lane của
+     * symbol. Bản sao trên Redis và journal được ghi lại theo book mới.
+     */
+    public SpotOrderBook reloadBook(String symbol) {
+        SpotOrderBook previous = books.remove(symbol);
+        spotRedisBook.clear(symbol);
+        SpotOrderBook book = loadBook(symbol);
+        if (previous != null) {
+            for (OrderBooks order : previous.restingOrders()) {
+                if (!book.contains(order.getId())) {
+                    matchingJournal.appendCancel(symbol, order.getId());
+                }
+            }
+        }
+        for (OrderBooks order : book.restingOrders()) {
+            spotRedisBook.add(order);
+        }
+        books.put(symbol, book);
+        return book;
+    }
+
+    /**
+     * Chụp snapshot mọi book (mỗi book trên lane của symbol) để journal có thể
+     * bỏ các segment cũ.
+     */
+    @Scheduled(fixedDelayString = "${matching.journal.snapshot-interval-ms:60000}")
+    public void snapshot() {
+        if (isRedisMatching()) {
+            return;
+        }
+        List<MatchingJournal.SymbolSnapshot> snapshots = new ArrayList<>();
+        try {
+            for (Map.Entry<String, SpotOrderBook> entry : books.entrySet()) {
+                SpotOrderBook book = entry.getValue();
+                snapshots.add(matchingSequencer
+                        .call(entry.getKey(), () -> matchingJournal.snapshotOf(entry.getKey(), book.restingOrders()))
+                        .get(SNAPSHOT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+            matchingJournal.writeSnapshot(snapshots);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("❌ Failed to snapshot order books", e);
+        }
+    }
+
+    /**
+     * Ghi bù vào {@code order_books} phần journal mà DB chưa có: fill chưa được
+     * flush (chỉ tăng filledQuantity, không bao giờ giảm). Fill chỉ vào journal
+     * sau khi transaction thanh toán của lượt khớp commit, nên tiền của chúng
+     * đã được chuyển. Lệnh bị huỷ trong
+     * journal mà DB vẫn đang mở nghĩa là giao dịch huỷ chưa commit (số dư chưa mở
+     * khoá), nên lệnh được đưa lại vào book.
+     */
+    private void reconcile(Map<Long, OrderBooks> journaled, Map<String, LinkedHashMap<Long, OrderBooks>> recovered) {
+        List<Long> ids = new ArrayList<>(journaled.keySet());
+        int updated = 0;
+        int restored = 0;
+        for (int from = 0; from < ids.size(); from += RECONCILE_CHUNK) {
+            List<OrderBooks> changed = new ArrayList<>();
+            for (OrderBooks stored : orderBooksRepository.findAllById(
+                    ids.subList(from, Math.min(ids.size(), from + RECONCILE_CHUNK)))) {
+                OrderBooks journal = journaled.get(stored.getId());
+                boolean resting = RESTING_STATUSES.contains(stored.getStatus());
+                if (journal.getStatus() == OrderStatus.CANCELLED) {
+                    if (resting) {
+                        journal.setStatus(stored.getStatus());
+                        if (isRedisMatching()) {
+                            spotRedisBook.add(journal);
+                        } else {
+                            recovered.computeIfAbsent(stored.getSymbol(), s -> new LinkedHashMap<>())
+                                    .put(journal.getId(), journal);
+                        }
+                        matchingJournal.appendOrder(journal);
+                        restored++;
+                    }
+                } else if (resting && journal.getFilledQuantity().compareTo(stored.getFilledQuantity()) > 0) {
+                    stored.setFilledQuantity(journal.getFilledQuantity());
+                    stored.setStatus(stored.isFullyFilled() ? OrderStatus.FILLED : OrderStatus.PARTIALLY_FILLED);
+                    changed.add(stored);
+                }
+            }
+            orderBooksRepository.saveAll(changed);
+            updated += changed.size();
+        }
+        log.info("📒 Reconciled order_books with journal: {} orders updated, {} uncommitted cancels restored",
+                updated, restored);
+    }
+
+    private boolean isRedisMatching() {
+        return "redis".equalsIgnoreCase(matchingMode);
+    }
+
+    private SpotOrderBook loadBook(String symbol) {
+        SpotOrderBook book = newBook(symbol);
+        List<OrderBooks> restingOrders = orderBooksRepository.findBySymbolAndStatusInOrderByIdAsc(symbol,
+                RESTING_STATUSES);
+        for (OrderBooks order : restingOrders) {
+            if (!order.isFullyFilled() && !cancelIfOffGrid(order)) {
+                book.add(order);
+                // Ghi vào journal để lần khởi động sau không cần quét lại DB
+                matchingJournal.appendOrder(order);
+            }
+        }
+        book.getDepth().publish();
+        log.info("📚 Loaded order book {} with {} resting orders", symbol, book.size());
+        return book;
+    }
+
+    /**
+     * Lệnh cũ có giá hoặc khối lượng lệch lưới tick/lot của {@link SymbolSpec}
+     * hiện tại (ví dụ lưu với lưới 1e-8 trước khi cấu hình
+     * {@code spot.symbol-specs}) không nằm được trên book: lệnh bị huỷ và số dư
+     * còn khoá được mở như khi người dùng huỷ.
+     *
+     * @return true nếu lệnh đã bị huỷ
+     */
+    public boolean cancelIfOffGrid(OrderBooks order) {
+        SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+        if ((order.isMarketOrder() || spec.isValidPrice(order.getPrice()))
+                && spec.isValidQuantity(order.getQuantity()) && spec.isValidQuantity(order.getFilledQuantity())) {
+            return false;
+        }
+        log.warn("⚠️ Cancelling order {} of {}: price {} / quantity {} is off the tick/lot grid", order.getId(),
+                order.getSymbol(), order.getPrice(), order.getQuantity());
+        self.cancelOffGrid(order);
+        return true;
+    }
+
+    /**
+     * Chỉ gọi qua {@link #cancelIfOffGrid}: mở khoá số dư và huỷ lệnh cùng một
+     * transaction.
+     */
+    @Transactional
+    public void cancelOffGrid(OrderBooks order) {
+        spotWalletService.unlockRemaining(order);
+        order.setStatus(OrderStatus.CANCELLED);
+        order.setUpdatedAt(LocalDateTime.now(ZoneId.of("Asia/Ho_Chi_Minh")));
+        orderBooksRepository.save(order);
+    }
+
+    private SpotOrderBook newBook(String symbol) {
+        return new SpotOrderBook(symbolSpecRegistry.get(symbol), marketDepthService.newSpotDepth(symbol));
+    }
+}
@@ -0,0 +1,173 @@
+package api.exchange.services;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import api.exchange.models.OrderBooks;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bản sao order book spot trên Redis, địa chỉ hoá theo orderId:
+ * <ul>
+ * <li>{@code spot:book:{symbol}:orders} - hash orderId -> trạng thái lệnh</li>
+ * <li>{@code spot:book:{symbol}:bids|asks} - ZSET orderId, score = số tick
+ * (bids âm để ZRANGE trả giá tốt nhất trước). Member là id đệm 0 nên các lệnh
+ * cùng giá được xếp theo thời gian.</li>
+ * </ul>
+ * Thêm/huỷ/sửa giá là O(log n), cập nhật khớp một phần chỉ ghi hash O(1).
+ * Trạng thái lệnh là {@code orderType|tradeType|priceTicks|quantityLots|filledLots|uid}
+ * để script Lua của {@link SpotRedisMatcher} đọc được trực tiếp.
+ */
+@Component
+@Slf4j
+public class SpotRedisBook {
+
+    // Lệnh MARKET đứng trước mọi mức giá ở cả hai phía (nhỏ hơn -2^53 tick không xảy ra)
+    public static final long MARKET_SCORE = -9_000_000_000_000_000L;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    public void add(OrderBooks order) {
+        try {
+            String member = member(order.getId());
+            stringRedisTemplate.opsForHash().put(ordersKey(order.getSymbol()), member, encode(order));
+            stringRedisTemplate.opsForZSet().add(sideKey(order), member, score(order));
+        } catch (Exception e) {
+            log.error("❌ Failed to add order {} to Redis: {}", order.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Khớp một phần: vị trí trong ZSET không đổi, chỉ ghi lại trạng thái.
+     */
+    public void updateState(OrderBooks order) {
+        try {
+            stringRedisTemplate.opsForHash().put(ordersKey(order.getSymbol()), member(order.getId()), encode(order));
+        } catch (Exception e) {
+            log.error("❌ Failed to update order {} in Redis: {}", order.getId(), e.getMessage());
+        }
+    }
+
+    public void remove(OrderBooks order) {
+        try {
+            String member = member(order.getId());
+            stringRedisTemplate.opsForZSet().remove(sideKey(order), member);
+            stringRedisTemplate.opsForHash().delete(ordersKey(order.getSymbol()), member);
+        } catch (Exception e) {
+            log.error("❌ Failed to remove order {} from Redis: {}", order.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Xoá toàn bộ book của symbol trên Redis (trước khi nạp lại từ DB).
+     */
+    public void clear(String symbol) {
+        try {
+            stringRedisTemplate.delete(Arrays.asList(ordersKey(symbol), bidsKey(symbol), asksKey(symbol)));
+        } catch (Exception e) {
+            log.error("❌ Failed to clear Redis book {}: {}", symbol, e.getMessage());
+        }
+    }
+
+    /**
+     * @return giá mua tốt nhất (tick) trên Redis, hoặc {@link SpotOrderBook#NO_PRICE}
+     */
+    public long bestBid(String symbol) {
+        Long score = bestLimitScore(bidsKey(symbol));
+        return score != null ? -score : SpotOrderBook.NO_PRICE;
+    }
+
+    /**
+     * @return giá bán tốt nhất (tick) trên Redis, hoặc {@link SpotOrderBook#NO_PRICE}
+     */
+    public long bestAsk(String symbol) {
+        Long score = bestLimitScore(asksKey(symbol));
+        return score != null ? score : SpotOrderBook.NO_PRICE;
+    }
+
+    // Bỏ qua lệnh MARKET (score = MARKET_SCORE) đứng đầu ZSET
+    private Long bestLimitScore(String key) {
+        try {
+            Set<ZSetOperations.TypedTuple<String>> best = stringRedisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(key, MARKET_SCORE + 1, Double.POSITIVE_INFINITY, 0, 1);
+            if (best == null || best.isEmpty()) {
+                return null;
+            }
+            return best.iterator().next().getScore().longValue();
+        } catch (Exception e) {
+            log.error("❌ Failed to read best price from {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Dựng độ sâu L2 từ trạng thái các lệnh LIMIT trên Redis (chỉ dùng khi độ sâu
+     * của symbol chưa có trong bộ nhớ).
+     */
+    public void loadDepth(String symbol, DepthBook depth) {
+        Map<Object, Object> states = stringRedisTemplate.opsForHash().entries(ordersKey(symbol));
+        for (Object state : states.values()) {
+            String[] f = ((String) state).split("\\|", -1);
+            if (!"LIMIT".equals(f[1])) {
+                continue;
+            }
+            long remaining = Long.parseLong(f[3]) - Long.parseLong(f[4]);
+            if (remaining > 0) {
+                depth.add("BUY".equals(f[0]), Long.parseLong(f[2]), remaining);
+            }
+        }
+    }
+
+    double score(OrderBooks order) {
+        if (order.isMarketOrder()) {
+            return MARKET_SCORE;
+        }
+        long ticks = symbolSpecRegistry.get(order.getSymbol()).toTicks(order.getPrice());
+        return order.isBuyOrder() ? -ticks : ticks;
+    }
+
+    /**
+     * Tiền tố trạng thái không đổi trong suốt vòng đời lệnh (trừ khi sửa giá).
+     */
+    String statePrefix(OrderBooks order) {
+        SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+        return order.getOrderType() + "|" + order.getTradeType() + "|"
+                + (order.isMarketOrder() ? "" : String.valueOf(spec.toTicks(order.getPrice())));
+    }
+
+    private String encode(OrderBooks order) {
+        SymbolSpec spec = symbolSpecRegistry.get(order.getSymbol());
+        return statePrefix(order) + "|" + spec.toLots(order.getQuantity()) + "|"
+                + spec.toLots(order.getFilledQuantity()) + "|" + order.getUid();
+    }
+
+    static String sideKey(OrderBooks order) {
+        return order.isBuyOrder() ? bidsKey(order.getSymbol()) : asksKey(order.getSymbol());
+    }
+
+    static String member(Long orderId) {
+        return String.format("%019d", orderId);
+    }
+
+    static String ordersKey(String symbol) {
+        return "spot:book:" + symbol + ":orders";
+    }
+
+    static String bidsKey(String symbol) {
+        return "spot:book:" + symbol + ":bids";
+    }
+
+    static String asksKey(String symbol) {
+        return "spot:book:" + symbol + ":asks";
+    }
+}
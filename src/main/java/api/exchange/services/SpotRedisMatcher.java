@@ -0,0 +1,191 @@
+package api.exchange.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderStatus;
+import api.exchange.repository.OrderBooksRepository;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chế độ khớp lệnh trên Redis ({@code matching.mode=redis}): mỗi lệnh mới được
+ * khớp bằng một lần gọi script Lua, script tự duyệt book, cập nhật maker và đặt
+ * phần còn lại của taker lên book một cách nguyên tử. Nhiều instance có thể dùng
+ * chung một book. Java chỉ nhận lại danh sách fill để thanh toán ví.
+ * Tick/lot được truyền dưới dạng chuỗi số nguyên; script từ chối giá trị vượt
+ * 2^53 - 1 vì số trong Lua của Redis là double.
+ *
+ * <p>
+ * Chỉ book là dùng chung: độ sâu L2 ({@link DepthBook}) và thống kê
+ * ({@link SpotMarketStats}) vẫn nằm trong bộ nhớ của từng instance và chỉ phản
+ * ánh các lệnh đã khớp trên instance đó. Khi chạy nhiều instance, mỗi symbol nên
+ * được định tuyến cố định về một instance nếu cần độ sâu/thống kê đầy đủ.
+ */
+@Component
+@Slf4j
+public class SpotRedisMatcher {
+
+    private static final List<OrderStatus> RESTING_STATUSES = Arrays.asList(
+            OrderStatus.ACTIVE, OrderStatus.PARTIALLY_FILLED);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private SpotRedisBook spotRedisBook;
+
+    @Autowired
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    @Autowired
+    private OrderBooksRepository orderBooksRepository;
+
+    @Autowired
+    private SpotOrderBookService spotOrderBookService;
+
+    @SuppressWarnings("rawtypes")
+    private final DefaultRedisScript<List> matchScript = script("scripts/spot_match.lua", List.class);
+    private final DefaultRedisScript<String> cancelScript = script("scripts/spot_cancel.lua", String.class);
+    private final DefaultRedisScript<String> amendQuantityScript = script("scripts/spot_amend_quantity.lua",
+            String.class);
+
+    private final Set<String> seededSymbols = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Khớp taker với book trên Redis. Khi trả về, Redis đã phản ánh kết quả (kể cả
+     * phần còn lại của taker nằm lại trên book); filledQuantity của các maker được
+     * đặt theo trạng thái trên Redis, filledQuantity của taker do người gọi cộng dồn.
+     */
+    @SuppressWarnings("unchecked")
+    public List<SpotOrderBook.Fill> match(OrderBooks taker, long referenceTicks) {
+        String symbol = taker.getSymbol();
+        ensureSeeded(symbol, taker.getId());
+        SymbolSpec spec = symbolSpecRegistry.get(symbol);
+
+        String ownKey = SpotRedisBook.sideKey(taker);
+        String oppositeKey = taker.isBuyOrder() ? SpotRedisBook.asksKey(symbol) : SpotRedisBook.bidsKey(symbol);
+        List<String> keys = Arrays.asList(SpotRedisBook.ordersKey(symbol), oppositeKey, ownKey);
+
+        List<Object> raw = stringRedisTemplate.execute(matchScript, keys,
+                SpotRedisBook.member(taker.getId()),
+                taker.isBuyOrder() ? "1" : "0",
+                taker.isLimitOrder() ? "1" : "0",
+                taker.isLimitOrder() ? String.valueOf(spec.toTicks(taker.getPrice())) : "0",
+                String.valueOf(spec.toLots(taker.getQuantity())),
+                String.valueOf(spec.toLots(taker.getFilledQuantity())),
+                referenceTicks != SpotOrderBook.NO_PRICE ? String.valueOf(referenceTicks) : "",
+                String.valueOf(SpotRedisBook.MARKET_SCORE),
+                spotRedisBook.statePrefix(taker),
+                taker.getUid(),
+                String.valueOf((long) spotRedisBook.score(taker)));
+
+        List<SpotOrderBook.Fill> fills = new ArrayList<>();
+        if (raw == null || raw.size() <= 1) {
+            return fills;
+        }
+
+        List<Long> makerIds = new ArrayList<>();
+        for (int i = 1; i < raw.size(); i += 4) {
+            makerIds.add(Long.parseLong((String) raw.get(i)));
+        }
+        Map<Long, OrderBooks> makers = new HashMap<>();
+        for (OrderBooks maker : orderBooksRepository.findAllById(makerIds)) {
+            makers.put(maker.getId(), maker);
+        }
+
+        for (int i = 1; i < raw.size(); i += 4) {
+            OrderBooks maker = makers.get(Long.parseLong((String) raw.get(i)));
+            if (maker == null) {
+                log.error("❌ Redis book references unknown order {}", raw.get(i));
+                continue;
+            }
+            maker.setFilledQuantity(spec.quantityOf(Long.parseLong((String) raw.get(i + 3))));
+            fills.add(new SpotOrderBook.Fill(maker, taker, Long.parseLong((String) raw.get(i + 1)),
+                    Long.parseLong((String) raw.get(i + 2)), spec));
+        }
+        return fills;
+    }
+
+    /**
+     * Gỡ lệnh khỏi book trên Redis.
+     *
+     * @return filledLots của lệnh tại thời điểm gỡ, hoặc null nếu lệnh không còn trên book
+     */
+    public Long cancel(OrderBooks order) {
+        String filled = stringRedisTemplate.execute(cancelScript,
+                Arrays.asList(SpotRedisBook.ordersKey(order.getSymbol()), SpotRedisBook.sideKey(order)),
+                SpotRedisBook.member(order.getId()));
+        return filled != null ? Long.valueOf(filled) : null;
+    }
+
+    /**
+     * Đổi tổng khối lượng của lệnh đang nằm trên book Redis.
+     *
+     * @return quantityLots trước khi đổi, hoặc null nếu lệnh không còn trên book
+     */
+    public Long amendQuantity(String symbol, Long orderId, long quantityLots) {
+        String previous = stringRedisTemplate.execute(amendQuantityScript,
+                Arrays.asList(SpotRedisBook.ordersKey(symbol)),
+                SpotRedisBook.member(orderId),
+                String.valueOf(quantityLots));
+        return previous != null ? Long.valueOf(previous) : null;
+    }
+
+    /**
+     * Lần đầu gặp symbol mà Redis chưa có book thì nạp các lệnh đang mở từ DB.
+     */
+    void ensureSeeded(String symbol, Long excludeOrderId) {
+        if (!seededSymbols.add(symbol)) {
+            return;
+        }
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SpotRedisBook.ordersKey(symbol)))) {
+            return;
+        }
+        int seeded = 0;
+        for (OrderBooks order : orderBooksRepository.findBySymbolAndStatusInOrderByIdAsc(symbol, RESTING_STATUSES)) {
+            if (!order.getId().equals(excludeOrderId) && !order.isFullyFilled()
+                    && !spotOrderBookService.cancelIfOffGrid(order)) {
+                spotRedisBook.add(order);
+                seeded++;
+            }
+        }
+        log.info("📚 Seeded Redis book {} with {} resting orders", symbol, seeded);
+    }
+
+    /**
+     * Nạp lại book Redis của symbol từ DB (book đã được xoá trước đó).
+     *
+     * @return các lệnh đã nạp
+     */
+    List<OrderBooks> reseed(String symbol) {
+        seededSymbols.add(symbol);
+        List<OrderBooks> seeded = new ArrayList<>();
+        for (OrderBooks order : orderBooksRepository.findBySymbolAndStatusInOrderByIdAsc(symbol, RESTING_STATUSES)) {
+            if (!order.isFullyFilled() && !spotOrderBookService.cancelIfOffGrid(order)) {
+                spotRedisBook.add(order);
+                seeded.add(order);
+            }
+        }
+        log.info("📚 Reseeded Redis book {} with {} resting orders", symbol, seeded.size());
+        return seeded;
+    }
+
+    private static <T> DefaultRedisScript<T> script(String path, Class<T> resultType) {
+        DefaultRedisScript<T> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource(path));
+        script.setResultType(resultType);
+        return script;
+    }
+}
@@ -11,15 +11,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
-import api.exchange.models.SpotWalletHistory;
 import api.exchange.models.OrderBooks;
 import api.exchange.models.OrderBooks.OrderStatus;
-import api.exchange.models.OrderBooks.OrderType;
-import api.exchange.models.OrderBooks.TradeType;
 import api.exchange.repository.SpotWalletHistoryRepository;
 import api.exchange.repository.OrderBooksRepository;
 import api.exchange.sercurity.jwt.JwtUtil;
-import api.exchange.websocket.SpotOrderWebSocket;
 import jakarta.transaction.Transactional;
 
 @Service
@@ -34,67 +30,46 @@ public class SpotService {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private OrderBooksService orderBooksService;
+
+    @Autowired
+    private OrderIntakePipeline orderIntakePipeline;
+
     @Autowired
     private SpotWalletService spotWalletService;
 
     @Autowired
-    private OrderBooksService orderBooksService;
+    private SymbolSpecRegistry symbolSpecRegistry;
+
+    @Autowired
+    private SpotMarketStats spotMarketStats;
 
     @Autowired
-    private SpotOrderWebSocket spotOrderWebsocket;
+    private MarketDepthService marketDepthService;
 
     SpotService(SpotWalletHistoryRepository spotWalletHistoryRepository) {
         this.spotWalletHistoryRepository = spotWalletHistoryRepository;
     }
 
-    @Transactional
     public ResponseEntity<?> createOrder(OrderBooks entity, String header) {
         String jwt = header.substring(7);
         String uid = jwtUtil.getUserIdFromToken(jwt);
 
-        if (!spotWalletService.checkBalance(entity, uid)) {
-            return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Số dư không đủ"));
-        }
-        spotWalletService.checkWalletRecive(entity, uid);
-        OrderBooks orderBooks = orderBooksRepository.findByUidAndSymbolAndPriceAndStatusAndOrderTypeAndTradeType(uid,
-                entity.getSymbol(),
-                entity.getPrice(), OrderStatus.ACTIVE, entity.getOrderType(), entity.getTradeType());
-        LocalDateTime createAt = LocalDateTime.now(ZoneId.of("Asia/Ho_Chi_Minh"));
-
-        if (orderBooks != null) {
-            orderBooks.setQuantity(orderBooks.getQuantity().add(entity.getQuantity()));
-            orderBooks.setUpdatedAt(createAt);
-            return ResponseEntity.ok(Map.of("message", "success", "data", "Cập nhật lệnh"));
+        switch (orderIntakePipeline.submit(entity, uid)) {
+            case ACCEPTED:
+                return ResponseEntity.ok(Map.of("message", "success", "data", "Tạo Order thành công "));
+            case MERGED:
+                return ResponseEntity.ok(Map.of("message", "success", "data", "Cập nhật lệnh"));
+            case INSUFFICIENT_BALANCE:
+                return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Số dư không đủ"));
+            case INVALID:
+                return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Lệnh không hợp lệ"));
+            case BUSY:
+                return ResponseEntity.status(503).body(Map.of("message", "SERVICE_UNAVAILABLE", "data", "Hệ thống đang bận"));
+            default:
+                return ResponseEntity.internalServerError().body(Map.of("message", "SERVER_ERROR"));
         }
-        entity.setStatus(OrderStatus.ACTIVE);
-        entity.setUid(uid);
-        entity.setCreatedAt(createAt);
-
-        spotWalletService.lockBalanceLimit(entity, uid);
-
-        BigDecimal balance;
-        String asset = "";
-        if (entity.getOrderType().equals(OrderType.BUY)) {
-            balance = entity.getPrice().multiply(entity.getQuantity());
-            asset = entity.getSymbol().split("/")[1];
-        } else {
-            balance = entity.getQuantity();
-            asset = entity.getSymbol().split("/")[0];
-        }
-        SpotWalletHistory spotWalletHistory = new SpotWalletHistory();
-        spotWalletHistory.setUserId(uid);
-        spotWalletHistory.setAsset(asset);
-        spotWalletHistory.setType("Tạo lệnh");
-        spotWalletHistory.setBalance(balance);
-        spotWalletHistory.setCreateDt(createAt);
-        spotWalletHistoryRepository.save(spotWalletHistory);
-
-        spotOrderWebsocket.broadcastOrderBooks(entity);
-
-        OrderBooks orderSaved = orderBooksRepository.saveAndFlush(entity);
-        orderBooksService.matchOrders(orderSaved);
-
-        return ResponseEntity.ok(Map.of("message", "success", "data", "Tạo Order thành công "));
     }
 
     @Transactional
@@ -107,47 +82,80 @@ public class SpotService {
         OrderBooks order = orderOpt.get();
 
         if (orderOpt.get().getStatus() == OrderStatus.ACTIVE || order.getStatus() == OrderStatus.PARTIALLY_FILLED) {
-            // For example: unlockBalance(order);
-            order.setStatus(OrderStatus.CANCELLED);
-            order.setUpdatedAt(LocalDateTime.now(ZoneId.of("Asia/Ho_Chi_Minh")));
-            orderBooksRepository.save(order);
+            // Gỡ khỏi book trong bộ nhớ và Redis để lệnh không còn được khớp
+            OrderBooks live = orderBooksService.cancelOrder(order);
+            if (live == null) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Không thể huỷ lệnh "));
+            }
+            spotWalletService.unlockRemaining(live);
+            live.setStatus(OrderStatus.CANCELLED);
+            live.setUpdatedAt(LocalDateTime.now(ZoneId.of("Asia/Ho_Chi_Minh")));
+            orderBooksRepository.save(live);
+            return ResponseEntity.ok(Map.of("message", "success", "data", "Huỷ lệnh thành công"));
         }
         return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Không thể huỷ lệnh "));
     }
 
-    public Map<String, Object> getOrderBook(String symbol, int limit) {
-        // Get BUY LIMIT orders (bids), sorted by price descending (highest first)
-        List<OrderBooks> buyOrders = orderBooksRepository.findBuyOrderBooks(symbol);
-
-        // Get SELL LIMIT orders (asks), sorted by price ascending (lowest first)
-        List<OrderBooks> sellOrders = orderBooksRepository.findSellOrderBooks(symbol);
-
-        // Aggregate orders by price level
-        List<List<String>> bids = aggregateOrdersByPrice(buyOrders, limit);
-        List<List<String>> asks = aggregateOrdersByPrice(sellOrders, limit);
+    /**
+     * Sửa giá lệnh LIMIT đang mở: gỡ khỏi book, khoá lại số dư theo giá mới rồi
+     * đưa lệnh vào matching như một lệnh mới (mất ưu tiên thời gian). Toàn bộ
+     * chạy trong một task trên lane của symbol, xem
+     * {@link OrderBooksService#amendOrderPrice}.
+     */
+    public ResponseEntity<?> amendOrder(Long orderId, BigDecimal newPrice, String header) {
+        String uid = jwtUtil.getUserIdFromToken(header.substring(7));
+        Optional<OrderBooks> orderOpt = orderBooksRepository.findById(orderId);
+        if (!orderOpt.isPresent() || !uid.equals(orderOpt.get().getUid())) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Không tìm thấy id"));
+        }
+        OrderBooks order = orderOpt.get();
+        if (!order.isLimitOrder() || newPrice == null || newPrice.signum() <= 0
+                || !symbolSpecRegistry.get(order.getSymbol()).isValidPrice(newPrice)) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Giá không hợp lệ"));
+        }
 
-        return Map.of(
-                "symbol", symbol,
-                "timestamp", System.currentTimeMillis(),
-                "bids", bids,
-                "asks", asks);
+        switch (orderBooksService.amendOrderPrice(order, newPrice)) {
+            case ACCEPTED:
+                return ResponseEntity.ok(Map.of("message", "success", "data", "Sửa lệnh thành công"));
+            case INSUFFICIENT_BALANCE:
+                return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Số dư không đủ"));
+            case BUSY:
+                return ResponseEntity.status(503).body(Map.of("message", "SERVICE_UNAVAILABLE", "data", "Hệ thống đang bận"));
+            default:
+                return ResponseEntity.badRequest().body(Map.of("message", "Bad Request", "data", "Không thể sửa lệnh "));
+        }
     }
 
-    private List<List<String>> aggregateOrdersByPrice(List<OrderBooks> orders, int limit) {
-        Map<BigDecimal, BigDecimal> priceMap = new java.util.LinkedHashMap<>();
+    /**
+     * Độ sâu từ snapshot L2 do engine khớp lệnh duy trì (không truy vấn DB).
+     */
+    public Map<String, Object> getOrderBook(String symbol, int limit) {
+        DepthBook.Snapshot depth = marketDepthService.spotSnapshot(symbol);
+        List<List<String>> bids = depth != null ? depth.bids(limit) : List.of();
+        List<List<String>> asks = depth != null ? depth.asks(limit) : List.of();
+
+        Map<String, Object> response = new java.util.LinkedHashMap<>();
+        response.put("symbol", symbol);
+        response.put("timestamp", System.currentTimeMillis());
+        response.put("lastUpdateId", depth != null ? depth.getLastUpdateId() : 0L);
+        SpotMarketStats.Snapshot stats = spotMarketStats.get(symbol);
+        response.put("lastPrice", stats != null ? stats.getLastPrice() : null);
+        response.put("bestBid", stats != null ? stats.getBestBid() : null);
+        response.put("bestAsk", stats != null ? stats.getBestAsk() : null);
+        response.put("bids", bids);
+        response.put("asks", asks);
+        return response;
+    }
 
-        for (OrderBooks order : orders) {
-            // Only aggregate LIMIT orders that are not fully filled
-            if (order.getTradeType() == TradeType.LIMIT) {
-                priceMap.merge(order.getPrice(), order.getRemainingQuantity(), BigDecimal::add);
-            }
-        }
+    /**
+     * Giá và thống kê 24h của symbol, đọc từ {@link SpotMarketStats} (không truy
+     * vấn DB).
+     */
+    public SpotMarketStats.Snapshot getTicker(String symbol) {
+        return spotMarketStats.get(symbol);
+    }
 
-        return priceMap.entrySet().stream()
-                .limit(limit)
-                .map(e -> java.util.Arrays.asList(
-                        e.getKey().toPlainString(),
-                        e.getValue().toPlainString()))
-                .collect(java.util.stream.Collectors.toList());
+    public List<SpotMarketStats.Snapshot> getTickers() {
+        return spotMarketStats.getAll();
     }
 }
@@ -0,0 +1,206 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.SpotHistory.TradeType;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thanh toán ví cho toàn bộ fill của một lần khớp. Số dư được cộng gộp theo
+ * (uid, currency), các dòng ví bị khoá bằng một câu SELECT ... FOR UPDATE theo
+ * thứ tự (uid, currency) cố định để tránh deadlock, rồi ghi lại bằng một JDBC
+ * batch. Lịch sử biến động số dư vẫn giữ một dòng cho mỗi chiều của từng fill
+ * và được insert theo batch.
+ */
+@Service
+@Slf4j
+public class SpotSettlementService {
+
+    private static final String UPDATE_WALLET_SQL = "UPDATE wallets_spot SET balance = ?, locked_balance = ? WHERE id = ?";
+
+    private static final String INSERT_HISTORY_SQL = "INSERT INTO spot_wallet_history "
+            + "(user_id, asset, type, create_dt, amount, balance) VALUES (?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public void settle(String symbol, List<SpotOrderBook.Fill> fills) {
+        if (fills.isEmpty()) {
+            return;
+        }
+        String[] parts = symbol.split("/");
+        String coin = parts[0];
+        String stableCoin = parts[1];
+
+        // Khoá theo thứ tự (uid, currency) cố định
+        TreeMap<String, WalletRow> wallets = new TreeMap<>();
+        for (SpotOrderBook.Fill fill : fills) {
+            String buyerUid = buyer(fill).getUid();
+            String sellerUid = seller(fill).getUid();
+            wallets.putIfAbsent(key(buyerUid, coin), null);
+            wallets.putIfAbsent(key(buyerUid, stableCoin), null);
+            wallets.putIfAbsent(key(sellerUid, coin), null);
+            wallets.putIfAbsent(key(sellerUid, stableCoin), null);
+        }
+        lockWallets(wallets);
+
+        LocalDateTime createDt = LocalDateTime.now(ZoneId.of("Asia/Ho_Chi_Minh"));
+        List<Object[]> history = new ArrayList<>(fills.size() * 4);
+        for (SpotOrderBook.Fill fill : fills) {
+            String buyerUid = buyer(fill).getUid();
+            String sellerUid = seller(fill).getUid();
+            WalletRow buyerCoin = wallets.get(key(buyerUid, coin));
+            WalletRow buyerStable = wallets.get(key(buyerUid, stableCoin));
+            WalletRow sellerCoin = wallets.get(key(sellerUid, coin));
+            WalletRow sellerStable = wallets.get(key(sellerUid, stableCoin));
+
+            BigDecimal quantity = fill.getQuantity();
+            BigDecimal totalCost = fill.getPrice().multiply(quantity);
+            BigDecimal lockedCost = lockedPrice(fill).multiply(quantity);
+
+            switch (tradeType(fill)) {
+                case LIMIT_LIMIT:
+                    buyerStable.payFromLocked(totalCost, lockedCost);
+                    sellerCoin.locked = sellerCoin.locked.subtract(quantity);
+                    break;
+                case MARKET_LIMIT_BUY:
+                    buyerStable.balance = buyerStable.balance.subtract(totalCost);
+                    sellerCoin.locked = sellerCoin.locked.subtract(quantity);
+                    break;
+                case MARKET_LIMIT_SELL:
+                    buyerStable.payFromLocked(totalCost, lockedCost);
+                    sellerCoin.balance = sellerCoin.balance.subtract(quantity);
+                    break;
+                case MARKET_MARKET:
+                    buyerStable.balance = buyerStable.balance.subtract(totalCost);
+                    sellerCoin.balance = sellerCoin.balance.subtract(quantity);
+                    break;
+            }
+
+            // Cộng tiền cho người nhận (LUÔN cộng vào balance)
+            buyerCoin.balance = buyerCoin.balance.add(quantity);
+            sellerStable.balance = sellerStable.balance.add(totalCost);
+
+            // Ghi nhận biến động số dư
+            history.add(historyRow(buyerUid, coin, "Nhận coin từ giao dịch", createDt, quantity, buyerCoin.balance));
+            history.add(historyRow(sellerUid, stableCoin, "Nhận tiền từ giao dịch", createDt, totalCost,
+                    sellerStable.balance));
+            history.add(historyRow(buyerUid, stableCoin, "Trừ tiền mua coin", createDt, totalCost.negate(),
+                    buyerStable.balance));
+            history.add(historyRow(sellerUid, coin, "Trừ coin bán", createDt, quantity.negate(),
+                    sellerCoin.balance));
+        }
+
+        List<Object[]> updates = new ArrayList<>(wallets.size());
+        for (WalletRow wallet : wallets.values()) {
+            updates.add(new Object[] { wallet.balance, wallet.locked, wallet.id });
+        }
+        jdbcTemplate.batchUpdate(UPDATE_WALLET_SQL, updates);
+        jdbcTemplate.batchUpdate(INSERT_HISTORY_SQL, history);
+
+        log.info("✅ Settled {} fills on {} across {} wallets", fills.size(), symbol, wallets.size());
+    }
+
+    /**
+     * Khoá và đọc các ví cần thiết bằng một câu lệnh; Postgres khoá từng dòng theo
+     * thứ tự ORDER BY nên mọi lần thanh toán đều lấy khoá theo cùng một thứ tự.
+     */
+    private void lockWallets(TreeMap<String, WalletRow> wallets) {
+        StringJoiner tuples = new StringJoiner(", ");
+        List<Object> args = new ArrayList<>(wallets.size() * 2);
+        for (String key : wallets.keySet()) {
+            int sep = key.indexOf('\u0000');
+            tuples.add("(?, ?)");
+            args.add(key.substring(0, sep));
+            args.add(key.substring(sep + 1));
+        }
+        String sql = "SELECT id, uid, currency, balance, locked_balance FROM wallets_spot "
+                + "WHERE (uid, currency) IN (" + tuples + ") ORDER BY uid, currency FOR UPDATE";
+
+        jdbcTemplate.query(sql, rs -> {
+            WalletRow wallet = new WalletRow();
+            wallet.id = rs.getLong("id");
+            wallet.balance = zeroIfNull(rs.getBigDecimal("balance"));
+            wallet.locked = zeroIfNull(rs.getBigDecimal("locked_balance"));
+            wallets.put(key(rs.getString("uid"), rs.getString("currency")), wallet);
+        }, args.toArray());
+
+        for (Map.Entry<String, WalletRow> entry : wallets.entrySet()) {
+            if (entry.getValue() == null) {
+                log.error("❌ Wallet not found for trade settlement: {}", entry.getKey().replace('\u0000', '/'));
+                throw new RuntimeException("Wallet not found for trade execution");
+            }
+        }
+    }
+
+    private static OrderBooks buyer(SpotOrderBook.Fill fill) {
+        return fill.getTaker().isBuyOrder() ? fill.getTaker() : fill.getMaker();
+    }
+
+    private static OrderBooks seller(SpotOrderBook.Fill fill) {
+        return fill.getTaker().isBuyOrder() ? fill.getMaker() : fill.getTaker();
+    }
+
+    private static TradeType tradeType(SpotOrderBook.Fill fill) {
+        OrderBooks newOrder = fill.getTaker();
+        OrderBooks oppositeOrder = fill.getMaker();
+        if (newOrder.isMarketOrder() && oppositeOrder.isMarketOrder()) {
+            return TradeType.MARKET_MARKET;
+        } else if (newOrder.isMarketOrder()) {
+            return newOrder.isBuyOrder() ? TradeType.MARKET_LIMIT_BUY : TradeType.MARKET_LIMIT_SELL;
+        } else if (oppositeOrder.isMarketOrder()) {
+            return newOrder.isBuyOrder() ? TradeType.MARKET_LIMIT_SELL : TradeType.MARKET_LIMIT_BUY;
+        }
+        return TradeType.LIMIT_LIMIT;
+    }
+
+    /** Giá đã khoá trên mỗi đơn vị của bên mua (chỉ lệnh LIMIT mới khoá tiền). */
+    private static BigDecimal lockedPrice(SpotOrderBook.Fill fill) {
+        OrderBooks buyer = buyer(fill);
+        return buyer.isMarketOrder() ? BigDecimal.ZERO : buyer.getPrice();
+    }
+
+    private static Object[] historyRow(String uid, String currency, String type, LocalDateTime createDt,
+            BigDecimal amount, BigDecimal postBalance) {
+        return new Object[] { uid, currency, type, Timestamp.valueOf(createDt), amount, postBalance };
+    }
+
+    private static String key(String uid, String currency) {
+        return uid + '\u0000' + currency;
+    }
+
+    private static BigDecimal zeroIfNull(BigDecimal value) {
+        return value != null ? value : BigDecimal.ZERO;
+    }
+
+    private static class WalletRow {
+        private long id;
+        private BigDecimal balance;
+        private BigDecimal locked;
+
+        /** Trả từ phần đã khoá, phần khoá dư (giá khớp thấp hơn giá đặt) được hoàn về balance. */
+        private void payFromLocked(BigDecimal totalCost, BigDecimal lockedCost) {
+            locked = locked.subtract(totalCost);
+            if (lockedCost.compareTo(totalCost) > 0) {
+                BigDecimal excess = lockedCost.subtract(totalCost);
+                locked = locked.subtract(excess);
+                balance = balance.add(excess);
+            }
+        }
+    }
+}
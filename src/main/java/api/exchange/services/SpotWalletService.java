@@ -3,7 +3,6 @@ package api.exchange.services;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.Arrays;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,7 +11,6 @@ import org.springframework.stereotype.Service;
 
 import api.exchange.models.SpotWallet;
 import api.exchange.models.OrderBooks;
-import api.exchange.models.SpotHistory.TradeType;
 import api.exchange.models.SpotWalletHistory;
 import api.exchange.repository.SpotWalletHistoryRepository;
 import api.exchange.repository.SpotWalletRepository;
@@ -62,136 +60,6 @@ public class SpotWalletService {
         }
     }
 
-    @Transactional
-    public void executeTradeSpot(String sellerUid, String buyerUid, BigDecimal price, BigDecimal quantity,
-            TradeType tradeType, String symbol, BigDecimal lockedPrice) {
-
-        String[] parts = symbol.split("/");
-        String coin = parts[0];
-        String stableCoin = parts[1];
-
-        BigDecimal totalCost = price.multiply(quantity);
-
-        // Use pessimistic write lock to prevent race conditions
-        SpotWallet spotBuyerCoin = spotWalletRepository.findByUidAndCurrencyWithLock(buyerUid, coin);
-        SpotWallet spotSellerCoin = spotWalletRepository.findByUidAndCurrencyWithLock(sellerUid, coin);
-        SpotWallet spotBuyerStable = spotWalletRepository.findByUidAndCurrencyWithLock(buyerUid, stableCoin);
-        SpotWallet spotSellerStable = spotWalletRepository.findByUidAndCurrencyWithLock(sellerUid, stableCoin);
-
-        // Ensure wallets exist (should be guaranteed by checkWalletRecive but good to
-        // be safe)
-        if (spotBuyerCoin == null || spotSellerCoin == null || spotBuyerStable == null || spotSellerStable == null) {
-            log.error("❌ Wallet not found for trade execution. Buyer: {}, Seller: {}, Symbol: {}", buyerUid, sellerUid,
-                    symbol);
-            throw new RuntimeException("Wallet not found for trade execution");
-        }
-
-        SpotWallet spotBuyerReceive = spotBuyerCoin;
-        SpotWallet spotBuyerSend = spotBuyerStable;
-        SpotWallet spotSellerReceive = spotSellerStable;
-        SpotWallet spotSellerSend = spotSellerCoin;
-
-        // 1. Handle Buyer's Stable Coin (Payment)
-        // If Buyer was LIMIT/MARKET BUY -> They pay Stable Coin
-        // If Buyer used LIMIT, funds were locked. If MARKET, funds are in balance.
-
-        // Logic depends on who is the "Taker" vs "Maker" effectively, but here we have
-        // explicit TradeType
-        // Actually, the TradeType passed here seems to be from the perspective of the
-        // *match*, but we need to know
-        // specifically for buyer and seller if they were LIMIT or MARKET.
-        // However, the previous logic tried to infer this from TradeType enum like
-        // LIMIT_LIMIT, MARKET_LIMIT_BUY etc.
-        // Let's stick to the robust logic:
-        // We need to know if the Buyer's order was LIMIT or MARKET.
-        // And if the Seller's order was LIMIT or MARKET.
-        // The passed 'tradeType' seems to be a combination.
-
-        // Let's simplify and assume standard behavior based on the switch case provided
-        // in original code,
-        // but FIX the balance updates.
-
-        switch (tradeType) {
-            case LIMIT_LIMIT:
-                // Both Limit. Both have funds locked.
-                // Buyer: Locked Stable -> Seller Balance Stable
-                // Seller: Locked Coin -> Buyer Balance Coin
-
-                // Buyer pays Stable (Locked)
-                spotBuyerStable.setLockedBalance(spotBuyerStable.getLockedBalance().subtract(totalCost));
-                // Refund excess if any (only if buyer locked more than needed - e.g. market
-                // price lower than limit)
-                // In LIMIT_LIMIT, usually price is match price. If buyer limit > match price,
-                // excess is returned.
-                // The 'lockedPrice' argument seems to be the buyer's original limit price?
-                // Or is it just the price of the trade?
-                // Let's assume 'lockedPrice' is what was locked per unit.
-                BigDecimal buyerLockedAmount = lockedPrice.multiply(quantity);
-                if (buyerLockedAmount.compareTo(totalCost) > 0) {
-                    spotBuyerStable.setLockedBalance(
-                            spotBuyerStable.getLockedBalance().subtract(buyerLockedAmount.subtract(totalCost)));
-                    spotBuyerStable.setBalance(spotBuyerStable.getBalance().add(buyerLockedAmount.subtract(totalCost)));
-                }
-
-                // Seller pays Coin (Locked)
-                spotSellerCoin.setLockedBalance(spotSellerCoin.getLockedBalance().subtract(quantity));
-                break;
-
-            case MARKET_LIMIT_BUY:
-                // Buyer is MARKET (Taker), Seller is LIMIT (Maker)
-                // Buyer: Balance Stable -> Seller Balance Stable
-                // Seller: Locked Coin -> Buyer Balance Coin
-
-                spotBuyerStable.setBalance(spotBuyerStable.getBalance().subtract(totalCost));
-                spotSellerCoin.setLockedBalance(spotSellerCoin.getLockedBalance().subtract(quantity));
-                break;
-
-            case MARKET_LIMIT_SELL:
-                // Buyer is LIMIT (Maker), Seller is MARKET (Taker)
-                // Buyer: Locked Stable -> Seller Balance Stable
-                // Seller: Balance Coin -> Buyer Balance Coin
-
-                spotBuyerStable.setLockedBalance(spotBuyerStable.getLockedBalance().subtract(totalCost));
-                // Refund excess for buyer
-                BigDecimal buyerLockedAmount2 = lockedPrice.multiply(quantity);
-                if (buyerLockedAmount2.compareTo(totalCost) > 0) {
-                    spotBuyerStable.setLockedBalance(
-                            spotBuyerStable.getLockedBalance().subtract(buyerLockedAmount2.subtract(totalCost)));
-                    spotBuyerStable
-                            .setBalance(spotBuyerStable.getBalance().add(buyerLockedAmount2.subtract(totalCost)));
-                }
-
-                spotSellerCoin.setBalance(spotSellerCoin.getBalance().subtract(quantity));
-                break;
-
-            case MARKET_MARKET:
-                // Both MARKET
-                // Buyer: Balance Stable -> Seller Balance Stable
-                // Seller: Balance Coin -> Buyer Balance Coin
-
-                spotBuyerStable.setBalance(spotBuyerStable.getBalance().subtract(totalCost));
-                spotSellerCoin.setBalance(spotSellerCoin.getBalance().subtract(quantity));
-                break;
-        }
-
-        // Cộng tiền cho người nhận (LUÔN cộng vào balance)
-        spotBuyerReceive.setBalance(spotBuyerReceive.getBalance().add(quantity));
-        spotSellerReceive.setBalance(spotSellerReceive.getBalance().add(totalCost));
-
-        // Ghi nhận biến động số dư
-        balanceFluctuation(buyerUid, coin, quantity, "Nhận coin từ giao dịch", spotBuyerReceive.getBalance());
-        balanceFluctuation(sellerUid, stableCoin, totalCost, "Nhận tiền từ giao dịch", spotSellerReceive.getBalance());
-        balanceFluctuation(buyerUid, stableCoin, totalCost.negate(), "Trừ tiền mua coin", spotBuyerSend.getBalance());
-        balanceFluctuation(sellerUid, coin, quantity.negate(), "Trừ coin bán", spotSellerSend.getBalance());
-
-        // Lưu tất cả ví
-        spotWalletRepository.saveAll(Arrays.asList(
-                spotBuyerReceive, spotSellerSend, spotSellerReceive, spotBuyerSend));
-
-        log.info("✅ Trade executed: {} {} @ {} - Buyer: {}, Seller: {}",
-                quantity, coin, price, buyerUid, sellerUid);
-    }
-
     @Transactional
     public void balanceFluctuation(String uid, String currency, BigDecimal amount, String type,
             BigDecimal postBalance) {
@@ -273,6 +141,44 @@ public class SpotWalletService {
         }
     }
 
+    /**
+     * Khoá thêm (delta > 0) hoặc mở khoá (delta < 0) số dư của ví.
+     *
+     * @return false nếu không đủ số dư khả dụng để khoá thêm
+     */
+    @Transactional
+    public boolean adjustLockedBalance(String uid, String currency, BigDecimal delta) {
+        SpotWallet spotWallet = spotWalletRepository.findByUidAndCurrencyWithLock(uid, currency);
+        if (spotWallet == null) {
+            return false;
+        }
+        if (delta.signum() > 0 && spotWallet.getBalance().compareTo(delta) < 0) {
+            return false;
+        }
+        spotWallet.setLockedBalance(spotWallet.getLockedBalance().add(delta));
+        spotWallet.setBalance(spotWallet.getBalance().subtract(delta));
+        spotWalletRepository.save(spotWallet);
+        return true;
+    }
+
+    /**
+     * Mở khoá số dư còn khoá cho phần chưa khớp của lệnh LIMIT (quote với lệnh
+     * mua theo giá lệnh, base với lệnh bán), khi lệnh rời book mà không khớp.
+     */
+    @Transactional
+    public void unlockRemaining(OrderBooks order) {
+        if (!order.isLimitOrder()) {
+            return;
+        }
+        String[] parts = order.getSymbol().split("/");
+        if (order.isBuyOrder()) {
+            adjustLockedBalance(order.getUid(), parts[1],
+                    order.getPrice().multiply(order.getRemainingQuantity()).negate());
+        } else {
+            adjustLockedBalance(order.getUid(), parts[0], order.getRemainingQuantity().negate());
+        }
+    }
+
     @Transactional
     public void checkWalletRecive(OrderBooks entity, String uid) {
         String[] parts = entity.getSymbol().split("/");
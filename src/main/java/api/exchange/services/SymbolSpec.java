@@ -0,0 +1,84 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Bước giá (tick) và bước khối lượng (lot) của một symbol. Matching engine làm
+ * việc trên số nguyên: giá = số tick, khối lượng = số lot. BigDecimal chỉ dùng
+ * khi nhận lệnh từ API và khi ghi xuống DB.
+ */
+public class SymbolSpec {
+
+    private final String symbol;
+    private final BigDecimal tickSize;
+    private final BigDecimal lotSize;
+
+    public SymbolSpec(String symbol, BigDecimal tickSize, BigDecimal lotSize) {
+        this.symbol = symbol;
+        this.tickSize = tickSize.stripTrailingZeros();
+        this.lotSize = lotSize.stripTrailingZeros();
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public BigDecimal getTickSize() {
+        return tickSize;
+    }
+
+    public BigDecimal getLotSize() {
+        return lotSize;
+    }
+
+    public boolean isValidPrice(BigDecimal price) {
+        return isMultiple(price, tickSize);
+    }
+
+    public boolean isValidQuantity(BigDecimal quantity) {
+        return isMultiple(quantity, lotSize);
+    }
+
+    /**
+     * @throws ArithmeticException nếu giá không chia hết cho tick size
+     */
+    public long toTicks(BigDecimal price) {
+        return price.divide(tickSize).longValueExact();
+    }
+
+    /**
+     * Quy giá bất kỳ (giá tính toán, giá từ sàn ngoài) về tick theo chiều làm
+     * tròn cho trước.
+     */
+    public long toTicks(BigDecimal price, RoundingMode roundingMode) {
+        return price.divide(tickSize, 0, roundingMode).longValueExact();
+    }
+
+    /**
+     * @throws ArithmeticException nếu khối lượng không chia hết cho lot size
+     */
+    public long toLots(BigDecimal quantity) {
+        return quantity.divide(lotSize).longValueExact();
+    }
+
+    public BigDecimal priceOf(long ticks) {
+        return tickSize.multiply(BigDecimal.valueOf(ticks));
+    }
+
+    public BigDecimal quantityOf(long lots) {
+        return lotSize.multiply(BigDecimal.valueOf(lots));
+    }
+
+    private static boolean isMultiple(BigDecimal value, BigDecimal step) {
+        if (value == null) {
+            return false;
+        }
+        try {
+            value.divide(step).longValueExact();
+            return true;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+}
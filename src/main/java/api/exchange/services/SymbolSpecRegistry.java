@@ -0,0 +1,59 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Metadata tick/lot của các symbol spot và futures, đọc từ cấu hình
+ * {@code spot.symbol-specs=BTC/USDT:0.01:0.00001,...} và
+ * {@code futures.symbol-specs=BTCUSDT:0.1:0.001,...} (tên symbol hai loại không
+ * trùng nhau). Symbol không được cấu hình dùng tick/lot mặc định (khớp với
+ * scale 8 của cột price/quantity).
+ */
+@Component
+@Slf4j
+public class SymbolSpecRegistry {
+
+    @Value("${spot.symbol-specs:}")
+    private String symbolSpecs;
+
+    @Value("${futures.symbol-specs:}")
+    private String futuresSymbolSpecs;
+
+    @Value("${spot.default-tick-size:0.00000001}")
+    private BigDecimal defaultTickSize;
+
+    @Value("${spot.default-lot-size:0.00000001}")
+    private BigDecimal defaultLotSize;
+
+    private final Map<String, SymbolSpec> specs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void load() {
+        parse(symbolSpecs);
+        parse(futuresSymbolSpecs);
+        log.info("📐 Loaded {} symbol specs", specs.size());
+    }
+
+    public SymbolSpec get(String symbol) {
+        return specs.computeIfAbsent(symbol, s -> new SymbolSpec(s, defaultTickSize, defaultLotSize));
+    }
+
+    private void parse(String config) {
+        for (String entry : config.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 3) {
+                continue;
+            }
+            SymbolSpec spec = new SymbolSpec(parts[0], new BigDecimal(parts[1]), new BigDecimal(parts[2]));
+            specs.put(spec.getSymbol(), spec);
+        }
+    }
+}
@@ -63,6 +63,9 @@ public class TransferService {
     @Autowired
     private FuturesWalletRepository futuresWalletRepository;
 
+    @Autowired
+    private FuturesRiskEngine futuresRiskEngine;
+
     @Autowired
     private FuturesTransactionRepository futuresTransactionRepository;
 
@@ -417,6 +420,7 @@ public class TransferService {
 
         spotWalletRepository.save(spotWallet);
         futuresWalletRepository.save(futuresWallet);
+        futuresRiskEngine.onAccountChanged(futuresWallet.getUid());
 
         recordSpotHistory(uid, currency, amount.negate(), "Transfer to Futures Wallet", spotWallet.getBalance());
         recordFuturesTransaction(uid, currency, amount, FuturesTransaction.TransactionType.TRANSFER_IN);
@@ -447,6 +451,7 @@ public class TransferService {
         spotWallet.setBalance(spotWallet.getBalance().add(amount));
 
         futuresWalletRepository.save(futuresWallet);
+        futuresRiskEngine.onAccountChanged(futuresWallet.getUid());
         spotWalletRepository.save(spotWallet);
 
         recordFuturesTransaction(uid, currency, amount, FuturesTransaction.TransactionType.TRANSFER_OUT);
@@ -476,6 +481,7 @@ public class TransferService {
 
         fundingWalletRepository.save(fundingWallet);
         futuresWalletRepository.save(futuresWallet);
+        futuresRiskEngine.onAccountChanged(futuresWallet.getUid());
 
         recordFundingHistory(uid, currency, amount.negate(), "Transfer to Futures Wallet", fundingWallet.getBalance());
         recordFuturesTransaction(uid, currency, amount, FuturesTransaction.TransactionType.TRANSFER_IN);
@@ -506,6 +512,7 @@ public class TransferService {
         fundingWallet.setBalance(fundingWallet.getBalance().add(amount));
 
         futuresWalletRepository.save(futuresWallet);
+        futuresRiskEngine.onAccountChanged(futuresWallet.getUid());
         fundingWalletRepository.save(fundingWallet);
 
         recordFuturesTransaction(uid, currency, amount, FuturesTransaction.TransactionType.TRANSFER_OUT);
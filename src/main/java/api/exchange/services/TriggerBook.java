@@ -0,0 +1,126 @@
+package api.exchange.services;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import api.exchange.models.FuturesOrder;
+
+/**
+ * Các lệnh điều kiện (STOP_*, TAKE_PROFIT_*) đang chờ của một symbol và một loại
+ * giá kích hoạt, sắp theo stopPrice (tick của {@link SymbolSpec}). Lệnh chờ giá
+ * tăng nằm trong cây tăng dần, lệnh chờ giá giảm trong cây giảm dần, nên mỗi lần
+ * giá thay đổi chỉ lấy ra các lệnh ở đầu cây đã bị cắt qua.
+ * Không thread-safe: chỉ lane futures của symbol được phép ghi.
+ */
+public class TriggerBook {
+
+    private final SymbolSpec spec;
+
+    // Kích hoạt khi giá ≥ stopPrice: stopPrice thấp nhất trước
+    private final TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> rising = new TreeMap<>();
+    // Kích hoạt khi giá ≤ stopPrice: stopPrice cao nhất trước
+    private final TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> falling = new TreeMap<>(
+            Collections.reverseOrder());
+
+    private final Map<Long, FuturesOrder> orderIndex = new HashMap<>();
+
+    public TriggerBook(SymbolSpec spec) {
+        this.spec = spec;
+    }
+
+    public void add(FuturesOrder order) {
+        sideOf(order).computeIfAbsent(ticksOf(order), p -> new LinkedHashMap<>()).put(order.getId(), order);
+        orderIndex.put(order.getId(), order);
+    }
+
+    /**
+     * @return lệnh đã gỡ, hoặc null nếu lệnh không còn chờ (đã kích hoạt)
+     */
+    public FuturesOrder remove(Long orderId) {
+        FuturesOrder order = orderIndex.remove(orderId);
+        if (order == null) {
+            return null;
+        }
+        TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> side = sideOf(order);
+        long stopTicks = ticksOf(order);
+        LinkedHashMap<Long, FuturesOrder> level = side.get(stopTicks);
+        if (level != null) {
+            level.remove(orderId);
+            if (level.isEmpty()) {
+                side.remove(stopTicks);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Lấy ra mọi lệnh có stopPrice bị giá cắt qua, theo thứ tự stopPrice gần giá
+     * cũ nhất trước rồi tới thời gian đặt.
+     */
+    public List<FuturesOrder> popTriggered(BigDecimal price) {
+        long priceTicks = spec.toTicks(price, RoundingMode.HALF_UP);
+        List<FuturesOrder> triggered = new ArrayList<>();
+        popWhile(rising, triggered, priceTicks, true);
+        popWhile(falling, triggered, priceTicks, false);
+        return triggered;
+    }
+
+    private void popWhile(TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> side, List<FuturesOrder> triggered,
+            long priceTicks, boolean isRising) {
+        Iterator<Map.Entry<Long, LinkedHashMap<Long, FuturesOrder>>> levels = side.entrySet().iterator();
+        while (levels.hasNext()) {
+            Map.Entry<Long, LinkedHashMap<Long, FuturesOrder>> level = levels.next();
+            boolean hit = isRising ? priceTicks >= level.getKey() : priceTicks <= level.getKey();
+            if (!hit) {
+                return;
+            }
+            for (FuturesOrder order : level.getValue().values()) {
+                orderIndex.remove(order.getId());
+                triggered.add(order);
+            }
+            levels.remove();
+        }
+    }
+
+    public boolean isEmpty() {
+        return orderIndex.isEmpty();
+    }
+
+    public int size() {
+        return orderIndex.size();
+    }
+
+    private TreeMap<Long, LinkedHashMap<Long, FuturesOrder>> sideOf(FuturesOrder order) {
+        return triggersOnRise(order) ? rising : falling;
+    }
+
+    private long ticksOf(FuturesOrder order) {
+        return spec.toTicks(order.getStopPrice(), RoundingMode.HALF_UP);
+    }
+
+    /**
+     * STOP mua và TAKE_PROFIT bán chờ giá tăng; STOP bán và TAKE_PROFIT mua chờ
+     * giá giảm.
+     */
+    public static boolean triggersOnRise(FuturesOrder order) {
+        boolean buy = order.getSide() == FuturesOrder.OrderSide.BUY;
+        return isStop(order.getType()) ? buy : !buy;
+    }
+
+    public static boolean isTrigger(FuturesOrder.OrderType type) {
+        return isStop(type) || type == FuturesOrder.OrderType.TAKE_PROFIT_MARKET
+                || type == FuturesOrder.OrderType.TAKE_PROFIT_LIMIT;
+    }
+
+    private static boolean isStop(FuturesOrder.OrderType type) {
+        return type == FuturesOrder.OrderType.STOP_MARKET || type == FuturesOrder.OrderType.STOP_LIMIT;
+    }
+}
@@ -15,16 +15,17 @@ import java.util.concurrent.TimeUnit;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import api.exchange.dtos.Response.FuturesMarketResponse;
+import api.exchange.proto.MarketDataProto;
+import api.exchange.services.BinanceFrameDecoder;
+import api.exchange.services.MarketDataIngest;
 
 public class FuturesMarketWebSocket extends WebSocketClient {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private final MarketDataFanout marketDataFanout;
     private final ObjectMapper objectMapper;
     private final Map<String, BigDecimal> supplyMap;
 
@@ -65,16 +66,33 @@ public class FuturesMarketWebSocket extends WebSocketClient {
 
     private final api.exchange.services.FuturesDataService futuresDataService;
     private final api.exchange.services.RedisCacheService redisCacheService;
+    private final api.exchange.services.FuturesPriceRegistry futuresPriceRegistry;
 
-    public FuturesMarketWebSocket(URI uri, SimpMessagingTemplate messagingTemplate, ObjectMapper objectMapper,
+    // Giải mã streaming, chỉ giữ các symbol theo dõi; chỉ worker của ingest stream dùng
+    private final BinanceFrameDecoder frameDecoder;
+
+    // Mark price mỗi frame là ảnh chụp đủ mọi symbol nên gộp được; frame !ticker@arr
+    // chỉ chứa symbol vừa đổi và aggTrade cộng dồn volume nên giữ nguyên thứ tự
+    private static final String MARK_PRICE_STREAM = "!markPrice@arr@1s";
+    private final MarketDataIngest.IngestStream ingestStream;
+
+    public FuturesMarketWebSocket(URI uri, MarketDataFanout marketDataFanout, ObjectMapper objectMapper,
             Map<String, BigDecimal> supplyMap, api.exchange.services.FuturesDataService futuresDataService,
-            api.exchange.services.RedisCacheService redisCacheService) {
+            api.exchange.services.RedisCacheService redisCacheService,
+            api.exchange.services.FuturesPriceRegistry futuresPriceRegistry, MarketDataIngest marketDataIngest) {
         super(uri);
-        this.messagingTemplate = messagingTemplate;
+        this.marketDataFanout = marketDataFanout;
         this.objectMapper = objectMapper;
         this.supplyMap = supplyMap;
         this.futuresDataService = futuresDataService;
         this.redisCacheService = redisCacheService;
+        this.futuresPriceRegistry = futuresPriceRegistry;
+        this.frameDecoder = new BinanceFrameDecoder(objectMapper.getFactory(),
+                LOGO_URLS.keySet().stream().map(coinId -> coinId + "USDT").toList());
+        this.ingestStream = marketDataIngest.open("futures-market", frame -> {
+            String stream = MarketDataIngest.streamOf(frame);
+            return MARK_PRICE_STREAM.equals(stream) ? stream : null;
+        }, this::process);
     }
 
     @Override
@@ -104,7 +122,9 @@ public class FuturesMarketWebSocket extends WebSocketClient {
             try {
                 if (!marketDataCache.isEmpty()) {
                     List<FuturesMarketResponse> allMarkets = new ArrayList<>(marketDataCache.values());
-                    messagingTemplate.convertAndSend("/topic/futures/markets", allMarkets);
+                    marketDataFanout.publish("/topic/futures/markets", allMarkets);
+                    marketDataFanout.publish("/topic/futures/markets-binary",
+                            MarketDataProto.encoder().futuresMarketBatch(allMarkets));
                 }
             } catch (Exception e) {
                 System.err.println("❌ Error broadcasting all markets: " + e.getMessage());
@@ -127,90 +147,91 @@ public class FuturesMarketWebSocket extends WebSocketClient {
 
     @Override
     public void onMessage(String message) {
-        try {
-            JsonNode jsonNode = objectMapper.readTree(message);
-
-            if (jsonNode.has("stream") && jsonNode.has("data")) {
-                String stream = jsonNode.get("stream").asText();
-                JsonNode data = jsonNode.get("data");
-
-                if (stream.equals("!ticker@arr")) {
-                    processTickerData(data);
-                } else if (stream.equals("!markPrice@arr@1s")) {
-                    processMarkPriceData(data);
-                } else if (stream.endsWith("@aggTrade")) {
-                    processAggTradeData(data);
-                }
-            }
+        ingestStream.offer(message);
+    }
 
+    private void process(String message) {
+        try {
+            frameDecoder.decode(message, this::onEvent);
         } catch (Exception e) {
             System.err.println("❌ Error processing Futures WebSocket message: " + e.getMessage());
         }
     }
 
-    private void processTickerData(JsonNode dataArray) {
-        if (dataArray.isArray()) {
-            for (JsonNode node : dataArray) {
-                String symbol = node.path("s").asText().toUpperCase();
-
-                // Only process symbols we care about (from LOGO_URLS keys + USDT)
-                String coinId = symbol.replace("USDT", "");
-                if (!LOGO_URLS.containsKey(coinId))
-                    continue;
-
-                marketDataCache.compute(symbol, (k, v) -> {
-                    if (v == null)
-                        v = new FuturesMarketResponse();
-
-                    v.setSymbol(symbol);
-                    v.setLastPrice(new BigDecimal(node.path("c").asText("0")));
-                    v.setPriceChange24h(new BigDecimal(node.path("p").asText("0")));
-                    v.setPriceChangePercent(new BigDecimal(node.path("P").asText("0")));
-                    v.setHighPrice24h(new BigDecimal(node.path("h").asText("0")));
-                    v.setLowPrice24h(new BigDecimal(node.path("l").asText("0")));
-                    v.setVolume24h(new BigDecimal(node.path("v").asText("0"))); // Base Volume
-                    v.setQuoteVolume24h(new BigDecimal(node.path("q").asText("0"))); // Quote Volume
-                    v.setTimestamp(node.path("E").asLong());
-
-                    // Calculate Market Cap
-                    BigDecimal supply = supplyMap.getOrDefault(coinId, BigDecimal.ZERO);
-                    v.setMarketCap(v.getLastPrice().multiply(supply));
-
-                    // Defaults if missing
-                    if (v.getLogoUrl() == null)
-                        v.setLogoUrl(LOGO_URLS.getOrDefault(coinId, ""));
-                    if (v.getOpenInterest() == null)
-                        v.setOpenInterest(BigDecimal.ZERO);
-
-                    return v;
-                });
-            }
+    private void onEvent(BinanceFrameDecoder.Event event) {
+        switch (event.getType()) {
+            case BinanceFrameDecoder.TICKER:
+                processTickerData(event);
+                break;
+            case BinanceFrameDecoder.MARK_PRICE:
+                processMarkPriceData(event);
+                break;
+            case BinanceFrameDecoder.AGG_TRADE:
+                processAggTradeData(event);
+                break;
+            default:
+                break;
         }
     }
 
-    private void processMarkPriceData(JsonNode dataArray) {
-        if (dataArray.isArray()) {
-            for (JsonNode node : dataArray) {
-                String symbol = node.path("s").asText().toUpperCase();
-                BigDecimal price = new BigDecimal(node.path("p").asText("0"));
-
-                // Update cache if exists
-                if (marketDataCache.containsKey(symbol)) {
-                    FuturesMarketResponse response = marketDataCache.get(symbol);
-                    response.setMarkPrice(price);
-                    response.setIndexPrice(new BigDecimal(node.path("i").asText("0")));
-                    response.setFundingRate(new BigDecimal(node.path("r").asText("0")));
-                    response.setNextFundingTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(node.path("T").asLong()),
-                            ZoneId.systemDefault()));
-                }
+    private void processTickerData(BinanceFrameDecoder.Event node) {
+        // Decoder đã bỏ các symbol không theo dõi (LOGO_URLS keys + USDT)
+        String symbol = node.getSymbol();
+        String coinId = symbol.substring(0, symbol.length() - "USDT".length());
+        BigDecimal lastPrice = node.bigDecimal('c');
+
+        futuresPriceRegistry.onLastPrice(symbol, lastPrice);
+
+        marketDataCache.compute(symbol, (k, v) -> {
+            if (v == null)
+                v = new FuturesMarketResponse();
+
+            v.setSymbol(symbol);
+            v.setLastPrice(lastPrice);
+            v.setPriceChange24h(node.bigDecimal('p'));
+            v.setPriceChangePercent(node.bigDecimal('P'));
+            v.setHighPrice24h(node.bigDecimal('h'));
+            v.setLowPrice24h(node.bigDecimal('l'));
+            v.setVolume24h(node.bigDecimal('v')); // Base Volume
+            v.setQuoteVolume24h(node.bigDecimal('q')); // Quote Volume
+            v.setTimestamp(node.getLong('E'));
+
+            // Calculate Market Cap
+            BigDecimal supply = supplyMap.getOrDefault(coinId, BigDecimal.ZERO);
+            v.setMarketCap(v.getLastPrice().multiply(supply));
+
+            // Defaults if missing
+            if (v.getLogoUrl() == null)
+                v.setLogoUrl(LOGO_URLS.getOrDefault(coinId, ""));
+            if (v.getOpenInterest() == null)
+                v.setOpenInterest(BigDecimal.ZERO);
+
+            return v;
+        });
+    }
 
-                // Process 1s kline for tracked symbols
-                String coinId = symbol.replace("USDT", "");
-                if (LOGO_URLS.containsKey(coinId)) {
-                    process1sKline(symbol, price);
-                }
-            }
+    private void processMarkPriceData(BinanceFrameDecoder.Event node) {
+        String symbol = node.getSymbol();
+        BigDecimal price = node.bigDecimal('p');
+        BigDecimal indexPrice = node.bigDecimal('i');
+        BigDecimal fundingRate = node.bigDecimal('r');
+        long nextFundingTime = node.getLong('T');
+
+        // Giá dùng chung cho định giá vị thế và thanh lý
+        futuresPriceRegistry.onMarkPrice(symbol, price, indexPrice, fundingRate, nextFundingTime);
+
+        // Update cache if exists
+        FuturesMarketResponse response = marketDataCache.get(symbol);
+        if (response != null) {
+            response.setMarkPrice(price);
+            response.setIndexPrice(indexPrice);
+            response.setFundingRate(fundingRate);
+            response.setNextFundingTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(nextFundingTime),
+                    ZoneId.systemDefault()));
         }
+
+        // Process 1s kline for tracked symbols
+        process1sKline(symbol, price);
     }
 
     private void process1sKline(String symbol, BigDecimal price) {
@@ -236,6 +257,7 @@ public class FuturesMarketWebSocket extends WebSocketClient {
             // Format: /topic/futures/kline/1s/{symbol}
             String topic = "/topic/futures/kline/1s/" + symbol.toLowerCase();
 
+            long openTime = now.atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli();
             Map<String, Object> klineData = new java.util.HashMap<>();
             klineData.put("s", symbol);
             klineData.put("o", price);
@@ -243,10 +265,13 @@ public class FuturesMarketWebSocket extends WebSocketClient {
             klineData.put("h", price);
             klineData.put("l", price);
             klineData.put("v", volume);
-            klineData.put("t", now.atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli());
+            klineData.put("t", openTime);
             klineData.put("i", "1s");
 
-            messagingTemplate.convertAndSend(topic, klineData);
+            marketDataFanout.publish(topic, klineData);
+            marketDataFanout.publish("/topic/futures/kline-binary/1s/" + symbol.toLowerCase(),
+                    MarketDataProto.encoder().kline(symbol, "1s", price, price, price, price, volume, openTime,
+                            openTime + 999, true));
 
         } catch (Exception e) {
             String msg = e.getMessage();
@@ -261,10 +286,10 @@ public class FuturesMarketWebSocket extends WebSocketClient {
     /**
      * Process aggregated trade data to accumulate volume per second
      */
-    private void processAggTradeData(JsonNode data) {
+    private void processAggTradeData(BinanceFrameDecoder.Event data) {
         try {
-            String symbol = data.path("s").asText().toUpperCase();
-            BigDecimal quantity = new BigDecimal(data.path("q").asText("0"));
+            String symbol = data.getSymbol();
+            BigDecimal quantity = data.bigDecimal('q');
 
             // Accumulate volume for current second
             currentSecondVolume.compute(symbol, (k, v) -> v == null ? quantity : v.add(quantity));
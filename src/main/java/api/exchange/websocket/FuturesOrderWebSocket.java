@@ -1,6 +1,9 @@
 package api.exchange.websocket;
 
+import api.exchange.dtos.Response.FuturesWalletResponse;
 import api.exchange.models.FuturesOrder;
+import api.exchange.proto.MarketDataProto;
+import api.exchange.services.DepthBook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
@@ -14,21 +17,26 @@ public class FuturesOrderWebSocket {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private MarketDataFanout marketDataFanout;
+
     /**
-     * Broadcast order book update to all subscribers of a symbol
-     * Topic: /topic/futures/orderbook/{symbol}
+     * Broadcast depth diff (changed price levels since the previous diff)
+     * Topic: /topic/futures/orderbook/{symbol}, binary: /topic/futures/orderbook-binary/{symbol}
      */
-    public void broadcastOrderBookUpdate(FuturesOrder order) {
+    public void broadcastDepthDiff(DepthBook.Diff diff) {
         Map<String, Object> update = new HashMap<>();
-        update.put("action", "UPDATE"); // or DELETE if filled/cancelled?
-        update.put("symbol", order.getSymbol());
-        update.put("side", order.getSide());
-        update.put("price", order.getPrice());
-        update.put("quantity", order.getQuantity()); // Remaining quantity
-        update.put("status", order.getStatus());
-        update.put("timestamp", System.currentTimeMillis());
+        update.put("e", "depthUpdate");
+        update.put("s", diff.getSymbol());
+        update.put("U", diff.getFirstUpdateId());
+        update.put("u", diff.getLastUpdateId());
+        update.put("E", diff.getTimestamp());
+        update.put("b", diff.getBids());
+        update.put("a", diff.getAsks());
 
-        messagingTemplate.convertAndSend("/topic/futures/orderbook/" + order.getSymbol(), update);
+        marketDataFanout.publish("/topic/futures/orderbook/" + diff.getSymbol(), update);
+        marketDataFanout.publish("/topic/futures/orderbook-binary/" + diff.getSymbol(),
+                MarketDataProto.encoder().depthDiff(diff));
     }
 
     /**
@@ -38,4 +46,17 @@ public class FuturesOrderWebSocket {
     public void sendUserOrderUpdate(FuturesOrder order) {
         messagingTemplate.convertAndSend("/topic/futures/orders/" + order.getUid(), order);
     }
+
+    /**
+     * Send account risk update (balance, unrealized PnL, margin ratio) to the user
+     * Topic: /topic/futures/orders/{uid}
+     */
+    public void sendUserAccountUpdate(String uid, FuturesWalletResponse account) {
+        Map<String, Object> update = new HashMap<>();
+        update.put("event", "ACCOUNT_UPDATE");
+        update.put("account", account);
+        update.put("timestamp", System.currentTimeMillis());
+
+        messagingTemplate.convertAndSend("/topic/futures/orders/" + uid, update);
+    }
 }
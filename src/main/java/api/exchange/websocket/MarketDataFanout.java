@@ -0,0 +1,345 @@
+package api.exchange.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Đường fan-out cho các topic market data, đi song song với simple broker.
+ * Payload được convert một lần (cùng message converter của
+ * {@link SimpMessagingTemplate}), frame STOMP MESSAGE được encode một lần cho
+ * mỗi subscription id khác nhau (client cùng phiên bản front-end dùng chung id
+ * như {@code sub-0}), rồi cùng mảng byte bất biến đó được ghi thẳng vào mọi
+ * session đang subscribe. Simple broker thì encode lại frame cho từng session.
+ *
+ * Subscription dạng pattern (ví dụ {@code /topic/futures/orderbook/*}) được
+ * khớp bằng {@link AntPathMatcher} giống simple broker.
+ *
+ * Session được giữ qua {@link #decorate(WebSocketHandler)} (đăng ký trong
+ * {@code WebSocketConfig}) và bọc {@link ConcurrentWebSocketSessionDecorator}
+ * trước khi giao cho handler STOMP, nên frame fan-out và frame của broker
+ * được gửi tuần tự trên cùng một session.
+ */
+@Service
+@Slf4j
+public class MarketDataFanout {
+
+    @Value("${market-data.fanout.send-time-limit-ms:10000}")
+    private int sendTimeLimit;
+
+    @Value("${market-data.fanout.buffer-size-limit:524288}")
+    private int bufferSizeLimit;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // sessionId -> session đã bọc
+    private final Map<String, FanoutSession> sessions = new ConcurrentHashMap<>();
+    // destination (hoặc pattern) -> subscription đang nhận
+    private final Map<String, Set<Subscription>> destinations = new ConcurrentHashMap<>();
+    // Các key của destinations là pattern, duyệt ở mỗi publish
+    private final Set<String> patterns = ConcurrentHashMap.newKeySet();
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+    // sessionId -> (subscriptionId -> destination), để gỡ khi UNSUBSCRIBE/DISCONNECT
+    private final Map<String, Map<String, String>> sessionSubscriptions = new ConcurrentHashMap<>();
+
+    private final AtomicLong messageIds = new AtomicLong();
+    private Timer fanoutTimer;
+    private Counter framesCounter;
+    private Counter failedCounter;
+
+    @PostConstruct
+    public void init() {
+        fanoutTimer = Timer.builder("market-data.fanout.time").register(meterRegistry);
+        framesCounter = Counter.builder("market-data.fanout.frames").register(meterRegistry);
+        failedCounter = Counter.builder("market-data.fanout.failed").register(meterRegistry);
+    }
+
+    /**
+     * Gửi payload tới mọi session đang subscribe destination. Không có
+     * subscriber thì payload không được serialize.
+     */
+    public void publish(String destination, Object payload) {
+        List<Set<Subscription>> subscribers = subscribersOf(destination);
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        long startedAt = System.nanoTime();
+        Message<?> converted = messagingTemplate.getMessageConverter().toMessage(payload, null);
+        if (converted == null || !(converted.getPayload() instanceof byte[] body)) {
+            log.warn("⚠️ No converter produced a byte payload for {}", destination);
+            return;
+        }
+        MimeType contentType = contentTypeOf(converted.getHeaders());
+        boolean binary = body.length > 0 && contentType != null
+                && MimeTypeUtils.APPLICATION_OCTET_STREAM.isCompatibleWith(contentType);
+        String head = "MESSAGE\ndestination:" + escape(destination)
+                + (contentType != null ? "\ncontent-type:" + escape(contentType.toString()) : "")
+                + "\nmessage-id:" + messageIds.incrementAndGet()
+                + "\ncontent-length:" + body.length
+                + "\nsubscription:";
+
+        // Thường chỉ một vài subscription id khác nhau cho mọi client
+        Map<String, Frame> frames = new HashMap<>(4);
+        int sent = 0;
+        for (Set<Subscription> group : subscribers) {
+            for (Subscription subscription : group) {
+                FanoutSession session = sessions.get(subscription.sessionId());
+                if (session == null) {
+                    continue;
+                }
+                Frame frame = frames.computeIfAbsent(subscription.subscriptionId(),
+                        id -> Frame.encode(head, id, body));
+                try {
+                    session.send(frame, binary);
+                    sent++;
+                } catch (Exception e) {
+                    failedCounter.increment();
+                    log.debug("Fan-out to session {} failed: {}", subscription.sessionId(), e.getMessage());
+                }
+            }
+        }
+        framesCounter.increment(sent);
+        fanoutTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Bọc handler WebSocket của endpoint STOMP để giữ lại session.
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new SessionCapturingHandler(handler);
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        String destination = accessor.getDestination();
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        sessionSubscriptions.computeIfAbsent(sessionId, s -> new ConcurrentHashMap<>()).put(subscriptionId, destination);
+        // compute để không chen giữa lúc removeSubscriber gỡ set rỗng
+        destinations.compute(destination, (d, subscribers) -> {
+            Set<Subscription> updated = subscribers != null ? subscribers : ConcurrentHashMap.newKeySet();
+            updated.add(new Subscription(sessionId, subscriptionId));
+            if (pathMatcher.isPattern(d)) {
+                patterns.add(d);
+            }
+            return updated;
+        });
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String subscriptionId = accessor.getSubscriptionId();
+        if (sessionId == null || subscriptionId == null) {
+            return;
+        }
+        Map<String, String> subscriptions = sessionSubscriptions.get(sessionId);
+        String destination = subscriptions != null ? subscriptions.remove(subscriptionId) : null;
+        if (destination != null) {
+            removeSubscriber(destination, new Subscription(sessionId, subscriptionId));
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        removeSession(event.getSessionId());
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private void removeSession(String sessionId) {
+        sessions.remove(sessionId);
+        Map<String, String> subscriptions = sessionSubscriptions.remove(sessionId);
+        if (subscriptions == null) {
+            return;
+        }
+        subscriptions.forEach((subscriptionId, destination) -> removeSubscriber(destination,
+                new Subscription(sessionId, subscriptionId)));
+    }
+
+    private void removeSubscriber(String destination, Subscription subscription) {
+        destinations.computeIfPresent(destination, (d, subscribers) -> {
+            subscribers.remove(subscription);
+            if (!subscribers.isEmpty()) {
+                return subscribers;
+            }
+            patterns.remove(d);
+            return null;
+        });
+    }
+
+    // Subscription theo đúng destination cộng với các pattern khớp destination
+    private List<Set<Subscription>> subscribersOf(String destination) {
+        List<Set<Subscription>> groups = new ArrayList<>(1);
+        Set<Subscription> exact = destinations.get(destination);
+        if (exact != null && !exact.isEmpty()) {
+            groups.add(exact);
+        }
+        for (String pattern : patterns) {
+            if (pathMatcher.match(pattern, destination)) {
+                Set<Subscription> matched = destinations.get(pattern);
+                if (matched != null && !matched.isEmpty()) {
+                    groups.add(matched);
+                }
+            }
+        }
+        return groups;
+    }
+
+    private static MimeType contentTypeOf(MessageHeaders headers) {
+        Object value = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (value instanceof MimeType mimeType) {
+            return mimeType;
+        }
+        return value != null ? MimeTypeUtils.parseMimeType(value.toString()) : null;
+    }
+
+    // Escape giá trị header theo STOMP 1.2
+    private static String escape(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf(':') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace(":", "\\c").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private record Subscription(String sessionId, String subscriptionId) {
+    }
+
+    /**
+     * Frame STOMP đã encode, bất biến và dùng chung cho mọi session cùng
+     * subscription id. Session SockJS chỉ nhận text nên dùng chung một
+     * {@link TextMessage}; session WebSocket thuần nhận {@link BinaryMessage}
+     * bọc cùng mảng byte (mỗi session một ByteBuffer vì position thay đổi khi gửi).
+     */
+    private static final class Frame {
+        private final byte[] bytes;
+        private TextMessage text;
+
+        private Frame(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        static Frame encode(String head, String subscriptionId, byte[] body) {
+            byte[] header = (head + escape(subscriptionId) + "\n\n").getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = new byte[header.length + body.length + 1];
+            System.arraycopy(header, 0, bytes, 0, header.length);
+            System.arraycopy(body, 0, bytes, header.length, body.length);
+            // byte cuối là NULL kết thúc frame
+            return new Frame(bytes);
+        }
+
+        // Chỉ thread đang publish truy cập
+        TextMessage text() {
+            if (text == null) {
+                text = new TextMessage(bytes);
+            }
+            return text;
+        }
+    }
+
+    private static final class FanoutSession {
+        private final WebSocketSession session;
+        private final boolean sockJs;
+
+        FanoutSession(WebSocketSession session, boolean sockJs) {
+            this.session = session;
+            this.sockJs = sockJs;
+        }
+
+        void send(Frame frame, boolean binary) throws Exception {
+            WebSocketMessage<?> message = binary && !sockJs ? new BinaryMessage(frame.bytes) : frame.text();
+            session.sendMessage(message);
+        }
+    }
+
+    /**
+     * Thay session gốc bằng bản bọc {@link ConcurrentWebSocketSessionDecorator}
+     * ở mọi callback, để handler STOMP và fan-out gửi qua cùng một hàng đợi.
+     */
+    private final class SessionCapturingHandler extends WebSocketHandlerDecorator {
+
+        SessionCapturingHandler(WebSocketHandler delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+            WebSocketSession concurrent = new ConcurrentWebSocketSessionDecorator(session, sendTimeLimit,
+                    bufferSizeLimit);
+            sessions.put(session.getId(), new FanoutSession(concurrent,
+                    WebSocketSessionDecorator.unwrap(session) instanceof SockJsSession));
+            super.afterConnectionEstablished(concurrent);
+        }
+
+        @Override
+        public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+            super.handleMessage(wrapped(session), message);
+        }
+
+        @Override
+        public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
+            super.handleTransportError(wrapped(session), exception);
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+            WebSocketSession wrapped = wrapped(session);
+            removeSession(session.getId());
+            super.afterConnectionClosed(wrapped, closeStatus);
+        }
+
+        private WebSocketSession wrapped(WebSocketSession session) {
+            FanoutSession fanoutSession = sessions.get(session.getId());
+            return fanoutSession != null ? fanoutSession.session : session;
+        }
+    }
+}
@@ -4,21 +4,24 @@ import java.net.URI;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 
 import api.exchange.dtos.Response.CoinSpotResponse;
-import api.exchange.proto.MarketDataProto;
+import api.exchange.services.MarketDataIngest;
 
 public class SpotMarketWebSocket extends WebSocketClient {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private final SpotTickerBroadcaster tickerBroadcaster;
     private final api.exchange.services.MarketDataProcessor marketDataProcessor;
 
-    public SpotMarketWebSocket(URI uri, SimpMessagingTemplate messagingTemplate,
-            api.exchange.services.MarketDataProcessor marketDataProcessor) {
+    // Ticker gộp theo symbol: khi worker chậm chỉ giữ ticker mới nhất của mỗi symbol
+    private final MarketDataIngest.IngestStream ingestStream;
+
+    public SpotMarketWebSocket(URI uri, SpotTickerBroadcaster tickerBroadcaster,
+            api.exchange.services.MarketDataProcessor marketDataProcessor, MarketDataIngest marketDataIngest) {
         super(uri);
-        this.messagingTemplate = messagingTemplate;
+        this.tickerBroadcaster = tickerBroadcaster;
         this.marketDataProcessor = marketDataProcessor;
+        this.ingestStream = marketDataIngest.open("spot-ticker", MarketDataIngest::symbolOf, this::process);
     }
 
     @Override
@@ -40,24 +43,16 @@ public class SpotMarketWebSocket extends WebSocketClient {
 
     @Override
     public void onMessage(String message) {
+        ingestStream.offer(message);
+    }
+
+    private void process(String message) {
         try {
             CoinSpotResponse filteredData = marketDataProcessor.processMessage(message);
 
             if (filteredData != null) {
-                // 1. Send JSON (Legacy)
-                messagingTemplate.convertAndSend("/topic/spot-prices", filteredData);
-
-                // 2. Send Binary (Protobuf)
-                byte[] binaryData = MarketDataProto.serializeTicker(
-                        filteredData.getSymbol(),
-                        filteredData.getPrice() != null ? filteredData.getPrice().toString() : "0",
-                        filteredData.getChangePercent() != null ? filteredData.getChangePercent().toString() : "0",
-                        filteredData.getHigh24h() != null ? filteredData.getHigh24h().toString() : "0",
-                        filteredData.getLow24h() != null ? filteredData.getLow24h().toString() : "0",
-                        filteredData.getVolume() != null ? filteredData.getVolume().toString() : "0",
-                        filteredData.getTimestamp() != null ? filteredData.getTimestamp() : 0L,
-                        filteredData.getMarketCap() != null ? filteredData.getMarketCap().toString() : "0");
-                messagingTemplate.convertAndSend("/topic/spot-prices-binary", binaryData);
+                // JSON + protobuf được gửi theo lô ở chu kỳ flush của broadcaster
+                tickerBroadcaster.publish(filteredData);
             }
         } catch (Exception e) {
             System.err.println("❌ Error processing message: " + e.getMessage());
@@ -1,10 +1,10 @@
 package api.exchange.websocket;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
 import api.exchange.models.OrderBooks;
+import api.exchange.proto.MarketDataProto;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -12,15 +12,18 @@ import java.util.Map;
 public class SpotOrderWebSocket {
 
     @Autowired
-    private SimpMessagingTemplate messagingTemplate;
+    private MarketDataFanout marketDataFanout;
 
     public void broadcastOrderBooks(OrderBooks order) {
         Map<String, Object> orderData = new HashMap<>();
         orderData.put("type", order.getOrderType());
         orderData.put("price", order.getPrice());
         orderData.put("quantity", order.getQuantity());
-        orderData.put("timestamp", System.currentTimeMillis());
+        long timestamp = System.currentTimeMillis();
+        orderData.put("timestamp", timestamp);
 
-        messagingTemplate.convertAndSend("/topic/spot/orderbook", orderData);
+        marketDataFanout.publish("/topic/spot/orderbook", orderData);
+        marketDataFanout.publish("/topic/spot/orderbook-binary", MarketDataProto.encoder().trade(
+                order.getSymbol(), order.isBuyOrder(), order.getPrice(), order.getQuantity(), timestamp));
     }
 }
\ No newline at end of file
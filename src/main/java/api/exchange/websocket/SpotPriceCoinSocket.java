@@ -2,8 +2,9 @@ package api.exchange.websocket;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import api.exchange.dtos.Response.KlinesSpotResponse;
+import api.exchange.proto.MarketDataProto;
+import api.exchange.services.MarketDataIngest;
 import api.exchange.services.MarketDataProcessor;
 import api.exchange.services.RingBufferService;
 
@@ -11,17 +12,22 @@ import java.net.URI;
 
 public class SpotPriceCoinSocket extends WebSocketClient {
 
-    private final SimpMessagingTemplate messagingTemplate;
+    private final MarketDataFanout marketDataFanout;
     private final MarketDataProcessor marketDataProcessor;
     private final RingBufferService ringBufferService;
 
-    public SpotPriceCoinSocket(URI uri, SimpMessagingTemplate messagingTemplate,
+    // Mỗi kline 1s là một nến riêng trong RingBuffer nên không gộp, chỉ giữ thứ tự
+    private final MarketDataIngest.IngestStream ingestStream;
+
+    public SpotPriceCoinSocket(URI uri, MarketDataFanout marketDataFanout,
             MarketDataProcessor marketDataProcessor,
-            RingBufferService ringBufferService) {
+            RingBufferService ringBufferService,
+            MarketDataIngest marketDataIngest) {
         super(uri);
-        this.messagingTemplate = messagingTemplate;
+        this.marketDataFanout = marketDataFanout;
         this.marketDataProcessor = marketDataProcessor;
         this.ringBufferService = ringBufferService;
+        this.ingestStream = marketDataIngest.open("spot-kline", null, this::process);
     }
 
     @Override
@@ -46,6 +52,10 @@ public class SpotPriceCoinSocket extends WebSocketClient {
 
     @Override
     public void onMessage(String message) {
+        ingestStream.offer(message);
+    }
+
+    private void process(String message) {
         try {
             KlinesSpotResponse klineResponse = marketDataProcessor.processKlineMessage(message);
 
@@ -53,8 +63,10 @@ public class SpotPriceCoinSocket extends WebSocketClient {
                 // Thêm dữ liệu vào RingBuffer
                 ringBufferService.addKlineData(klineResponse);
 
-                // Gửi qua WebSocket
-                messagingTemplate.convertAndSend("/topic/kline-data", klineResponse);
+                // Gửi qua WebSocket (JSON + protobuf)
+                marketDataFanout.publish("/topic/kline-data", klineResponse);
+                marketDataFanout.publish("/topic/kline-data-binary",
+                        MarketDataProto.encoder().kline(klineResponse));
             }
 
         } catch (Exception e) {
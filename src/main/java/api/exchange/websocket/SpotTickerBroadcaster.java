@@ -0,0 +1,76 @@
+package api.exchange.websocket;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import api.exchange.dtos.Response.CoinSpotResponse;
+import api.exchange.proto.MarketDataProto;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Broadcast ticker spot theo chu kỳ: mỗi symbol chỉ giữ ảnh chụp mới nhất, mỗi
+ * lần flush gửi các symbol đã đổi thành một frame mảng JSON lên
+ * {@code /topic/spot-prices} và một TickerBatch protobuf lên
+ * {@code /topic/spot-prices-binary}. Cả hai được serialize một lần mỗi flush
+ * và gửi qua {@link MarketDataFanout}.
+ */
+@Service
+@Slf4j
+public class SpotTickerBroadcaster {
+
+    private static final String JSON_TOPIC = "/topic/spot-prices";
+    private static final String BINARY_TOPIC = "/topic/spot-prices-binary";
+
+    @Autowired
+    private MarketDataFanout marketDataFanout;
+
+    private final Map<String, CoinSpotResponse> latest = new ConcurrentHashMap<>();
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Ghi nhận ticker mới; gửi đi ở lần flush kế tiếp.
+     */
+    public void publish(CoinSpotResponse ticker) {
+        latest.put(ticker.getSymbol(), ticker);
+        changed.add(ticker.getSymbol());
+    }
+
+    @Scheduled(fixedDelayString = "${market-data.ticker-flush-ms:250}")
+    public void flush() {
+        if (changed.isEmpty()) {
+            return;
+        }
+        List<CoinSpotResponse> batch = new ArrayList<>(changed.size());
+        for (Iterator<String> it = changed.iterator(); it.hasNext();) {
+            String symbol = it.next();
+            // Gỡ trước khi đọc: ticker đến sau đó sẽ đánh dấu lại cho lần flush sau
+            it.remove();
+            CoinSpotResponse ticker = latest.get(symbol);
+            if (ticker != null) {
+                batch.add(ticker);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            marketDataFanout.publish(JSON_TOPIC, batch);
+        } catch (Exception e) {
+            log.error("❌ Failed to broadcast spot tickers: {}", e.getMessage());
+        }
+        try {
+            marketDataFanout.publish(BINARY_TOPIC, MarketDataProto.encoder().tickerBatch(batch));
+        } catch (Exception e) {
+            log.error("❌ Failed to broadcast binary spot tickers: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+-- Đổi tổng khối lượng (lot) của lệnh đang nằm trên book Redis, giữ nguyên vị trí.
+-- KEYS[1] hash trạng thái lệnh
+-- ARGV[1] member của lệnh, ARGV[2] quantityLots mới
+-- Trả về quantityLots cũ của lệnh, hoặc false nếu lệnh không còn trên book
+-- quantityLots phải là số nguyên biểu diễn chính xác bằng double (|n| <= 2^53 - 1)
+
+local quantity = tonumber(ARGV[2])
+if quantity == nil or quantity ~= math.floor(quantity) or math.abs(quantity) > 9007199254740991 then
+    error('spot_amend_quantity: quantity is not an exact integer: ' .. tostring(ARGV[2]))
+end
+
+local state = redis.call('HGET', KEYS[1], ARGV[1])
+if not state then
+    return false
+end
+
+local f = {}
+for part in string.gmatch(state, '([^|]*)|?') do
+    f[#f + 1] = part
+end
+redis.call('HSET', KEYS[1], ARGV[1], f[1] .. '|' .. f[2] .. '|' .. f[3] .. '|' .. string.format('%.0f', quantity) .. '|' .. f[5] .. '|' .. f[6])
+return f[4]
@@ -0,0 +1,17 @@
+-- Gỡ một lệnh khỏi book trên Redis, nguyên tử.
+-- KEYS[1] hash trạng thái lệnh, KEYS[2] ZSET phía của lệnh
+-- ARGV[1] member của lệnh
+-- Trả về filledLots của lệnh, hoặc false nếu lệnh không còn trên book
+
+local state = redis.call('HGET', KEYS[1], ARGV[1])
+redis.call('ZREM', KEYS[2], ARGV[1])
+if not state then
+    return false
+end
+redis.call('HDEL', KEYS[1], ARGV[1])
+
+local f = {}
+for part in string.gmatch(state, '([^|]*)|?') do
+    f[#f + 1] = part
+end
+return f[5]
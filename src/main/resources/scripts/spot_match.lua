@@ -0,0 +1,108 @@
+-- Khớp một lệnh spot với book trên Redis, nguyên tử.
+-- KEYS[1] hash orderId -> "orderType|tradeType|priceTicks|quantityLots|filledLots|uid"
+-- KEYS[2] ZSET phía đối diện, KEYS[3] ZSET phía của taker
+-- ARGV[1] member của taker        ARGV[2] 1 nếu taker là BUY
+-- ARGV[3] 1 nếu taker là LIMIT    ARGV[4] giá giới hạn (tick)
+-- ARGV[5] quantityLots của taker  ARGV[6] filledLots của taker
+-- ARGV[7] giá tham chiếu (tick) cho MARKET gặp MARKET, rỗng nếu không có
+-- ARGV[8] score của lệnh MARKET   ARGV[9] tiền tố trạng thái taker "orderType|tradeType|priceTicks"
+-- ARGV[10] uid của taker          ARGV[11] score của taker khi nằm lại trên book
+-- Trả về {filledLots của taker, member, priceTicks, lots, makerFilledLots, ...}
+--
+-- Số trong Lua của Redis là double: tick/lot chỉ được tính khi là số nguyên có
+-- |n| <= 2^53 - 1 (biểu diễn chính xác), ngược lại script báo lỗi thay vì làm tròn.
+
+local MAX_EXACT = 9007199254740991
+
+local function int(value, name)
+    local n = tonumber(value)
+    if n == nil or n ~= math.floor(n) or math.abs(n) > MAX_EXACT then
+        error('spot_match: ' .. name .. ' is not an exact integer: ' .. tostring(value))
+    end
+    return n
+end
+
+local function fmt(n)
+    return string.format('%.0f', n)
+end
+
+local ordersKey, oppositeKey, ownKey = KEYS[1], KEYS[2], KEYS[3]
+local takerMember = ARGV[1]
+local isBuy = ARGV[2] == '1'
+local isLimit = ARGV[3] == '1'
+local limitTicks = int(ARGV[4], 'limit price')
+local quantity = int(ARGV[5], 'quantity')
+local filled = int(ARGV[6], 'filled')
+local referenceTicks = nil
+if ARGV[7] ~= '' then
+    referenceTicks = int(ARGV[7], 'reference price')
+end
+-- Score của lệnh MARKET chỉ dùng để so sánh, không tham gia tính toán
+local marketScore = tonumber(ARGV[8])
+
+-- MARKET gặp MARKET chỉ khớp được khi có giá tham chiếu
+local minScore = '-inf'
+if not isLimit and referenceTicks == nil then
+    minScore = '(' .. ARGV[8]
+end
+
+local result = {}
+local remaining = quantity - filled
+
+while remaining > 0 do
+    local best = redis.call('ZRANGEBYSCORE', oppositeKey, minScore, '+inf', 'WITHSCORES', 'LIMIT', 0, 1)
+    if #best == 0 then
+        break
+    end
+    local member, score = best[1], tonumber(best[2])
+
+    local price
+    if score == marketScore then
+        if isLimit then price = limitTicks else price = referenceTicks end
+    else
+        if isBuy then price = int(score, 'maker price') else price = -int(score, 'maker price') end
+        if isLimit and ((isBuy and limitTicks < price) or (not isBuy and limitTicks > price)) then
+            break
+        end
+    end
+
+    local state = redis.call('HGET', ordersKey, member)
+    if not state then
+        -- ZSET lệch với hash: bỏ member mồ côi
+        redis.call('ZREM', oppositeKey, member)
+    else
+        local f = {}
+        for part in string.gmatch(state, '([^|]*)|?') do
+            f[#f + 1] = part
+        end
+        local makerQuantity = int(f[4], 'maker quantity')
+        local makerFilled = int(f[5], 'maker filled')
+        local lots = math.min(remaining, makerQuantity - makerFilled)
+
+        remaining = remaining - lots
+        makerFilled = makerFilled + lots
+
+        if makerFilled >= makerQuantity then
+            redis.call('ZREM', oppositeKey, member)
+            redis.call('HDEL', ordersKey, member)
+        else
+            redis.call('HSET', ordersKey, member,
+                f[1] .. '|' .. f[2] .. '|' .. f[3] .. '|' .. f[4] .. '|' .. fmt(makerFilled) .. '|' .. f[6])
+        end
+
+        result[#result + 1] = member
+        result[#result + 1] = fmt(price)
+        result[#result + 1] = fmt(lots)
+        result[#result + 1] = fmt(makerFilled)
+    end
+end
+
+local takerFilled = quantity - remaining
+if remaining > 0 then
+    redis.call('HSET', ordersKey, takerMember,
+        ARGV[9] .. '|' .. fmt(quantity) .. '|' .. fmt(takerFilled) .. '|' .. ARGV[10])
+    redis.call('ZADD', ownKey, ARGV[11], takerMember)
+end
+
+table.insert(result, 1, fmt(takerFilled))
+return result
@@ -0,0 +1,117 @@
+package api.exchange.proto;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+
+import api.exchange.dtos.Response.CoinSpotResponse;
+
+class MarketDataProtoTest {
+
+    private static final Set<Integer> TICKER_SINT64 = Set.of(10, 11, 12, 13, 15, 17);
+    private static final Set<Integer> TRADE_SINT64 = Set.of(4, 6);
+
+    @Test
+    void tickerUsesFieldNumbersOutsideTheReservedRange() throws IOException {
+        CoinSpotResponse ticker = new CoinSpotResponse("BTCUSDT", new BigDecimal("64000.12"), new BigDecimal("-1.5"),
+                new BigDecimal("65010"), new BigDecimal("63200.5"), new BigDecimal("18234.551"), 1700000000000L,
+                new BigDecimal("1260000000000"));
+
+        Map<Integer, Object> fields = ticker(MarketDataProto.encoder().tickerBatch(List.of(ticker)));
+
+        assertEquals("BTCUSDT", fields.get(1));
+        for (int reserved = 2; reserved <= 8; reserved++) {
+            assertFalse(fields.containsKey(reserved), "reserved field " + reserved + " was written");
+        }
+        assertEquals(2L, fields.get(9));
+        assertEquals(6400012L, fields.get(10));
+        assertEquals(-150L, fields.get(11));
+        assertEquals(6501000L, fields.get(12));
+        assertEquals(6320050L, fields.get(13));
+        assertEquals(3L, fields.get(14));
+        assertEquals(18234551L, fields.get(15));
+        assertEquals(0L, fields.get(16));
+        assertEquals(1260000000000L, fields.get(17));
+        assertEquals(1700000000000L, fields.get(18));
+    }
+
+    @Test
+    void zeroAndNullDecimalsAreOmitted() throws IOException {
+        CoinSpotResponse ticker = new CoinSpotResponse("ETHUSDT", new BigDecimal("3000"), BigDecimal.ZERO, null,
+                null, null, null, null);
+
+        Map<Integer, Object> fields = ticker(MarketDataProto.encoder().tickerBatch(List.of(ticker)));
+
+        assertEquals(3000L, fields.get(10));
+        assertFalse(fields.containsKey(11));
+        assertFalse(fields.containsKey(12));
+        assertFalse(fields.containsKey(15));
+        assertEquals(0L, fields.get(18));
+    }
+
+    @Test
+    void scaleShrinksWhenIntegerDigitsWouldOverflow() throws IOException {
+        // 16 chữ số phần nguyên + 4 chữ số thập phân vượt 18 chữ số: scale giảm còn 2
+        BigDecimal price = new BigDecimal("1234567890123456.7891");
+
+        Map<Integer, Object> fields = decode(MarketDataProto.encoder().trade("BTCUSDT", false, price,
+                new BigDecimal("0.001"), 1L), TRADE_SINT64);
+
+        assertEquals(1L, fields.get(2));
+        assertEquals(2L, fields.get(3));
+        assertEquals(123456789012345679L, fields.get(4));
+        assertEquals(3L, fields.get(5));
+        assertEquals(1L, fields.get(6));
+    }
+
+    @Test
+    void encoderIsReusableAcrossCalls() throws IOException {
+        MarketDataProto encoder = MarketDataProto.encoder();
+        byte[] first = encoder.trade("BTCUSDT", true, new BigDecimal("1.5"), new BigDecimal("2"), 7L);
+        byte[] second = encoder.trade("ETHUSDT", true, new BigDecimal("2.5"), new BigDecimal("3"), 8L);
+
+        assertEquals("BTCUSDT", decode(first, TRADE_SINT64).get(1));
+        assertEquals("ETHUSDT", decode(second, TRADE_SINT64).get(1));
+        assertTrue(second.length > 0);
+    }
+
+    // Ticker đầu tiên trong TickerBatch
+    private static Map<Integer, Object> ticker(byte[] batch) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(batch);
+        int tag = in.readTag();
+        assertEquals(1, WireFormat.getTagFieldNumber(tag));
+        return decode(in.readByteArray(), TICKER_SINT64);
+    }
+
+    /**
+     * Trường length-delimited đọc thành String, trường varint đọc thành long;
+     * các trường trong {@code sint64Fields} được giải zigzag.
+     */
+    private static Map<Integer, Object> decode(byte[] bytes, Set<Integer> sint64Fields) throws IOException {
+        Map<Integer, Object> fields = new HashMap<>();
+        CodedInputStream in = CodedInputStream.newInstance(bytes);
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                fields.put(field, in.readString());
+            } else if (sint64Fields.contains(field)) {
+                fields.put(field, in.readSInt64());
+            } else {
+                fields.put(field, in.readRawVarint64());
+            }
+        }
+        return fields;
+    }
+}
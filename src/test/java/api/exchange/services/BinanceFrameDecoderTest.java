@@ -0,0 +1,86 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+class BinanceFrameDecoderTest {
+
+    private final BinanceFrameDecoder decoder = new BinanceFrameDecoder(new JsonFactory(),
+            List.of("BTCUSDT", "ETHUSDT"));
+
+    @Test
+    void decodesTickerAtRoot() throws IOException {
+        List<String> seen = new ArrayList<>();
+        decoder.decode("{\"e\":\"24hrTicker\",\"E\":1700000000123,\"s\":\"BTCUSDT\",\"c\":\"43250.10\","
+                + "\"P\":\"-1.250\",\"v\":\"12.5\",\"lastUpdate\":{\"x\":1}}", event -> {
+                    // Event được dùng lại: chỉ đọc trong handler
+                    assertSame(BinanceFrameDecoder.TICKER, event.getType());
+                    assertEquals(4325010, event.decimal('c').getUnscaled());
+                    assertEquals(2, event.decimal('c').getScale());
+                    assertEquals(new BigDecimal("-1.250"), event.bigDecimal('P'));
+                    assertEquals(new BigDecimal("12.5"), event.bigDecimal('v'));
+                    assertEquals(1700000000123L, event.getLong('E'));
+                    seen.add(event.getSymbol());
+                });
+
+        assertEquals(List.of("BTCUSDT"), seen);
+    }
+
+    @Test
+    void combinedStreamSkipsUntrackedSymbols() throws IOException {
+        List<String> seen = new ArrayList<>();
+        decoder.decode("{\"stream\":\"!markPrice@arr\",\"data\":["
+                + "{\"e\":\"markPriceUpdate\",\"s\":\"BTCUSDT\",\"p\":\"43000.5\"},"
+                + "{\"e\":\"markPriceUpdate\",\"s\":\"DOGEUSDT\",\"p\":\"0.08\"},"
+                + "{\"e\":\"markPriceUpdate\",\"s\":\"ETHUSDT\",\"p\":\"2300\"}]}",
+                event -> seen.add(event.getSymbol() + "=" + event.bigDecimal('p')));
+
+        assertEquals(List.of("BTCUSDT=43000.5", "ETHUSDT=2300"), seen);
+    }
+
+    @Test
+    void klineFieldsAreReadFromNestedObject() throws IOException {
+        List<String> seen = new ArrayList<>();
+        decoder.decode("{\"stream\":\"btcusdt@kline_1m\",\"data\":{\"e\":\"kline\",\"s\":\"BTCUSDT\","
+                + "\"k\":{\"t\":1700000000000,\"i\":\"1m\",\"o\":\"100.0\",\"c\":\"101.5\",\"x\":true}}}",
+                event -> {
+                    BinanceFrameDecoder.Event kline = event.getKline();
+                    assertEquals(1700000000000L, kline.getLong('t'));
+                    assertEquals("1m", kline.getText('i'));
+                    assertEquals(new BigDecimal("101.5"), kline.bigDecimal('c'));
+                    assertTrue(kline.getBoolean('x'));
+                    seen.add(event.getType());
+                });
+
+        assertEquals(List.of(BinanceFrameDecoder.KLINE), seen);
+    }
+
+    @Test
+    void nonNumericAndOverlongDecimals() throws IOException {
+        List<String> seen = new ArrayList<>();
+        decoder.decode("{\"e\":\"aggTrade\",\"s\":\"BTCUSDT\",\"q\":\"12345678901234567890.5\","
+                + "\"m\":\"n/a\",\"p\":\"-\"}", event -> {
+                    assertEquals(new BigDecimal("12345678901234567890.5"), event.bigDecimal('q'));
+                    assertEquals("n/a", event.getText('m'));
+                    assertEquals(BigDecimal.ZERO, event.bigDecimal('m'));
+                    assertEquals("-", event.getText('p'));
+                    assertFalse(event.getBoolean('m'));
+                    assertNull(event.getText('q'));
+                    seen.add(event.getType());
+                });
+
+        assertEquals(List.of(BinanceFrameDecoder.AGG_TRADE), seen);
+    }
+}
@@ -0,0 +1,91 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DepthBookTest {
+
+    private static final SymbolSpec SPEC = new SymbolSpec("BTCUSDT", new BigDecimal("0.1"),
+            new BigDecimal("0.001"));
+
+    @Test
+    void snapshotKeepsTopLevelsBestFirst() {
+        DepthBook depth = new DepthBook(SPEC, 2);
+        depth.add(true, 1000, 1000);
+        depth.add(true, 1002, 2000);
+        depth.add(true, 1001, 500);
+        depth.add(false, 1005, 1000);
+
+        DepthBook.Snapshot snapshot = depth.publish();
+
+        assertEquals(List.of(List.of("100.2", "2.000"), List.of("100.1", "0.500")), snapshot.getBids());
+        assertEquals(List.of(List.of("100.5", "1.000")), snapshot.getAsks());
+        assertEquals(List.of(List.of("100.2", "2.000")), snapshot.bids(1));
+        assertEquals(4, snapshot.getLastUpdateId());
+        // Không có thay đổi thì không dựng snapshot mới
+        assertSame(snapshot, depth.publish());
+    }
+
+    @Test
+    void levelIsRemovedWhenItsLastOrderLeaves() {
+        DepthBook depth = new DepthBook(SPEC, 10);
+        depth.add(false, 1005, 1000);
+        depth.add(false, 1005, 1000);
+
+        depth.reduce(false, 1005, 1000, true);
+        assertEquals(List.of(List.of("100.5", "1.000")), depth.publish().getAsks());
+
+        depth.reduce(false, 1005, 400, false);
+        assertEquals(List.of(List.of("100.5", "0.600")), depth.publish().getAsks());
+
+        depth.reduce(false, 1005, 600, true);
+        assertEquals(List.of(), depth.publish().getAsks());
+    }
+
+    @Test
+    void diffsHaveContiguousUpdateIdsAndOneRowPerLevel() {
+        DepthBook depth = new DepthBook(SPEC, 10, true);
+        assertNull(depth.drainDiff());
+
+        depth.add(true, 1000, 1000);
+        depth.add(true, 1000, 1000);
+        depth.add(false, 1005, 500);
+        DepthBook.Diff first = depth.drainDiff();
+
+        assertEquals(1, first.getFirstUpdateId());
+        assertEquals(3, first.getLastUpdateId());
+        assertEquals(List.of(List.of("100.0", "2.000")), first.getBids());
+        assertEquals(List.of(List.of("100.5", "0.500")), first.getAsks());
+        assertNull(depth.drainDiff());
+
+        depth.reduce(false, 1005, 500, true);
+        depth.adjust(true, 1000, 1000);
+        DepthBook.Diff second = depth.drainDiff();
+
+        assertEquals(first.getLastUpdateId() + 1, second.getFirstUpdateId());
+        assertEquals(5, second.getLastUpdateId());
+        assertEquals(List.of(List.of("100.0", "3.000")), second.getBids());
+        // Mức giá đã xoá mang khối lượng 0
+        assertEquals(List.of(List.of("100.5", "0")), second.getAsks());
+    }
+
+    @Test
+    void clearReportsEveryLevelAsRemoved() {
+        DepthBook depth = new DepthBook(SPEC, 10, true);
+        depth.add(true, 1000, 1000);
+        depth.add(true, 999, 1000);
+        depth.drainDiff();
+
+        depth.clear();
+        DepthBook.Diff diff = depth.drainDiff();
+
+        assertEquals(List.of(List.of("100.0", "0"), List.of("99.9", "0")), diff.getBids());
+        assertEquals(List.of(), depth.publish().getBids());
+    }
+}
@@ -0,0 +1,238 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import api.exchange.models.FuturesFundingRun;
+import api.exchange.repository.FuturesFundingRateRepository;
+import api.exchange.repository.FuturesFundingRunRepository;
+
+class FundingRateServiceTest {
+
+    private final FakeJdbc jdbc = new FakeJdbc();
+    private final Map<Long, FuturesFundingRun> runs = new HashMap<>();
+    private final Set<String> riskUpdates = new HashSet<>();
+    private FundingRateService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new FundingRateService();
+        ReflectionTestUtils.setField(service, "futuresFundingRunRepository", runRepository());
+        ReflectionTestUtils.setField(service, "futuresFundingRateRepository", proxy(FuturesFundingRateRepository.class,
+                (name, args) -> "save".equals(name) ? args[0] : null));
+        ReflectionTestUtils.setField(service, "futuresPriceRegistry", new FuturesPriceRegistry() {
+            @Override
+            public BigDecimal getPrice(String symbol) {
+                return new BigDecimal("100");
+            }
+        });
+        ReflectionTestUtils.setField(service, "futuresRiskEngine", new FuturesRiskEngine() {
+            @Override
+            public void onAccountChanged(String uid) {
+                riskUpdates.add(uid);
+            }
+        });
+        ReflectionTestUtils.setField(service, "jdbcTemplate", jdbc);
+        ReflectionTestUtils.setField(service, "self", service);
+        ReflectionTestUtils.setField(service, "chunkSize", 2);
+
+        // Vị thế 1 BTC, giá 100, rate 0.0001: LONG trả 0.01, SHORT nhận 0.01
+        jdbc.position(1, "a", "LONG");
+        jdbc.position(2, "b", "SHORT");
+        jdbc.position(3, "a", "LONG");
+        jdbc.position(4, "c", "LONG");
+        jdbc.position(5, "b", "SHORT");
+        jdbc.wallets.put("a", BigDecimal.ZERO);
+        jdbc.wallets.put("b", BigDecimal.ZERO);
+        jdbc.wallets.put("c", BigDecimal.ZERO);
+    }
+
+    @Test
+    void settlesEveryPositionOnceAcrossChunks() {
+        service.applyFundingFees();
+
+        assertWallets();
+        assertEquals(5, jdbc.transactions.size());
+        FuturesFundingRun run = runs.values().iterator().next();
+        assertEquals(FuturesFundingRun.RunStatus.COMPLETED, run.getStatus());
+        assertEquals(5, run.getPositionsSettled());
+        assertEquals(Set.of("a", "b", "c"), riskUpdates);
+    }
+
+    @Test
+    void resumeAfterCrashDoesNotChargeCommittedChunksAgain() {
+        // Chunk thứ hai (vị thế 3, 4) rollback giữa chừng
+        jdbc.failOnRunUpdate = 2;
+        assertThrows(DataAccessResourceFailureException.class, service::applyFundingFees);
+
+        FuturesFundingRun interrupted = runs.values().iterator().next();
+        assertEquals(FuturesFundingRun.RunStatus.RUNNING, interrupted.getStatus());
+        assertEquals(2, interrupted.getLastPositionId());
+        assertEquals(2, jdbc.transactions.size());
+
+        service.resumeOnStartup();
+
+        assertWallets();
+        Set<Object> references = new HashSet<>();
+        for (Object[] row : jdbc.transactions) {
+            assertTrue(references.add(row[3]), "position charged twice: " + row[3]);
+        }
+        assertEquals(5, references.size());
+        FuturesFundingRun run = runs.values().iterator().next();
+        assertEquals(FuturesFundingRun.RunStatus.COMPLETED, run.getStatus());
+        assertEquals(5, run.getPositionsSettled());
+    }
+
+    private void assertWallets() {
+        assertEquals(0, new BigDecimal("-0.02").compareTo(jdbc.wallets.get("a")), "a=" + jdbc.wallets.get("a"));
+        assertEquals(0, new BigDecimal("0.02").compareTo(jdbc.wallets.get("b")), "b=" + jdbc.wallets.get("b"));
+        assertEquals(0, new BigDecimal("-0.01").compareTo(jdbc.wallets.get("c")), "c=" + jdbc.wallets.get("c"));
+    }
+
+    // Bảng futures_funding_runs: entity trả ra là bản sao, tiến độ chỉ đổi qua SQL
+    private FuturesFundingRunRepository runRepository() {
+        return proxy(FuturesFundingRunRepository.class, (name, args) -> {
+            switch (name) {
+                case "save": {
+                    FuturesFundingRun run = (FuturesFundingRun) args[0];
+                    if (run.getId() == 0) {
+                        run.setId(runs.size() + 1);
+                    }
+                    runs.put(run.getId(), copy(run));
+                    return run;
+                }
+                case "findByFundingTime":
+                    return runs.values().stream().filter(r -> r.getFundingTime().equals(args[0])).findFirst()
+                            .map(FundingRateServiceTest::copy);
+                case "findByStatusOrderByIdAsc":
+                    return runs.values().stream().filter(r -> r.getStatus() == args[0])
+                            .map(FundingRateServiceTest::copy).toList();
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static FuturesFundingRun copy(FuturesFundingRun run) {
+        return new FuturesFundingRun(run.getId(), run.getFundingTime(), run.getRate(), run.getStatus(),
+                run.getLastPositionId(), run.getPositionsSettled(), run.getStartedAt(), run.getCompletedAt());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, java.util.function.BiFunction<String, Object[], Object> handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (p, method, args) -> handler.apply(method.getName(), args));
+    }
+
+    /**
+     * JdbcTemplate giả: mỗi chunk bắt đầu bằng SELECT (mở transaction) và commit
+     * khi cập nhật tiến độ kỳ funding; lỗi ở bước đó bỏ toàn bộ ghi của chunk.
+     */
+    private class FakeJdbc extends JdbcTemplate {
+        private final List<Map<String, Object>> positions = new ArrayList<>();
+        private final Map<String, BigDecimal> wallets = new HashMap<>();
+        private final List<Object[]> transactions = new ArrayList<>();
+        private final Map<String, BigDecimal> pendingWallets = new HashMap<>();
+        private final List<Object[]> pendingTransactions = new ArrayList<>();
+        private int runUpdates;
+        private int failOnRunUpdate;
+
+        void position(long id, String uid, String side) {
+            positions.add(Map.of("id", id, "uid", uid, "symbol", "BTCUSDT", "side", side,
+                    "quantity", BigDecimal.ONE));
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler rch, Object... args) {
+            pendingWallets.clear();
+            pendingTransactions.clear();
+            long afterId = ((Number) args[0]).longValue();
+            int limit = ((Number) args[1]).intValue();
+            int rows = 0;
+            for (Map<String, Object> position : positions) {
+                if ((long) position.get("id") > afterId && rows++ < limit) {
+                    try {
+                        rch.processRow(resultSet(position));
+                    } catch (java.sql.SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                ParameterizedPreparedStatementSetter<T> pss) {
+            int[] counts = new int[batchArgs.size()];
+            int i = 0;
+            for (T row : batchArgs) {
+                Object[] params = new Object[3];
+                PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance(
+                        PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                        (p, method, a) -> {
+                            if (method.getName().startsWith("set")) {
+                                params[(int) a[0]] = a[1];
+                            }
+                            return null;
+                        });
+                try {
+                    pss.setValues(ps, row);
+                } catch (java.sql.SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+                String uid = (String) params[2];
+                counts[i++] = wallets.containsKey(uid) ? 1 : 0;
+                pendingWallets.merge(uid, (BigDecimal) params[1], BigDecimal::add);
+            }
+            return new int[][] { counts };
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            pendingTransactions.addAll(batchArgs);
+            return new int[batchArgs.size()];
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            if (++runUpdates == failOnRunUpdate) {
+                throw new DataAccessResourceFailureException("connection lost");
+            }
+            pendingWallets.forEach((uid, delta) -> wallets.computeIfPresent(uid, (u, b) -> b.add(delta)));
+            transactions.addAll(pendingTransactions);
+            FuturesFundingRun run = runs.get(((Number) args[2]).longValue());
+            run.setLastPositionId(((Number) args[0]).longValue());
+            run.setPositionsSettled(run.getPositionsSettled() + ((Number) args[1]).longValue());
+            return 1;
+        }
+
+        private ResultSet resultSet(Map<String, Object> row) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                    new Class<?>[] { ResultSet.class }, (p, method, a) -> {
+                        Object value = row.get(a[0]);
+                        return "getLong".equals(method.getName()) ? ((Number) value).longValue() : value;
+                    });
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+import api.exchange.models.FuturesOrder;
+import api.exchange.models.FuturesWallet;
+
+/**
+ * Ví USDT dùng chung cho mọi symbol: chu kỳ khớp của symbol này phải thấy bản ví
+ * mà symbol khác vừa ghi, không ghi lại với version cũ.
+ */
+class FuturesAccountCacheTest {
+
+    private final FuturesTestExchange exchange = new FuturesTestExchange("BTCUSDT:0.1:0.001,ETHUSDT:0.01:0.001");
+
+    @Test
+    void twoSymbolsShareOneWalletWithoutVersionConflicts() {
+        exchange.wallet("taker", "1000", "0");
+        exchange.wallet("m1", "1000", "0");
+        exchange.wallet("m2", "1000", "0");
+        exchange.order("m1", "BTCUSDT", FuturesOrder.OrderSide.SELL, FuturesOrder.OrderType.LIMIT, "100.0", "2");
+        exchange.order("m2", "ETHUSDT", FuturesOrder.OrderSide.SELL, FuturesOrder.OrderType.LIMIT, "10.00", "1");
+        exchange.start();
+
+        buy("BTCUSDT", "100.0");
+        buy("ETHUSDT", "10.00");
+        buy("BTCUSDT", "100.0");
+
+        assertEquals(0, exchange.walletConflicts);
+        FuturesWallet wallet = exchange.wallets.get("taker");
+        assertAmount("1000", wallet.getBalance());
+        // Margin vị thế: 100 * 2 / 10 + 10 * 1 / 10
+        assertAmount("21", wallet.getLockedBalance());
+        assertAmount("2", exchange.position("taker", "BTCUSDT").getQuantity());
+        assertAmount("1", exchange.position("taker", "ETHUSDT").getQuantity());
+    }
+
+    private void buy(String symbol, String price) {
+        exchange.engine.submitAfterCommit(exchange.order("taker", symbol, FuturesOrder.OrderSide.BUY,
+                FuturesOrder.OrderType.LIMIT, price, "1"));
+    }
+
+    private static void assertAmount(String expected, BigDecimal actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo(actual), "expected " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,208 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import api.exchange.models.FuturesOrder;
+import api.exchange.models.FuturesPosition;
+import api.exchange.models.FuturesWallet;
+import api.exchange.repository.FuturesPositionRepository;
+import api.exchange.repository.FuturesWalletRepository;
+import api.exchange.websocket.FuturesOrderWebSocket;
+
+/**
+ * Chu kỳ khớp futures: fill được áp trong bộ nhớ qua {@link FuturesTradingService}
+ * và ghi một lần; khi ghi xung đột version, tài khoản được nạp lại và các fill
+ * được áp lại lên bản mới.
+ */
+class FuturesFillCycleTest {
+
+    private static final String SYMBOL = "BTCUSDT";
+
+    // Bản "trong DB" của ví theo uid; mỗi lần nạp trả một bản sao
+    private final Map<String, FuturesWallet> storedWallets = new HashMap<>();
+    private final List<FuturesOrder> publishedOrders = new ArrayList<>();
+    private int walletLoads;
+
+    private FlushingTradingService service;
+
+    @BeforeEach
+    void setUp() {
+        storedWallets.put("alice", wallet("alice", "1000", "10"));
+        storedWallets.put("bob", wallet("bob", "1000", "10.1"));
+
+        FuturesAccountCache cache = new FuturesAccountCache();
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "futuresWalletRepository", walletRepository());
+        ReflectionTestUtils.setField(cache, "futuresPositionRepository", positionRepository());
+        cache.init();
+
+        service = new FlushingTradingService();
+        ReflectionTestUtils.setField(service, "maxSettlementAttempts", 3);
+        ReflectionTestUtils.setField(service, "futuresAccountCache", cache);
+        ReflectionTestUtils.setField(service, "futuresOrderWebSocket", new FuturesOrderWebSocket() {
+            @Override
+            public void sendUserOrderUpdate(FuturesOrder order) {
+                publishedOrders.add(order);
+            }
+        });
+        ReflectionTestUtils.setField(service, "self", service);
+    }
+
+    @Test
+    void fillIsAppliedInMemoryAndWrittenOnce() {
+        FuturesFillCycle cycle = new FuturesFillCycle(SYMBOL);
+        FuturesOrder maker = order(1, "alice", FuturesOrder.OrderSide.SELL, FuturesOrder.PositionSide.SHORT, "100");
+        FuturesOrder taker = order(2, "bob", FuturesOrder.OrderSide.BUY, FuturesOrder.PositionSide.LONG, "101");
+
+        service.applyFill(cycle, maker, taker, new BigDecimal("100"), BigDecimal.ONE);
+        service.settle(cycle);
+
+        assertEquals(1, service.flushes.size());
+        assertEquals(FuturesOrder.OrderStatus.FILLED, maker.getStatus());
+        assertEquals(FuturesOrder.OrderStatus.FILLED, taker.getStatus());
+        // Margin lệnh được nhả theo giá lệnh, margin vị thế khoá theo giá khớp
+        assertAmount("10", flushedWallet("alice").getLockedBalance());
+        assertAmount("10", flushedWallet("bob").getLockedBalance());
+        FuturesPosition bobPosition = flushedPosition("bob");
+        assertEquals(FuturesPosition.PositionSide.LONG, bobPosition.getSide());
+        assertAmount("90", bobPosition.getLiquidationPrice());
+        assertAmount("10", flushedPosition("alice").getMargin());
+        assertEquals(List.of(maker, taker), publishedOrders);
+        assertEquals(2, walletLoads);
+    }
+
+    @Test
+    void conflictReloadsAccountsAndReappliesFills() {
+        service.conflicts = 1;
+        FuturesFillCycle cycle = new FuturesFillCycle(SYMBOL);
+        FuturesOrder maker = order(1, "alice", FuturesOrder.OrderSide.SELL, FuturesOrder.PositionSide.SHORT, "100");
+        FuturesOrder taker = order(2, "bob", FuturesOrder.OrderSide.BUY, FuturesOrder.PositionSide.LONG, "101");
+        service.applyFill(cycle, maker, taker, new BigDecimal("100"), BigDecimal.ONE);
+        // Nơi khác nạp thêm tiền cho bob trước khi chu kỳ kịp ghi
+        storedWallets.get("bob").setBalance(new BigDecimal("1500"));
+
+        service.settle(cycle);
+
+        assertEquals(2, service.flushes.size());
+        assertAmount("1500", flushedWallet("bob").getBalance());
+        assertAmount("10", flushedWallet("bob").getLockedBalance());
+        assertAmount("1", flushedPosition("bob").getQuantity());
+        assertEquals(4, walletLoads);
+        // Lệnh chỉ được báo một lần, sau khi ghi thành công
+        assertEquals(List.of(maker, taker), publishedOrders);
+    }
+
+    @Test
+    void conflictBeyondMaxAttemptsIsRethrown() {
+        service.conflicts = 3;
+        FuturesFillCycle cycle = new FuturesFillCycle(SYMBOL);
+        service.applyFill(cycle,
+                order(1, "alice", FuturesOrder.OrderSide.SELL, FuturesOrder.PositionSide.SHORT, "100"),
+                order(2, "bob", FuturesOrder.OrderSide.BUY, FuturesOrder.PositionSide.LONG, "101"),
+                new BigDecimal("100"), BigDecimal.ONE);
+
+        assertThrows(OptimisticLockingFailureException.class, () -> service.settle(cycle));
+        assertEquals(List.of(), publishedOrders);
+    }
+
+    private FuturesWallet flushedWallet(String uid) {
+        return service.flushes.get(service.flushes.size() - 1).wallets.get(uid);
+    }
+
+    private FuturesPosition flushedPosition(String uid) {
+        return service.flushes.get(service.flushes.size() - 1).positions.get(uid);
+    }
+
+    private static void assertAmount(String expected, BigDecimal actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo(actual), "expected " + expected + " but was " + actual);
+    }
+
+    private FuturesWalletRepository walletRepository() {
+        return (FuturesWalletRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FuturesWalletRepository.class }, (proxy, method, args) -> {
+                    if (!method.getName().equals("findByUidAndCurrency")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    walletLoads++;
+                    FuturesWallet stored = storedWallets.get((String) args[0]);
+                    return Optional.ofNullable(stored != null
+                            ? wallet(stored.getUid(), stored.getBalance().toPlainString(),
+                                    stored.getLockedBalance().toPlainString())
+                            : null);
+                });
+    }
+
+    private FuturesPositionRepository positionRepository() {
+        return (FuturesPositionRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FuturesPositionRepository.class }, (proxy, method, args) -> {
+                    if (!method.getName().equals("findByUidAndSymbolAndStatus")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    return Optional.empty();
+                });
+    }
+
+    private static FuturesWallet wallet(String uid, String balance, String locked) {
+        FuturesWallet wallet = new FuturesWallet();
+        wallet.setUid(uid);
+        wallet.setCurrency("USDT");
+        wallet.setBalance(new BigDecimal(balance));
+        wallet.setLockedBalance(new BigDecimal(locked));
+        return wallet;
+    }
+
+    private static FuturesOrder order(long id, String uid, FuturesOrder.OrderSide side,
+            FuturesOrder.PositionSide positionSide, String price) {
+        FuturesOrder order = new FuturesOrder();
+        order.setId(id);
+        order.setUid(uid);
+        order.setSymbol(SYMBOL);
+        order.setSide(side);
+        order.setPositionSide(positionSide);
+        order.setType(FuturesOrder.OrderType.LIMIT);
+        order.setPrice(new BigDecimal(price));
+        order.setQuantity(BigDecimal.ONE);
+        order.setLeverage(10);
+        order.setStatus(FuturesOrder.OrderStatus.PENDING);
+        return order;
+    }
+
+    /**
+     * Thay bước ghi DB: chụp lại ví/vị thế của chu kỳ, ném xung đột version
+     * {@code conflicts} lần đầu.
+     */
+    private static class FlushingTradingService extends FuturesTradingService {
+        private final List<Flush> flushes = new ArrayList<>();
+        private int conflicts;
+
+        @Override
+        public void flush(FuturesFillCycle cycle) {
+            Flush flush = new Flush();
+            cycle.getWallets().forEach(w -> flush.wallets.put(w.getUid(), w));
+            cycle.getPositions().forEach(p -> flush.positions.put(p.getUid(), p));
+            flushes.add(flush);
+            if (conflicts-- > 0) {
+                throw new OptimisticLockingFailureException("Row was updated by another transaction");
+            }
+        }
+    }
+
+    private static class Flush {
+        private final Map<String, FuturesWallet> wallets = new HashMap<>();
+        private final Map<String, FuturesPosition> positions = new HashMap<>();
+    }
+}
@@ -0,0 +1,93 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import api.exchange.models.FuturesOrder;
+import api.exchange.models.FuturesPosition;
+
+/**
+ * Lệnh MARKET mang giá mark lúc đặt lệnh, có thể lệch lưới tick: khớp với mọi
+ * mức giá, phần còn lại bị huỷ và nhả margin thay vì nằm lại trên book.
+ */
+class FuturesMatchingEngineTest {
+
+    private static final String SYMBOL = "BTCUSDT";
+
+    private final FuturesTestExchange exchange = new FuturesTestExchange(SYMBOL + ":0.1:0.001");
+
+    @BeforeEach
+    void setUp() {
+        exchange.wallet("taker", "1000", "0");
+        exchange.wallet("m1", "1000", "0");
+        exchange.wallet("m2", "1000", "0");
+    }
+
+    @Test
+    void marketTakerWithOffGridMarkSweepsBookAndCancelsRemainder() {
+        exchange.order("m1", SYMBOL, FuturesOrder.OrderSide.SELL, FuturesOrder.OrderType.LIMIT, "100.0", "1");
+        exchange.order("m2", SYMBOL, FuturesOrder.OrderSide.SELL, FuturesOrder.OrderType.LIMIT, "105.0", "0.5");
+        exchange.start();
+
+        // Margin khoá theo mark 100.03: 20.006
+        FuturesOrder taker = exchange.order("taker", SYMBOL, FuturesOrder.OrderSide.BUY,
+                FuturesOrder.OrderType.MARKET, "100.03", "2");
+        exchange.engine.submitAfterCommit(taker);
+
+        FuturesOrder stored = exchange.orders.get(taker.getId());
+        assertEquals(FuturesOrder.OrderStatus.CANCELLED, stored.getStatus());
+        assertAmount("0.5", stored.getQuantity());
+        FuturesPosition position = exchange.position("taker", SYMBOL);
+        assertAmount("1.5", position.getQuantity());
+        // Chỉ còn margin của vị thế: (100 * 1 + 105 * 0.5) / 10
+        assertAmount("15.25", position.getMargin());
+        assertAmount("15.25", exchange.wallets.get("taker").getLockedBalance());
+        assertTrue(exchange.depth.futuresSnapshot(SYMBOL).asks(5).isEmpty());
+        assertTrue(exchange.depth.futuresSnapshot(SYMBOL).bids(5).isEmpty());
+    }
+
+    @Test
+    void loadCancelsLegacyOrdersThatCannotRest() {
+        exchange.order("taker", SYMBOL, FuturesOrder.OrderSide.BUY, FuturesOrder.OrderType.MARKET, "100.03", "1");
+        exchange.order("taker", SYMBOL, FuturesOrder.OrderSide.BUY, FuturesOrder.OrderType.LIMIT, "99.95", "1");
+        FuturesOrder valid = exchange.order("taker", SYMBOL, FuturesOrder.OrderSide.BUY,
+                FuturesOrder.OrderType.LIMIT, "99.9", "1");
+
+        exchange.start();
+
+        assertEquals(FuturesOrder.OrderStatus.CANCELLED, exchange.orders.get(1L).getStatus());
+        assertEquals(FuturesOrder.OrderStatus.CANCELLED, exchange.orders.get(2L).getStatus());
+        assertEquals(FuturesOrder.OrderStatus.PENDING, exchange.orders.get(valid.getId()).getStatus());
+        assertAmount("9.99", exchange.wallets.get("taker").getLockedBalance());
+        assertEquals(List.of(List.of("99.9", "1.000")), exchange.depth.futuresSnapshot(SYMBOL).bids(5));
+    }
+
+    @Test
+    void failedSettlementCancelsMarketTakerInsteadOfLeavingItPending() {
+        exchange.order("m1", SYMBOL, FuturesOrder.OrderSide.SELL, FuturesOrder.OrderType.LIMIT, "100.0", "1");
+        exchange.start();
+        FuturesOrder taker = exchange.order("taker", SYMBOL, FuturesOrder.OrderSide.BUY,
+                FuturesOrder.OrderType.MARKET, "100.03", "2");
+
+        exchange.failingOrderWrites = 1;
+        exchange.engine.submitAfterCommit(taker);
+
+        // Chu kỳ khớp không được ghi: cả lệnh bị huỷ, toàn bộ margin được nhả
+        FuturesOrder stored = exchange.orders.get(taker.getId());
+        assertEquals(FuturesOrder.OrderStatus.CANCELLED, stored.getStatus());
+        assertAmount("2", stored.getQuantity());
+        assertAmount("0", exchange.wallets.get("taker").getLockedBalance());
+        assertEquals(FuturesOrder.OrderStatus.PENDING, exchange.orders.get(1L).getStatus());
+        assertEquals(List.of(List.of("100.0", "1.000")), exchange.depth.futuresSnapshot(SYMBOL).asks(5));
+    }
+
+    private static void assertAmount(String expected, BigDecimal actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo(actual), "expected " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,105 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import api.exchange.models.FuturesOrder;
+
+class FuturesOrderBookTest {
+
+    private static final SymbolSpec SPEC = new SymbolSpec("BTCUSDT", new BigDecimal("0.1"),
+            new BigDecimal("0.001"));
+
+    private FuturesOrderBook book;
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() {
+        book = new FuturesOrderBook(SPEC, new DepthBook(SPEC, 20));
+    }
+
+    @Test
+    void bestMakerFollowsPriceThenTime() {
+        FuturesOrder expensive = limit(FuturesOrder.OrderSide.SELL, "101.0", "1");
+        FuturesOrder first = limit(FuturesOrder.OrderSide.SELL, "100.0", "1");
+        FuturesOrder second = limit(FuturesOrder.OrderSide.SELL, "100.0", "1");
+        book.add(expensive);
+        book.add(first);
+        book.add(second);
+        FuturesOrder taker = limit(FuturesOrder.OrderSide.BUY, "100.5", "3");
+
+        assertSame(first, book.bestMaker(taker));
+        first.setQuantity(BigDecimal.ZERO);
+        book.fill(first, BigDecimal.ONE);
+        assertSame(second, book.bestMaker(taker));
+        second.setQuantity(BigDecimal.ZERO);
+        book.fill(second, BigDecimal.ONE);
+
+        // 101.0 không cắt giá 100.5 của taker
+        assertNull(book.bestMaker(taker));
+        assertEquals(1, book.size());
+    }
+
+    @Test
+    void partialFillKeepsMakerAndShrinksDepth() {
+        FuturesOrder maker = limit(FuturesOrder.OrderSide.BUY, "99.9", "2");
+        book.add(maker);
+
+        maker.setQuantity(new BigDecimal("0.5"));
+        book.fill(maker, new BigDecimal("1.5"));
+
+        assertTrue(book.contains(maker.getId()));
+        assertEquals(List.of(List.of("99.9", "0.500")), book.getDepth().publish().bids(5));
+    }
+
+    @Test
+    void cancelRemovesOrderAndItsDepth() {
+        FuturesOrder maker = limit(FuturesOrder.OrderSide.SELL, "100.0", "1");
+        book.add(maker);
+
+        assertSame(maker, book.cancel(maker.getId()));
+        assertNull(book.cancel(maker.getId()));
+        assertFalse(book.contains(maker.getId()));
+        assertTrue(book.getDepth().publish().asks(5).isEmpty());
+        assertNull(book.bestMaker(limit(FuturesOrder.OrderSide.BUY, "200.0", "1")));
+    }
+
+    @Test
+    void marketTakerWithOffGridMarkCrossesEveryLevel() {
+        FuturesOrder far = limit(FuturesOrder.OrderSide.SELL, "250.0", "1");
+        book.add(far);
+        // Giá mark 100.03 lệch lưới tick 0.1: không được dùng làm giá giới hạn
+        FuturesOrder taker = limit(FuturesOrder.OrderSide.BUY, "100.03", "1");
+        taker.setType(FuturesOrder.OrderType.MARKET);
+
+        assertSame(far, book.bestMaker(taker));
+        assertFalse(book.canRest(taker));
+        assertThrows(IllegalArgumentException.class, () -> book.add(taker));
+        assertFalse(book.canRest(limit(FuturesOrder.OrderSide.BUY, "99.95", "1")));
+        assertTrue(book.canRest(limit(FuturesOrder.OrderSide.BUY, "99.9", "1")));
+    }
+
+    private FuturesOrder limit(FuturesOrder.OrderSide side, String price, String quantity) {
+        FuturesOrder order = new FuturesOrder();
+        order.setId(nextId++);
+        order.setUid("u" + order.getId());
+        order.setSymbol(SPEC.getSymbol());
+        order.setSide(side);
+        order.setType(FuturesOrder.OrderType.LIMIT);
+        order.setPrice(new BigDecimal(price));
+        order.setQuantity(new BigDecimal(quantity));
+        order.setLeverage(10);
+        order.setStatus(FuturesOrder.OrderStatus.PENDING);
+        return order;
+    }
+}
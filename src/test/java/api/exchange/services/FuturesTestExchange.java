@@ -0,0 +1,407 @@
+package api.exchange.services;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import api.exchange.models.FuturesInsuranceFund;
+import api.exchange.models.FuturesOrder;
+import api.exchange.models.FuturesPosition;
+import api.exchange.models.FuturesWallet;
+import api.exchange.repository.FuturesInsuranceFundRepository;
+import api.exchange.repository.FuturesOrderRepository;
+import api.exchange.repository.FuturesPositionRepository;
+import api.exchange.repository.FuturesWalletRepository;
+import api.exchange.websocket.FuturesOrderWebSocket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Sàn futures cho test: engine khớp, tầng thanh toán, thanh lý và quỹ bảo hiểm
+ * thật trên một "DB" trong bộ nhớ. Repository trả ra bản sao detached như JPA;
+ * ghi ví với version cũ bị từ chối. Lane chạy ngay trên thread gọi.
+ */
+class FuturesTestExchange {
+
+    final Map<String, FuturesWallet> wallets = new HashMap<>();
+    final Map<Long, FuturesPosition> positions = new HashMap<>();
+    final Map<Long, FuturesOrder> orders = new HashMap<>();
+    final FuturesInsuranceFund fund = new FuturesInsuranceFund();
+
+    // Số lần ghi lệnh tới bị lỗi DB (transaction thanh toán rollback trước khi ghi gì)
+    int failingOrderWrites;
+    // Số lần ghi ví bị từ chối vì version cũ
+    int walletConflicts;
+
+    private final String futuresSymbolSpecs;
+
+    FuturesTradingService trading;
+    FuturesMatchingEngine engine;
+    LiquidationService liquidationService;
+    InsuranceFundService insuranceFundService;
+    MarketDepthService depth;
+    FuturesAccountCache accountCache;
+
+    /**
+     * @param futuresSymbolSpecs giá trị của {@code futures.symbol-specs}
+     */
+    FuturesTestExchange(String futuresSymbolSpecs) {
+        this.futuresSymbolSpecs = futuresSymbolSpecs;
+        fund.setCurrency("USDT");
+    }
+
+    void start() {
+        InlineSequencer sequencer = new InlineSequencer();
+        SymbolSpecRegistry specs = new SymbolSpecRegistry();
+        ReflectionTestUtils.setField(specs, "symbolSpecs", "");
+        ReflectionTestUtils.setField(specs, "futuresSymbolSpecs", futuresSymbolSpecs);
+        specs.load();
+        depth = new MarketDepthService();
+        ReflectionTestUtils.setField(depth, "snapshotLevels", 20);
+        ReflectionTestUtils.setField(depth, "symbolSpecRegistry", specs);
+
+        FuturesWalletRepository walletRepository = walletRepository();
+        FuturesPositionRepository positionRepository = positionRepository();
+        FuturesOrderRepository orderRepository = orderRepository();
+
+        FuturesAccountCache cache = accountCache = new FuturesAccountCache();
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "futuresWalletRepository", walletRepository);
+        ReflectionTestUtils.setField(cache, "futuresPositionRepository", positionRepository);
+        cache.init();
+
+        insuranceFundService = new InsuranceFundService();
+        ReflectionTestUtils.setField(insuranceFundService, "futuresInsuranceFundRepository", fundRepository());
+        insuranceFundService.load();
+
+        trading = new FuturesTradingService();
+        engine = new FuturesMatchingEngine();
+        liquidationService = new LiquidationService();
+
+        ReflectionTestUtils.setField(trading, "maxSettlementAttempts", 3);
+        ReflectionTestUtils.setField(trading, "futuresOrderRepository", orderRepository);
+        ReflectionTestUtils.setField(trading, "futuresPositionRepository", positionRepository);
+        ReflectionTestUtils.setField(trading, "futuresWalletRepository", walletRepository);
+        ReflectionTestUtils.setField(trading, "futuresRiskEngine", new FuturesRiskEngine() {
+            @Override
+            public void onAccountChanged(String uid) {
+            }
+        });
+        ReflectionTestUtils.setField(trading, "futuresOrderWebSocket", new FuturesOrderWebSocket() {
+            @Override
+            public void sendUserOrderUpdate(FuturesOrder order) {
+            }
+        });
+        ReflectionTestUtils.setField(trading, "marketDepthService", depth);
+        ReflectionTestUtils.setField(trading, "futuresMatchingEngine", engine);
+        ReflectionTestUtils.setField(trading, "liquidationService", liquidationService);
+        ReflectionTestUtils.setField(trading, "futuresAccountCache", cache);
+        ReflectionTestUtils.setField(trading, "insuranceFundService", insuranceFundService);
+        ReflectionTestUtils.setField(trading, "self", trading);
+
+        ReflectionTestUtils.setField(engine, "futuresOrderRepository", orderRepository);
+        ReflectionTestUtils.setField(engine, "futuresTradingService", trading);
+        ReflectionTestUtils.setField(engine, "matchingSequencer", sequencer);
+        ReflectionTestUtils.setField(engine, "marketDepthService", depth);
+        ReflectionTestUtils.setField(engine, "symbolSpecRegistry", specs);
+        ReflectionTestUtils.setField(engine, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(engine, "maxQueueDepth", 1024);
+        engine.load();
+
+        ReflectionTestUtils.setField(liquidationService, "futuresPositionRepository", positionRepository);
+        ReflectionTestUtils.setField(liquidationService, "matchingSequencer", sequencer);
+        ReflectionTestUtils.setField(liquidationService, "symbolSpecRegistry", specs);
+        ReflectionTestUtils.setField(liquidationService, "futuresOrderRepository", orderRepository);
+        ReflectionTestUtils.setField(liquidationService, "insuranceFundService", insuranceFundService);
+        ReflectionTestUtils.setField(liquidationService, "futuresMatchingEngine", engine);
+        ReflectionTestUtils.setField(liquidationService, "futuresTradingService", trading);
+        ReflectionTestUtils.setField(liquidationService, "insuranceCoverRatio", new BigDecimal("0.01"));
+        liquidationService.load();
+    }
+
+    void wallet(String uid, String balance, String locked) {
+        FuturesWallet wallet = new FuturesWallet();
+        wallet.setId(wallets.size() + 1);
+        wallet.setUid(uid);
+        wallet.setCurrency("USDT");
+        wallet.setBalance(new BigDecimal(balance));
+        wallet.setLockedBalance(new BigDecimal(locked));
+        wallet.setVersion(0L);
+        wallets.put(uid, wallet);
+    }
+
+    void position(String uid, String symbol, FuturesPosition.PositionSide side, String entryPrice,
+            String quantity, int leverage, String liquidationPrice) {
+        FuturesPosition position = new FuturesPosition();
+        position.setId(positions.size() + 1);
+        position.setUid(uid);
+        position.setSymbol(symbol);
+        position.setSide(side);
+        position.setEntryPrice(new BigDecimal(entryPrice));
+        position.setQuantity(new BigDecimal(quantity));
+        position.setLeverage(leverage);
+        position.setMargin(new BigDecimal(entryPrice).multiply(new BigDecimal(quantity))
+                .divide(BigDecimal.valueOf(leverage)));
+        position.setLiquidationPrice(new BigDecimal(liquidationPrice));
+        position.setStatus(FuturesPosition.PositionStatus.OPEN);
+        position.setVersion(0L);
+        positions.put(position.getId(), position);
+    }
+
+    // Vị thế mới nhất của uid trên symbol (kể cả đã đóng)
+    FuturesPosition position(String uid, String symbol) {
+        return positions.values().stream().filter(p -> p.getUid().equals(uid) && p.getSymbol().equals(symbol))
+                .max(Comparator.comparingLong(FuturesPosition::getId)).orElseThrow();
+    }
+
+    /**
+     * Lệnh PENDING đã commit, x10, margin đã khoá theo giá lệnh như khi đặt lệnh
+     * (ví lên version và được đưa vào cache tài khoản).
+     */
+    FuturesOrder order(String uid, String symbol, FuturesOrder.OrderSide side, FuturesOrder.OrderType type,
+            String price, String quantity) {
+        FuturesOrder order = new FuturesOrder();
+        order.setId(orders.size() + 1);
+        order.setUid(uid);
+        order.setSymbol(symbol);
+        order.setSide(side);
+        order.setPositionSide(side == FuturesOrder.OrderSide.BUY ? FuturesOrder.PositionSide.LONG
+                : FuturesOrder.PositionSide.SHORT);
+        order.setType(type);
+        order.setPrice(new BigDecimal(price));
+        order.setQuantity(new BigDecimal(quantity));
+        order.setLeverage(10);
+        order.setStatus(FuturesOrder.OrderStatus.PENDING);
+        orders.put(order.getId(), copy(order));
+        FuturesWallet wallet = wallets.get(uid);
+        wallet.setLockedBalance(wallet.getLockedBalance()
+                .add(order.getPrice().multiply(order.getQuantity()).divide(BigDecimal.TEN)));
+        wallet.setVersion(wallet.getVersion() + 1);
+        if (accountCache != null) {
+            accountCache.putAfterCommit(copy(wallet));
+        }
+        return order;
+    }
+
+    // Ví trả ra là bản sao detached; ghi với version cũ bị từ chối như JPA
+    private FuturesWalletRepository walletRepository() {
+        return (FuturesWalletRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FuturesWalletRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findByUidAndCurrency":
+                            return Optional.ofNullable(wallets.get((String) args[0])).map(FuturesTestExchange::copy);
+                        case "saveAll": {
+                            List<FuturesWallet> saved = new ArrayList<>();
+                            for (Object item : (Iterable<?>) args[0]) {
+                                FuturesWallet wallet = (FuturesWallet) item;
+                                FuturesWallet stored = wallets.get(wallet.getUid());
+                                if (!stored.getVersion().equals(wallet.getVersion())) {
+                                    walletConflicts++;
+                                    throw new ObjectOptimisticLockingFailureException(FuturesWallet.class,
+                                            wallet.getId());
+                                }
+                                FuturesWallet next = copy(wallet);
+                                next.setVersion(wallet.getVersion() + 1);
+                                wallets.put(next.getUid(), next);
+                                saved.add(copy(next));
+                            }
+                            return saved;
+                        }
+                        case "flush":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private FuturesPositionRepository positionRepository() {
+        return (FuturesPositionRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FuturesPositionRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findByStatus":
+                            return positions.values().stream().filter(p -> p.getStatus() == args[0])
+                                    .map(FuturesTestExchange::copy).toList();
+                        case "findById":
+                            return Optional.ofNullable(positions.get((Long) args[0])).map(FuturesTestExchange::copy);
+                        case "findByUidAndSymbolAndStatus":
+                            return positions.values().stream()
+                                    .filter(p -> p.getUid().equals(args[0]) && p.getSymbol().equals(args[1])
+                                            && p.getStatus() == args[2])
+                                    .findFirst().map(FuturesTestExchange::copy);
+                        case "saveAll": {
+                            List<FuturesPosition> saved = new ArrayList<>();
+                            for (Object item : (Iterable<?>) args[0]) {
+                                FuturesPosition next = copy((FuturesPosition) item);
+                                if (next.getId() == 0) {
+                                    next.setId(positions.size() + 1);
+                                    next.setVersion(0L);
+                                } else {
+                                    next.setVersion(next.getVersion() + 1);
+                                }
+                                positions.put(next.getId(), next);
+                                saved.add(copy(next));
+                            }
+                            return saved;
+                        }
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private FuturesOrderRepository orderRepository() {
+        return (FuturesOrderRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FuturesOrderRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findByStatusInOrderByIdAsc":
+                            return orders.values().stream().filter(o -> ((List<?>) args[0]).contains(o.getStatus()))
+                                    .sorted(Comparator.comparingLong(FuturesOrder::getId))
+                                    .map(FuturesTestExchange::copy).toList();
+                        case "findBySymbolAndStatusInOrderByIdAsc":
+                            return orders.values().stream().filter(o -> o.getSymbol().equals(args[0])
+                                    && ((List<?>) args[1]).contains(o.getStatus()))
+                                    .sorted(Comparator.comparingLong(FuturesOrder::getId))
+                                    .map(FuturesTestExchange::copy).toList();
+                        case "findById":
+                            return Optional.ofNullable(orders.get((Long) args[0])).map(FuturesTestExchange::copy);
+                        case "save": {
+                            FuturesOrder order = (FuturesOrder) args[0];
+                            if (order.getId() == 0) {
+                                order.setId(orders.size() + 1);
+                            }
+                            orders.put(order.getId(), copy(order));
+                            return order;
+                        }
+                        case "saveAll": {
+                            if (failingOrderWrites > 0) {
+                                failingOrderWrites--;
+                                throw new DataAccessResourceFailureException("connection lost");
+                            }
+                            List<FuturesOrder> saved = new ArrayList<>();
+                            for (Object item : (Iterable<?>) args[0]) {
+                                FuturesOrder order = (FuturesOrder) item;
+                                orders.put(order.getId(), copy(order));
+                                saved.add(order);
+                            }
+                            return saved;
+                        }
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private FuturesInsuranceFundRepository fundRepository() {
+        return (FuturesInsuranceFundRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FuturesInsuranceFundRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findByCurrency":
+                            return Optional.of(fund);
+                        case "addBalance":
+                            fund.setBalance(fund.getBalance().add((BigDecimal) args[1]));
+                            return 1;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static FuturesWallet copy(FuturesWallet wallet) {
+        FuturesWallet copy = new FuturesWallet();
+        copy.setId(wallet.getId());
+        copy.setUid(wallet.getUid());
+        copy.setCurrency(wallet.getCurrency());
+        copy.setBalance(wallet.getBalance());
+        copy.setLockedBalance(wallet.getLockedBalance());
+        copy.setVersion(wallet.getVersion());
+        return copy;
+    }
+
+    private static FuturesPosition copy(FuturesPosition position) {
+        FuturesPosition copy = new FuturesPosition();
+        copy.setId(position.getId());
+        copy.setUid(position.getUid());
+        copy.setSymbol(position.getSymbol());
+        copy.setSide(position.getSide());
+        copy.setEntryPrice(position.getEntryPrice());
+        copy.setQuantity(position.getQuantity());
+        copy.setLeverage(position.getLeverage());
+        copy.setMargin(position.getMargin());
+        copy.setLiquidationPrice(position.getLiquidationPrice());
+        copy.setStatus(position.getStatus());
+        copy.setVersion(position.getVersion());
+        return copy;
+    }
+
+    private static FuturesOrder copy(FuturesOrder order) {
+        FuturesOrder copy = new FuturesOrder();
+        copy.setId(order.getId());
+        copy.setUid(order.getUid());
+        copy.setSymbol(order.getSymbol());
+        copy.setSide(order.getSide());
+        copy.setPositionSide(order.getPositionSide());
+        copy.setType(order.getType());
+        copy.setPrice(order.getPrice());
+        copy.setQuantity(order.getQuantity());
+        copy.setStopPrice(order.getStopPrice());
+        copy.setWorkingType(order.getWorkingType());
+        copy.setLeverage(order.getLeverage());
+        copy.setStatus(order.getStatus());
+        return copy;
+    }
+
+    /**
+     * Lane chạy ngay trên thread gọi: task gửi từ trong một task được xếp sau và
+     * chạy khi task hiện tại xong, như trên lane thật.
+     */
+    private static class InlineSequencer extends MatchingSequencer {
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        @Override
+        public void submit(String symbol, Runnable task) {
+            tasks.add(task);
+            if (running) {
+                return;
+            }
+            running = true;
+            try {
+                while (!tasks.isEmpty()) {
+                    tasks.poll().run();
+                }
+            } finally {
+                running = false;
+            }
+        }
+
+        @Override
+        public <T> CompletableFuture<T> call(String symbol, Supplier<T> task) {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            submit(symbol, () -> result.complete(task.get()));
+            return result;
+        }
+
+        @Override
+        public boolean isCurrentLane(String symbol) {
+            return running;
+        }
+
+        @Override
+        public int getQueueDepth(String symbol) {
+            return tasks.size();
+        }
+    }
+}
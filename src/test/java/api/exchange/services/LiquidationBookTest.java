@@ -0,0 +1,111 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import api.exchange.models.FuturesPosition;
+import api.exchange.models.FuturesPosition.PositionSide;
+
+class LiquidationBookTest {
+
+    private static final SymbolSpec SPEC = new SymbolSpec("BTCUSDT", new BigDecimal("0.1"),
+            new BigDecimal("0.001"));
+
+    private LiquidationBook book;
+
+    @BeforeEach
+    void setUp() {
+        book = new LiquidationBook(SPEC);
+    }
+
+    @Test
+    void popsOnlyCrossedPositionsNearestFirst() {
+        book.upsert(position(1, PositionSide.LONG, "90.0", "100", 10));
+        book.upsert(position(2, PositionSide.LONG, "95.0", "100", 10));
+        book.upsert(position(3, PositionSide.SHORT, "110.0", "100", 10));
+        book.upsert(position(4, PositionSide.SHORT, "105.0", "100", 10));
+
+        assertEquals(List.of(), ids(book.popCrossed(new BigDecimal("100"))));
+        assertEquals(List.of(2L), ids(book.popCrossed(new BigDecimal("95.0"))));
+        assertEquals(List.of(4L, 3L), ids(book.popCrossed(new BigDecimal("110.0"))));
+        assertEquals(1, book.size());
+    }
+
+    @Test
+    void liquidationPriceRoundsTowardsThePosition() {
+        // LONG 95.05 làm tròn xuống 95.0, SHORT 104.95 làm tròn lên 105.0
+        book.upsert(position(1, PositionSide.LONG, "95.05", "100", 10));
+        book.upsert(position(2, PositionSide.SHORT, "104.95", "100", 10));
+
+        assertTrue(book.popCrossed(new BigDecimal("95.1")).isEmpty());
+        assertTrue(book.popCrossed(new BigDecimal("104.9")).isEmpty());
+        assertEquals(List.of(1L), ids(book.popCrossed(new BigDecimal("95.0"))));
+        assertEquals(List.of(2L), ids(book.popCrossed(new BigDecimal("105.0"))));
+    }
+
+    @Test
+    void upsertMovesAndRemoveDropsPosition() {
+        book.upsert(position(1, PositionSide.LONG, "90.0", "100", 10));
+        book.upsert(position(1, PositionSide.LONG, "80.0", "100", 10));
+        book.upsert(position(2, PositionSide.LONG, "85.0", "100", 10));
+        book.remove(2);
+
+        assertEquals(1, book.size());
+        assertTrue(book.popCrossed(new BigDecimal("85.0")).isEmpty());
+        List<LiquidationBook.Entry> crossed = book.popCrossed(new BigDecimal("80.0"));
+        assertEquals(List.of(1L), ids(crossed));
+
+        book.reinsert(crossed.get(0));
+        assertEquals(1, book.size());
+        assertEquals(List.of(1L), ids(book.popCrossed(new BigDecimal("79.0"))));
+        assertTrue(book.isEmpty());
+    }
+
+    @Test
+    void adlQueueRanksByPnlTimesLeverage() {
+        // Ở mark 120: #1 +20% x5 = 1.0, #2 +9.09% x20 = 1.82, #3 +20% x2 = 0.4
+        book.upsert(position(1, PositionSide.LONG, "50.0", "100", 5));
+        book.upsert(position(2, PositionSide.LONG, "50.0", "110", 20));
+        book.upsert(position(3, PositionSide.LONG, "50.0", "100", 2));
+        book.upsert(position(4, PositionSide.SHORT, "150.0", "100", 10));
+
+        PriorityQueue<LiquidationBook.Entry> queue = book.adlQueue(PositionSide.LONG, new BigDecimal("120"));
+
+        List<Long> order = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            order.add(queue.poll().getPositionId());
+        }
+        assertEquals(List.of(2L, 1L, 3L), order);
+    }
+
+    private static List<Long> ids(List<LiquidationBook.Entry> entries) {
+        List<Long> ids = new ArrayList<>();
+        for (LiquidationBook.Entry entry : entries) {
+            ids.add(entry.getPositionId());
+        }
+        return ids;
+    }
+
+    private static FuturesPosition position(long id, PositionSide side, String liquidationPrice, String entryPrice,
+            int leverage) {
+        FuturesPosition position = new FuturesPosition();
+        position.setId(id);
+        position.setUid("user-" + id);
+        position.setSymbol(SPEC.getSymbol());
+        position.setSide(side);
+        position.setLiquidationPrice(new BigDecimal(liquidationPrice));
+        position.setEntryPrice(new BigDecimal(entryPrice));
+        position.setQuantity(BigDecimal.ONE);
+        position.setLeverage(leverage);
+        position.setStatus(FuturesPosition.PositionStatus.OPEN);
+        return position;
+    }
+}
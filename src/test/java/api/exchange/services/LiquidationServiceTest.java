@@ -0,0 +1,89 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import api.exchange.models.FuturesOrder;
+import api.exchange.models.FuturesPosition;
+
+/**
+ * Thanh lý đi qua engine khớp và tầng thanh toán thật trên một "DB" trong bộ
+ * nhớ: lãi/lỗ so với giá phá sản đi vào quỹ bảo hiểm, phần book không nhận hết
+ * được ADL vào vị thế đối ứng xếp hạng cao nhất.
+ */
+class LiquidationServiceTest {
+
+    private static final String SYMBOL = "BTCUSDT";
+
+    private final FuturesTestExchange exchange = new FuturesTestExchange(SYMBOL + ":0.1:0.001");
+
+    @BeforeEach
+    void setUp() {
+        // LONG 1 BTC vào 100, x10: margin 10, giá thanh lý = giá phá sản = 90
+        exchange.wallet("liq", "1000", "10");
+        exchange.position("liq", SYMBOL, FuturesPosition.PositionSide.LONG, "100", "1", 10, "90");
+        // Hai vị thế SHORT đối ứng: cùng PnL%, x20 xếp hạng ADL trước x5
+        exchange.wallet("s1", "1000", "20");
+        exchange.position("s1", SYMBOL, FuturesPosition.PositionSide.SHORT, "100", "1", 5, "120");
+        exchange.wallet("s2", "1000", "5");
+        exchange.position("s2", SYMBOL, FuturesPosition.PositionSide.SHORT, "100", "1", 20, "105");
+        exchange.wallet("mm", "1000", "0");
+    }
+
+    @Test
+    void fillAboveBankruptcyPriceCreditsInsuranceFund() {
+        exchange.order("mm", SYMBOL, FuturesOrder.OrderSide.BUY, FuturesOrder.OrderType.LIMIT, "95", "1");
+        exchange.start();
+
+        exchange.liquidationService.onMarkPrice(SYMBOL, new BigDecimal("89"));
+
+        FuturesPosition liquidated = exchange.position("liq", SYMBOL);
+        assertEquals(FuturesPosition.PositionStatus.LIQUIDATED, liquidated.getStatus());
+        // Mất đúng margin; phần lỗ chỉ 5 nên 5 còn lại thuộc về quỹ
+        assertAmount("990", exchange.wallets.get("liq").getBalance());
+        assertAmount("0", exchange.wallets.get("liq").getLockedBalance());
+        assertAmount("5", exchange.fund.getBalance());
+        assertAmount("5", exchange.insuranceFundService.getAvailable());
+        FuturesPosition maker = exchange.position("mm", SYMBOL);
+        assertAmount("1", maker.getQuantity());
+        assertAmount("95", maker.getEntryPrice());
+        assertAmount("9.5", exchange.wallets.get("mm").getLockedBalance());
+        // Book nhận hết nên không vị thế đối ứng nào bị ADL
+        assertAmount("1", exchange.position("s1", SYMBOL).getQuantity());
+        assertAmount("1", exchange.position("s2", SYMBOL).getQuantity());
+    }
+
+    @Test
+    void shortfallIsPaidFromReservedFundAndRemainderIsDeleveraged() {
+        exchange.fund.setBalance(new BigDecimal("100"));
+        // Quỹ giữ 0.9 (1% notional tại giá phá sản) nên lệnh được khớp tới 89.1
+        exchange.order("mm", SYMBOL, FuturesOrder.OrderSide.BUY, FuturesOrder.OrderType.LIMIT, "89.5", "0.4");
+        exchange.start();
+
+        exchange.liquidationService.onMarkPrice(SYMBOL, new BigDecimal("89"));
+
+        assertEquals(FuturesPosition.PositionStatus.LIQUIDATED, exchange.position("liq", SYMBOL).getStatus());
+        assertAmount("990", exchange.wallets.get("liq").getBalance());
+        assertAmount("0", exchange.wallets.get("liq").getLockedBalance());
+        // 0.4 khớp tại 89.5, thấp hơn giá phá sản 0.5: quỹ bù 0.2
+        assertAmount("99.8", exchange.fund.getBalance());
+        assertAmount("99.8", exchange.insuranceFundService.getAvailable());
+        // 0.6 còn lại đóng vào s2 tại giá phá sản: lãi (100 - 90) * 0.6
+        FuturesPosition s2 = exchange.position("s2", SYMBOL);
+        assertAmount("0.4", s2.getQuantity());
+        assertEquals(FuturesPosition.PositionStatus.OPEN, s2.getStatus());
+        assertAmount("1006", exchange.wallets.get("s2").getBalance());
+        assertAmount("2", exchange.wallets.get("s2").getLockedBalance());
+        assertAmount("1", exchange.position("s1", SYMBOL).getQuantity());
+        assertAmount("1000", exchange.wallets.get("s1").getBalance());
+        assertAmount("0.4", exchange.position("mm", SYMBOL).getQuantity());
+    }
+
+    private static void assertAmount(String expected, BigDecimal actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo(actual), "expected " + expected + " but was " + actual);
+    }
+}
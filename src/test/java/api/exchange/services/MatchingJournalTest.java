@@ -0,0 +1,198 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderStatus;
+import api.exchange.models.OrderBooks.OrderType;
+import api.exchange.models.OrderBooks.TradeType;
+
+class MatchingJournalTest {
+
+    private static final String BTC = "BTC/USDT";
+    private static final String ETH = "ETH/USDT";
+
+    @TempDir
+    Path dir;
+
+    private final List<MatchingJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (MatchingJournal journal : opened) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void recoverReplaysOrdersFillsCancelsAndAmends() throws IOException {
+        MatchingJournal journal = open();
+        OrderBooks filled = order(1L, BTC, OrderType.SELL, "100.00", "1");
+        OrderBooks cancelled = order(2L, BTC, OrderType.SELL, "101.00", "1");
+        OrderBooks resting = order(3L, BTC, OrderType.BUY, "99.00", "2");
+        journal.appendOrder(filled);
+        journal.appendOrder(cancelled);
+        journal.appendOrder(resting);
+        journal.appendFill(BTC, 1L, 4L, 10000L, 1000L);
+        journal.appendCancel(BTC, 2L);
+        journal.appendAmend(BTC, 3L, 5000L);
+        journal.appendFill(BTC, 3L, 5L, 9900L, 1500L);
+
+        MatchingJournal.Recovery recovery = open().recover();
+
+        LinkedHashMap<Long, OrderBooks> book = recovery.getBooks().get(BTC);
+        assertEquals(List.of(3L), new ArrayList<>(book.keySet()));
+        OrderBooks recovered = book.get(3L);
+        assertEquals(0, new BigDecimal("5").compareTo(recovered.getQuantity()));
+        assertEquals(0, new BigDecimal("1.5").compareTo(recovered.getFilledQuantity()));
+        assertEquals(OrderStatus.PARTIALLY_FILLED, recovered.getStatus());
+        assertEquals(resting.getCreatedAt(), recovered.getCreatedAt());
+        assertEquals(OrderStatus.FILLED, recovery.getOrders().get(1L).getStatus());
+        assertEquals(OrderStatus.CANCELLED, recovery.getOrders().get(2L).getStatus());
+    }
+
+    @Test
+    void reopenContinuesTheSequence() throws IOException {
+        MatchingJournal journal = open();
+        journal.appendOrder(order(1L, BTC, OrderType.BUY, "99.00", "1"));
+        journal.appendCancel(BTC, 1L);
+        journal.close();
+
+        MatchingJournal reopened = open();
+        assertEquals(2, reopened.lastSequence());
+        reopened.appendOrder(order(2L, BTC, OrderType.BUY, "98.00", "1"));
+        assertEquals(3, reopened.lastSequence());
+    }
+
+    @Test
+    void snapshotPlusTailRestoresTimePriority() throws IOException {
+        MatchingJournal journal = open();
+        OrderBooks first = order(1L, BTC, OrderType.BUY, "99.00", "1");
+        OrderBooks second = order(2L, BTC, OrderType.BUY, "99.00", "1");
+        journal.appendOrder(first);
+        journal.appendOrder(second);
+        journal.writeSnapshot(List.of(journal.snapshotOf(BTC, List.of(first, second))));
+        journal.appendOrder(order(3L, BTC, OrderType.BUY, "99.00", "1"));
+        journal.appendCancel(BTC, 1L);
+
+        MatchingJournal.Recovery recovery = open().recover();
+
+        assertEquals(List.of(2L, 3L), new ArrayList<>(recovery.getBooks().get(BTC).keySet()));
+    }
+
+    @Test
+    void segmentsAreKeptUntilSnapshotCoversEverySymbol() throws IOException {
+        MatchingJournal journal = open();
+        // Mỗi cặp ORDER + CANCEL khoảng 110 byte: 12000 cặp vượt segment 1 MB
+        for (long id = 1; id <= 12000; id++) {
+            journal.appendOrder(order(id, id % 2 == 0 ? BTC : ETH, OrderType.BUY, "99.00", "1"));
+            journal.appendCancel(id % 2 == 0 ? BTC : ETH, id);
+        }
+        assertTrue(segmentCount() > 1);
+        long before = segmentCount();
+
+        journal.writeSnapshot(List.of(journal.snapshotOf(BTC, List.of())));
+        assertEquals(before, segmentCount());
+
+        journal.writeSnapshot(List.of(journal.snapshotOf(BTC, List.of()), journal.snapshotOf(ETH, List.of())));
+        assertEquals(1, segmentCount());
+        assertTrue(open().recover().getBooks().getOrDefault(ETH, new LinkedHashMap<>()).isEmpty());
+    }
+
+    @Test
+    void recordsOfATransactionAreWrittenOnlyWhenItCommits() throws IOException {
+        MatchingJournal journal = open();
+        OrderBooks maker = order(1L, BTC, OrderType.SELL, "100.00", "2");
+        journal.appendOrder(maker);
+
+        // Lượt khớp rollback (thanh toán lỗi): fill không được vào journal
+        inTransaction(TransactionSynchronization.STATUS_ROLLED_BACK,
+                () -> journal.appendFill(BTC, 1L, 2L, 10000L, 1000L));
+        assertEquals(1, journal.lastSequence());
+
+        inTransaction(TransactionSynchronization.STATUS_COMMITTED, () -> {
+            OrderBooks taker = order(3L, BTC, OrderType.BUY, "100.00", "1");
+            journal.appendOrder(taker);
+            // Trạng thái được mã hoá lúc append, không phải lúc commit
+            taker.setQuantity(new BigDecimal("5"));
+            journal.appendFill(BTC, 1L, 3L, 10000L, 1000L);
+            assertEquals(1, journal.lastSequence());
+        });
+        assertEquals(3, journal.lastSequence());
+
+        MatchingJournal.Recovery recovery = open().recover();
+        OrderBooks recovered = recovery.getBooks().get(BTC).get(1L);
+        assertEquals(0, BigDecimal.ONE.compareTo(recovered.getFilledQuantity()));
+        assertEquals(OrderStatus.FILLED, recovery.getOrders().get(3L).getStatus());
+        assertEquals(0, BigDecimal.ONE.compareTo(recovery.getOrders().get(3L).getQuantity()));
+    }
+
+    private static void inTransaction(int status, Runnable body) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            body.run();
+            for (TransactionSynchronization synchronization : TransactionSynchronizationManager
+                    .getSynchronizations()) {
+                synchronization.afterCompletion(status);
+            }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private MatchingJournal open() throws IOException {
+        SymbolSpecRegistry registry = new SymbolSpecRegistry();
+        ReflectionTestUtils.setField(registry, "symbolSpecs", BTC + ":0.01:0.001," + ETH + ":0.01:0.001");
+        ReflectionTestUtils.setField(registry, "futuresSymbolSpecs", "");
+        ReflectionTestUtils.setField(registry, "defaultTickSize", new BigDecimal("0.00000001"));
+        ReflectionTestUtils.setField(registry, "defaultLotSize", new BigDecimal("0.00000001"));
+        registry.load();
+
+        MatchingJournal journal = new MatchingJournal();
+        ReflectionTestUtils.setField(journal, "journalDir", dir.toString());
+        ReflectionTestUtils.setField(journal, "segmentSizeMb", 1);
+        ReflectionTestUtils.setField(journal, "symbolSpecRegistry", registry);
+        journal.open();
+        opened.add(journal);
+        return journal;
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    private static OrderBooks order(Long id, String symbol, OrderType side, String price, String quantity) {
+        return OrderBooks.builder()
+                .id(id)
+                .symbol(symbol)
+                .uid("user-" + id)
+                .orderType(side)
+                .tradeType(TradeType.LIMIT)
+                .price(new BigDecimal(price))
+                .quantity(new BigDecimal(quantity))
+                .filledQuantity(BigDecimal.ZERO)
+                .status(OrderStatus.ACTIVE)
+                .createdAt(LocalDateTime.of(2024, 1, 1, 0, 0).plusNanos(id * 1000))
+                .build();
+    }
+}
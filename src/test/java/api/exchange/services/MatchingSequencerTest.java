@@ -0,0 +1,91 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class MatchingSequencerTest {
+
+    private MatchingSequencer sequencer;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        sequencer = new MatchingSequencer();
+        // Một lane cho mỗi nhóm để hai symbol chắc chắn dùng chung lane
+        ReflectionTestUtils.setField(sequencer, "configuredLanes", 1);
+        ReflectionTestUtils.setField(sequencer, "configuredFuturesLanes", 1);
+        ReflectionTestUtils.setField(sequencer, "queueCapacity", 8);
+        ReflectionTestUtils.setField(sequencer, "meterRegistry", new SimpleMeterRegistry());
+        sequencer.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        sequencer.shutdown();
+    }
+
+    @Test
+    void queueDepthCountsOnlyTheSymbolsOwnTasks() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        sequencer.submit("futures:BTCUSDT", () -> {
+            running.countDown();
+            await(release);
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            sequencer.submit("futures:BTCUSDT", () -> {
+            });
+        }
+        sequencer.submit("futures:ETHUSDT", () -> {
+        });
+
+        // Task đang chạy không còn tính là chờ
+        assertEquals(3, sequencer.getQueueDepth("futures:BTCUSDT"));
+        assertEquals(1, sequencer.getQueueDepth("futures:ETHUSDT"));
+        assertEquals(0, sequencer.getQueueDepth("futures:SOLUSDT"));
+
+        release.countDown();
+        sequencer.call("futures:ETHUSDT", () -> null).get(5, TimeUnit.SECONDS);
+        assertEquals(0, sequencer.getQueueDepth("futures:BTCUSDT"));
+        assertEquals(0, sequencer.getQueueDepth("futures:ETHUSDT"));
+    }
+
+    @Test
+    void rejectedTaskIsNotCounted() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        sequencer.submit("BTCUSDT", () -> {
+            running.countDown();
+            await(release);
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 8; i++) {
+            sequencer.submit("BTCUSDT", () -> {
+            });
+        }
+
+        assertThrows(RejectedExecutionException.class, () -> sequencer.submit("BTCUSDT", () -> {
+        }));
+        assertEquals(8, sequencer.getQueueDepth("BTCUSDT"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
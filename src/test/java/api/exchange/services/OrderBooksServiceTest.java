@@ -0,0 +1,206 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderStatus;
+import api.exchange.models.OrderBooks.OrderType;
+import api.exchange.models.OrderBooks.TradeType;
+import api.exchange.repository.OrderBooksRepository;
+import api.exchange.repository.SpotWalletHistoryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Gộp lệnh cùng giá: số dư của phần thêm được khoá cùng lúc với việc cộng khối
+ * lượng, trước khi phần thêm có thể khớp trên book.
+ */
+class OrderBooksServiceTest {
+
+    private static final String SYMBOL = "BTC/USDT";
+
+    private final Map<String, BigDecimal> available = new HashMap<>();
+    private final Map<String, BigDecimal> locked = new HashMap<>();
+    private final List<BigDecimal> addedQuantities = new ArrayList<>();
+    private final List<OrderBooks> savedOrders = new ArrayList<>();
+
+    private MatchingSequencer sequencer;
+    private SpotOrderBook book;
+    private OrderBooks resting;
+    private OrderBooksService service;
+
+    @BeforeEach
+    void setUp() {
+        SymbolSpecRegistry specs = new SymbolSpecRegistry();
+        ReflectionTestUtils.setField(specs, "symbolSpecs", SYMBOL + ":0.01:0.001");
+        ReflectionTestUtils.setField(specs, "futuresSymbolSpecs", "");
+        specs.load();
+        SymbolSpec spec = specs.get(SYMBOL);
+        book = new SpotOrderBook(spec, new DepthBook(spec, 20));
+        resting = order(OrderType.BUY, "100.00", "1");
+        resting.setId(1L);
+        book.add(resting);
+        locked.put("USDT", new BigDecimal("100"));
+
+        sequencer = new MatchingSequencer();
+        ReflectionTestUtils.setField(sequencer, "configuredLanes", 1);
+        ReflectionTestUtils.setField(sequencer, "configuredFuturesLanes", 1);
+        ReflectionTestUtils.setField(sequencer, "queueCapacity", 8);
+        ReflectionTestUtils.setField(sequencer, "meterRegistry", new SimpleMeterRegistry());
+        sequencer.start();
+
+        service = new OrderBooksService();
+        ReflectionTestUtils.setField(service, "orderBooksRepository", orderRepository());
+        ReflectionTestUtils.setField(service, "spotWalletHistoryRepository", (SpotWalletHistoryRepository) Proxy
+                .newProxyInstance(getClass().getClassLoader(), new Class<?>[] { SpotWalletHistoryRepository.class },
+                        (proxy, method, args) -> args[0]));
+        ReflectionTestUtils.setField(service, "spotWalletService", new WalletService());
+        ReflectionTestUtils.setField(service, "spotOrderBookService", new SpotOrderBookService() {
+            @Override
+            public SpotOrderBook getBook(String symbol) {
+                return book;
+            }
+        });
+        ReflectionTestUtils.setField(service, "spotRedisBook", new SpotRedisBook() {
+            @Override
+            public void updateState(OrderBooks order) {
+            }
+        });
+        ReflectionTestUtils.setField(service, "matchingJournal", new MatchingJournal() {
+            @Override
+            public void appendAmend(String symbol, Long orderId, long quantityLots) {
+            }
+        });
+        ReflectionTestUtils.setField(service, "matchingSequencer", sequencer);
+        ReflectionTestUtils.setField(service, "symbolSpecRegistry", specs);
+        ReflectionTestUtils.setField(service, "matchingMode", "memory");
+        ReflectionTestUtils.setField(service, "self", service);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sequencer.shutdown();
+    }
+
+    @Test
+    void mergeLocksBalanceTogetherWithTheAddedQuantity() {
+        available.put("USDT", new BigDecimal("500"));
+
+        assertEquals(OrderIntakePipeline.Outcome.MERGED,
+                service.acceptOrder(order(OrderType.BUY, "100.00", "2"), "u"));
+
+        assertAmount("300", available.get("USDT"));
+        assertAmount("300", locked.get("USDT"));
+        assertEquals(1, addedQuantities.size());
+        assertAmount("2", addedQuantities.get(0));
+        assertAmount("3", book.get(1L).getQuantity());
+        assertEquals(List.of(List.of("100.00", "3.000")), book.getDepth().publish().bids(5));
+    }
+
+    @Test
+    void mergeWithoutBalanceLeavesRestingOrderUntouched() {
+        available.put("USDT", new BigDecimal("150"));
+
+        assertEquals(OrderIntakePipeline.Outcome.INSUFFICIENT_BALANCE,
+                service.acceptOrder(order(OrderType.BUY, "100.00", "2"), "u"));
+
+        // Phần thêm không khớp được vì không được cộng vào lệnh
+        assertTrue(addedQuantities.isEmpty());
+        assertAmount("1", book.get(1L).getQuantity());
+        assertAmount("150", available.get("USDT"));
+        assertEquals(List.of(List.of("100.00", "1.000")), book.getDepth().publish().bids(5));
+    }
+
+    @Test
+    void restingOrderThatLeftTheBookIsNotExtended() {
+        available.put("USDT", new BigDecimal("500"));
+        book.cancel(1L);
+        OrderBooks added = order(OrderType.BUY, "100.00", "2");
+
+        assertEquals(OrderIntakePipeline.Outcome.ACCEPTED, service.acceptOrder(added, "u"));
+
+        assertTrue(addedQuantities.isEmpty());
+        assertEquals(List.of(added), savedOrders);
+        assertAmount("300", available.get("USDT"));
+        assertNull(book.get(1L));
+    }
+
+    private OrderBooks order(OrderType side, String price, String quantity) {
+        OrderBooks order = new OrderBooks();
+        order.setUid("u");
+        order.setSymbol(SYMBOL);
+        order.setOrderType(side);
+        order.setTradeType(TradeType.LIMIT);
+        order.setPrice(new BigDecimal(price));
+        order.setQuantity(new BigDecimal(quantity));
+        order.setFilledQuantity(BigDecimal.ZERO);
+        order.setStatus(OrderStatus.ACTIVE);
+        return order;
+    }
+
+    private static void assertAmount(String expected, BigDecimal actual) {
+        assertEquals(0, new BigDecimal(expected).compareTo(actual), "expected " + expected + " but was " + actual);
+    }
+
+    // Lệnh cùng giá trong DB là bản sao detached của lệnh trên book
+    private OrderBooksRepository orderRepository() {
+        return (OrderBooksRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { OrderBooksRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findByUidAndSymbolAndPriceAndStatusAndOrderTypeAndTradeType": {
+                            OrderBooks stored = order(resting.getOrderType(), "100.00", "1");
+                            stored.setId(resting.getId());
+                            return stored;
+                        }
+                        case "addQuantity":
+                            addedQuantities.add((BigDecimal) args[1]);
+                            return 1;
+                        case "saveAndFlush":
+                            savedOrders.add((OrderBooks) args[0]);
+                            return args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    // Ví trong bộ nhớ: khoá chỉ thành công khi đủ số dư khả dụng
+    private class WalletService extends SpotWalletService {
+        @Override
+        public Boolean checkBalance(OrderBooks entity, String uid) {
+            return true;
+        }
+
+        @Override
+        public void checkWalletRecive(OrderBooks entity, String uid) {
+        }
+
+        @Override
+        public boolean adjustLockedBalance(String uid, String currency, BigDecimal delta) {
+            if (available.get(currency).compareTo(delta) < 0) {
+                return false;
+            }
+            available.merge(currency, delta.negate(), BigDecimal::add);
+            locked.merge(currency, delta, BigDecimal::add);
+            return true;
+        }
+
+        @Override
+        public void lockBalanceLimit(OrderBooks entity, String uid) {
+            adjustLockedBalance(uid, "USDT", entity.getPrice().multiply(entity.getQuantity()));
+        }
+    }
+}
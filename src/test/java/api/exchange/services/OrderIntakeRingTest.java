@@ -0,0 +1,95 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class OrderIntakeRingTest {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(4, ring(3, 1).capacity());
+        assertEquals(4, ring(4, 1).capacity());
+        assertEquals(8, ring(5, 1).capacity());
+        assertEquals(1024, ring(1024, 1).capacity());
+    }
+
+    @Test
+    void stageOnlySeesSequencesPublishedInOrder() {
+        OrderIntakeRing ring = ring(4, 1, 1);
+        long first = ring.tryClaim();
+        long second = ring.tryClaim();
+
+        // Slot sau được publish trước: stage đầu chưa được đi qua slot trước
+        ring.publish(second);
+        assertEquals(-1, ring.availableFor(0, 0));
+        ring.publish(first);
+        assertEquals(second, ring.availableFor(0, 0));
+
+        // Stage sau chỉ đi tới sequence stage trước đã xử lý
+        assertEquals(-1, ring.availableFor(1, 0));
+        ring.sequence(0, 0).set(first);
+        assertEquals(first, ring.availableFor(1, 0));
+    }
+
+    @Test
+    void slowestHandlerOfAStageGatesTheNextStage() {
+        OrderIntakeRing ring = ring(4, 2, 1);
+        ring.sequence(0, 0).set(3);
+        ring.sequence(0, 1).set(1);
+
+        assertEquals(1, ring.availableFor(1, 0));
+    }
+
+    @Test
+    void slotIsReusedOnlyAfterLastStageAndReply() {
+        OrderIntakeRing ring = ring(4, 1);
+        long first = claim(ring);
+        long last = first;
+        for (int i = 1; i < ring.capacity(); i++) {
+            last = claim(ring);
+        }
+        assertEquals(-1, ring.tryClaim());
+        assertEquals(4, ring.backlog());
+
+        ring.sequence(0, 0).set(last);
+        // Stage cuối đã xử lý nhưng người gọi chưa đọc kết quả
+        assertEquals(-1, ring.tryClaim());
+
+        ring.get(first).awaitingReply = false;
+        long next = ring.tryClaim();
+        assertEquals(4, next);
+        assertSame(ring.get(first), ring.get(next));
+    }
+
+    @Test
+    void riskStageAndTimedOutCallerClaimSlotExclusively() {
+        OrderIntakeRing ring = ring(2, 1);
+        OrderIntakeRing.OrderEvent riskFirst = ring.get(claim(ring));
+        assertTrue(riskFirst.claimForRisk());
+        assertFalse(riskFirst.abandon());
+
+        OrderIntakeRing.OrderEvent callerFirst = ring.get(claim(ring));
+        assertTrue(callerFirst.abandon());
+        assertFalse(callerFirst.claimForRisk());
+
+        // reset trả slot về trạng thái chờ cho lần claim sau
+        callerFirst.reset(5, null, "u");
+        assertTrue(callerFirst.claimForRisk());
+    }
+
+    private static long claim(OrderIntakeRing ring) {
+        long sequence = ring.tryClaim();
+        ring.get(sequence).reset(sequence, null, "u");
+        ring.publish(sequence);
+        return sequence;
+    }
+
+    private static OrderIntakeRing ring(int size, int... handlersPerStage) {
+        return new OrderIntakeRing(size, handlersPerStage, event -> {
+        });
+    }
+}
@@ -0,0 +1,107 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderStatus;
+import api.exchange.models.OrderBooks.OrderType;
+import api.exchange.models.OrderBooks.TradeType;
+import api.exchange.repository.OrderBooksRepository;
+
+class SpotOrderBookServiceTest {
+
+    private static final String SYMBOL = "BTC/USDT";
+
+    private final List<OrderBooks> rows = new ArrayList<>();
+    private final List<OrderBooks> saved = new ArrayList<>();
+    private final List<String> unlocked = new ArrayList<>();
+
+    private SpotOrderBookService service;
+
+    @BeforeEach
+    void setUp() {
+        SymbolSpecRegistry specs = new SymbolSpecRegistry();
+        ReflectionTestUtils.setField(specs, "symbolSpecs", SYMBOL + ":0.01:0.001");
+        ReflectionTestUtils.setField(specs, "futuresSymbolSpecs", "");
+        specs.load();
+        MarketDepthService depth = new MarketDepthService();
+        ReflectionTestUtils.setField(depth, "snapshotLevels", 20);
+        ReflectionTestUtils.setField(depth, "symbolSpecRegistry", specs);
+
+        service = new SpotOrderBookService();
+        ReflectionTestUtils.setField(service, "orderBooksRepository", orderRepository());
+        ReflectionTestUtils.setField(service, "symbolSpecRegistry", specs);
+        ReflectionTestUtils.setField(service, "marketDepthService", depth);
+        ReflectionTestUtils.setField(service, "matchingJournal", new MatchingJournal() {
+            @Override
+            public void appendOrder(OrderBooks order) {
+            }
+        });
+        ReflectionTestUtils.setField(service, "spotWalletService", new SpotWalletService() {
+            @Override
+            public void unlockRemaining(OrderBooks order) {
+                unlocked.add(order.getId() + ":" + order.getRemainingQuantity().stripTrailingZeros().toPlainString());
+            }
+        });
+        ReflectionTestUtils.setField(service, "self", service);
+    }
+
+    @Test
+    void offGridLegacyOrdersAreCancelledAndUnlockedAtLoad() {
+        OrderBooks valid = row(1L, OrderType.BUY, "100.00", "1", "0");
+        // Lưu với lưới 1e-8 trước khi cấu hình spot.symbol-specs
+        OrderBooks offTick = row(2L, OrderType.BUY, "100.005", "1", "0");
+        OrderBooks offLot = row(3L, OrderType.SELL, "101.00", "0.0015", "0.0005");
+
+        SpotOrderBook book = service.getBook(SYMBOL);
+
+        assertEquals(1, book.size());
+        assertTrue(book.contains(valid.getId()));
+        assertEquals(List.of(List.of("100.00", "1.000")), book.getDepth().publish().bids(5));
+        assertTrue(book.getDepth().publish().asks(5).isEmpty());
+        assertEquals(List.of(offTick, offLot), saved);
+        assertEquals(OrderStatus.CANCELLED, offTick.getStatus());
+        assertEquals(OrderStatus.CANCELLED, offLot.getStatus());
+        assertEquals(List.of("2:1", "3:0.001"), unlocked);
+    }
+
+    private OrderBooks row(Long id, OrderType side, String price, String quantity, String filled) {
+        OrderBooks order = new OrderBooks();
+        order.setId(id);
+        order.setUid("u" + id);
+        order.setSymbol(SYMBOL);
+        order.setOrderType(side);
+        order.setTradeType(TradeType.LIMIT);
+        order.setPrice(new BigDecimal(price));
+        order.setQuantity(new BigDecimal(quantity));
+        order.setFilledQuantity(new BigDecimal(filled));
+        order.setStatus(OrderStatus.ACTIVE);
+        rows.add(order);
+        return order;
+    }
+
+    private OrderBooksRepository orderRepository() {
+        return (OrderBooksRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { OrderBooksRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findBySymbolAndStatusInOrderByIdAsc":
+                            return rows;
+                        case "save":
+                            saved.add((OrderBooks) args[0]);
+                            return args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,169 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderType;
+import api.exchange.models.OrderBooks.TradeType;
+
+class SpotOrderBookTest {
+
+    private static final SymbolSpec SPEC = new SymbolSpec("BTCUSDT", new BigDecimal("0.01"),
+            new BigDecimal("0.001"));
+
+    private SpotOrderBook book;
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() {
+        book = new SpotOrderBook(SPEC, new DepthBook(SPEC, 20));
+    }
+
+    @Test
+    void matchesBestPriceFirstThenTimePriority() {
+        OrderBooks first = limit(OrderType.SELL, "100.00", "1");
+        OrderBooks second = limit(OrderType.SELL, "100.00", "1");
+        OrderBooks cheaper = limit(OrderType.SELL, "99.50", "1");
+        book.add(first);
+        book.add(second);
+        book.add(cheaper);
+
+        List<SpotOrderBook.Fill> fills = book.match(limit(OrderType.BUY, "100.00", "2.5"), SpotOrderBook.NO_PRICE);
+
+        assertEquals(3, fills.size());
+        assertSame(cheaper, fills.get(0).getMaker());
+        assertEquals(0, new BigDecimal("99.50").compareTo(fills.get(0).getPrice()));
+        assertSame(first, fills.get(1).getMaker());
+        assertSame(second, fills.get(2).getMaker());
+        assertEquals(0, new BigDecimal("0.5").compareTo(fills.get(2).getQuantity()));
+        // Maker khớp một phần vẫn nằm trên book
+        assertTrue(book.contains(second.getId()));
+        assertFalse(book.contains(first.getId()));
+        assertEquals(1, book.size());
+    }
+
+    @Test
+    void limitTakerStopsAtItsPrice() {
+        book.add(limit(OrderType.SELL, "101.00", "1"));
+
+        List<SpotOrderBook.Fill> fills = book.match(limit(OrderType.BUY, "100.00", "1"), SpotOrderBook.NO_PRICE);
+
+        assertTrue(fills.isEmpty());
+        assertEquals(SPEC.toTicks(new BigDecimal("101.00")), book.bestAsk());
+        assertEquals(SpotOrderBook.NO_PRICE, book.bestBid());
+    }
+
+    @Test
+    void marketMeetsMarketOnlyWithReferencePrice() {
+        OrderBooks restingMarket = market(OrderType.SELL, "1");
+        book.add(restingMarket);
+
+        assertTrue(book.match(market(OrderType.BUY, "1"), SpotOrderBook.NO_PRICE).isEmpty());
+
+        long reference = SPEC.toTicks(new BigDecimal("100.00"));
+        List<SpotOrderBook.Fill> fills = book.match(market(OrderType.BUY, "1"), reference);
+        assertEquals(1, fills.size());
+        assertEquals(reference, fills.get(0).getPriceTicks());
+        assertEquals(0, book.size());
+    }
+
+    @Test
+    void restingMarketOrderMatchesBeforeLimitLevels() {
+        OrderBooks restingMarket = market(OrderType.SELL, "1");
+        book.add(limit(OrderType.SELL, "99.00", "1"));
+        book.add(restingMarket);
+
+        List<SpotOrderBook.Fill> fills = book.match(limit(OrderType.BUY, "100.00", "1"), SpotOrderBook.NO_PRICE);
+
+        assertSame(restingMarket, fills.get(0).getMaker());
+        // Lệnh MARKET khớp theo giá LIMIT của taker
+        assertEquals(SPEC.toTicks(new BigDecimal("100.00")), fills.get(0).getPriceTicks());
+    }
+
+    @Test
+    void cancelRemovesOrderAndEmptyLevelFromDepth() {
+        OrderBooks bid = limit(OrderType.BUY, "100.00", "1");
+        book.add(bid);
+        assertEquals(1, book.getDepth().publish().getBids().size());
+
+        assertSame(bid, book.cancel(bid.getId()));
+        assertNull(book.cancel(bid.getId()));
+        assertEquals(SpotOrderBook.NO_PRICE, book.bestBid());
+        assertTrue(book.getDepth().publish().getBids().isEmpty());
+    }
+
+    @Test
+    void amendQuantityKeepsQueuePositionAndUpdatesDepth() {
+        OrderBooks first = limit(OrderType.BUY, "100.00", "1");
+        OrderBooks second = limit(OrderType.BUY, "100.00", "1");
+        book.add(first);
+        book.add(second);
+
+        book.amendQuantity(first.getId(), SPEC.toLots(new BigDecimal("3")));
+
+        assertEquals(List.of("100.00", "4.000"), book.getDepth().publish().getBids().get(0));
+        List<SpotOrderBook.Fill> fills = book.match(limit(OrderType.SELL, "100.00", "3"), SpotOrderBook.NO_PRICE);
+        assertEquals(1, fills.size());
+        assertSame(first, fills.get(0).getMaker());
+    }
+
+    @Test
+    void addStartsFromFilledQuantity() {
+        OrderBooks partial = limit(OrderType.SELL, "100.00", "2");
+        partial.setFilledQuantity(new BigDecimal("1.5"));
+        book.add(partial);
+
+        List<SpotOrderBook.Fill> fills = book.match(limit(OrderType.BUY, "100.00", "2"), SpotOrderBook.NO_PRICE);
+
+        assertEquals(0, new BigDecimal("0.5").compareTo(fills.get(0).getQuantity()));
+    }
+
+    @Test
+    void restingOrdersRebuildTheSameBook() {
+        OrderBooks a = limit(OrderType.BUY, "99.00", "1");
+        OrderBooks b = limit(OrderType.BUY, "100.00", "1");
+        OrderBooks c = limit(OrderType.BUY, "100.00", "1");
+        OrderBooks d = limit(OrderType.SELL, "101.00", "1");
+        for (OrderBooks order : List.of(a, b, c, d)) {
+            book.add(order);
+        }
+
+        SpotOrderBook rebuilt = new SpotOrderBook(SPEC, new DepthBook(SPEC, 20));
+        book.restingOrders().forEach(rebuilt::add);
+
+        assertEquals(List.of(b, c, a, d), rebuilt.restingOrders());
+        assertEquals(book.bestBid(), rebuilt.bestBid());
+        assertEquals(book.bestAsk(), rebuilt.bestAsk());
+    }
+
+    private OrderBooks limit(OrderType side, String price, String quantity) {
+        return order(side, TradeType.LIMIT, new BigDecimal(price), quantity);
+    }
+
+    private OrderBooks market(OrderType side, String quantity) {
+        return order(side, TradeType.MARKET, null, quantity);
+    }
+
+    private OrderBooks order(OrderType side, TradeType type, BigDecimal price, String quantity) {
+        return OrderBooks.builder()
+                .id(nextId++)
+                .symbol(SPEC.getSymbol())
+                .orderType(side)
+                .tradeType(type)
+                .price(price)
+                .quantity(new BigDecimal(quantity))
+                .filledQuantity(BigDecimal.ZERO)
+                .status(OrderBooks.OrderStatus.ACTIVE)
+                .build();
+    }
+}
@@ -0,0 +1,223 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderType;
+import api.exchange.models.OrderBooks.TradeType;
+import api.exchange.repository.OrderBooksRepository;
+
+/**
+ * Script Lua khớp lệnh chạy trên Redis thật; chỉ chạy khi có
+ * {@code -Dspring.data.redis.host=...}. Mỗi lần chạy dùng symbol riêng và xoá
+ * key của nó khi xong.
+ */
+@EnabledIfSystemProperty(named = "spring.data.redis.host", matches = ".+")
+class SpotRedisMatcherTest {
+
+    private final String symbol = "T" + System.nanoTime() + "/USDT";
+    private final Map<Long, OrderBooks> orders = new HashMap<>();
+    private long nextId = 1;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate redis;
+    private SymbolSpec spec;
+    private SpotRedisBook redisBook;
+    private SpotRedisMatcher matcher;
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+                System.getProperty("spring.data.redis.host"),
+                Integer.getInteger("spring.data.redis.port", 6379)));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        redis = new StringRedisTemplate(connectionFactory);
+
+        SymbolSpecRegistry specs = new SymbolSpecRegistry();
+        ReflectionTestUtils.setField(specs, "symbolSpecs", symbol + ":0.01:0.001");
+        specs.load();
+        spec = specs.get(symbol);
+
+        redisBook = new SpotRedisBook();
+        ReflectionTestUtils.setField(redisBook, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(redisBook, "symbolSpecRegistry", specs);
+
+        matcher = new SpotRedisMatcher();
+        ReflectionTestUtils.setField(matcher, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(matcher, "spotRedisBook", redisBook);
+        ReflectionTestUtils.setField(matcher, "symbolSpecRegistry", specs);
+        ReflectionTestUtils.setField(matcher, "orderBooksRepository", orderRepository());
+    }
+
+    @AfterEach
+    void tearDown() {
+        redis.delete(Arrays.asList(SpotRedisBook.ordersKey(symbol), SpotRedisBook.bidsKey(symbol),
+                SpotRedisBook.asksKey(symbol)));
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void fillsBestPriceThenTimeAndRestsRemainder() {
+        OrderBooks first = rest(limit(OrderType.SELL, "100.00", "1"));
+        OrderBooks second = rest(limit(OrderType.SELL, "100.00", "1"));
+        OrderBooks cheaper = rest(limit(OrderType.SELL, "99.50", "1"));
+        rest(limit(OrderType.SELL, "101.00", "1"));
+        OrderBooks taker = limit(OrderType.BUY, "100.00", "3.5");
+
+        List<SpotOrderBook.Fill> fills = matcher.match(taker, SpotOrderBook.NO_PRICE);
+
+        assertEquals(3, fills.size());
+        assertSame(cheaper, fills.get(0).getMaker());
+        assertEquals(spec.toTicks(new BigDecimal("99.50")), fills.get(0).getPriceTicks());
+        assertSame(first, fills.get(1).getMaker());
+        assertSame(second, fills.get(2).getMaker());
+        assertEquals(0, BigDecimal.ONE.compareTo(second.getFilledQuantity()));
+        assertFalse(redis.opsForHash().hasKey(SpotRedisBook.ordersKey(symbol), SpotRedisBook.member(first.getId())));
+
+        // 0.5 còn lại nằm trên bids tại giá của taker
+        assertEquals("BUY|LIMIT|10000|3500|3000|" + taker.getUid(),
+                redis.opsForHash().get(SpotRedisBook.ordersKey(symbol), SpotRedisBook.member(taker.getId())));
+        assertEquals(Double.valueOf(-10000), redis.opsForZSet().score(SpotRedisBook.bidsKey(symbol),
+                SpotRedisBook.member(taker.getId())));
+    }
+
+    @Test
+    void partialMakerFillKeepsQueuePosition() {
+        OrderBooks maker = rest(limit(OrderType.BUY, "100.00", "2"));
+        OrderBooks behind = rest(limit(OrderType.BUY, "100.00", "1"));
+
+        matcher.match(limit(OrderType.SELL, "100.00", "0.5"), SpotOrderBook.NO_PRICE);
+        List<SpotOrderBook.Fill> fills = matcher.match(limit(OrderType.SELL, "100.00", "1"), SpotOrderBook.NO_PRICE);
+
+        assertEquals(1, fills.size());
+        assertSame(maker, fills.get(0).getMaker());
+        assertEquals(0, new BigDecimal("1.5").compareTo(maker.getFilledQuantity()));
+        assertEquals(List.of(SpotRedisBook.member(maker.getId()), SpotRedisBook.member(behind.getId())),
+                new ArrayList<>(redis.opsForZSet().range(SpotRedisBook.bidsKey(symbol), 0, -1)));
+    }
+
+    @Test
+    void marketMeetsMarketOnlyWithReferencePrice() {
+        OrderBooks restingMarket = rest(market(OrderType.SELL, "1"));
+
+        assertEquals(0, matcher.match(market(OrderType.BUY, "1"), SpotOrderBook.NO_PRICE).size());
+        // Taker MARKET không có giá tham chiếu nằm lại ở đầu bids
+        redis.delete(SpotRedisBook.bidsKey(symbol));
+
+        long reference = spec.toTicks(new BigDecimal("100.00"));
+        List<SpotOrderBook.Fill> fills = matcher.match(market(OrderType.BUY, "1"), reference);
+
+        assertEquals(1, fills.size());
+        assertSame(restingMarket, fills.get(0).getMaker());
+        assertEquals(reference, fills.get(0).getPriceTicks());
+    }
+
+    @Test
+    void cancelReturnsFilledLotsAndRemovesOrder() {
+        OrderBooks maker = rest(limit(OrderType.SELL, "100.00", "2"));
+        matcher.match(limit(OrderType.BUY, "100.00", "0.25"), SpotOrderBook.NO_PRICE);
+
+        assertEquals(Long.valueOf(250), matcher.cancel(maker));
+        assertNull(matcher.cancel(maker));
+        assertEquals(Long.valueOf(0), redis.opsForZSet().zCard(SpotRedisBook.asksKey(symbol)));
+    }
+
+    @Test
+    void amendKeepsQueuePositionAndReturnsPreviousQuantity() {
+        OrderBooks maker = rest(limit(OrderType.BUY, "100.00", "1"));
+        rest(limit(OrderType.BUY, "100.00", "1"));
+
+        assertEquals(Long.valueOf(1000), matcher.amendQuantity(symbol, maker.getId(), 3000));
+        List<SpotOrderBook.Fill> fills = matcher.match(limit(OrderType.SELL, "100.00", "3"), SpotOrderBook.NO_PRICE);
+
+        assertEquals(1, fills.size());
+        assertSame(maker, fills.get(0).getMaker());
+        assertEquals(3000, fills.get(0).getLots());
+        assertNull(matcher.amendQuantity(symbol, maker.getId(), 1000));
+    }
+
+    @Test
+    void lotsBeyondExactDoubleRangeAreRejected() {
+        OrderBooks maker = rest(limit(OrderType.SELL, "100.00", "1"));
+        // 2^53 + 1 lot: double trong Lua sẽ làm tròn nên script phải báo lỗi
+        long inexact = (1L << 53) + 1;
+
+        assertThrows(DataAccessException.class, () -> matcher.amendQuantity(symbol, maker.getId(), inexact));
+        assertThrows(DataAccessException.class, () -> matcher.match(
+                limit(OrderType.BUY, "100.00", spec.quantityOf(inexact).toPlainString()), SpotOrderBook.NO_PRICE));
+        // Book không bị sửa dở dang
+        assertEquals("SELL|LIMIT|10000|1000|0|" + maker.getUid(),
+                redis.opsForHash().get(SpotRedisBook.ordersKey(symbol), SpotRedisBook.member(maker.getId())));
+    }
+
+    private OrderBooks rest(OrderBooks order) {
+        redisBook.add(order);
+        return order;
+    }
+
+    private OrderBooks limit(OrderType side, String price, String quantity) {
+        return order(side, TradeType.LIMIT, new BigDecimal(price), quantity);
+    }
+
+    private OrderBooks market(OrderType side, String quantity) {
+        return order(side, TradeType.MARKET, null, quantity);
+    }
+
+    private OrderBooks order(OrderType side, TradeType type, BigDecimal price, String quantity) {
+        OrderBooks order = OrderBooks.builder()
+                .id(nextId++)
+                .uid("u" + nextId)
+                .symbol(symbol)
+                .orderType(side)
+                .tradeType(type)
+                .price(price)
+                .quantity(new BigDecimal(quantity))
+                .filledQuantity(BigDecimal.ZERO)
+                .status(OrderBooks.OrderStatus.ACTIVE)
+                .build();
+        orders.put(order.getId(), order);
+        return order;
+    }
+
+    private OrderBooksRepository orderRepository() {
+        return (OrderBooksRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { OrderBooksRepository.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findAllById": {
+                            List<OrderBooks> found = new ArrayList<>();
+                            for (Object id : (Iterable<?>) args[0]) {
+                                found.add(orders.get((Long) id));
+                            }
+                            return found;
+                        }
+                        case "findBySymbolAndStatusInOrderByIdAsc":
+                            return List.of();
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,187 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import api.exchange.models.OrderBooks;
+import api.exchange.models.OrderBooks.OrderType;
+import api.exchange.models.OrderBooks.TradeType;
+
+class SpotSettlementServiceTest {
+
+    private static final String SYMBOL = "BTC/USDT";
+    private static final SymbolSpec SPEC = new SymbolSpec(SYMBOL, new BigDecimal("0.01"), new BigDecimal("0.001"));
+
+    private RecordingJdbcTemplate jdbc;
+    private SpotSettlementService service;
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new RecordingJdbcTemplate();
+        service = new SpotSettlementService();
+        ReflectionTestUtils.setField(service, "jdbcTemplate", jdbc);
+    }
+
+    @Test
+    void fillsAreNettedIntoOneUpdatePerWallet() {
+        jdbc.wallet("alice", "USDT", "1000", "303");
+        jdbc.wallet("alice", "BTC", "0", "0");
+        jdbc.wallet("bob", "BTC", "5", "1");
+        jdbc.wallet("bob", "USDT", "0", "0");
+        jdbc.wallet("carol", "BTC", "5", "2");
+        jdbc.wallet("carol", "USDT", "0", "0");
+        // alice mua LIMIT 3 @ 101 (đã khoá 303), khớp với bob 1 @ 100 và carol 2 @ 100
+        OrderBooks taker = order("alice", OrderType.BUY, TradeType.LIMIT, "101.00", "3");
+        OrderBooks bob = order("bob", OrderType.SELL, TradeType.LIMIT, "100.00", "1");
+        OrderBooks carol = order("carol", OrderType.SELL, TradeType.LIMIT, "100.00", "2");
+
+        service.settle(SYMBOL, List.of(fill(bob, taker, "100.00", "1"), fill(carol, taker, "100.00", "2")));
+
+        // Khoá một lần theo thứ tự (uid, currency)
+        assertEquals(1, jdbc.lockQueries);
+        assertEquals(List.of("alice", "BTC", "alice", "USDT", "bob", "BTC", "bob", "USDT", "carol", "BTC",
+                "carol", "USDT"), jdbc.lockArgs);
+        Map<String, BigDecimal[]> updates = jdbc.updates();
+        assertEquals(6, updates.size());
+        // 300 trả từ phần khoá, 3 khoá dư hoàn về balance
+        assertBalance(updates.get("alice/USDT"), "1003", "0");
+        assertBalance(updates.get("alice/BTC"), "3", "0");
+        assertBalance(updates.get("bob/BTC"), "5", "0");
+        assertBalance(updates.get("bob/USDT"), "100", "0");
+        assertBalance(updates.get("carol/BTC"), "5", "0");
+        assertBalance(updates.get("carol/USDT"), "200", "0");
+        // Lịch sử vẫn giữ 4 dòng cho mỗi fill
+        assertEquals(8, jdbc.historyRows.size());
+    }
+
+    @Test
+    void marketBuyerPaysFromBalance() {
+        jdbc.wallet("alice", "USDT", "500", "0");
+        jdbc.wallet("alice", "BTC", "0", "0");
+        jdbc.wallet("bob", "BTC", "2", "2");
+        jdbc.wallet("bob", "USDT", "0", "0");
+        OrderBooks taker = order("alice", OrderType.BUY, TradeType.MARKET, null, "2");
+        OrderBooks maker = order("bob", OrderType.SELL, TradeType.LIMIT, "100.00", "2");
+
+        service.settle(SYMBOL, List.of(fill(maker, taker, "100.00", "2")));
+
+        Map<String, BigDecimal[]> updates = jdbc.updates();
+        assertBalance(updates.get("alice/USDT"), "300", "0");
+        assertBalance(updates.get("alice/BTC"), "2", "0");
+        assertBalance(updates.get("bob/BTC"), "2", "0");
+        assertBalance(updates.get("bob/USDT"), "200", "0");
+    }
+
+    @Test
+    void missingWalletFailsWithoutWriting() {
+        jdbc.wallet("alice", "USDT", "500", "0");
+        OrderBooks taker = order("alice", OrderType.BUY, TradeType.MARKET, null, "1");
+        OrderBooks maker = order("bob", OrderType.SELL, TradeType.LIMIT, "100.00", "1");
+
+        assertThrows(RuntimeException.class,
+                () -> service.settle(SYMBOL, List.of(fill(maker, taker, "100.00", "1"))));
+        assertTrue(jdbc.walletUpdates.isEmpty());
+        assertTrue(jdbc.historyRows.isEmpty());
+    }
+
+    private static void assertBalance(BigDecimal[] wallet, String balance, String locked) {
+        assertEquals(0, new BigDecimal(balance).compareTo(wallet[0]), "balance " + wallet[0]);
+        assertEquals(0, new BigDecimal(locked).compareTo(wallet[1]), "locked " + wallet[1]);
+    }
+
+    private static SpotOrderBook.Fill fill(OrderBooks maker, OrderBooks taker, String price, String quantity) {
+        return new SpotOrderBook.Fill(maker, taker, SPEC.toTicks(new BigDecimal(price)),
+                SPEC.toLots(new BigDecimal(quantity)), SPEC);
+    }
+
+    private OrderBooks order(String uid, OrderType side, TradeType type, String price, String quantity) {
+        return OrderBooks.builder()
+                .id(nextId++)
+                .uid(uid)
+                .symbol(SYMBOL)
+                .orderType(side)
+                .tradeType(type)
+                .price(price != null ? new BigDecimal(price) : null)
+                .quantity(new BigDecimal(quantity))
+                .filledQuantity(BigDecimal.ZERO)
+                .build();
+    }
+
+    /**
+     * JdbcTemplate giả: trả các ví đã khai báo cho câu SELECT ... FOR UPDATE và
+     * ghi lại các batch.
+     */
+    private static class RecordingJdbcTemplate extends JdbcTemplate {
+        private final TreeMap<String, Object[]> wallets = new TreeMap<>();
+        private final List<Object> lockArgs = new ArrayList<>();
+        private final List<Object[]> walletUpdates = new ArrayList<>();
+        private final List<Object[]> historyRows = new ArrayList<>();
+        private int lockQueries;
+
+        void wallet(String uid, String currency, String balance, String locked) {
+            wallets.put(uid + "/" + currency, new Object[] { (long) wallets.size() + 1, uid, currency,
+                    new BigDecimal(balance), new BigDecimal(locked) });
+        }
+
+        // "uid/currency" -> [balance, locked] sau batch UPDATE
+        Map<String, BigDecimal[]> updates() {
+            Map<String, BigDecimal[]> byKey = new HashMap<>();
+            for (Object[] update : walletUpdates) {
+                for (Map.Entry<String, Object[]> wallet : wallets.entrySet()) {
+                    if (wallet.getValue()[0].equals(update[2])) {
+                        byKey.put(wallet.getKey(), new BigDecimal[] { (BigDecimal) update[0], (BigDecimal) update[1] });
+                    }
+                }
+            }
+            return byKey;
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler rch, Object... args) {
+            lockQueries++;
+            lockArgs.addAll(Arrays.asList(args));
+            for (int i = 0; i < args.length; i += 2) {
+                Object[] row = wallets.get(args[i] + "/" + args[i + 1]);
+                if (row != null) {
+                    try {
+                        rch.processRow(resultSet(row));
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            (sql.startsWith("UPDATE") ? walletUpdates : historyRows).addAll(batchArgs);
+            return new int[batchArgs.size()];
+        }
+
+        private static ResultSet resultSet(Object[] row) {
+            List<String> columns = List.of("id", "uid", "currency", "balance", "locked_balance");
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                    new Class<?>[] { ResultSet.class },
+                    (proxy, method, methodArgs) -> row[columns.indexOf((String) methodArgs[0])]);
+        }
+    }
+}
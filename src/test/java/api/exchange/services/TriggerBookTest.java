@@ -0,0 +1,86 @@
+package api.exchange.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import api.exchange.models.FuturesOrder;
+import api.exchange.models.FuturesOrder.OrderSide;
+import api.exchange.models.FuturesOrder.OrderType;
+
+class TriggerBookTest {
+
+    private static final SymbolSpec SPEC = new SymbolSpec("BTCUSDT", new BigDecimal("0.1"),
+            new BigDecimal("0.001"));
+
+    private TriggerBook book;
+
+    @BeforeEach
+    void setUp() {
+        book = new TriggerBook(SPEC);
+    }
+
+    @Test
+    void directionFollowsOrderTypeAndSide() {
+        assertTrue(TriggerBook.triggersOnRise(order(1, OrderType.STOP_MARKET, OrderSide.BUY, "1")));
+        assertFalse(TriggerBook.triggersOnRise(order(2, OrderType.STOP_LIMIT, OrderSide.SELL, "1")));
+        assertTrue(TriggerBook.triggersOnRise(order(3, OrderType.TAKE_PROFIT_MARKET, OrderSide.SELL, "1")));
+        assertFalse(TriggerBook.triggersOnRise(order(4, OrderType.TAKE_PROFIT_LIMIT, OrderSide.BUY, "1")));
+        assertTrue(TriggerBook.isTrigger(OrderType.STOP_MARKET));
+        assertFalse(TriggerBook.isTrigger(OrderType.LIMIT));
+    }
+
+    @Test
+    void popsCrossedOrdersNearestStopFirstThenTime() {
+        book.add(order(1, OrderType.STOP_MARKET, OrderSide.BUY, "105.0"));
+        book.add(order(2, OrderType.STOP_MARKET, OrderSide.BUY, "102.0"));
+        book.add(order(3, OrderType.TAKE_PROFIT_MARKET, OrderSide.SELL, "102.0"));
+        book.add(order(4, OrderType.STOP_MARKET, OrderSide.SELL, "95.0"));
+        book.add(order(5, OrderType.TAKE_PROFIT_MARKET, OrderSide.BUY, "98.0"));
+
+        assertTrue(book.popTriggered(new BigDecimal("100")).isEmpty());
+        assertEquals(List.of(2L, 3L), ids(book.popTriggered(new BigDecimal("103"))));
+        assertEquals(List.of(5L, 4L), ids(book.popTriggered(new BigDecimal("94.9"))));
+        assertEquals(1, book.size());
+    }
+
+    @Test
+    void removedOrderNeverTriggers() {
+        FuturesOrder stop = order(1, OrderType.STOP_MARKET, OrderSide.SELL, "95.0");
+        book.add(stop);
+
+        assertSame(stop, book.remove(1L));
+        assertNull(book.remove(1L));
+        assertTrue(book.popTriggered(new BigDecimal("90")).isEmpty());
+        assertTrue(book.isEmpty());
+    }
+
+    private static List<Long> ids(List<FuturesOrder> orders) {
+        List<Long> ids = new ArrayList<>();
+        for (FuturesOrder order : orders) {
+            ids.add(order.getId());
+        }
+        return ids;
+    }
+
+    private static FuturesOrder order(long id, OrderType type, OrderSide side, String stopPrice) {
+        FuturesOrder order = new FuturesOrder();
+        order.setId(id);
+        order.setUid("user-" + id);
+        order.setSymbol(SPEC.getSymbol());
+        order.setType(type);
+        order.setSide(side);
+        order.setStopPrice(new BigDecimal(stopPrice));
+        order.setQuantity(BigDecimal.ONE);
+        return order;
+    }
+}
@@ -0,0 +1,340 @@
+package api.exchange.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.StompSubProtocolHandler;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import api.exchange.dtos.Response.CoinSpotResponse;
+import api.exchange.proto.MarketDataProto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Bài tải cho {@link MarketDataFanout}: dựng N session giả (ghi frame vào bộ
+ * đếm, không có I/O), trộn subscription theo destination cụ thể và theo pattern,
+ * rồi publish liên tục payload JSON và protobuf như luồng ticker/depth thật.
+ * Cùng tải được chạy qua đường {@code SimpMessagingTemplate} + simple broker để
+ * so sánh. In số publish/s, ns/publish và frame/s.
+ *
+ * Chạy: {@code mvn test -Dtest=MarketDataFanoutBenchmark -Dbenchmark=true}
+ * (tuỳ chọn {@code -Dbenchmark.sessions=5000 -Dbenchmark.publishes=20000}).
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class MarketDataFanoutBenchmark {
+
+    private static final String[] SYMBOLS = { "BTCUSDT", "ETHUSDT", "SOLUSDT", "BNBUSDT", "XRPUSDT" };
+    private static final String DEPTH_PREFIX = "/topic/futures/orderbook/";
+    private static final String TICKER_TOPIC = "/topic/spot-prices";
+    private static final String TICKER_BINARY_TOPIC = "/topic/spot-prices-binary";
+
+    @Test
+    void fanoutThroughput() throws Exception {
+        MarketDataFanout fanout = newFanout();
+        measure("MarketDataFanout", fanout.decorate(new TextWebSocketHandler()),
+                (session, subscriptionId, destination) -> subscribe(fanout, session.getId(), subscriptionId,
+                        destination),
+                fanout::publish);
+        assertEquals(sessionCount(), fanout.getSessionCount());
+    }
+
+    /**
+     * Đường cũ để so sánh: {@code convertAndSend} qua simple broker, STOMP handler
+     * mã hoá frame riêng cho từng session.
+     */
+    @Test
+    void brokerThroughput() throws Exception {
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        SubProtocolWebSocketHandler handler = new SubProtocolWebSocketHandler(clientInbound, clientOutbound);
+        handler.addProtocolHandler(new StompSubProtocolHandler());
+        handler.start();
+        SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(clientInbound, clientOutbound,
+                brokerChannel, List.of("/topic"));
+        broker.start();
+        SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+        template.setMessageConverter(converter());
+
+        try {
+            measure("SimpMessagingTemplate", handler, (session, subscriptionId, destination) -> {
+                if ("sub-0".equals(subscriptionId)) {
+                    handler.handleMessage(session, stomp("CONNECT\naccept-version:1.2\nhost:localhost\n"));
+                }
+                handler.handleMessage(session,
+                        stomp("SUBSCRIBE\nid:" + subscriptionId + "\ndestination:" + destination + "\n"));
+            }, template::convertAndSend);
+        } finally {
+            broker.stop();
+            handler.stop();
+        }
+    }
+
+    private static void measure(String name, WebSocketHandler handler, Subscriber subscriber,
+            BiConsumer<String, Object> publisher) throws Exception {
+        int sessionCount = sessionCount();
+        int publishes = Integer.getInteger("benchmark.publishes", 10000);
+
+        List<CountingSession> sessions = new ArrayList<>(sessionCount);
+        List<CountingSession> patternSessions = new ArrayList<>();
+        for (int i = 0; i < sessionCount; i++) {
+            CountingSession session = new CountingSession("s" + i);
+            handler.afterConnectionEstablished(session);
+            sessions.add(session);
+            // 1/2 theo symbol cụ thể, 1/4 theo pattern mọi symbol, 1/4 chỉ nhận ticker
+            switch (i % 4) {
+                case 0, 1 -> subscriber.subscribe(session, "sub-0", DEPTH_PREFIX + SYMBOLS[i % SYMBOLS.length]);
+                case 2 -> {
+                    subscriber.subscribe(session, "sub-0", DEPTH_PREFIX + "*");
+                    patternSessions.add(session);
+                }
+                default -> {
+                    subscriber.subscribe(session, "sub-0", TICKER_TOPIC);
+                    subscriber.subscribe(session, "sub-1", TICKER_BINARY_TOPIC);
+                }
+            }
+        }
+
+        List<CoinSpotResponse> tickers = tickers();
+        Map<String, Object> depth = Map.of(
+                "bids", List.of(List.of("64000.10", "0.512"), List.of("63999.90", "1.204")),
+                "asks", List.of(List.of("64000.20", "0.031")));
+
+        // Warm-up cho JIT trước khi đo
+        run(publisher, tickers, depth, Math.max(1000, publishes / 10));
+        long framesBefore = totalFrames(sessions);
+        long bytesBefore = totalBytes(sessions);
+
+        long startedAt = System.nanoTime();
+        run(publisher, tickers, depth, publishes);
+        long elapsed = System.nanoTime() - startedAt;
+        long frames = totalFrames(sessions) - framesBefore;
+        long bytes = totalBytes(sessions) - bytesBefore;
+
+        double seconds = elapsed / 1_000_000_000.0;
+        System.out.printf("%s: %d sessions, %d publishes in %.1f ms%n", name, sessionCount, publishes,
+                elapsed / 1_000_000.0);
+        System.out.printf("  %.0f publishes/s, %.0f ns/publish, %.0f frames/s, %.1f bytes/frame%n",
+                publishes / seconds, (double) elapsed / publishes, frames / seconds,
+                (double) bytes / Math.max(1, frames));
+
+        assertTrue(frames > 0, "no frames delivered");
+        for (CountingSession session : patternSessions) {
+            assertTrue(session.frames.get() > 0, "pattern subscriber " + session.getId() + " received nothing");
+        }
+    }
+
+    private static int sessionCount() {
+        return Integer.getInteger("benchmark.sessions", 2000);
+    }
+
+    // Mỗi vòng: một depth diff cho từng symbol, một ticker JSON và một ticker protobuf
+    private static void run(BiConsumer<String, Object> publisher, List<CoinSpotResponse> tickers,
+            Map<String, Object> depth, int publishes) {
+        int symbol = 0;
+        for (int i = 0; i < publishes; i++) {
+            switch (i % 3) {
+                case 0 -> publisher.accept(DEPTH_PREFIX + SYMBOLS[symbol++ % SYMBOLS.length], depth);
+                case 1 -> publisher.accept(TICKER_TOPIC, tickers);
+                default -> publisher.accept(TICKER_BINARY_TOPIC, MarketDataProto.encoder().tickerBatch(tickers));
+            }
+        }
+    }
+
+    // Cùng bộ converter mặc định mà broker STOMP cấu hình cho SimpMessagingTemplate
+    private static CompositeMessageConverter converter() {
+        return new CompositeMessageConverter(List.of(new StringMessageConverter(), new ByteArrayMessageConverter(),
+                new MappingJackson2MessageConverter()));
+    }
+
+    private static TextMessage stomp(String headers) {
+        return new TextMessage(headers + "\n\u0000");
+    }
+
+    private static MarketDataFanout newFanout() {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> true);
+        template.setMessageConverter(converter());
+
+        MarketDataFanout fanout = new MarketDataFanout();
+        ReflectionTestUtils.setField(fanout, "messagingTemplate", template);
+        ReflectionTestUtils.setField(fanout, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(fanout, "sendTimeLimit", 10000);
+        ReflectionTestUtils.setField(fanout, "bufferSizeLimit", 512 * 1024);
+        fanout.init();
+        return fanout;
+    }
+
+    private static void subscribe(MarketDataFanout fanout, String sessionId, String subscriptionId,
+            String destination) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+        fanout.onSubscribe(new SessionSubscribeEvent(fanout, message));
+    }
+
+    private static List<CoinSpotResponse> tickers() {
+        List<CoinSpotResponse> tickers = new ArrayList<>();
+        for (String symbol : SYMBOLS) {
+            CoinSpotResponse ticker = new CoinSpotResponse();
+            ticker.setSymbol(symbol);
+            ticker.setPrice(new BigDecimal("64000.12"));
+            ticker.setChangePercent(new BigDecimal("-1.25"));
+            ticker.setHigh24h(new BigDecimal("65010.00"));
+            ticker.setLow24h(new BigDecimal("63200.50"));
+            ticker.setVolume(new BigDecimal("18234.551"));
+            ticker.setMarketCap(new BigDecimal("1260000000000"));
+            ticker.setTimestamp(System.currentTimeMillis());
+            tickers.add(ticker);
+        }
+        return tickers;
+    }
+
+    private static long totalFrames(List<CountingSession> sessions) {
+        return sessions.stream().mapToLong(s -> s.frames.get()).sum();
+    }
+
+    private static long totalBytes(List<CountingSession> sessions) {
+        return sessions.stream().mapToLong(s -> s.bytes.get()).sum();
+    }
+
+    @FunctionalInterface
+    private interface Subscriber {
+        void subscribe(CountingSession session, String subscriptionId, String destination) throws Exception;
+    }
+
+    /**
+     * Session WebSocket giả: chỉ đếm frame và byte được ghi.
+     */
+    private static final class CountingSession implements WebSocketSession {
+        private final String id;
+        private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private volatile boolean open = true;
+
+        CountingSession(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            frames.incrementAndGet();
+            bytes.addAndGet(message.getPayloadLength());
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public URI getUri() {
+            return URI.create("ws://localhost/ws");
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return "v12.stomp";
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return 64 * 1024;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return 64 * 1024;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+            open = false;
+        }
+    }
+}